@@ -0,0 +1,100 @@
+package org.blackcat.chatty.cache;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A size-bounded, least-recently-used cache for entities.
+ *
+ * Not thread-safe: instances are meant to be owned by a single verticle instance.
+ */
+final public class EntityCache<K, V> {
+
+    private final int capacity;
+    private final LinkedHashMap<K, V> entries;
+
+    /* counters */
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param capacity - the maximum number of entries, 0 disables caching altogether
+     */
+    public EntityCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must be non-negative");
+        }
+
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                boolean evict = size() > EntityCache.this.capacity;
+                if (evict) {
+                    ++ evictions;
+                }
+                return evict;
+            }
+        };
+    }
+
+    /**
+     * @param key
+     * @return the cached entity, or null on a miss
+     */
+    public V get(K key) {
+        V value = entries.get(key);
+        if (Objects.isNull(value)) {
+            ++ misses;
+        } else {
+            ++ hits;
+        }
+        return value;
+    }
+
+    /**
+     * Caches an entity. Null keys and values are ignored.
+     *
+     * @param key
+     * @param value
+     */
+    public void put(K key, V value) {
+        if (capacity == 0 || Objects.isNull(key) || Objects.isNull(value)) {
+            return;
+        }
+        entries.put(key, value);
+    }
+
+    public void remove(K key) {
+        entries.remove(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public JsonObject stats() {
+        return new JsonObject()
+                   .put("capacity", capacity)
+                   .put("size", size())
+                   .put("hits", hits)
+                   .put("misses", misses)
+                   .put("evictions", evictions);
+    }
+}
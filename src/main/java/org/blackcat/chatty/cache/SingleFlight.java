@@ -0,0 +1,71 @@
+package org.blackcat.chatty.cache;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces identical concurrent calls: while a call for a key is in flight, further
+ * requests for the same key wait for its result instead of issuing calls of their own.
+ * Results are never kept once delivered, that is what caches are for.
+ *
+ * Not thread-safe: instances are meant to be owned by a single verticle instance.
+ */
+final public class SingleFlight<K, V> {
+
+    /* requesters waiting for the call in flight, by key */
+    private final Map<K, List<Handler<AsyncResult<V>>>> inFlight = new HashMap<>();
+
+    /* counters */
+    private long calls;
+    private long coalesced;
+
+    /**
+     * Issues the call for a key, unless one is already in flight.
+     *
+     * @param key
+     * @param call - issues the actual call, given the handler to complete
+     * @param handler - called back with the result of the call, shared by all requesters
+     */
+    public void execute(K key, Consumer<Handler<AsyncResult<V>>> call, Handler<AsyncResult<V>> handler) {
+        List<Handler<AsyncResult<V>>> waiters = inFlight.get(key);
+        if (waiters != null) {
+            waiters.add(handler);
+            ++ coalesced;
+            return;
+        }
+
+        waiters = new ArrayList<>();
+        waiters.add(handler);
+        inFlight.put(key, waiters);
+        ++ calls;
+
+        call.accept(asyncResult -> inFlight.remove(key)
+                                       .forEach(waiter -> waiter.handle(asyncResult)));
+    }
+
+    public int size() {
+        return inFlight.size();
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    public JsonObject stats() {
+        return new JsonObject()
+                   .put("inFlight", size())
+                   .put("calls", calls)
+                   .put("coalesced", coalesced);
+    }
+}
@@ -0,0 +1,51 @@
+package org.blackcat.chatty.codecs;
+
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.EventBus;
+import org.blackcat.chatty.mappers.MessageMapper;
+import org.blackcat.chatty.mappers.RoomMapper;
+import org.blackcat.chatty.mappers.UserMapper;
+import org.blackcat.chatty.queries.MessagePage;
+import org.blackcat.chatty.queries.RoomStats;
+import org.blackcat.chatty.queries.SearchPage;
+
+import java.util.List;
+
+/**
+ * Event bus codecs for the objects exchanged between verticles. Mappers and pages are sent
+ * as they are, lists need their codec to be named in the delivery options.
+ */
+final public class Codecs {
+
+    final public static String USER = "chatty.user";
+    final public static String ROOM = "chatty.room";
+    final public static String MESSAGE = "chatty.message";
+    final public static String MESSAGE_PAGE = "chatty.message-page";
+    final public static String SEARCH_PAGE = "chatty.search-page";
+    final public static String USER_LIST = "chatty.user-list";
+    final public static String ROOM_LIST = "chatty.room-list";
+    final public static String ROOM_STATS_LIST = "chatty.room-stats-list";
+
+    final public static DeliveryOptions USER_LIST_DELIVERY = new DeliveryOptions().setCodecName(USER_LIST);
+    final public static DeliveryOptions ROOM_LIST_DELIVERY = new DeliveryOptions().setCodecName(ROOM_LIST);
+    final public static DeliveryOptions ROOM_STATS_LIST_DELIVERY = new DeliveryOptions().setCodecName(ROOM_STATS_LIST);
+
+    private Codecs()
+    {}
+
+    /**
+     * Registers all codecs, once per vertx instance.
+     *
+     * @param eventBus
+     */
+    public static void register(EventBus eventBus) {
+        eventBus.registerDefaultCodec(UserMapper.class, new LocalCodec<>(USER));
+        eventBus.registerDefaultCodec(RoomMapper.class, new LocalCodec<>(ROOM));
+        eventBus.registerDefaultCodec(MessageMapper.class, new LocalCodec<>(MESSAGE));
+        eventBus.registerDefaultCodec(MessagePage.class, new LocalCodec<>(MESSAGE_PAGE));
+        eventBus.registerDefaultCodec(SearchPage.class, new LocalCodec<>(SEARCH_PAGE));
+        eventBus.registerCodec(new LocalCodec<List<UserMapper>>(USER_LIST));
+        eventBus.registerCodec(new LocalCodec<List<RoomMapper>>(ROOM_LIST));
+        eventBus.registerCodec(new LocalCodec<List<RoomStats>>(ROOM_STATS_LIST));
+    }
+}
@@ -0,0 +1,46 @@
+package org.blackcat.chatty.codecs;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+
+/**
+ * Passes objects as they are between verticles of the same process, with no serialization
+ * at all. Receivers get the very object that was sent, and must not modify it. Such objects
+ * never cross the wire: the event bus is not clustered, and addresses using these codecs are
+ * not bridged to clients.
+ *
+ * @param <T> the type of the objects
+ */
+final public class LocalCodec<T> implements MessageCodec<T, T> {
+
+    private final String name;
+
+    public LocalCodec(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void encodeToWire(Buffer buffer, T object) {
+        throw new UnsupportedOperationException(name + " is a local codec");
+    }
+
+    @Override
+    public T decodeFromWire(int pos, Buffer buffer) {
+        throw new UnsupportedOperationException(name + " is a local codec");
+    }
+
+    @Override
+    public T transform(T object) {
+        return object;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public byte systemCodecID() {
+        return -1; /* user codec */
+    }
+}
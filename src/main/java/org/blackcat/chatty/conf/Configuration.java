@@ -5,6 +5,8 @@ import org.blackcat.chatty.conf.exceptions.ConfigurationException;
 import org.blackcat.chatty.util.Utils;
 
 import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -25,12 +27,42 @@ final public class Configuration {
     private boolean useSSL;
     private String keystoreFilename;
     private String keystorePassword;
+    private boolean optimisticFanout;
+    private int sanitizePoolSize;
+    private int sanitizeQueueLimit;
+    private int maxMessageLength;
+    private boolean compression;
+    private int compressionLevel;
+    private int compressionThreshold;
 
     /* database section */
     private String dbType;
     private String dbHost;
     private int dbPort;
     private String dbName;
+    private String dbQueryPlanCheck;
+    private boolean dbDenormalizedMessages;
+    private int dbCacheSize;
+    private boolean dbGroupCommit;
+    private int dbGroupCommitWindow;
+    private int dbGroupCommitMaxBatch;
+    private int dbLogSegmentSize;
+    private int dbRetentionHotDays;
+    private Map<String, Integer> dbRetentionRooms;
+    private int dbRetentionArchiveInterval;
+
+    /* deployment section */
+    private int dataStoreInstances;
+    private boolean dataStoreWorker;
+    private int presenceInstances;
+    private int webServerInstances;
+
+    /* kafka section */
+    private boolean kafkaEnabled;
+    private String kafkaBootstrapServers;
+    private String kafkaTopic;
+    private int kafkaPartitions;
+    private int kafkaReplicationFactor;
 
     /* redis section */
     private String redisHost;
@@ -74,6 +106,34 @@ final public class Configuration {
         return keystorePassword;
     }
 
+    public boolean isOptimisticFanoutEnabled() {
+        return optimisticFanout;
+    }
+
+    public int getSanitizePoolSize() {
+        return sanitizePoolSize;
+    }
+
+    public int getSanitizeQueueLimit() {
+        return sanitizeQueueLimit;
+    }
+
+    public int getMaxMessageLength() {
+        return maxMessageLength;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compression;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
     public int getStartTimeout() {
         return startTimeout;
     }
@@ -90,6 +150,38 @@ final public class Configuration {
             this.keystorePassword = serverSection.getString(SERVER_KEYSTORE_PASSWORD, DEFAULT_SERVER_KEYSTORE_PASSWORD);
         }
 
+        this.optimisticFanout = serverSection.getBoolean(SERVER_OPTIMISTIC_FANOUT, DEFAULT_SERVER_OPTIMISTIC_FANOUT);
+
+        this.sanitizePoolSize = serverSection.getInteger(SERVER_SANITIZE_POOL_SIZE, DEFAULT_SERVER_SANITIZE_POOL_SIZE);
+        if (sanitizePoolSize <= 0) {
+            throw new ConfigurationException("Sanitize pool size must be a positive number");
+        }
+
+        this.sanitizeQueueLimit = serverSection.getInteger(SERVER_SANITIZE_QUEUE_LIMIT, DEFAULT_SERVER_SANITIZE_QUEUE_LIMIT);
+        if (sanitizeQueueLimit <= 0) {
+            throw new ConfigurationException("Sanitize queue limit must be a positive number");
+        }
+
+        this.maxMessageLength = serverSection.getInteger(SERVER_MAX_MESSAGE_LENGTH, DEFAULT_SERVER_MAX_MESSAGE_LENGTH);
+        if (maxMessageLength <= 0) {
+            throw new ConfigurationException("Maximum message length must be a positive number of characters");
+        }
+
+        this.compression = serverSection.getBoolean(SERVER_COMPRESSION, DEFAULT_SERVER_COMPRESSION);
+        if (compression) {
+            this.compressionLevel = serverSection.getInteger(SERVER_COMPRESSION_LEVEL, DEFAULT_SERVER_COMPRESSION_LEVEL);
+            if (compressionLevel < 1 || compressionLevel > 9) {
+                throw new ConfigurationException(MessageFormat.format(
+                        "Compression level must be between 1 and 9: {0}", compressionLevel));
+            }
+
+            this.compressionThreshold = serverSection.getInteger(SERVER_COMPRESSION_THRESHOLD,
+                    DEFAULT_SERVER_COMPRESSION_THRESHOLD);
+            if (compressionThreshold < 0) {
+                throw new ConfigurationException("Compression threshold must be a non-negative number of bytes");
+            }
+        }
+
         this.domain = serverSection.getString(SERVER_DOMAIN);
         if (domain == null) {
             domain = String.format("%s://%s:%d", useSSL ? "https" : "http", httpHost, httpPort);
@@ -136,6 +228,109 @@ final public class Configuration {
         return dbName;
     }
 
+    public String getDatabaseQueryPlanCheck() {
+        return dbQueryPlanCheck;
+    }
+
+    public boolean isDatabaseDenormalizedMessagesEnabled() {
+        return dbDenormalizedMessages;
+    }
+
+    public int getDatabaseCacheSize() {
+        return dbCacheSize;
+    }
+
+    public boolean isDatabaseGroupCommitEnabled() {
+        return dbGroupCommit;
+    }
+
+    public int getDatabaseGroupCommitWindow() {
+        return dbGroupCommitWindow;
+    }
+
+    public int getDatabaseGroupCommitMaxBatch() {
+        return dbGroupCommitMaxBatch;
+    }
+
+    public int getDatabaseLogSegmentSize() {
+        return dbLogSegmentSize;
+    }
+
+    /**
+     * @param roomName
+     * @return how many days messages of the room stay in the hot tier, 0 if they never leave it
+     */
+    public int getDatabaseRetentionHotDays(String roomName) {
+        return dbRetentionRooms.getOrDefault(roomName, dbRetentionHotDays);
+    }
+
+    public boolean isDatabaseArchivingEnabled() {
+        return dbRetentionHotDays > 0 || dbRetentionRooms.values().stream().anyMatch(days -> days > 0);
+    }
+
+    public int getDatabaseRetentionArchiveInterval() {
+        return dbRetentionArchiveInterval;
+    }
+
+    public int getDataStoreInstances() {
+        return dataStoreInstances;
+    }
+
+    public boolean isDataStoreWorker() {
+        return dataStoreWorker;
+    }
+
+    public int getPresenceInstances() {
+        return presenceInstances;
+    }
+
+    public int getWebServerInstances() {
+        return webServerInstances;
+    }
+
+    void parseDeploymentSection(JsonObject jsonObject) {
+        JsonObject deploymentSection = jsonObject.getJsonObject(DEPLOYMENT_SECTION, new JsonObject());
+
+        JsonObject dataStoreSection = deploymentSection.getJsonObject(DEPLOYMENT_DATA_STORE, new JsonObject());
+        this.dataStoreInstances = parseInstances(dataStoreSection);
+        this.dataStoreWorker = dataStoreSection.getBoolean(DEPLOYMENT_WORKER, DEFAULT_DEPLOYMENT_WORKER);
+
+        JsonObject presenceSection = deploymentSection.getJsonObject(DEPLOYMENT_PRESENCE, new JsonObject());
+        this.presenceInstances = parseInstances(presenceSection);
+
+        JsonObject webServerSection = deploymentSection.getJsonObject(DEPLOYMENT_WEB_SERVER, new JsonObject());
+        this.webServerInstances = parseInstances(webServerSection);
+    }
+
+    private int parseInstances(JsonObject verticleSection) {
+        int instances = verticleSection.getInteger(DEPLOYMENT_INSTANCES, DEFAULT_DEPLOYMENT_INSTANCES);
+        if (instances <= 0) {
+            throw new ConfigurationException(MessageFormat.format(
+                    "Invalid number of instances: {0}", instances));
+        }
+        return instances;
+    }
+
+    public boolean isKafkaEnabled() {
+        return kafkaEnabled;
+    }
+
+    public String getKafkaBootstrapServers() {
+        return kafkaBootstrapServers;
+    }
+
+    public String getKafkaTopic() {
+        return kafkaTopic;
+    }
+
+    public int getKafkaPartitions() {
+        return kafkaPartitions;
+    }
+
+    public int getKafkaReplicationFactor() {
+        return kafkaReplicationFactor;
+    }
+
     public String getRedisHost() {
         return redisHost;
     }
@@ -155,9 +350,8 @@ final public class Configuration {
     void parseDatabaseSection(JsonObject jsonObject) {
         JsonObject databaseSection = jsonObject.getJsonObject(DATABASE_SECTION, new JsonObject());
 
-        // TODO: 1/25/18 Support more databases
         this.dbType = databaseSection.getString(DATABASE_TYPE, DATABASE_TYPE_MONGODB);
-        if (! dbType.equals(DATABASE_TYPE_MONGODB)) {
+        if (! dbType.equals(DATABASE_TYPE_MONGODB) && ! dbType.equals(DATABASE_TYPE_LOG)) {
             throw new ConfigurationException( MessageFormat.format(
                     "Unsupported database: {0}", dbType));
         }
@@ -166,6 +360,93 @@ final public class Configuration {
         this.dbHost = databaseSection.getString(DATABASE_HOST, DEFAULT_DATABASE_HOST);
         this.dbPort = databaseSection.getInteger(DATABASE_PORT, DEFAULT_DATABASE_PORT);
         this.dbName = databaseSection.getString(DATABASE_NAME, DEFAULT_DATABASE_NAME);
+
+        this.dbQueryPlanCheck = databaseSection.getString(DATABASE_QUERY_PLAN_CHECK, DEFAULT_DATABASE_QUERY_PLAN_CHECK);
+        if (! dbQueryPlanCheck.equals(DATABASE_QUERY_PLAN_CHECK_FAIL) &&
+                ! dbQueryPlanCheck.equals(DATABASE_QUERY_PLAN_CHECK_WARN) &&
+                ! dbQueryPlanCheck.equals(DATABASE_QUERY_PLAN_CHECK_OFF)) {
+            throw new ConfigurationException(MessageFormat.format(
+                    "Unsupported query plan check: {0}", dbQueryPlanCheck));
+        }
+
+        this.dbDenormalizedMessages = databaseSection.getBoolean(DATABASE_DENORMALIZED_MESSAGES,
+                DEFAULT_DATABASE_DENORMALIZED_MESSAGES);
+
+        this.dbCacheSize = databaseSection.getInteger(DATABASE_CACHE_SIZE, DEFAULT_DATABASE_CACHE_SIZE);
+        if (dbCacheSize < 0) {
+            throw new ConfigurationException("Cache size must be a non-negative number");
+        }
+
+        this.dbGroupCommit = databaseSection.getBoolean(DATABASE_GROUP_COMMIT, DEFAULT_DATABASE_GROUP_COMMIT);
+        if (dbGroupCommit) {
+            this.dbGroupCommitWindow = databaseSection.getInteger(DATABASE_GROUP_COMMIT_WINDOW,
+                    DEFAULT_DATABASE_GROUP_COMMIT_WINDOW);
+            if (dbGroupCommitWindow <= 0) {
+                throw new ConfigurationException("Group commit window must be a positive number of milliseconds");
+            }
+
+            this.dbGroupCommitMaxBatch = databaseSection.getInteger(DATABASE_GROUP_COMMIT_MAX_BATCH,
+                    DEFAULT_DATABASE_GROUP_COMMIT_MAX_BATCH);
+            if (dbGroupCommitMaxBatch <= 0) {
+                throw new ConfigurationException("Group commit batch size must be a positive number");
+            }
+        }
+
+        /* log store only */
+        this.dbLogSegmentSize = databaseSection.getInteger(DATABASE_LOG_SEGMENT_SIZE, DEFAULT_DATABASE_LOG_SEGMENT_SIZE);
+        if (dbLogSegmentSize <= 0) {
+            throw new ConfigurationException("Log segment size must be a positive number of bytes");
+        }
+
+        JsonObject retentionSection = databaseSection.getJsonObject(DATABASE_RETENTION, new JsonObject());
+        this.dbRetentionHotDays = retentionSection.getInteger(DATABASE_RETENTION_HOT_DAYS,
+                DEFAULT_DATABASE_RETENTION_HOT_DAYS);
+        if (dbRetentionHotDays < 0) {
+            throw new ConfigurationException("Hot retention must be a non-negative number of days");
+        }
+
+        this.dbRetentionRooms = new HashMap<>();
+        JsonObject retentionRooms = retentionSection.getJsonObject(DATABASE_RETENTION_ROOMS, new JsonObject());
+        for (String roomName : retentionRooms.fieldNames()) {
+            int days = retentionRooms.getInteger(roomName);
+            if (days < 0) {
+                throw new ConfigurationException(MessageFormat.format(
+                        "Hot retention of room {0} must be a non-negative number of days", roomName));
+            }
+            dbRetentionRooms.put(roomName, days);
+        }
+
+        this.dbRetentionArchiveInterval = retentionSection.getInteger(DATABASE_RETENTION_ARCHIVE_INTERVAL,
+                DEFAULT_DATABASE_RETENTION_ARCHIVE_INTERVAL);
+        if (dbRetentionArchiveInterval <= 0) {
+            throw new ConfigurationException("Archive interval must be a positive number of seconds");
+        }
+    }
+
+    void parseKafkaSection(JsonObject jsonObject) {
+        JsonObject kafkaSection = jsonObject.getJsonObject(KAFKA_SECTION);
+
+        /* messages go through kafka only if a broker is configured */
+        this.kafkaEnabled = kafkaSection != null;
+        if (! kafkaEnabled) {
+            return;
+        }
+
+        this.kafkaBootstrapServers = kafkaSection.getString(KAFKA_BOOTSTRAP_SERVERS);
+        if (kafkaBootstrapServers == null) {
+            throw new ConfigurationException("Kafka bootstrap servers must be specified");
+        }
+
+        this.kafkaTopic = kafkaSection.getString(KAFKA_TOPIC, DEFAULT_KAFKA_TOPIC);
+        this.kafkaPartitions = kafkaSection.getInteger(KAFKA_PARTITIONS, DEFAULT_KAFKA_PARTITIONS);
+        if (kafkaPartitions <= 0) {
+            throw new ConfigurationException("Kafka partitions must be a positive number");
+        }
+
+        this.kafkaReplicationFactor = kafkaSection.getInteger(KAFKA_REPLICATION_FACTOR, DEFAULT_KAFKA_REPLICATION_FACTOR);
+        if (kafkaReplicationFactor <= 0) {
+            throw new ConfigurationException("Kafka replication factor must be a positive number");
+        }
     }
 
     void parseRedisSection(JsonObject jsonObject) {
@@ -284,6 +565,11 @@ final public class Configuration {
     public Configuration(JsonObject jsonObject) {
         parseServerSection(jsonObject);
         parseDatabaseSection(jsonObject);
+        parseDeploymentSection(jsonObject);
+        parseKafkaSection(jsonObject);
+        if (optimisticFanout && kafkaEnabled) {
+            throw new ConfigurationException("Optimistic fanout is not supported with kafka, clients are fed from the message log");
+        }
         parseRedisSection(jsonObject);
         parseOAuth2Section(jsonObject);
         parseStorageSection(jsonObject);
@@ -298,11 +584,24 @@ final public class Configuration {
         sb.append(String.format(",startTimeout=%d", startTimeout));
         sb.append(String.format(",httpHost='%s'", httpHost));
         sb.append(String.format(",httpPort=%s", httpPort));
+        sb.append(String.format(",optimisticFanout=%s", optimisticFanout));
+        sb.append(String.format(",sanitizePoolSize=%d", sanitizePoolSize));
+        sb.append(String.format(",sanitizeQueueLimit=%d", sanitizeQueueLimit));
+        sb.append(String.format(",maxMessageLength=%d", maxMessageLength));
+        if (compression) {
+            sb.append(String.format(",compressionLevel=%d", compressionLevel));
+            sb.append(String.format(",compressionThreshold=%d", compressionThreshold));
+        }
         if (useSSL) {
             sb.append(String.format(",keystoreFilename='%s'", keystoreFilename));
             sb.append(String.format(",keystorePassword=<hidden>"));
         }
 
+        sb.append(String.format(",dataStoreInstances=%d", dataStoreInstances));
+        sb.append(String.format(",dataStoreWorker=%s", dataStoreWorker));
+        sb.append(String.format(",presenceInstances=%d", presenceInstances));
+        sb.append(String.format(",webServerInstances=%d", webServerInstances));
+
         sb.append(String.format(",redisHost='%s'", redisHost));
         sb.append(String.format(",redisPort=%d", redisPort));
         sb.append(String.format(",redisDatabaseIndex='%s'", redisDatabaseIndex));
@@ -311,6 +610,28 @@ final public class Configuration {
         sb.append(String.format(",dbHost='%s'", dbHost));
         sb.append(String.format(",dbPort=%d", dbPort));
         sb.append(String.format(",dbName='%s'", dbName));
+        sb.append(String.format(",dbQueryPlanCheck='%s'", dbQueryPlanCheck));
+        sb.append(String.format(",dbDenormalizedMessages=%s", dbDenormalizedMessages));
+        sb.append(String.format(",dbCacheSize=%d", dbCacheSize));
+        if (dbGroupCommit) {
+            sb.append(String.format(",dbGroupCommitWindow=%d", dbGroupCommitWindow));
+            sb.append(String.format(",dbGroupCommitMaxBatch=%d", dbGroupCommitMaxBatch));
+        }
+        if (dbType.equals(DATABASE_TYPE_LOG)) {
+            sb.append(String.format(",dbLogSegmentSize=%d", dbLogSegmentSize));
+        }
+        if (isDatabaseArchivingEnabled()) {
+            sb.append(String.format(",dbRetentionHotDays=%d", dbRetentionHotDays));
+            sb.append(String.format(",dbRetentionRooms=%s", dbRetentionRooms));
+            sb.append(String.format(",dbRetentionArchiveInterval=%d", dbRetentionArchiveInterval));
+        }
+
+        if (kafkaEnabled) {
+            sb.append(String.format(",kafkaBootstrapServers='%s'", kafkaBootstrapServers));
+            sb.append(String.format(",kafkaTopic='%s'", kafkaTopic));
+            sb.append(String.format(",kafkaPartitions=%d", kafkaPartitions));
+            sb.append(String.format(",kafkaReplicationFactor=%d", kafkaReplicationFactor));
+        }
 
         sb.append(String.format(",oauth2Provider='%s'", oauth2Provider));
         sb.append(String.format(",oauth2ClientID='%s'", oauth2ClientID));
@@ -23,6 +23,30 @@ final public class Keys {
     public static final String SERVER_START_TIMEOUT = "timeout";
     public static final int DEFAULT_SERVER_START_TIMEOUT = 30;
 
+    /* fan chat lines out before they are recorded, not with kafka */
+    public static final String SERVER_OPTIMISTIC_FANOUT = "optimisticFanout";
+    public static final boolean DEFAULT_SERVER_OPTIMISTIC_FANOUT = false;
+
+    /* chat lines are sanitized on a worker pool shared by all web server instances */
+    public static final String SERVER_SANITIZE_POOL_SIZE = "sanitizePoolSize";
+    public static final int DEFAULT_SERVER_SANITIZE_POOL_SIZE = 4;
+
+    public static final String SERVER_SANITIZE_QUEUE_LIMIT = "sanitizeQueueLimit";
+    public static final int DEFAULT_SERVER_SANITIZE_QUEUE_LIMIT = 1000; /* lines, per instance */
+
+    public static final String SERVER_MAX_MESSAGE_LENGTH = "maxMessageLength";
+    public static final int DEFAULT_SERVER_MAX_MESSAGE_LENGTH = 4096; /* chars */
+
+    /* compression of realtime traffic, negotiated with clients */
+    public static final String SERVER_COMPRESSION = "compression";
+    public static final boolean DEFAULT_SERVER_COMPRESSION = false;
+
+    public static final String SERVER_COMPRESSION_LEVEL = "compressionLevel";
+    public static final int DEFAULT_SERVER_COMPRESSION_LEVEL = 6; /* 1 (fastest) to 9 (smallest) */
+
+    public static final String SERVER_COMPRESSION_THRESHOLD = "compressionThreshold";
+    public static final int DEFAULT_SERVER_COMPRESSION_THRESHOLD = 256; /* bytes, smaller frames go as is */
+
     /* STORAGE */
     public static final String STORAGE_SECTION = "storage";
     public static final String STORAGE_ROOT = "root";
@@ -33,6 +57,7 @@ final public class Keys {
 
     public static final String DATABASE_TYPE = "type";
     public static final String DATABASE_TYPE_MONGODB = "mongodb";
+    public static final String DATABASE_TYPE_LOG = "log"; /* embedded, under the storage root */
 
     public static final String DATABASE_HOST = "host";
     public static final String DEFAULT_DATABASE_HOST = "localhost";
@@ -43,6 +68,68 @@ final public class Keys {
     public static final String DATABASE_NAME = "name";
     public static final String DEFAULT_DATABASE_NAME = "data";
 
+    public static final String DATABASE_QUERY_PLAN_CHECK = "queryPlanCheck";
+    public static final String DATABASE_QUERY_PLAN_CHECK_FAIL = "fail";
+    public static final String DATABASE_QUERY_PLAN_CHECK_WARN = "warn";
+    public static final String DATABASE_QUERY_PLAN_CHECK_OFF = "off";
+    public static final String DEFAULT_DATABASE_QUERY_PLAN_CHECK = DATABASE_QUERY_PLAN_CHECK_WARN;
+
+    public static final String DATABASE_DENORMALIZED_MESSAGES = "denormalizedMessages";
+    public static final boolean DEFAULT_DATABASE_DENORMALIZED_MESSAGES = false;
+
+    public static final String DATABASE_CACHE_SIZE = "cacheSize";
+    public static final int DEFAULT_DATABASE_CACHE_SIZE = 10000; /* entities, per cache */
+
+    public static final String DATABASE_GROUP_COMMIT = "groupCommit";
+    public static final boolean DEFAULT_DATABASE_GROUP_COMMIT = false;
+
+    public static final String DATABASE_GROUP_COMMIT_WINDOW = "groupCommitWindow";
+    public static final int DEFAULT_DATABASE_GROUP_COMMIT_WINDOW = 5; /* ms */
+
+    public static final String DATABASE_GROUP_COMMIT_MAX_BATCH = "groupCommitMaxBatch";
+    public static final int DEFAULT_DATABASE_GROUP_COMMIT_MAX_BATCH = 100;
+
+    public static final String DATABASE_LOG_SEGMENT_SIZE = "logSegmentSize";
+    public static final int DEFAULT_DATABASE_LOG_SEGMENT_SIZE = 64 * 1024 * 1024; /* bytes */
+
+    /* retention: messages older than hotDays move to the archive, under the storage root */
+    public static final String DATABASE_RETENTION = "retention";
+
+    public static final String DATABASE_RETENTION_HOT_DAYS = "hotDays";
+    public static final int DEFAULT_DATABASE_RETENTION_HOT_DAYS = 0; /* never archive */
+
+    public static final String DATABASE_RETENTION_ROOMS = "rooms"; /* room name -> hot days */
+
+    public static final String DATABASE_RETENTION_ARCHIVE_INTERVAL = "archiveInterval";
+    public static final int DEFAULT_DATABASE_RETENTION_ARCHIVE_INTERVAL = 3600; /* seconds */
+
+    /* DEPLOYMENT */
+    public static final String DEPLOYMENT_SECTION = "deployment";
+
+    public static final String DEPLOYMENT_DATA_STORE = "dataStore";
+    public static final String DEPLOYMENT_PRESENCE = "presence";
+    public static final String DEPLOYMENT_WEB_SERVER = "webServer";
+
+    public static final String DEPLOYMENT_INSTANCES = "instances";
+    public static final int DEFAULT_DEPLOYMENT_INSTANCES = 1;
+
+    public static final String DEPLOYMENT_WORKER = "worker";
+    public static final boolean DEFAULT_DEPLOYMENT_WORKER = false;
+
+    /* KAFKA, optional: message log for history and fanout */
+    public static final String KAFKA_SECTION = "kafka";
+
+    public static final String KAFKA_BOOTSTRAP_SERVERS = "bootstrapServers";
+
+    public static final String KAFKA_TOPIC = "topic";
+    public static final String DEFAULT_KAFKA_TOPIC = "chatty.messages";
+
+    public static final String KAFKA_PARTITIONS = "partitions";
+    public static final int DEFAULT_KAFKA_PARTITIONS = 1;
+
+    public static final String KAFKA_REPLICATION_FACTOR = "replicationFactor";
+    public static final int DEFAULT_KAFKA_REPLICATION_FACTOR = 1;
+
     /* REDIS */
     static String REDIS_SECTION = "redis";
 
@@ -0,0 +1,36 @@
+package org.blackcat.chatty.http.middleware;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.ext.web.handler.sockjs.BridgeEvent;
+import org.blackcat.chatty.http.middleware.impl.SocketIdentityHandlerImpl;
+
+/**
+ * Event bus bridge hook binding the authenticated user, and the room they joined, to each
+ * socket. Messages sent to the ingest address carry the bound identity as headers, taking
+ * precedence over whatever the client put in them, so that ingest needs no lookups.
+ */
+public interface SocketIdentityHandler extends Handler<BridgeEvent> {
+
+    /* session keys, set when a room page is served */
+    String userIDKey = "chatty.userID";
+    String userEmailKey = "chatty.userEmail";
+
+    /* headers of the messages sent to the ingest address */
+    String userIDHeader = "userID";
+    String userEmailHeader = "userEmail";
+    String roomIDHeader = "roomID";
+    String roomNameHeader = "roomName";
+
+    /**
+     * Create a new handler
+     *
+     * @param vertx
+     * @param ingestAddress - the address chat lines are sent to
+     * @param roomAddressPrefix - joining a room is registering to this prefix followed by the room uuid
+     * @return  the handler
+     */
+    static SocketIdentityHandler create(Vertx vertx, String ingestAddress, String roomAddressPrefix) {
+        return new SocketIdentityHandlerImpl(vertx, ingestAddress, roomAddressPrefix);
+    }
+}
@@ -0,0 +1,109 @@
+package org.blackcat.chatty.http.middleware.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.Session;
+import io.vertx.ext.web.handler.sockjs.BridgeEvent;
+import org.blackcat.chatty.http.middleware.SocketIdentityHandler;
+import org.blackcat.chatty.mappers.RoomMapper;
+import org.blackcat.chatty.queries.Queries;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+final public class SocketIdentityHandlerImpl implements SocketIdentityHandler {
+
+    final private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final Vertx vertx;
+    private final String ingestAddress;
+    private final String roomAddressPrefix;
+
+    /* by socket write handler ID; bridge events of a router come on its event loop */
+    private final Map<String, JsonObject> identities = new HashMap<>();
+
+    public SocketIdentityHandlerImpl(Vertx vertx, String ingestAddress, String roomAddressPrefix) {
+        this.vertx = vertx;
+        this.ingestAddress = ingestAddress;
+        this.roomAddressPrefix = roomAddressPrefix;
+    }
+
+    @Override
+    public void handle(BridgeEvent event) {
+        String socketID = event.socket().writeHandlerID();
+
+        switch (event.type()) {
+            case REGISTER:
+                String address = event.getRawMessage().getString("address");
+                if (address.startsWith(roomAddressPrefix)) {
+                    join(event, socketID, address.substring(roomAddressPrefix.length()));
+                } else {
+                    event.complete(true);
+                }
+                break;
+
+            case SEND:
+            case PUBLISH:
+                if (ingestAddress.equals(event.getRawMessage().getString("address"))) {
+                    ingest(event, identities.get(socketID));
+                } else {
+                    event.complete(true);
+                }
+                break;
+
+            case SOCKET_CLOSED:
+                identities.remove(socketID);
+                event.complete(true);
+                break;
+
+            default:
+                event.complete(true);
+        }
+    }
+
+    /* a single room lookup per socket, then the identity is bound until it closes */
+    private void join(BridgeEvent event, String socketID, String roomID) {
+        Session session = event.socket().webSession();
+        String userID = Objects.isNull(session) ? null : session.get(userIDKey);
+        String userEmail = Objects.isNull(session) ? null : session.get(userEmailKey);
+        if (Objects.isNull(userID) || Objects.isNull(userEmail)) {
+            logger.warn("Rejecting anonymous socket joining room {}", roomID);
+            event.complete(false);
+            return;
+        }
+
+        Queries.findRoomByUUID(vertx, roomID, roomMapperAsyncResult -> {
+            if (roomMapperAsyncResult.failed()) {
+                logger.warn(roomMapperAsyncResult.cause().toString());
+                event.complete(false);
+            } else if (Objects.isNull(roomMapperAsyncResult.result())) {
+                logger.warn("Rejecting socket joining unknown room {}", roomID);
+                event.complete(false);
+            } else {
+                RoomMapper room = roomMapperAsyncResult.result();
+                identities.put(socketID, new JsonObject()
+                                             .put(userIDHeader, userID)
+                                             .put(userEmailHeader, userEmail)
+                                             .put(roomIDHeader, room.getUuid())
+                                             .put(roomNameHeader, room.getName()));
+                event.complete(true);
+            }
+        });
+    }
+
+    private void ingest(BridgeEvent event, JsonObject identity) {
+        if (Objects.isNull(identity)) {
+            logger.warn("Rejecting message from a socket that has not joined a room");
+            event.complete(false);
+            return;
+        }
+
+        JsonObject rawMessage = event.getRawMessage();
+        rawMessage.put("headers", rawMessage.getJsonObject("headers", new JsonObject()).mergeIn(identity));
+        event.setRawMessage(rawMessage);
+        event.complete(true);
+    }
+}
@@ -13,6 +13,10 @@ public interface MainHandler extends Handler<HttpServerRequest> {
     String jsonResponseBuilderKey = "jsonResponseBuilder";
     String htmlResponseBuilderKey = "htmlResponseBuilder";
 
+    /* ingest statistics of the web server instances, published periodically (not bridged) */
+    String statsAddress = "chatty.web-server.stats";
+    long statsInterval = 10000; /* ms */
+
     /**
      * Create a new handler
      *
@@ -0,0 +1,16 @@
+package org.blackcat.chatty.http.requests.handlers;
+
+import io.vertx.core.Handler;
+import io.vertx.ext.web.RoutingContext;
+import org.blackcat.chatty.http.requests.handlers.impl.RealtimeHandlerImpl;
+
+public interface RealtimeHandler extends Handler<RoutingContext> {
+    /**
+     * Create a new handler
+     *
+     * @return  the handler
+     */
+    static RealtimeHandler create() {
+        return new RealtimeHandlerImpl();
+    }
+}
@@ -0,0 +1,16 @@
+package org.blackcat.chatty.http.requests.handlers;
+
+import io.vertx.core.Handler;
+import io.vertx.ext.web.RoutingContext;
+import org.blackcat.chatty.http.requests.handlers.impl.SearchHandlerImpl;
+
+public interface SearchHandler extends Handler<RoutingContext> {
+    /**
+     * Create a new handler
+     *
+     * @return  the handler
+     */
+    static SearchHandler create() {
+        return new SearchHandlerImpl();
+    }
+}
@@ -9,10 +9,10 @@ import org.blackcat.chatty.mappers.RoomMapper;
 import org.blackcat.chatty.mappers.UserMapper;
 import org.blackcat.chatty.queries.Queries;
 import org.blackcat.chatty.util.Utils;
+import org.blackcat.chatty.verticles.DataStoreVerticle;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
 
 public class DownloadHandlerImpl extends BaseUserRequestHandler implements DownloadHandler {
 
@@ -53,24 +53,24 @@ public class DownloadHandlerImpl extends BaseUserRequestHandler implements Downl
                             ctx.fail(cause);
                         } else {
                             RoomMapper room = roomMapperAsyncResult.result();
-                            Queries.fetchMessages(vertx, user, room, messagesAsyncResult -> {
-                                if (messagesAsyncResult.failed()) {
-                                    Throwable cause = messagesAsyncResult.cause();
 
-                                    logger.error(cause);
-                                    ctx.fail(cause);
-                                } else {
-                                    List<MessageMapper> messageMappers =
-                                        messagesAsyncResult.result();
-
-                                    ctx.put("messages", messageMappers);
-                                    htmlResponseBuilder.success(ctx, "download");
-                                }
-                            });
+                            /* the transcript goes out as it is read, one chunk at a time */
+                            ctx.put("roomName", room.getName());
+                            htmlResponseBuilder.stream(ctx, "download",
+                                Queries.streamMessages(vertx, user, room, DataStoreVerticle.DEFAULT_FETCH_LIMIT),
+                                this::formatHtmlMessage);
                         }
                     });
                 }
             });
         }
     }
+
+    private String formatHtmlMessage(MessageMapper messageMapper) {
+        return "<p>\n" +
+               "    <div><span>" + Utils.escapeHtml(Utils.formatTimeStamp(messageMapper.getTimeStamp())) + "</span>" +
+               "&nbsp;<span>" + Utils.escapeHtml(messageMapper.getAuthor().getEmail()) + "</span></div>\n" +
+               "    <div>" + Utils.escapeHtml(messageMapper.getText()) + "</div>\n" +
+               "</p>\n";
+    }
 }
@@ -0,0 +1,198 @@
+package org.blackcat.chatty.http.requests.handlers.impl;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+/**
+ * Binary framing of the realtime endpoint. A websocket frame holds one or more records, each
+ * one prefixed with its length:
+ *
+ * [length: varint] [type: byte] [fields ...]
+ *
+ * Integers are unsigned LEB128 varints, strings a varint byte length followed by UTF-8 bytes.
+ * Record types, and their fields:
+ *
+ * client to server
+ *   CHAT          requestID, text
+ *   HEARTBEAT     -
+ *   LOOKUP_USERS  requestID, count, userID * count
+ *
+ * server to client
+ *   MESSAGE       seq, timeStamp, authorID, text
+ *   PARTAKERS     count, userID * count
+ *   ROOMS         count, (roomID, name, messages, authors, lastTimeStamp) * count
+ *   ACK           requestID, seq
+ *   ERROR         requestID, code, text
+ *   USERS         requestID, count, (userID, email) * count
+ *
+ * Requests are numbered by the client, replies may come in any order. Unknown record types
+ * are skipped, thanks to the length prefix.
+ *
+ * Clients that asked for it get server frames past a size threshold compressed: a 0x00 byte,
+ * which no record can start with, then the frame in raw deflate. Each frame is compressed on
+ * its own, there is no context carried over from one frame to the next.
+ */
+final class Frames {
+
+    /* client to server */
+    final static byte CHAT = 0x01;
+    final static byte HEARTBEAT = 0x02;
+    final static byte LOOKUP_USERS = 0x03;
+
+    /* server to client */
+    final static byte MESSAGE = 0x10;
+    final static byte PARTAKERS = 0x11;
+    final static byte ROOMS = 0x12;
+    final static byte ACK = 0x13;
+    final static byte ERROR = 0x14;
+    final static byte USERS = 0x15;
+
+    final static byte DEFLATED = 0x00;
+
+    private Frames()
+    {}
+
+    /**
+     * Compresses a frame, if it is worth it.
+     *
+     * @param deflater - raw (nowrap), reset before use
+     * @param frame
+     * @param threshold - the size under which frames are left alone, in bytes
+     * @return the frame, compressed or not
+     */
+    static Buffer deflate(Deflater deflater, Buffer frame, int threshold) {
+        if (frame.length() < threshold) {
+            return frame;
+        }
+
+        deflater.reset();
+        deflater.setInput(frame.getBytes());
+        deflater.finish();
+
+        Buffer deflated = Buffer.buffer(frame.length()).appendByte(DEFLATED);
+        byte[] chunk = new byte[1024];
+        while (! deflater.finished()) {
+            int length = deflater.deflate(chunk);
+            deflated.appendBytes(chunk, 0, length);
+            if (deflated.length() >= frame.length()) {
+                return frame; /* incompressible */
+            }
+        }
+        return deflated;
+    }
+
+    /**
+     * Builds a record, fields first: the length prefix is added on completion.
+     */
+    final static class Writer {
+        private final byte type;
+        private final Buffer fields = Buffer.buffer();
+
+        Writer(byte type) {
+            this.type = type;
+        }
+
+        Writer varint(long value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Negative varint: " + value);
+            }
+            appendVarint(fields, value);
+            return this;
+        }
+
+        Writer string(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            fields.appendBytes(bytes);
+            return this;
+        }
+
+        /**
+         * Appends the record to a frame.
+         *
+         * @param frame
+         * @return the frame
+         */
+        Buffer appendTo(Buffer frame) {
+            appendVarint(frame, 1 + fields.length());
+            return frame.appendByte(type).appendBuffer(fields);
+        }
+
+        Buffer toFrame() {
+            return appendTo(Buffer.buffer(fields.length() + 6));
+        }
+    }
+
+    /**
+     * Reads the records of a frame in turn.
+     */
+    final static class Reader {
+        private final Buffer frame;
+        private int position;
+        private int end;
+
+        Reader(Buffer frame) {
+            this.frame = frame;
+            this.end = 0;
+        }
+
+        /**
+         * Moves on to the next record, skipping what is left of the current one.
+         *
+         * @return the type of the record, or -1 at the end of the frame
+         * @throws IllegalArgumentException on malformed frames
+         */
+        int next() {
+            position = end;
+            if (position >= frame.length()) {
+                return -1;
+            }
+
+            long length = varint(frame.length());
+            if (length < 1 || length > frame.length() - position) {
+                throw new IllegalArgumentException("Invalid record length: " + length);
+            }
+            end = position + (int) length;
+            return frame.getByte(position ++);
+        }
+
+        long varint() {
+            return varint(end);
+        }
+
+        String string() {
+            long length = varint();
+            if (length > end - position) {
+                throw new IllegalArgumentException("Invalid string length: " + length);
+            }
+            String value = frame.getString(position, position + (int) length, "UTF-8");
+            position += (int) length;
+            return value;
+        }
+
+        private long varint(int limit) {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw new IllegalArgumentException("Truncated varint");
+                }
+                byte b = frame.getByte(position ++);
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint too long");
+        }
+    }
+
+    private static void appendVarint(Buffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.appendByte((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.appendByte((byte) value);
+    }
+}
@@ -1,5 +1,7 @@
 package org.blackcat.chatty.http.requests.handlers.impl;
 
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -9,19 +11,18 @@ import org.blackcat.chatty.http.requests.handlers.HistoryHandler;
 import org.blackcat.chatty.mappers.MessageMapper;
 import org.blackcat.chatty.mappers.RoomMapper;
 import org.blackcat.chatty.mappers.UserMapper;
+import org.blackcat.chatty.queries.MessageCursor;
+import org.blackcat.chatty.queries.MessagePage;
 import org.blackcat.chatty.queries.Queries;
 import org.blackcat.chatty.util.Utils;
+import org.blackcat.chatty.verticles.DataStoreVerticle;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.DateFormat;
-import java.time.Instant;
-import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
-import static java.time.format.DateTimeFormatter.ISO_INSTANT;
-
 public class HistoryHandlerImpl extends BaseUserRequestHandler implements HistoryHandler {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -37,6 +38,28 @@ public class HistoryHandlerImpl extends BaseUserRequestHandler implements Histor
         Path prefix = Paths.get("/protected/history");
         String roomUID = prefix.relativize(Paths.get(Utils.urlDecode(ctx.request().path()))).toString();
 
+        /* paging params: ?before=<cursor>&limit=<n>, or ?since=<seq>&limit=<n> to catch up */
+        MessageCursor before;
+        Long since;
+        int limit;
+        try {
+            String beforeParam = ctx.request().getParam("before");
+            before = Objects.isNull(beforeParam) ? null : MessageCursor.parse(beforeParam);
+
+            String sinceParam = ctx.request().getParam("since");
+            since = Objects.isNull(sinceParam) ? null : Long.parseLong(sinceParam);
+            if (! Objects.isNull(since) && since < 0) {
+                throw new IllegalArgumentException("Invalid sequence number: " + sinceParam);
+            }
+
+            String limitParam = ctx.request().getParam("limit");
+            limit = Objects.isNull(limitParam) ? DataStoreVerticle.DEFAULT_FETCH_LIMIT : Integer.parseInt(limitParam);
+        } catch (IllegalArgumentException iae) {
+            logger.warn(iae.getMessage());
+            jsonResponseBuilder.badRequest(ctx);
+            return;
+        }
+
         Queries.findCreateUserEntityByEmail(vertx, email, userMapperAsyncResult -> {
             if (userMapperAsyncResult.failed()) {
                 logger.warn(userMapperAsyncResult.cause());
@@ -51,32 +74,43 @@ public class HistoryHandlerImpl extends BaseUserRequestHandler implements Histor
                     } else {
                         RoomMapper room = roomMapperAsyncResult.result();
 
-                        Queries.fetchMessages(vertx, user, room, messagesAsyncResult -> {
+                        Handler<AsyncResult<MessagePage>> handler = messagesAsyncResult -> {
                             if (messagesAsyncResult.failed()) {
                                 logger.error(messagesAsyncResult.cause());
+                                jsonResponseBuilder.internalServerError(ctx);
                             } else {
-                                List<MessageMapper> messages =
-                                    messagesAsyncResult.result();
+                                MessagePage page = messagesAsyncResult.result();
 
+                                List<MessageMapper> messages = page.getMessages();
                                 List<JsonArray> history = messages.stream()
-                                                              .map(this::formatJsonMessage)
+                                                              .map(Utils::messageRecord)
                                                               .collect(Collectors.toList());
 
+                                /* catching up goes on from the last sequence number */
+                                String next = ! page.hasNext() ? null :
+                                                  Objects.isNull(since) ? page.getNext().encode() :
+                                                      String.valueOf(messages.get(messages.size() - 1).getSeq());
+
+                                /* each author once, rather than in every record */
+                                JsonObject users = new JsonObject();
+                                messages.forEach(message ->
+                                    users.put(message.getAuthor().getUuid(), message.getAuthor().getEmail()));
+
                                 jsonResponseBuilder.success(ctx, new JsonObject()
-                                                                     .put("history", history));
+                                                                     .put("history", history)
+                                                                     .put("users", users)
+                                                                     .put("next", next));
                             }
-                        });
+                        };
+
+                        if (Objects.isNull(since)) {
+                            Queries.fetchMessages(vertx, user, room, before, limit, handler);
+                        } else {
+                            Queries.fetchMessagesSince(vertx, user, room, since, limit, handler);
+                        }
                     }
                 });
             }
         });
     }
-
-    private JsonArray formatJsonMessage(MessageMapper messageMapper) {
-        return new JsonArray()
-                   .add(DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM).format(
-                       Date.from(Instant.from(ISO_INSTANT.parse(messageMapper.getTimeStamp())))))
-                   .add(messageMapper.getAuthor().getEmail())
-                   .add(messageMapper.getText());
-    }
 }
@@ -3,6 +3,7 @@ package org.blackcat.chatty.http.requests.handlers.impl;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.web.RoutingContext;
+import org.blackcat.chatty.http.middleware.SocketIdentityHandler;
 import org.blackcat.chatty.http.requests.handlers.ProtectedRoomsHandler;
 import org.blackcat.chatty.mappers.RoomMapper;
 import org.blackcat.chatty.mappers.UserMapper;
@@ -45,6 +46,11 @@ public class ProtectedRoomsHandlerImpl extends BaseUserRequestHandler implements
                         UserMapper user = userMapperAsyncResult.result();
                         Objects.requireNonNull(user);
 
+                        /* sockets opened by the page are bound to this user */
+                        ctx.session()
+                            .put(SocketIdentityHandler.userIDKey, user.getUuid())
+                            .put(SocketIdentityHandler.userEmailKey, user.getEmail());
+
                         ctx
                             .put("userEmail", user.getEmail())
                             .put("userID", user.getUuid())
@@ -0,0 +1,297 @@
+package org.blackcat.chatty.http.requests.handlers.impl;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.Session;
+import org.blackcat.chatty.http.ResponseStatus;
+import org.blackcat.chatty.http.middleware.SocketIdentityHandler;
+import org.blackcat.chatty.http.requests.handlers.RealtimeHandler;
+import org.blackcat.chatty.mappers.RoomMapper;
+import org.blackcat.chatty.mappers.UserMapper;
+import org.blackcat.chatty.queries.Queries;
+import org.blackcat.chatty.verticles.PresenceVerticle;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.Deflater;
+
+/**
+ * Native websocket endpoint, alongside the event bus bridge: one socket per room page, bound
+ * to the user of the session and the room given as the room query parameter. Chat, presence
+ * and room list traffic goes in binary frames, see {@link Frames}. Clients able to inflate
+ * frames ask for it with the deflate query parameter.
+ *
+ * Browsers send the session cookie along with cross-site upgrades too: upgrades are only
+ * accepted from pages of the configured domain.
+ */
+public class RealtimeHandlerImpl extends BaseUserRequestHandler implements RealtimeHandler {
+
+    final private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Override
+    public void handle(RoutingContext ctx) {
+        super.handle(ctx);
+
+        Session session = ctx.session();
+        String userID = Objects.isNull(session) ? null : session.get(SocketIdentityHandler.userIDKey);
+        String userEmail = Objects.isNull(session) ? null : session.get(SocketIdentityHandler.userEmailKey);
+        if (Objects.isNull(userID) || Objects.isNull(userEmail)) {
+            jsonResponseBuilder.forbidden(ctx);
+            return;
+        }
+
+        String origin = ctx.request().getHeader(HttpHeaders.ORIGIN);
+        if (! isSameOrigin(origin, configuration.getDomain())) {
+            logger.warn("Refusing realtime upgrade from origin {}", origin);
+            jsonResponseBuilder.forbidden(ctx);
+            return;
+        }
+
+        String roomID = ctx.request().getParam("room");
+        if (Objects.isNull(roomID)) {
+            jsonResponseBuilder.badRequest(ctx);
+            return;
+        }
+
+        /* nothing is read until the room is known */
+        ServerWebSocket webSocket = ctx.request().upgrade();
+        webSocket.pause();
+
+        Queries.findRoomByUUID(vertx, roomID, roomMapperAsyncResult -> {
+            if (roomMapperAsyncResult.failed()) {
+                logger.warn(roomMapperAsyncResult.cause().toString());
+                webSocket.close();
+            } else if (Objects.isNull(roomMapperAsyncResult.result())) {
+                logger.warn("Closing socket joining unknown room {}", roomID);
+                webSocket.close();
+            } else {
+                UserMapper user = new UserMapper();
+                user.setUuid(userID);
+                user.setEmail(userEmail);
+
+                /* negotiated: on if enabled and the client can take it */
+                Deflater deflater = configuration.isCompressionEnabled() &&
+                                        "1".equals(ctx.request().getParam("deflate")) ?
+                                        new Deflater(configuration.getCompressionLevel(), true) : null;
+
+                new Connection(webSocket, user, roomMapperAsyncResult.result(), deflater).start();
+            }
+        });
+    }
+
+    final private class Connection {
+        private final ServerWebSocket webSocket;
+        private final UserMapper user;
+        private final RoomMapper room;
+        private final Deflater deflater; /* null if not negotiated */
+
+        private final List<MessageConsumer<?>> consumers = new ArrayList<>();
+        private boolean closed;
+
+        Connection(ServerWebSocket webSocket, UserMapper user, RoomMapper room, Deflater deflater) {
+            this.webSocket = webSocket;
+            this.user = user;
+            this.room = room;
+            this.deflater = deflater;
+        }
+
+        void start() {
+            EventBus eventBus = vertx.eventBus();
+
+            consumers.add(eventBus.<JsonArray>consumer("webchat.client." + room.getUuid(), message ->
+                broadcast(message(message.body()))));
+
+            consumers.add(eventBus.<JsonObject>consumer("webchat.partakers." + room.getUuid(), message ->
+                broadcast(partakers(message.body().getJsonArray("users")))));
+
+            consumers.add(eventBus.<JsonObject>consumer("webchat.rooms", message ->
+                broadcast(rooms(message.body().getJsonArray("rooms")))));
+
+            webSocket.binaryMessageHandler(this::read);
+            webSocket.closeHandler(v -> {
+                closed = true;
+                consumers.forEach(MessageConsumer::unregister);
+                if (! Objects.isNull(deflater)) {
+                    deflater.end();
+                }
+            });
+            webSocket.exceptionHandler(throwable -> logger.warn(throwable.toString()));
+            webSocket.resume();
+        }
+
+        private void read(Buffer frame) {
+            Frames.Reader reader = new Frames.Reader(frame);
+            try {
+                for (int type = reader.next(); type != -1; type = reader.next()) {
+                    switch (type) {
+                        case Frames.CHAT:
+                            long chatID = reader.varint();
+                            chat(chatID, reader.string());
+                            break;
+
+                        case Frames.HEARTBEAT:
+                            vertx.eventBus().send(PresenceVerticle.ADDRESS, new JsonObject()
+                                .put("type", PresenceVerticle.UPDATE_PRESENCE)
+                                .put("params", new JsonObject()
+                                                   .put("userID", user.getUuid())
+                                                   .put("roomID", room.getUuid())));
+                            break;
+
+                        case Frames.LOOKUP_USERS:
+                            long lookupID = reader.varint();
+                            List<String> userIDs = new ArrayList<>();
+                            for (long i = reader.varint(); i > 0; -- i) {
+                                userIDs.add(reader.string());
+                            }
+                            lookupUsers(lookupID, userIDs);
+                            break;
+
+                        default:
+                            logger.debug("Skipping record of unknown type {}", type);
+                    }
+                }
+            } catch (IllegalArgumentException iae) {
+                logger.warn("Closing realtime socket on malformed frame: {}", iae.getMessage());
+                webSocket.close();
+            }
+        }
+
+        /* same ingest as the bridge, with the identity bound to this socket */
+        private void chat(long requestID, String text) {
+            DeliveryOptions deliveryOptions = new DeliveryOptions()
+                                                  .addHeader(SocketIdentityHandler.userIDHeader, user.getUuid())
+                                                  .addHeader(SocketIdentityHandler.userEmailHeader, user.getEmail())
+                                                  .addHeader(SocketIdentityHandler.roomIDHeader, room.getUuid())
+                                                  .addHeader(SocketIdentityHandler.roomNameHeader, room.getName());
+
+            vertx.eventBus().<JsonObject>send("webchat.server", new JsonObject().put("text", text).encode(),
+                deliveryOptions, replyAsyncResult -> {
+                    if (replyAsyncResult.failed()) {
+                        Throwable cause = replyAsyncResult.cause();
+                        int code = cause instanceof ReplyException ?
+                                       ((ReplyException) cause).failureCode() :
+                                       ResponseStatus.INTERNAL_SERVER_ERROR.getStatusCode();
+
+                        error(requestID, code, cause.getMessage());
+                    } else {
+                        write(new Frames.Writer(Frames.ACK)
+                                  .varint(requestID)
+                                  .varint(replyAsyncResult.result().body().getLong("seq", 0L))
+                                  .toFrame());
+                    }
+                });
+        }
+
+        private void lookupUsers(long requestID, List<String> userIDs) {
+            Queries.findUsersByUUIDs(vertx, userIDs, usersAsyncResult -> {
+                if (usersAsyncResult.failed()) {
+                    logger.warn(usersAsyncResult.cause().toString());
+                    error(requestID, ResponseStatus.INTERNAL_SERVER_ERROR.getStatusCode(),
+                        usersAsyncResult.cause().getMessage());
+                    return;
+                }
+
+                List<UserMapper> users = usersAsyncResult.result();
+                Frames.Writer writer = new Frames.Writer(Frames.USERS).varint(requestID).varint(users.size());
+                users.forEach(user -> writer.string(user.getUuid()).string(user.getEmail()));
+                write(writer.toFrame());
+            });
+        }
+
+        private void error(long requestID, int code, String text) {
+            write(new Frames.Writer(Frames.ERROR)
+                      .varint(requestID)
+                      .varint(Math.max(code, 0))
+                      .string(String.valueOf(text))
+                      .toFrame());
+        }
+
+        /* broadcasts that cannot be written right away are dropped: presence and room lists come
+           again soon, clients catch up on messages by sequence number */
+        private void broadcast(Buffer frame) {
+            if (webSocket.writeQueueFull()) {
+                logger.debug("Realtime socket is lagging behind, dropping frame");
+                return;
+            }
+            write(frame);
+        }
+
+        /* replies may come after the socket is gone */
+        private void write(Buffer frame) {
+            if (! closed) {
+                webSocket.writeBinaryMessage(Objects.isNull(deflater) ? frame :
+                                                 Frames.deflate(deflater, frame, configuration.getCompressionThreshold()));
+            }
+        }
+    }
+
+    /* scheme, host and port must match, default ports being implied */
+    static boolean isSameOrigin(String origin, String domain) {
+        if (Objects.isNull(origin) || Objects.isNull(domain)) {
+            return false;
+        }
+
+        try {
+            URI originURI = new URI(origin);
+            URI domainURI = new URI(domain);
+            return ! Objects.isNull(originURI.getScheme()) && ! Objects.isNull(originURI.getHost()) &&
+                       originURI.getScheme().equalsIgnoreCase(domainURI.getScheme()) &&
+                       originURI.getHost().equalsIgnoreCase(domainURI.getHost()) &&
+                       port(originURI) == port(domainURI);
+        } catch (URISyntaxException use) {
+            return false;
+        }
+    }
+
+    private static int port(URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    /* [seq, timeStamp, authorID, text] */
+    private static Buffer message(JsonArray record) {
+        return new Frames.Writer(Frames.MESSAGE)
+                   .varint(record.getLong(0))
+                   .varint(record.getLong(1))
+                   .string(record.getString(2))
+                   .string(record.getString(3))
+                   .toFrame();
+    }
+
+    private static Buffer partakers(JsonArray userIDs) {
+        Frames.Writer writer = new Frames.Writer(Frames.PARTAKERS).varint(userIDs.size());
+        userIDs.forEach(userID -> writer.string((String) userID));
+        return writer.toFrame();
+    }
+
+    private static Buffer rooms(JsonArray rooms) {
+        Frames.Writer writer = new Frames.Writer(Frames.ROOMS).varint(rooms.size());
+        for (int i = 0; i < rooms.size(); ++ i) {
+            JsonObject room = rooms.getJsonObject(i);
+            JsonObject stats = room.getJsonObject("stats", new JsonObject());
+            JsonObject lastMessage = stats.getJsonObject("lastMessage", new JsonObject());
+
+            writer.string(room.getString("uuid"))
+                .string(room.getString("name"))
+                .varint(stats.getLong("messages", 0L))
+                .varint(stats.getLong("authors", 0L))
+                .varint(lastMessage.getLong("timeStamp", 0L));
+        }
+        return writer.toFrame();
+    }
+}
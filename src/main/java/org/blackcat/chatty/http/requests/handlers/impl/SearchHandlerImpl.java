@@ -0,0 +1,120 @@
+package org.blackcat.chatty.http.requests.handlers.impl;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.RoutingContext;
+import org.blackcat.chatty.http.requests.handlers.SearchHandler;
+import org.blackcat.chatty.mappers.MessageMapper;
+import org.blackcat.chatty.mappers.RoomMapper;
+import org.blackcat.chatty.mappers.UserMapper;
+import org.blackcat.chatty.queries.Queries;
+import org.blackcat.chatty.queries.SearchPage;
+import org.blackcat.chatty.util.Utils;
+import org.blackcat.chatty.verticles.DataStoreVerticle;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+public class SearchHandlerImpl extends BaseUserRequestHandler implements SearchHandler {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Override
+    public void handle(RoutingContext ctx) {
+        super.handle(ctx);
+        checkJsonRequest(ctx, this::accept);
+    }
+
+    private void accept(RoutingContext ctx) {
+        String email = ctx.get("email");
+
+        /* search params: ?q=<terms>&room=<uuid>&offset=<n>&limit=<n>, room is optional */
+        String query = ctx.request().getParam("q");
+        String roomUUID = ctx.request().getParam("room");
+        int offset;
+        int limit;
+        try {
+            String offsetParam = ctx.request().getParam("offset");
+            offset = Objects.isNull(offsetParam) ? 0 : Integer.parseInt(offsetParam);
+
+            String limitParam = ctx.request().getParam("limit");
+            limit = Objects.isNull(limitParam) ? DataStoreVerticle.DEFAULT_SEARCH_LIMIT : Integer.parseInt(limitParam);
+        } catch (IllegalArgumentException iae) {
+            logger.warn(iae.getMessage());
+            jsonResponseBuilder.badRequest(ctx);
+            return;
+        }
+
+        if (Objects.isNull(query) || query.trim().isEmpty() || offset < 0 ||
+                offset + limit > DataStoreVerticle.MAX_SEARCH_WINDOW) {
+            jsonResponseBuilder.badRequest(ctx);
+            return;
+        }
+
+        Queries.findCreateUserEntityByEmail(vertx, email, userMapperAsyncResult -> {
+            if (userMapperAsyncResult.failed()) {
+                logger.warn(userMapperAsyncResult.cause());
+                jsonResponseBuilder.forbidden(ctx);
+                return;
+            }
+
+            UserMapper user = userMapperAsyncResult.result();
+
+            Future<RoomMapper> roomFuture = Future.future();
+            if (Objects.isNull(roomUUID)) {
+                roomFuture.complete(null);
+            } else {
+                Queries.findRoomByUUID(vertx, roomUUID, roomFuture);
+            }
+
+            roomFuture.setHandler(roomMapperAsyncResult -> {
+                if (roomMapperAsyncResult.failed() ||
+                        (! Objects.isNull(roomUUID) && Objects.isNull(roomMapperAsyncResult.result()))) {
+                    jsonResponseBuilder.notFound(ctx);
+                    return;
+                }
+
+                RoomMapper room = roomMapperAsyncResult.result();
+                Queries.searchMessages(vertx, user, room, query, offset, limit, searchAsyncResult -> {
+                    if (searchAsyncResult.failed()) {
+                        logger.error(searchAsyncResult.cause());
+                        jsonResponseBuilder.internalServerError(ctx);
+                    } else {
+                        SearchPage page = searchAsyncResult.result();
+
+                        List<MessageMapper> messages = page.getMessages();
+                        List<JsonObject> results = messages.stream()
+                                                       .map(this::formatJsonResult)
+                                                       .collect(Collectors.toList());
+
+                        /* each author and room once, rather than in every result */
+                        JsonObject users = new JsonObject();
+                        JsonObject rooms = new JsonObject();
+                        messages.forEach(message -> {
+                            users.put(message.getAuthor().getUuid(), message.getAuthor().getEmail());
+                            if (! Objects.isNull(message.getRoom())) {
+                                rooms.put(message.getRoomUuid(), message.getRoom().getName());
+                            }
+                        });
+
+                        jsonResponseBuilder.success(ctx, new JsonObject()
+                                                             .put("results", results)
+                                                             .put("users", users)
+                                                             .put("rooms", rooms)
+                                                             .put("next", page.getNext()));
+                    }
+                });
+            });
+        });
+    }
+
+    /* the same record as history, along with the room it was found in */
+    private JsonObject formatJsonResult(MessageMapper messageMapper) {
+        return new JsonObject()
+                   .put("record", Utils.messageRecord(messageMapper))
+                   .put("roomUUID", messageMapper.getRoomUuid());
+    }
+}
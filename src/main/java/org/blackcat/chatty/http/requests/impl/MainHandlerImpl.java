@@ -1,10 +1,8 @@
 package org.blackcat.chatty.http.requests.impl;
 
-import com.google.common.base.Throwables;
-import io.vertx.core.AsyncResult;
-import io.vertx.core.Future;
-import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -22,6 +20,8 @@ import io.vertx.ext.web.handler.sockjs.SockJSHandler;
 import io.vertx.ext.web.sstore.LocalSessionStore;
 import io.vertx.ext.web.templ.PebbleTemplateEngine;
 import org.blackcat.chatty.conf.Configuration;
+import org.blackcat.chatty.http.ResponseStatus;
+import org.blackcat.chatty.http.middleware.SocketIdentityHandler;
 import org.blackcat.chatty.http.middleware.UserInfoHandler;
 import org.blackcat.chatty.http.requests.MainHandler;
 import org.blackcat.chatty.http.requests.handlers.*;
@@ -31,20 +31,17 @@ import org.blackcat.chatty.mappers.MessageMapper;
 import org.blackcat.chatty.mappers.RoomMapper;
 import org.blackcat.chatty.mappers.UserMapper;
 import org.blackcat.chatty.queries.Queries;
+import org.blackcat.chatty.util.Utils;
 import org.blackcat.chatty.verticles.DataStoreVerticle;
-import org.owasp.html.HtmlSanitizer;
-import org.owasp.html.HtmlStreamRenderer;
+import org.blackcat.chatty.verticles.PresenceVerticle;
 
-import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.time.Instant;
-import java.util.Date;
 import java.util.Objects;
+import java.util.UUID;
 
-import static java.time.format.DateTimeFormatter.ISO_INSTANT;
 import static org.blackcat.chatty.conf.Keys.OAUTH2_PROVIDER_GOOGLE;
 import static org.blackcat.chatty.conf.Keys.OAUTH2_PROVIDER_KEYCLOAK;
-import static org.owasp.html.examples.SlashdotPolicyExample.POLICY_DEFINITION;
 
 public final class MainHandlerImpl implements MainHandler {
 
@@ -58,6 +55,12 @@ public final class MainHandlerImpl implements MainHandler {
     private final HtmlResponseBuilderImpl htmlResponseBuilder;
     private final JsonResponseBuilderImpl jsonResponseBuilder;
 
+    /* ingest pipeline: sanitize, record, fan out */
+    private final SanitizeStage sanitizeStage;
+    private final StageTimer recordTimer = new StageTimer();
+    private final StageTimer fanoutTimer = new StageTimer();
+    private final PersistenceLag persistenceLag = new PersistenceLag();
+
     public MainHandlerImpl(final Vertx vertx,
                            final Configuration configuration) {
 
@@ -68,6 +71,9 @@ public final class MainHandlerImpl implements MainHandler {
         this.htmlResponseBuilder = new HtmlResponseBuilderImpl(PebbleTemplateEngine.create(vertx));
         this.jsonResponseBuilder = new JsonResponseBuilderImpl();
 
+        this.sanitizeStage = new SanitizeStage(vertx, configuration.getSanitizePoolSize(),
+                                 configuration.getSanitizeQueueLimit());
+
         // Initial routing ctx setup
         router.route().handler(this::injectContextVars);
 
@@ -80,16 +86,6 @@ public final class MainHandlerImpl implements MainHandler {
     }
 
     private void setupMiddlewareHandlers() {
-        // Allow events for the designated addresses in/out of the event bus bridge
-        PermittedOptions options = new PermittedOptions().setAddressRegex("webchat.*");
-
-        // Create the event bus bridge and add it to the router.
-        BridgeOptions opts = new BridgeOptions()
-                                 .addInboundPermitted(options)
-                                 .addOutboundPermitted(options);
-        SockJSHandler ebHandler = SockJSHandler.create(vertx).bridge(opts);
-        router.route("/eventbus/*").handler(ebHandler);
-
         /* required */
         router.putWithRegex("/protected/.*").handler(BodyHandler.create());
 
@@ -133,112 +129,146 @@ public final class MainHandlerImpl implements MainHandler {
     }
 
     private void setupWebSockets() {
-        // Register to listen for messages coming IN to the server
+        // Clients may post lines, update their presence and look up users; anything else
+        // sent to the data store (recording messages on behalf of anyone, stats) stays
+        // internal. Out of the bridge go room messages, partakers and the room list.
+        BridgeOptions opts = new BridgeOptions()
+                                 .addInboundPermitted(new PermittedOptions()
+                                                          .setAddress("webchat.server"))
+                                 .addInboundPermitted(new PermittedOptions()
+                                                          .setAddress(PresenceVerticle.ADDRESS)
+                                                          .setMatch(new JsonObject()
+                                                                        .put("type", PresenceVerticle.UPDATE_PRESENCE)))
+                                 .addInboundPermitted(new PermittedOptions()
+                                                          .setAddress(DataStoreVerticle.ADDRESS)
+                                                          .setMatch(new JsonObject()
+                                                                        .put("type", DataStoreVerticle.FIND_USERS_BY_UUIDS)))
+                                 .addOutboundPermitted(new PermittedOptions()
+                                                           .setAddressRegex("webchat\\.(client|partakers)\\..+"))
+                                 .addOutboundPermitted(new PermittedOptions()
+                                                           .setAddress("webchat.rooms"));
+
+        // Create the event bus bridge and add it to the router, past the session handlers so
+        // that sockets know who they belong to.
+        SockJSHandler ebHandler = SockJSHandler.create(vertx)
+                                      .bridge(opts, SocketIdentityHandler.create(vertx, "webchat.server", "webchat.client."));
+        router.route("/eventbus/*").handler(ebHandler);
+
+        // Native websockets with binary frames, the bridge stays for legacy clients
+        router.get("/realtime").handler(RealtimeHandler.create());
+
+        // With kafka, clients are fed from the message log, whoever recorded the message
+        if (configuration.isKafkaEnabled()) {
+            vertx.eventBus().<MessageMapper>consumer(DataStoreVerticle.RECORDED_MESSAGES_ADDRESS).handler(event ->
+                publishMessage(event.body()));
+        }
+
+        // Register to listen for messages coming IN to the server, the bridge tells who from
         vertx.eventBus().consumer("webchat.server").handler(event -> {
             JsonObject jsonObject = new JsonObject((String) event.body());
-
-            String userID = jsonObject.getString("userID");
-            String roomID = jsonObject.getString("roomID");
             String text = jsonObject.getString("text");
 
-            // sanitize the message
-            StringBuilder sanitizedTextStringBuilder = new StringBuilder();
-            HtmlStreamRenderer htmlStreamRenderer =
-                HtmlStreamRenderer.create(sanitizedTextStringBuilder, Throwables::propagate, s -> {});
+            MultiMap headers = event.headers();
+
+            UserMapper user = new UserMapper();
+            user.setUuid(headers.get(SocketIdentityHandler.userIDHeader));
+            user.setEmail(headers.get(SocketIdentityHandler.userEmailHeader));
 
-            HtmlSanitizer.sanitize(text, POLICY_DEFINITION.apply(htmlStreamRenderer));
+            RoomMapper room = new RoomMapper();
+            room.setUuid(headers.get(SocketIdentityHandler.roomIDHeader));
+            room.setName(headers.get(SocketIdentityHandler.roomNameHeader));
 
-            Queries.findUserByUUID(vertx, userID, userMapperAsyncResult -> {
-                if (userMapperAsyncResult.failed()) {
-                    logger.error(userMapperAsyncResult.cause().toString());
+            if (Objects.isNull(user.getUuid()) || Objects.isNull(room.getUuid()) || Objects.isNull(text)) {
+                logger.warn("Discarding message without identity");
+                event.fail(ResponseStatus.BAD_REQUEST.getStatusCode(), "Not in a room");
+                return;
+            }
+            if (text.length() > configuration.getMaxMessageLength()) {
+                event.fail(ResponseStatus.BAD_REQUEST.getStatusCode(), MessageFormat.format(
+                    "Message longer than {0} characters", configuration.getMaxMessageLength()));
+                return;
+            }
+
+            // sanitize the message, off the event loop, lines of an author keep their order
+            sanitizeStage.sanitize(user.getUuid() + "/" + room.getUuid(), text, sanitizeAsyncResult -> {
+                if (sanitizeAsyncResult.failed()) {
+                    logger.warn(sanitizeAsyncResult.cause().toString());
+                    event.fail(ResponseStatus.SERVICE_UNAVAILABLE.getStatusCode(), sanitizeAsyncResult.cause().getMessage());
                 } else {
-                    UserMapper user = userMapperAsyncResult.result();
-                    Queries.findRoomByUUID(vertx, roomID, roomMapperAsyncResult -> {
-                        if (roomMapperAsyncResult.failed()) {
-                            logger.error(roomMapperAsyncResult.cause().toString());
-                        } else {
-                            RoomMapper room = roomMapperAsyncResult.result();
-                            recordMessage(vertx, user, sanitizedTextStringBuilder.toString(),
-                                    Instant.now(), room, messageMapperAsyncResult -> {
-                                if (messageMapperAsyncResult.failed()) {
-                                    logger.error(messageMapperAsyncResult.cause().toString());
-                                } else {
-                                    final MessageMapper message = messageMapperAsyncResult.result();
-
-                                    vertx.eventBus()
-                                        .publish("webchat.client",
-                                            new JsonObject()
-                                                .put("roomID", roomID)
-                                                .put("displayText", formatMessage(message)));
-                                }
-                            });
-                        }
-                    });
+                    recordMessage(event, user, room, sanitizeAsyncResult.result());
                 }
             });
         });
-    }
 
-    private String formatMessage(MessageMapper messageMapper) {
-        return MessageFormat.format("{0} &lt;{1}&gt;: {2}",
-                DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM).format(
-                        Date.from(Instant.from(ISO_INSTANT.parse(messageMapper.getTimeStamp())))),
-                messageMapper.getAuthor().getEmail(),
-                messageMapper.getText());
+        // Ingest statistics of this instance, reported by the data store along with its own
+        String instanceID = UUID.randomUUID().toString();
+        vertx.setPeriodic(statsInterval, tick ->
+            vertx.eventBus().publish(statsAddress, new JsonObject()
+                                                     .put("instance", instanceID)
+                                                     .put("stats", new JsonObject()
+                                                         .put("sanitize", sanitizeStage.stats())
+                                                         .put("record", recordTimer.stats())
+                                                         .put("fanout", fanoutTimer.stats())
+                                                         .put("persistenceLag", persistenceLag.stats()))));
     }
 
-    /**
-     * Records a new message: who said what, when and where.
-     *
-     * @param userMapper
-     * @param timeStamp
-     * @param messageText
-     * @param handler
-     */
-    private void recordMessage(Vertx vertx, UserMapper userMapper, String messageText, Instant timeStamp,
-                               RoomMapper roomMapper, Handler<AsyncResult<MessageMapper>> handler) {
-
-        Objects.requireNonNull(userMapper, "user is null");
-        Objects.requireNonNull(messageText, "messageText is null");
-        Objects.requireNonNull(timeStamp, "timeStamp is null");
-        Objects.requireNonNull(roomMapper, "room is null");
-
-        JsonObject query = new JsonObject()
-                               .put("type", DataStoreVerticle.RECORD_MESSAGE)
-                               .put("params", new JsonObject()
-                                                  .put("user", JsonObject.mapFrom(userMapper))
-                                                  .put("messageText", messageText)
-                                                  .put("timeStamp", timeStamp.toString())
-                                                  .put("room", JsonObject.mapFrom(roomMapper)));
-
-        vertx.eventBus().send(DataStoreVerticle.ADDRESS, query, reply -> {
-            if (reply.failed()) {
-                handler.handle(Future.failedFuture(reply.cause()));
+    private void recordMessage(Message<Object> event, UserMapper user, RoomMapper room, String sanitizedText) {
+        Instant timeStamp = Instant.now();
+
+        // In optimistic mode the room gets the line right away, without a sequence number
+        boolean optimistic = configuration.isOptimisticFanoutEnabled();
+        long fanoutTime = 0;
+        if (optimistic) {
+            publishMessage(provisionalMessage(user, room, sanitizedText, timeStamp));
+            fanoutTime = persistenceLag.fannedOut();
+        }
+
+        final long startTime = fanoutTime;
+        final long recordTime = System.nanoTime();
+        Queries.recordMessage(vertx, user, sanitizedText, timeStamp, room, messageMapperAsyncResult -> {
+            recordTimer.since(recordTime);
+            if (messageMapperAsyncResult.failed()) {
+                logger.error(messageMapperAsyncResult.cause().toString());
+                if (optimistic) {
+                    persistenceLag.failed();
+                }
+
+                /* the author learns the line was not recorded (if they asked) */
+                event.fail(ResponseStatus.INTERNAL_SERVER_ERROR.getStatusCode(), "Message not recorded");
             } else {
-                JsonObject obj = (JsonObject) reply.result().body();
-                Objects.requireNonNull(obj);
-
-                JsonObject result = obj.getJsonObject("result");
-                if (Objects.isNull(result)) {
-                    JsonObject failure = obj.getJsonObject("failure");
-                    if (! Objects.isNull(failure)) {
-                        String cause = failure.getString("cause");
-                        handler.handle(Future.failedFuture(cause));
-                    } else {
-                        handler.handle(Future.failedFuture(new RuntimeException("Malformed message")));
-                    }
-                } else {
-                    try {
-                        MessageMapper message = result.mapTo(MessageMapper.class);
-                        handler.handle(Future.succeededFuture(message));
-                    } catch (Throwable t) {
-                        handler.handle(Future.failedFuture(t));
-                    }
+                MessageMapper message = messageMapperAsyncResult.result();
+                if (optimistic) {
+                    persistenceLag.recorded(startTime);
+                } else if (! configuration.isKafkaEnabled()) {
+                    publishMessage(message);
                 }
+                event.reply(new JsonObject().put("seq", message.getSeq()));
             }
         });
     }
 
+    /* what recording would return, but the uuid and sequence number */
+    private MessageMapper provisionalMessage(UserMapper user, RoomMapper room, String text, Instant timeStamp) {
+        MessageMapper message = new MessageMapper();
+        message.setTimeStamp(timeStamp.toEpochMilli());
+        message.setText(text);
+        message.setAuthor(user);
+        message.setAuthorUuid(user.getUuid());
+        message.setAuthorEmail(user.getEmail());
+        message.setRoom(room);
+        message.setRoomUuid(room.getUuid());
+        return message;
+    }
+
+    /* one address per room, sockets only get the traffic of the room they are in; they do
+       the display formatting */
+    private void publishMessage(MessageMapper message) {
+        long startTime = System.nanoTime();
+        vertx.eventBus()
+            .publish("webchat.client." + message.getRoomUuid(), Utils.messageRecord(message));
+        fanoutTimer.since(startTime);
+    }
+
     private void setupProtectedHandlers() {
         /* An extra handler to fetch user info into context */
         UserInfoHandler userInfoHandler = UserInfoHandler.create();
@@ -262,6 +292,9 @@ public final class MainHandlerImpl implements MainHandler {
         router.get("/protected/history/*")
             .handler(HistoryHandler.create());
 
+        router.get("/protected/search")
+            .handler(SearchHandler.create());
+
         router.get("/protected/logout")
             .handler(LogoutRequestHandler.create());
     }
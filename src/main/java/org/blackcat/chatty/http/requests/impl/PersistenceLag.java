@@ -0,0 +1,56 @@
+package org.blackcat.chatty.http.requests.impl;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Tracks chat lines fanned out before they were recorded: how many are still pending, how
+ * many could not be recorded, and how long recording took after the fanout.
+ *
+ * Not thread-safe: instances are meant to be owned by a single verticle instance.
+ */
+final class PersistenceLag {
+
+    /* counters */
+    private long pending;
+    private long recorded;
+    private long failed;
+
+    /* millis */
+    private long lastLag;
+    private long maxLag;
+    private long totalLag;
+
+    /**
+     * A chat line has been fanned out, recording is under way.
+     *
+     * @return the start time, to be handed back once recording is over
+     */
+    long fannedOut() {
+        ++ pending;
+        return System.nanoTime();
+    }
+
+    void recorded(long startTime) {
+        -- pending;
+        ++ recorded;
+
+        lastLag = (System.nanoTime() - startTime) / 1000000;
+        maxLag = Math.max(maxLag, lastLag);
+        totalLag += lastLag;
+    }
+
+    void failed() {
+        -- pending;
+        ++ failed;
+    }
+
+    public JsonObject stats() {
+        return new JsonObject()
+                   .put("pending", pending)
+                   .put("recorded", recorded)
+                   .put("failed", failed)
+                   .put("lastLag", lastLag)
+                   .put("maxLag", maxLag)
+                   .put("averageLag", recorded == 0 ? 0 : totalLag / recorded);
+    }
+}
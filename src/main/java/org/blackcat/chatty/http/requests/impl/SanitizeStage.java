@@ -0,0 +1,148 @@
+package org.blackcat.chatty.http.requests.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+import org.owasp.html.HtmlPolicyBuilder;
+import org.owasp.html.PolicyFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * First stage of chat line ingest: sanitizing, off the event loop on a pool shared by all
+ * web server instances. Lines past the queue limit of an instance are rejected right away
+ * rather than piling up.
+ *
+ * Lines are sanitized in parallel, but handed over in the order they were submitted in for
+ * a given ordering key (the author in a room): a short line does not overtake a long one
+ * sent just before it. Only rejected lines are failed out of order.
+ *
+ * Not thread-safe: instances are meant to be owned by a single verticle instance, only the
+ * sanitizing itself runs elsewhere.
+ */
+final class SanitizeStage {
+
+    final private static String POOL_NAME = "chatty-sanitize";
+
+    /* the slashdot example policy, built once: factories are immutable and thread-safe */
+    final private static PolicyFactory POLICY = new HtmlPolicyBuilder()
+        .allowStandardUrlProtocols()
+        .allowAttributes("title").globally()
+        .allowAttributes("href").onElements("a")
+        .requireRelNofollowOnLinks()
+        .allowAttributes("lang").matching(Pattern.compile("[a-zA-Z]{2,20}")).globally()
+        .allowAttributes("align").matching(true, "center", "left", "right", "justify", "char").onElements("p")
+        .allowElements("a", "p", "div", "i", "b", "em", "blockquote", "tt", "strong", "br", "ul", "ol", "li")
+        .allowElements("quote", "ecode")
+        .toFactory();
+
+    private final WorkerExecutor executor;
+    private final int queueLimit;
+
+    /* lines submitted, not sanitized yet */
+    private int pending;
+    private long rejected;
+
+    /* lines not handed over yet, by ordering key, in submission order */
+    private final Map<String, Deque<Line>> lines = new HashMap<>();
+
+    private final StageTimer queued = new StageTimer();
+    private final StageTimer sanitized = new StageTimer();
+
+    /**
+     * @param vertx
+     * @param poolSize - the number of threads of the shared pool
+     * @param queueLimit - the maximum number of pending lines
+     */
+    SanitizeStage(Vertx vertx, int poolSize, int queueLimit) {
+        this.executor = vertx.createSharedWorkerExecutor(POOL_NAME, poolSize);
+        this.queueLimit = queueLimit;
+    }
+
+    /**
+     * Sanitizes a chat line.
+     *
+     * @param key - lines with the same key are handed over in submission order
+     * @param text
+     * @param handler - called back on the caller context with the sanitized text, or a failure
+     *                if the line was rejected
+     */
+    void sanitize(String key, String text, Handler<AsyncResult<String>> handler) {
+        if (pending >= queueLimit) {
+            ++ rejected;
+            handler.handle(Future.failedFuture("Server busy"));
+            return;
+        }
+
+        ++ pending;
+        Line line = new Line(handler);
+        lines.computeIfAbsent(key, k -> new ArrayDeque<>()).add(line);
+
+        long submitTime = System.nanoTime();
+        executor.<Sanitized>executeBlocking(future -> {
+            long startTime = System.nanoTime();
+            String sanitizedText = POLICY.sanitize(text);
+            future.complete(new Sanitized(sanitizedText, startTime, System.nanoTime()));
+        }, false, asyncResult -> {
+            -- pending;
+            if (asyncResult.succeeded()) {
+                Sanitized result = asyncResult.result();
+                queued.add(result.startTime - submitTime);
+                sanitized.add(result.endTime - result.startTime);
+            }
+
+            line.result = asyncResult.map(result -> result.text);
+            handOver(key);
+        });
+    }
+
+    /* hands the lines of a key over, up to the first one still being sanitized */
+    private void handOver(String key) {
+        Deque<Line> queue = lines.get(key);
+        while (! queue.isEmpty() && ! Objects.isNull(queue.peekFirst().result)) {
+            Line line = queue.pollFirst();
+            line.handler.handle(line.result);
+        }
+        if (queue.isEmpty()) {
+            lines.remove(key);
+        }
+    }
+
+    public JsonObject stats() {
+        return new JsonObject()
+                   .put("pending", pending)
+                   .put("rejected", rejected)
+                   .put("queued", queued.stats())
+                   .put("sanitized", sanitized.stats());
+    }
+
+    final private static class Line {
+        final Handler<AsyncResult<String>> handler;
+        AsyncResult<String> result; /* null while being sanitized */
+
+        Line(Handler<AsyncResult<String>> handler) {
+            this.handler = handler;
+        }
+    }
+
+    /* timings are taken on the worker, accounted for back on the event loop */
+    final private static class Sanitized {
+        final String text;
+        final long startTime;
+        final long endTime;
+
+        Sanitized(String text, long startTime, long endTime) {
+            this.text = text;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.blackcat.chatty.http.requests.impl;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Time spent in one stage of the ingest pipeline.
+ *
+ * Not thread-safe: instances are meant to be owned by a single verticle instance.
+ */
+final class StageTimer {
+
+    /* counters */
+    private long count;
+
+    /* nanos */
+    private long total;
+    private long max;
+
+    void add(long nanos) {
+        ++ count;
+        total += nanos;
+        max = Math.max(max, nanos);
+    }
+
+    /**
+     * Times a stage running on the calling thread.
+     *
+     * @param startTime - System.nanoTime() when the stage began
+     */
+    void since(long startTime) {
+        add(System.nanoTime() - startTime);
+    }
+
+    public JsonObject stats() {
+        return new JsonObject()
+                   .put("count", count)
+                   .put("averageMicros", count == 0 ? 0 : total / count / 1000)
+                   .put("maxMicros", max / 1000);
+    }
+}
@@ -1,7 +1,21 @@
 package org.blackcat.chatty.http.requests.response;
 
+import io.vertx.core.streams.ReadStream;
 import io.vertx.ext.web.RoutingContext;
 
+import java.util.function.Function;
+
 public interface HtmlResponseBuilder extends ResponseBuilder {
     void success(RoutingContext ctx, String templateName);
+
+    /**
+     * Renders a template around a stream of items, written out as a chunked response as they
+     * come. The template marks where the items go with {{ streamed }}.
+     *
+     * @param ctx
+     * @param templateName
+     * @param items
+     * @param formatter - renders an item as html
+     */
+    <T> void stream(RoutingContext ctx, String templateName, ReadStream<T> items, Function<T, String> formatter);
 }
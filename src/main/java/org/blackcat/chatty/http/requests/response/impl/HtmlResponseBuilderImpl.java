@@ -4,12 +4,17 @@ import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.streams.ReadStream;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.templ.TemplateEngine;
 import org.blackcat.chatty.http.Headers;
 import org.blackcat.chatty.http.ResponseStatus;
 import org.blackcat.chatty.http.requests.response.HtmlResponseBuilder;
 
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.Function;
+
 public final class HtmlResponseBuilderImpl implements HtmlResponseBuilder {
 
     final private Logger logger = LoggerFactory.getLogger(this.getClass());
@@ -36,6 +41,55 @@ public final class HtmlResponseBuilderImpl implements HtmlResponseBuilder {
         });
     }
 
+    @Override
+    public <T> void stream(RoutingContext ctx, String templateName, ReadStream<T> items,
+                           Function<T, String> formatter) {
+
+        /* the page is rendered once, then split where the items go */
+        String marker = UUID.randomUUID().toString();
+        ctx.put("streamed", marker);
+
+        items.pause();
+        engine.render(ctx, templateDir, templateName, asyncResult -> {
+            if (asyncResult.failed()) {
+                ctx.fail(asyncResult.cause());
+                return;
+            }
+
+            String page = asyncResult.result().toString(StandardCharsets.UTF_8.name());
+            int index = page.indexOf(marker);
+            if (index < 0) {
+                ctx.fail(new IllegalStateException(templateName + " has no place for streamed items"));
+                return;
+            }
+
+            HttpServerResponse response = ctx.response();
+            response
+                .setChunked(true)
+                .putHeader(Headers.CONTENT_TYPE_HEADER, "text/html; charset=utf-8")
+                .write(page.substring(0, index));
+
+            /* the client went away, stop fetching */
+            response.closeHandler(v -> items.pause());
+
+            items
+                .exceptionHandler(cause -> {
+                    /* too late for an error page, cut the response short */
+                    logger.error(cause);
+                    response.close();
+                })
+                .endHandler(v -> response.end(page.substring(index + marker.length())))
+                .handler(item -> {
+                    response.write(formatter.apply(item));
+                    if (response.writeQueueFull()) {
+                        items.pause();
+                        response.drainHandler(v -> items.resume());
+                    }
+                })
+                .resume();
+        });
+    }
+
     @Override
     public void badRequest(RoutingContext ctx) {
         makeUserErrorResponse(ctx, ResponseStatus.BAD_REQUEST, "bad-request");
@@ -18,15 +18,26 @@ final public class MessageMapper {
         this.uuid = uuid;
     }
 
-    private String timeStamp;
-    public String getTimeStamp() {
+    /* epoch millis */
+    private long timeStamp;
+    public long getTimeStamp() {
         return timeStamp;
     }
 
-    public void setTimeStamp(String timeStamp) {
+    public void setTimeStamp(long timeStamp) {
         this.timeStamp = timeStamp;
     }
 
+    /* sequence number within the room, gap-free from 1 on, in recording order (0 if unknown) */
+    private long seq;
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
     @Referenced
     private UserMapper author;
 
@@ -47,6 +58,35 @@ final public class MessageMapper {
     public void setRoom(RoomMapper room) {
         this.room = room;
     }
+
+    /* denormalized snapshot of author and room, read without resolving references */
+    private String authorUuid;
+    public String getAuthorUuid() {
+        return authorUuid;
+    }
+
+    public void setAuthorUuid(String authorUuid) {
+        this.authorUuid = authorUuid;
+    }
+
+    private String authorEmail;
+    public String getAuthorEmail() {
+        return authorEmail;
+    }
+
+    public void setAuthorEmail(String authorEmail) {
+        this.authorEmail = authorEmail;
+    }
+
+    private String roomUuid;
+    public String getRoomUuid() {
+        return roomUuid;
+    }
+
+    public void setRoomUuid(String roomUuid) {
+        this.roomUuid = roomUuid;
+    }
+
     private String text;
 
     public MessageMapper()
@@ -64,9 +104,13 @@ final public class MessageMapper {
     public String toString() {
         return "MessageMapper{" +
                 "uuid='" + uuid + '\'' +
-                ", timeStamp='" + timeStamp + '\'' +
+                ", timeStamp=" + timeStamp +
+                ", seq=" + seq +
                 ", author=" + author +
                 ", room=" + room +
+                ", authorUuid='" + authorUuid + '\'' +
+                ", authorEmail='" + authorEmail + '\'' +
+                ", roomUuid='" + roomUuid + '\'' +
                 ", text='" + text + '\'' +
                 '}';
     }
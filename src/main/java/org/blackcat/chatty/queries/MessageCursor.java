@@ -0,0 +1,97 @@
+package org.blackcat.chatty.queries;
+
+import io.vertx.core.json.JsonObject;
+import org.blackcat.chatty.mappers.MessageMapper;
+
+import java.text.MessageFormat;
+import java.util.Objects;
+
+/**
+ * A position in a room history. Pages are fetched strictly before the cursor, newest first,
+ * or strictly after it, oldest first.
+ *
+ * Messages are ordered by (timeStamp, uuid), the uuid breaking ties between messages
+ * recorded within the same instant.
+ */
+final public class MessageCursor implements Comparable<MessageCursor> {
+
+    /* separator used in the textual (url-friendly) representation */
+    private static final String SEPARATOR = "~";
+
+    private final long timeStamp;
+    private final String uuid;
+
+    public MessageCursor(long timeStamp, String uuid) {
+        this.timeStamp = timeStamp;
+        this.uuid = Objects.requireNonNull(uuid, "uuid is null");
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    /**
+     * Builds a cursor pointing at the given message.
+     *
+     * @param messageMapper
+     * @return the cursor
+     */
+    public static MessageCursor of(MessageMapper messageMapper) {
+        return new MessageCursor(messageMapper.getTimeStamp(), messageMapper.getUuid());
+    }
+
+    public JsonObject toJson() {
+        return new JsonObject()
+                   .put("timeStamp", timeStamp)
+                   .put("uuid", uuid);
+    }
+
+    public static MessageCursor fromJson(JsonObject jsonObject) {
+        return new MessageCursor(jsonObject.getLong("timeStamp"), jsonObject.getString("uuid"));
+    }
+
+    /**
+     * @return the textual representation of this cursor, suitable for query strings
+     */
+    public String encode() {
+        return timeStamp + SEPARATOR + uuid;
+    }
+
+    /**
+     * Parses the textual representation of a cursor, as returned by {@link #encode()}.
+     *
+     * @param s
+     * @return the cursor
+     * @throws IllegalArgumentException if s is not a valid cursor
+     */
+    public static MessageCursor parse(String s) {
+        Objects.requireNonNull(s);
+
+        int index = s.lastIndexOf(SEPARATOR);
+        if (index <= 0 || index == s.length() - 1) {
+            throw new IllegalArgumentException(MessageFormat.format("{0} is not a valid cursor", s));
+        }
+
+        /* NumberFormatException is an IllegalArgumentException */
+        return new MessageCursor(Long.parseLong(s.substring(0, index)), s.substring(index + 1));
+    }
+
+    /* history order: timestamp, then uuid */
+    @Override
+    public int compareTo(MessageCursor other) {
+        int result = Long.compare(timeStamp, other.timeStamp);
+        return result != 0 ? result : uuid.compareTo(other.uuid);
+    }
+
+    @Override
+    public String toString() {
+        return "MessageCursor{" +
+                "timeStamp=" + timeStamp +
+                ", uuid='" + uuid + '\'' +
+                '}';
+    }
+}
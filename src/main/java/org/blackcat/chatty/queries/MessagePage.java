@@ -0,0 +1,35 @@
+package org.blackcat.chatty.queries;
+
+import org.blackcat.chatty.mappers.MessageMapper;
+
+import java.util.List;
+
+/**
+ * A page of a room history, in chronological order. The next cursor, if any,
+ * points to the older page, or to the newer one when the history is read forward.
+ */
+final public class MessagePage {
+
+    private final List<MessageMapper> messages;
+    private final MessageCursor next;
+
+    public MessagePage(List<MessageMapper> messages, MessageCursor next) {
+        this.messages = messages;
+        this.next = next;
+    }
+
+    public List<MessageMapper> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the cursor to the next page, or null if this is the last page in this direction
+     */
+    public MessageCursor getNext() {
+        return next;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+}
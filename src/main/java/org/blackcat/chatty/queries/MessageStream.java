@@ -0,0 +1,113 @@
+package org.blackcat.chatty.queries;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.streams.ReadStream;
+import org.blackcat.chatty.mappers.MessageMapper;
+import org.blackcat.chatty.mappers.RoomMapper;
+import org.blackcat.chatty.mappers.UserMapper;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+
+/**
+ * The history of a room as a stream, oldest message first. At most one chunk is buffered:
+ * the next one is only fetched from the data store once the current one has been consumed,
+ * and not at all while the stream is paused. Not thread-safe, use from a single context.
+ */
+final class MessageStream implements ReadStream<MessageMapper> {
+
+    private final Vertx vertx;
+    private final UserMapper user;
+    private final RoomMapper room;
+    private final int chunkSize;
+
+    private final Deque<MessageMapper> buffer = new ArrayDeque<>();
+    private MessageCursor cursor;
+
+    private Handler<MessageMapper> handler;
+    private Handler<Void> endHandler;
+    private Handler<Throwable> exceptionHandler;
+
+    private boolean paused;
+    private boolean fetching;
+    private boolean exhausted; /* no more chunks */
+    private boolean ended; /* end (or failure) notified */
+
+    MessageStream(Vertx vertx, UserMapper user, RoomMapper room, int chunkSize) {
+        this.vertx = vertx;
+        this.user = Objects.requireNonNull(user, "user is null");
+        this.room = Objects.requireNonNull(room, "room is null");
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public MessageStream exceptionHandler(Handler<Throwable> handler) {
+        exceptionHandler = handler;
+        return this;
+    }
+
+    @Override
+    public MessageStream handler(Handler<MessageMapper> handler) {
+        this.handler = handler;
+        drain();
+        return this;
+    }
+
+    @Override
+    public MessageStream pause() {
+        paused = true;
+        return this;
+    }
+
+    @Override
+    public MessageStream resume() {
+        paused = false;
+        drain();
+        return this;
+    }
+
+    @Override
+    public MessageStream endHandler(Handler<Void> endHandler) {
+        this.endHandler = endHandler;
+        return this;
+    }
+
+    /* feeds buffered messages to the handler, then fetches the next chunk if needed */
+    private void drain() {
+        while (! paused && ! Objects.isNull(handler) && ! buffer.isEmpty()) {
+            handler.handle(buffer.poll());
+        }
+
+        if (paused || Objects.isNull(handler) || ! buffer.isEmpty() || fetching || ended) {
+            return;
+        }
+
+        if (exhausted) {
+            ended = true;
+            if (! Objects.isNull(endHandler)) {
+                endHandler.handle(null);
+            }
+            return;
+        }
+
+        fetching = true;
+        Queries.fetchMessagesAfter(vertx, user, room, cursor, chunkSize, asyncResult -> {
+            fetching = false;
+            if (asyncResult.failed()) {
+                ended = true;
+                if (! Objects.isNull(exceptionHandler)) {
+                    exceptionHandler.handle(asyncResult.cause());
+                }
+                return;
+            }
+
+            MessagePage page = asyncResult.result();
+            buffer.addAll(page.getMessages());
+            cursor = page.getNext();
+            exhausted = ! page.hasNext();
+            drain();
+        });
+    }
+}
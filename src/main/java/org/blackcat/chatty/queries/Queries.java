@@ -4,7 +4,11 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
 import org.blackcat.chatty.mappers.MessageMapper;
 import org.blackcat.chatty.mappers.RoomMapper;
 import org.blackcat.chatty.mappers.UserMapper;
@@ -13,11 +17,33 @@ import org.blackcat.chatty.verticles.DataStoreVerticle;
 import java.time.Instant;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 public final class Queries {
 
-    private static final String malformedReplyMessage = "Malformed reply message";
+    /**
+     * Sends a query to the data store, in-process. Results come back as they are (see Codecs),
+     * query failures as plain failures.
+     *
+     * @param vertx
+     * @param query
+     * @param handler
+     */
+    private static <T> void send(Vertx vertx, JsonObject query, Handler<AsyncResult<T>> handler) {
+        vertx.eventBus().<T>send(DataStoreVerticle.LOCAL_ADDRESS, query, reply -> {
+            if (reply.succeeded()) {
+                handler.handle(Future.succeededFuture(reply.result().body()));
+                return;
+            }
+
+            Throwable cause = reply.cause();
+            if (cause instanceof ReplyException &&
+                    ((ReplyException) cause).failureType() == ReplyFailure.RECIPIENT_FAILURE) {
+                handler.handle(Future.failedFuture(cause.getMessage()));
+            } else {
+                handler.handle(Future.failedFuture(cause));
+            }
+        });
+    }
 
     /**
      * Retrieves a User entity by email, or creates a new one if no such entity exists.
@@ -31,32 +57,7 @@ public final class Queries {
                                .put("params", new JsonObject()
                                                   .put("email", email));
 
-        vertx.eventBus().send(DataStoreVerticle.ADDRESS, query, reply -> {
-            if (reply.failed()) {
-                handler.handle(Future.failedFuture(reply.cause()));
-            } else {
-                final JsonObject obj = (JsonObject) reply.result().body();
-                Objects.requireNonNull(obj);
-
-                final JsonObject result = obj.getJsonObject("result");
-                if (Objects.isNull(result)) {
-                    final JsonObject failure = obj.getJsonObject("failure");
-                    if (! Objects.isNull(failure)) {
-                        final String cause = failure.getString("cause");
-                        handler.handle(Future.failedFuture(cause));
-                    } else {
-                        handler.handle(Future.failedFuture(malformedReplyMessage));
-                    }
-                } else {
-                    try {
-                        final UserMapper user = obj.getJsonObject("result").mapTo(UserMapper.class);
-                        handler.handle(Future.succeededFuture(user));
-                    } catch (Throwable t) {
-                        handler.handle(Future.failedFuture(t));
-                    }
-                }
-            }
-        });
+        send(vertx, query, handler);
     }
 
     /**
@@ -71,32 +72,7 @@ public final class Queries {
                                .put("params", new JsonObject()
                                                   .put("name", name));
 
-        vertx.eventBus().send(DataStoreVerticle.ADDRESS, query, reply -> {
-            if (reply.failed()) {
-                handler.handle(Future.failedFuture(reply.cause()));
-            } else {
-                final JsonObject obj = (JsonObject) reply.result().body();
-                Objects.requireNonNull(obj);
-
-                final JsonObject result = obj.getJsonObject("result");
-                if (Objects.isNull(result)) {
-                    final JsonObject failure = obj.getJsonObject("failure");
-                    if (! Objects.isNull(failure)) {
-                        final String cause = failure.getString("cause");
-                        handler.handle(Future.failedFuture(cause));
-                    } else {
-                        handler.handle(Future.failedFuture(malformedReplyMessage));
-                    }
-                } else {
-                    try {
-                        final RoomMapper room = result.mapTo(RoomMapper.class);
-                        handler.handle(Future.succeededFuture(room));
-                    } catch (Throwable t) {
-                        handler.handle(Future.failedFuture(t));
-                    }
-                }
-            }
-        });
+        send(vertx, query, handler);
     }
 
     /**
@@ -111,32 +87,7 @@ public final class Queries {
                                .put("params", new JsonObject()
                                                   .put("uuid", uuid));
 
-        vertx.eventBus().send(DataStoreVerticle.ADDRESS, query, reply -> {
-            if (reply.failed()) {
-                handler.handle(Future.failedFuture(reply.cause()));
-            } else {
-                JsonObject obj = (JsonObject) reply.result().body();
-                Objects.requireNonNull(obj);
-
-                final JsonObject result = obj.getJsonObject("result");
-                if (Objects.isNull(result)) {
-                    final JsonObject failure = obj.getJsonObject("failure");
-                    if (! Objects.isNull(failure)) {
-                        final String cause = failure.getString("cause");
-                        handler.handle(Future.failedFuture(cause));
-                    } else {
-                        handler.handle(Future.failedFuture(malformedReplyMessage));
-                    }
-                } else {
-                    try {
-                        final UserMapper user = result.mapTo(UserMapper.class);
-                        handler.handle(Future.succeededFuture(user));
-                    } catch (Throwable t) {
-                        handler.handle(Future.failedFuture(t));
-                    }
-                }
-            }
-        });
+        send(vertx, query, handler);
     }
 
 
@@ -152,32 +103,66 @@ public final class Queries {
                                .put("params", new JsonObject()
                                                   .put("uuid", uuid));
 
-        vertx.eventBus().send(DataStoreVerticle.ADDRESS, query, reply -> {
-            if (reply.failed()) {
-                handler.handle(Future.failedFuture(reply.cause()));
-            } else {
-                JsonObject obj = (JsonObject) reply.result().body();
-                Objects.requireNonNull(obj);
-
-                final JsonObject result = obj.getJsonObject("result");
-                if (Objects.isNull(result)) {
-                    final JsonObject failure = obj.getJsonObject("failure");
-                    if (! Objects.isNull(failure)) {
-                        final String cause = failure.getString("cause");
-                        handler.handle(Future.failedFuture(cause));
-                    } else {
-                        handler.handle(Future.failedFuture(malformedReplyMessage));
-                    }
-                } else {
-                    try {
-                        RoomMapper room = result.mapTo(RoomMapper.class);
-                        handler.handle(Future.succeededFuture(room));
-                    } catch (Throwable t) {
-                        handler.handle(Future.failedFuture(t));
-                    }
-                }
-            }
-        });
+        send(vertx, query, handler);
+    }
+
+    /**
+     * Retrieves many User entities by uuid, at once.
+     *
+     * @param uuids
+     * @param handler - called back with the users found, in no particular order
+     */
+    public static void findUsersByUUIDs(Vertx vertx, List<String> uuids, Handler<AsyncResult<List<UserMapper>>> handler) {
+        JsonObject query = new JsonObject()
+                               .put("type", DataStoreVerticle.FIND_USERS_BY_UUIDS)
+                               .put("params", new JsonObject()
+                                                  .put("uuids", new JsonArray(uuids)));
+
+        send(vertx, query, handler);
+    }
+
+    /**
+     * Retrieves many Room entities by uuid, at once.
+     *
+     * @param uuids
+     * @param handler - called back with the rooms found, in no particular order
+     */
+    public static void findRoomsByUUIDs(Vertx vertx, List<String> uuids, Handler<AsyncResult<List<RoomMapper>>> handler) {
+        JsonObject query = new JsonObject()
+                               .put("type", DataStoreVerticle.FIND_ROOMS_BY_UUIDS)
+                               .put("params", new JsonObject()
+                                                  .put("uuids", new JsonArray(uuids)));
+
+        send(vertx, query, handler);
+    }
+
+    /**
+     * Retrieves all Room entities.
+     *
+     * @param handler
+     */
+    public static void findRooms(Vertx vertx, Handler<AsyncResult<List<RoomMapper>>> handler) {
+        JsonObject query = new JsonObject()
+                               .put("type", DataStoreVerticle.FIND_ROOMS)
+                               .put("params", new JsonObject());
+
+        send(vertx, query, handler);
+    }
+
+    /**
+     * Retrieves the activity of many rooms at once: message count, last message, and number
+     * of distinct authors.
+     *
+     * @param uuids
+     * @param handler - called back with the stats of each room, in the order of the uuids
+     */
+    public static void findRoomStats(Vertx vertx, List<String> uuids, Handler<AsyncResult<List<RoomStats>>> handler) {
+        JsonObject query = new JsonObject()
+                               .put("type", DataStoreVerticle.ROOM_STATS)
+                               .put("params", new JsonObject()
+                                                  .put("uuids", new JsonArray(uuids)));
+
+        send(vertx, query, handler);
     }
 
     /**
@@ -199,37 +184,16 @@ public final class Queries {
         JsonObject query = new JsonObject()
                                .put("type", DataStoreVerticle.RECORD_MESSAGE)
                                .put("params", new JsonObject()
-                                                  .put("user", JsonObject.mapFrom(userMapper))
+                                                  .put("user", new JsonObject()
+                                                                   .put("uuid", userMapper.getUuid())
+                                                                   .put("email", userMapper.getEmail()))
                                                   .put("messageText", messageText)
-                                                  .put("timeStamp", timeStamp.toString())
-                                                  .put("room", JsonObject.mapFrom(roomMapper)));
+                                                  .put("timeStamp", timeStamp.toEpochMilli())
+                                                  .put("room", new JsonObject()
+                                                                   .put("uuid", roomMapper.getUuid())
+                                                                   .put("name", roomMapper.getName())));
 
-        vertx.eventBus().send(DataStoreVerticle.ADDRESS, query, reply -> {
-            if (reply.failed()) {
-                handler.handle(Future.failedFuture(reply.cause()));
-            } else {
-                JsonObject obj = (JsonObject) reply.result().body();
-                Objects.requireNonNull(obj);
-
-                final JsonObject result = obj.getJsonObject("result");
-                if (Objects.isNull(result)) {
-                    final JsonObject failure = obj.getJsonObject("failure");
-                    if (! Objects.isNull(failure)) {
-                        final String cause = failure.getString("cause");
-                        handler.handle(Future.failedFuture(cause));
-                    } else {
-                        handler.handle(Future.failedFuture(malformedReplyMessage));
-                    }
-                } else {
-                    try {
-                        final MessageMapper message = result.mapTo(MessageMapper.class);
-                        handler.handle(Future.succeededFuture(message));
-                    } catch (Throwable t) {
-                        handler.handle(Future.failedFuture(t));
-                    }
-                }
-            }
-        });
+        send(vertx, query, handler);
     }
 
     /**
@@ -242,43 +206,112 @@ public final class Queries {
         JsonObject query = new JsonObject()
                                .put("type", DataStoreVerticle.GET_GENERAL_ROOM_UUID);
 
-        vertx.eventBus().send(DataStoreVerticle.ADDRESS, query, reply -> {
-            if (reply.failed()) {
-                handler.handle(Future.failedFuture(reply.cause()));
-            } else {
-                JsonObject obj = (JsonObject) reply.result().body();
-                Objects.requireNonNull(obj);
-
-                final JsonObject result = obj.getJsonObject("result");
-                if (Objects.isNull(result)) {
-                    final JsonObject failure = obj.getJsonObject("failure");
-                    if (! Objects.isNull(failure)) {
-                        final String cause = failure.getString("cause");
-                        handler.handle(Future.failedFuture(cause));
-                    } else {
-                        handler.handle(Future.failedFuture(malformedReplyMessage));
-                    }
-                } else {
-                    try {
-                        final String uuid = result.getString("uuid");
-                        handler.handle(Future.succeededFuture(uuid));
-                    } catch (Throwable t) {
-                        handler.handle(Future.failedFuture(t));
-                    }
-                }
-            }
-        });
+        send(vertx, query, handler);
     }
 
     /**
-     * Fetches messages for a given room. User permissions shall be checked (TODO)
+     * Searches messages, best match first. User permissions shall be checked (TODO)
+     *
+     * @param userMapper
+     * @param roomMapper - the room to search, or null for all of them
+     * @param query - free text, all of its terms must match
+     * @param offset - the number of results to skip, as returned with the previous page
+     * @param limit - the maximum number of results in the page
+     * @param handler
+     */
+    public static void searchMessages(Vertx vertx, UserMapper userMapper, RoomMapper roomMapper, String query,
+                                      int offset, int limit, Handler<AsyncResult<SearchPage>> handler) {
+
+        Objects.requireNonNull(userMapper, "user is null");
+        Objects.requireNonNull(query, "query is null");
+
+        JsonObject params = new JsonObject()
+                                .put("query", query)
+                                .put("offset", offset)
+                                .put("limit", limit);
+        if (! Objects.isNull(roomMapper)) {
+            params.put("roomUUID", roomMapper.getUuid());
+        }
+
+        JsonObject queryObject = new JsonObject()
+                                     .put("type", DataStoreVerticle.SEARCH_MESSAGES)
+                                     .put("params", params);
+
+        send(vertx, queryObject, handler);
+    }
+
+    /**
+     * Fetches a page of messages for a given room, newest page first. User permissions shall be checked (TODO)
      *
      * @param userMapper
      * @param roomMapper
+     * @param before - the cursor returned with the previous page, or null for the newest page
+     * @param limit - the maximum number of messages in the page
      * @param handler
      */
-    public static void fetchMessages(Vertx vertx, UserMapper userMapper,
-                                     RoomMapper roomMapper, Handler<AsyncResult<List<MessageMapper>>> handler) {
+    public static void fetchMessages(Vertx vertx, UserMapper userMapper, RoomMapper roomMapper,
+                                     MessageCursor before, int limit, Handler<AsyncResult<MessagePage>> handler) {
+
+        Objects.requireNonNull(userMapper, "user is null");
+        Objects.requireNonNull(roomMapper, "room is null");
+
+        JsonObject params = new JsonObject()
+                                .put("roomUUID", roomMapper.getUuid())
+                                .put("limit", limit);
+        if (! Objects.isNull(before)) {
+            params.put("before", before.toJson());
+        }
+
+        JsonObject query = new JsonObject()
+                               .put("type", DataStoreVerticle.FETCH_MESSAGES)
+                               .put("params", params);
+
+        send(vertx, query, handler);
+    }
+
+    /**
+     * Fetches a chunk of messages for a given room, the history read forward. User permissions
+     * shall be checked (TODO)
+     *
+     * @param userMapper
+     * @param roomMapper
+     * @param after - the cursor returned with the previous chunk, or null for the oldest messages
+     * @param limit - the maximum number of messages in the chunk
+     * @param handler
+     */
+    public static void fetchMessagesAfter(Vertx vertx, UserMapper userMapper, RoomMapper roomMapper,
+                                          MessageCursor after, int limit, Handler<AsyncResult<MessagePage>> handler) {
+
+        Objects.requireNonNull(userMapper, "user is null");
+        Objects.requireNonNull(roomMapper, "room is null");
+
+        JsonObject params = new JsonObject()
+                                .put("roomUUID", roomMapper.getUuid())
+                                .put("forward", true)
+                                .put("limit", limit);
+        if (! Objects.isNull(after)) {
+            params.put("after", after.toJson());
+        }
+
+        JsonObject query = new JsonObject()
+                               .put("type", DataStoreVerticle.FETCH_MESSAGES)
+                               .put("params", params);
+
+        send(vertx, query, handler);
+    }
+
+    /**
+     * Fetches the messages of a given room recorded after a sequence number, oldest first.
+     * User permissions shall be checked (TODO)
+     *
+     * @param userMapper
+     * @param roomMapper
+     * @param since - the last sequence number known, 0 for the oldest messages
+     * @param limit - the maximum number of messages in the page
+     * @param handler - called back with the page, which has a next cursor if there is more
+     */
+    public static void fetchMessagesSince(Vertx vertx, UserMapper userMapper, RoomMapper roomMapper,
+                                          long since, int limit, Handler<AsyncResult<MessagePage>> handler) {
 
         Objects.requireNonNull(userMapper, "user is null");
         Objects.requireNonNull(roomMapper, "room is null");
@@ -286,41 +319,24 @@ public final class Queries {
         JsonObject query = new JsonObject()
                                .put("type", DataStoreVerticle.FETCH_MESSAGES)
                                .put("params", new JsonObject()
-                                                  .put("roomUUID", roomMapper.getUuid()));
+                                                  .put("roomUUID", roomMapper.getUuid())
+                                                  .put("since", since)
+                                                  .put("limit", limit));
 
-        vertx.eventBus().send(DataStoreVerticle.ADDRESS, query, reply -> {
-            if (reply.failed()) {
-                handler.handle(Future.failedFuture(reply.cause()));
-            } else {
-                JsonObject obj = (JsonObject) reply.result().body();
-                Objects.requireNonNull(obj);
-
-                final JsonObject result = obj.getJsonObject("result");
-                if (Objects.isNull(result)) {
-                    final JsonObject failure = obj.getJsonObject("failure");
-                    if (! Objects.isNull(failure)) {
-                        final String cause = failure.getString("cause");
-                        handler.handle(Future.failedFuture(cause));
-                    } else {
-                        handler.handle(Future.failedFuture(malformedReplyMessage));
-                    }
-                } else {
-                    try {
-                        final List<JsonObject> jsonObjects =
-                            result.getJsonArray("messages").getList();
-
-                        final List<MessageMapper> messages =
-                            jsonObjects
-                                .stream()
-                                .map(x -> x.mapTo(MessageMapper.class))
-                                .collect(Collectors.toList());
-
-                        handler.handle(Future.succeededFuture(messages));
-                    } catch (Throwable t) {
-                        handler.handle(Future.failedFuture(t));
-                    }
-                }
-            }
-        });
+        send(vertx, query, handler);
+    }
+
+    /**
+     * Streams the whole history of a given room, oldest message first. Chunks are fetched one
+     * at a time, only as fast as the stream is consumed.
+     *
+     * @param userMapper
+     * @param roomMapper
+     * @param chunkSize - the number of messages fetched at once
+     * @return the stream, which starts flowing once a handler is set
+     */
+    public static ReadStream<MessageMapper> streamMessages(Vertx vertx, UserMapper userMapper,
+                                                           RoomMapper roomMapper, int chunkSize) {
+        return new MessageStream(vertx, userMapper, roomMapper, chunkSize);
     }
 }
@@ -0,0 +1,72 @@
+package org.blackcat.chatty.queries;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.Objects;
+
+/**
+ * Activity of a room, maintained as messages are recorded: the number of messages, the
+ * last one, and the number of distinct authors. Archived messages still count.
+ */
+final public class RoomStats {
+
+    private final String roomUUID;
+    private final long messages;
+    private final MessageCursor lastMessage;
+    private final long authors;
+
+    public RoomStats(String roomUUID, long messages, MessageCursor lastMessage, long authors) {
+        this.roomUUID = Objects.requireNonNull(roomUUID, "room uuid is null");
+        this.messages = messages;
+        this.lastMessage = lastMessage;
+        this.authors = authors;
+    }
+
+    /**
+     * @param roomUUID
+     * @return the stats of a room with no messages
+     */
+    public static RoomStats empty(String roomUUID) {
+        return new RoomStats(roomUUID, 0, null, 0);
+    }
+
+    public String getRoomUUID() {
+        return roomUUID;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the last message of the room, or null if there is none
+     */
+    public MessageCursor getLastMessage() {
+        return lastMessage;
+    }
+
+    public long getAuthors() {
+        return authors;
+    }
+
+    public JsonObject toJson() {
+        JsonObject jsonObject = new JsonObject()
+                                    .put("roomUUID", roomUUID)
+                                    .put("messages", messages)
+                                    .put("authors", authors);
+        if (! Objects.isNull(lastMessage)) {
+            jsonObject.put("lastMessage", lastMessage.toJson());
+        }
+        return jsonObject;
+    }
+
+    @Override
+    public String toString() {
+        return "RoomStats{" +
+                "roomUUID='" + roomUUID + '\'' +
+                ", messages=" + messages +
+                ", lastMessage=" + lastMessage +
+                ", authors=" + authors +
+                '}';
+    }
+}
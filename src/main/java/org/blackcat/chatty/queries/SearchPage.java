@@ -0,0 +1,35 @@
+package org.blackcat.chatty.queries;
+
+import org.blackcat.chatty.mappers.MessageMapper;
+
+import java.util.List;
+
+/**
+ * A page of search results, best match first. The next offset, if any, points to the
+ * following page.
+ */
+final public class SearchPage {
+
+    private final List<MessageMapper> messages;
+    private final Integer next;
+
+    public SearchPage(List<MessageMapper> messages, Integer next) {
+        this.messages = messages;
+        this.next = next;
+    }
+
+    public List<MessageMapper> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the offset of the following page, or null if this is the last page
+     */
+    public Integer getNext() {
+        return next;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+}
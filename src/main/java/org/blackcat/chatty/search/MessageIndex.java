@@ -0,0 +1,232 @@
+package org.blackcat.chatty.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index of message texts, for the backends addressing messages by room
+ * and offset. For each room and term, the index keeps the offsets of the messages holding
+ * the term, in increasing order, along with the number of occurrences; messages are added
+ * as they are recorded, so that searches never scan the history.
+ *
+ * Searches match messages holding all terms, ranked by tf-idf, newest first on ties.
+ *
+ * Thread-safe.
+ */
+final public class MessageIndex {
+
+    /* texts are sanitized html: tags and entities are not words */
+    final private static Pattern MARKUP = Pattern.compile("<[^>]*>|&#?\\w+;");
+    final private static Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    final private static int MIN_TERM_LENGTH = 2;
+    final private static int MAX_TERM_LENGTH = 64;
+
+    /* by room uuid */
+    private final Map<String, RoomIndex> rooms = new HashMap<>();
+
+    /**
+     * Splits a text into index terms: lowercase words, without markup, each one once, in
+     * order of first occurrence.
+     *
+     * @param text
+     * @return the terms, with the number of occurrences of each
+     */
+    public static Map<String, Integer> tokenize(String text) {
+        Map<String, Integer> terms = new LinkedHashMap<>();
+        if (Objects.isNull(text)) {
+            return terms;
+        }
+
+        String words = MARKUP.matcher(text).replaceAll(" ").toLowerCase(Locale.ROOT);
+        for (String word : SEPARATORS.split(words)) {
+            if (word.length() >= MIN_TERM_LENGTH && word.length() <= MAX_TERM_LENGTH) {
+                terms.merge(word, 1, Integer::sum);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Indexes a message. Offsets must increase within a room, messages at or before the last
+     * indexed offset of their room are ignored (e.g. replayed).
+     *
+     * @param roomUUID
+     * @param offset
+     * @param text
+     */
+    public synchronized void add(String roomUUID, long offset, String text) {
+        RoomIndex roomIndex = rooms.computeIfAbsent(roomUUID, uuid -> new RoomIndex());
+        if (roomIndex.documents.size > 0 && offset <= roomIndex.documents.offsets[roomIndex.documents.size - 1]) {
+            return;
+        }
+
+        roomIndex.documents.add(offset, 1);
+        tokenize(text).forEach((term, frequency) ->
+            roomIndex.postings.computeIfAbsent(term, t -> new Postings()).add(offset, frequency));
+    }
+
+    /**
+     * Drops the messages of a room before the given offset, e.g. once they have expired.
+     *
+     * @param roomUUID
+     * @param offset
+     */
+    public synchronized void removeBefore(String roomUUID, long offset) {
+        RoomIndex roomIndex = rooms.get(roomUUID);
+        if (Objects.isNull(roomIndex)) {
+            return;
+        }
+
+        roomIndex.documents.removeBefore(offset);
+        roomIndex.postings.values().removeIf(postings -> postings.removeBefore(offset) == 0);
+    }
+
+    /**
+     * Looks up the best matches of a query.
+     *
+     * @param roomUUIDs - the rooms to search, or null for all of them
+     * @param query - free text, all of its terms must match
+     * @param k - the maximum number of hits
+     * @return the hits, best first
+     */
+    public synchronized List<Hit> search(Collection<String> roomUUIDs, String query, int k) {
+        List<String> terms = new ArrayList<>(tokenize(query).keySet());
+        if (terms.isEmpty() || k <= 0) {
+            return new ArrayList<>();
+        }
+
+        /* a min-heap of the best k hits so far */
+        PriorityQueue<Hit> best = new PriorityQueue<>(k + 1, Hit.RANKING.reversed());
+
+        Collection<String> searched = Objects.isNull(roomUUIDs) ? rooms.keySet() : roomUUIDs;
+        for (String roomUUID : searched) {
+            RoomIndex roomIndex = rooms.get(roomUUID);
+            if (! Objects.isNull(roomIndex)) {
+                roomIndex.search(roomUUID, terms, hit -> {
+                    best.add(hit);
+                    if (best.size() > k) {
+                        best.poll();
+                    }
+                });
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(best);
+        hits.sort(Hit.RANKING);
+        return hits;
+    }
+
+    /**
+     * A message matching a query.
+     */
+    final public static class Hit {
+
+        /* best first: highest score, then newest */
+        final static Comparator<Hit> RANKING =
+            Comparator.comparingDouble((Hit hit) -> hit.score).reversed()
+                .thenComparing(Comparator.comparingLong((Hit hit) -> hit.offset).reversed())
+                .thenComparing(hit -> hit.roomUUID);
+
+        private final String roomUUID;
+        private final long offset;
+        private final double score;
+
+        Hit(String roomUUID, long offset, double score) {
+            this.roomUUID = roomUUID;
+            this.offset = offset;
+            this.score = score;
+        }
+
+        public String getRoomUUID() {
+            return roomUUID;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+
+    final private static class RoomIndex {
+        /* all indexed messages, then by term */
+        final Postings documents = new Postings();
+        final Map<String, Postings> postings = new HashMap<>();
+
+        void search(String roomUUID, List<String> terms, Consumer<Hit> consumer) {
+            List<Postings> lists = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                Postings list = postings.get(term);
+                if (Objects.isNull(list)) {
+                    return; /* all terms must match */
+                }
+                lists.add(list);
+            }
+
+            /* walk the shortest list, look the others up */
+            lists.sort(Comparator.comparingInt(list -> list.size));
+            double[] idfs = lists.stream()
+                                .mapToDouble(list -> Math.log(1.0 + (double) documents.size / list.size))
+                                .toArray();
+
+            Postings shortest = lists.get(0);
+            candidates:
+            for (int i = 0; i < shortest.size; ++ i) {
+                long offset = shortest.offsets[i];
+                double score = shortest.frequencies[i] * idfs[0];
+
+                for (int j = 1; j < lists.size(); ++ j) {
+                    Postings list = lists.get(j);
+                    int index = Arrays.binarySearch(list.offsets, 0, list.size, offset);
+                    if (index < 0) {
+                        continue candidates;
+                    }
+                    score += list.frequencies[index] * idfs[j];
+                }
+                consumer.accept(new Hit(roomUUID, offset, score));
+            }
+        }
+    }
+
+    /* offsets in increasing order, with the frequency of the term in each message */
+    final private static class Postings {
+        long[] offsets = new long[4];
+        int[] frequencies = new int[4];
+        int size;
+
+        void add(long offset, int frequency) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * size);
+                frequencies = Arrays.copyOf(frequencies, 2 * size);
+            }
+            offsets[size] = offset;
+            frequencies[size] = frequency;
+            ++ size;
+        }
+
+        /* returns the number of offsets left */
+        int removeBefore(long offset) {
+            int index = Arrays.binarySearch(offsets, 0, size, offset);
+            int from = index >= 0 ? index : -index - 1;
+            if (from > 0) {
+                System.arraycopy(offsets, from, offsets, 0, size - from);
+                System.arraycopy(frequencies, from, frequencies, 0, size - from);
+                size -= from;
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.blackcat.chatty.storage;
+
+import java.text.MessageFormat;
+
+/**
+ * Message uuids for log-structured backends: the room uuid, followed by the offset of the
+ * message in the room log, in fixed-width hex. Within a room, the textual order of uuids is
+ * the log order, so that history cursors map to offsets directly.
+ */
+final public class MessageIds {
+
+    /* separates the room uuid from the offset */
+    final private static char SEPARATOR = '.';
+
+    private MessageIds() {
+    }
+
+    public static String messageUUID(String roomUUID, long offset) {
+        return String.format("%s%c%016x", roomUUID, SEPARATOR, offset);
+    }
+
+    /**
+     * @param roomUUID
+     * @param messageUUID
+     * @return the offset of the message in the room log
+     * @throws IllegalArgumentException if messageUUID is not a message of the room
+     */
+    public static long offsetOf(String roomUUID, String messageUUID) {
+        int index = messageUUID.lastIndexOf(SEPARATOR);
+        if (index < 0 || ! messageUUID.substring(0, index).equals(roomUUID)) {
+            throw new IllegalArgumentException(MessageFormat.format(
+                "{0} is not a message of room {1}", messageUUID, roomUUID));
+        }
+        return Long.parseLong(messageUUID.substring(index + 1), 16);
+    }
+}
@@ -0,0 +1,201 @@
+package org.blackcat.chatty.storage;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import org.blackcat.chatty.conf.Configuration;
+import org.blackcat.chatty.conf.exceptions.ConfigurationException;
+import org.blackcat.chatty.mappers.MessageMapper;
+import org.blackcat.chatty.mappers.RoomMapper;
+import org.blackcat.chatty.mappers.UserMapper;
+import org.blackcat.chatty.queries.MessageCursor;
+import org.blackcat.chatty.queries.MessagePage;
+import org.blackcat.chatty.queries.RoomStats;
+import org.blackcat.chatty.queries.SearchPage;
+import org.blackcat.chatty.storage.impl.KafkaStorageBackend;
+import org.blackcat.chatty.storage.impl.LogStorageBackend;
+import org.blackcat.chatty.storage.impl.MongoStorageBackend;
+
+import java.text.MessageFormat;
+import java.util.List;
+
+import static org.blackcat.chatty.conf.Keys.DATABASE_TYPE_LOG;
+import static org.blackcat.chatty.conf.Keys.DATABASE_TYPE_MONGODB;
+
+/**
+ * Storage SPI behind the data store queries. Caching, batching and query dispatch are
+ * handled by the data store verticle; backends only persist and retrieve entities.
+ *
+ * Handlers are called back on the caller's context.
+ */
+public interface StorageBackend {
+
+    /**
+     * Prepares the backend for use (connections, migrations, indexes, ...).
+     *
+     * @param handler
+     */
+    void init(Handler<AsyncResult<Void>> handler);
+
+    /**
+     * Releases the resources held by the backend.
+     *
+     * @param handler
+     */
+    void close(Handler<AsyncResult<Void>> handler);
+
+    /**
+     * Retrieves a user by email, or creates a new one if no such user exists.
+     *
+     * @param email
+     * @param handler
+     */
+    void findCreateUserByEmail(String email, Handler<AsyncResult<UserMapper>> handler);
+
+    /**
+     * Retrieves a room by name, or creates a new one if no such room exists.
+     *
+     * @param name
+     * @param handler
+     */
+    void findCreateRoomByName(String name, Handler<AsyncResult<RoomMapper>> handler);
+
+    /**
+     * @param uuid
+     * @param handler - called back with the user, or null if there is no such user
+     */
+    void findUserByUUID(String uuid, Handler<AsyncResult<UserMapper>> handler);
+
+    /**
+     * @param uuid
+     * @param handler - called back with the room, or null if there is no such room
+     */
+    void findRoomByUUID(String uuid, Handler<AsyncResult<RoomMapper>> handler);
+
+    /**
+     * @param uuids
+     * @param handler - called back with the users found, in no particular order
+     */
+    void findUsersByUUIDs(List<String> uuids, Handler<AsyncResult<List<UserMapper>>> handler);
+
+    /**
+     * @param uuids
+     * @param handler - called back with the rooms found, in no particular order
+     */
+    void findRoomsByUUIDs(List<String> uuids, Handler<AsyncResult<List<RoomMapper>>> handler);
+
+    /**
+     * @param handler - called back with all defined rooms
+     */
+    void findRooms(Handler<AsyncResult<List<RoomMapper>>> handler);
+
+    /**
+     * Persists a batch of messages, all or none. Messages carry author and room, along with
+     * their snapshot; on success, each of them has been assigned a uuid and a sequence number
+     * within its room, and the stats of their rooms account for them.
+     *
+     * @param messages
+     * @param handler
+     */
+    void recordMessages(List<MessageMapper> messages, Handler<AsyncResult<Void>> handler);
+
+    /**
+     * Looks up the activity of many rooms at once, as maintained on each recorded message,
+     * with no scan of the history.
+     *
+     * @param roomUUIDs
+     * @param handler - called back with the stats of the rooms that have messages, in no
+     *                  particular order
+     */
+    void findRoomStats(List<String> roomUUIDs, Handler<AsyncResult<List<RoomStats>>> handler);
+
+    /**
+     * Fetches a page of the history of a room.
+     *
+     * @param roomUUID
+     * @param before - the cursor of the previous page, or null for the newest page
+     * @param limit - the maximum number of messages in the page
+     * @param handler
+     */
+    void fetchMessages(String roomUUID, MessageCursor before, int limit, Handler<AsyncResult<MessagePage>> handler);
+
+    /**
+     * Fetches the messages of a room past a cursor, oldest first: the history read forward,
+     * one bounded chunk at a time.
+     *
+     * @param roomUUID
+     * @param after - the last message of the previous chunk, or null for the oldest messages
+     * @param limit - the maximum number of messages
+     * @param handler - called back with the messages, oldest first
+     */
+    void fetchMessagesAfter(String roomUUID, MessageCursor after, int limit,
+                            Handler<AsyncResult<List<MessageMapper>>> handler);
+
+    /**
+     * Fetches the messages of a room recorded after a given sequence number, oldest first:
+     * the delta a client needs to catch up.
+     *
+     * @param roomUUID
+     * @param seq - the last sequence number known, 0 for the oldest messages
+     * @param limit - the maximum number of messages
+     * @param handler - called back with the messages, by increasing sequence number
+     */
+    void fetchMessagesSince(String roomUUID, long seq, int limit,
+                            Handler<AsyncResult<List<MessageMapper>>> handler);
+
+    /**
+     * Searches messages, with no scan of the history. Messages carry their room uuid, not
+     * necessarily the whole room.
+     *
+     * @param roomUUID - the room to search, or null for all of them
+     * @param query - free text, all of its terms must match
+     * @param offset - the number of results to skip
+     * @param limit - the maximum number of results
+     * @param handler - called back with the page of results, best match first
+     */
+    void searchMessages(String roomUUID, String query, int offset, int limit, Handler<AsyncResult<SearchPage>> handler);
+
+    /**
+     * Fetches the oldest messages of a room recorded before the given time, for archiving.
+     *
+     * @param roomUUID
+     * @param after - only messages past this cursor, or null for the oldest ones
+     * @param before - epoch millis
+     * @param limit - the maximum number of messages
+     * @param handler - called back with the messages, oldest first
+     */
+    void fetchExpiredMessages(String roomUUID, MessageCursor after, long before, int limit,
+                              Handler<AsyncResult<List<MessageMapper>>> handler);
+
+    /**
+     * Drops the messages of a room up to and including the given one, once they have been
+     * archived. Backends may keep some of them for a while (e.g. within a segment still in
+     * use), and must keep serving them until they are actually gone.
+     *
+     * @param roomUUID
+     * @param through
+     * @param handler
+     */
+    void expireMessages(String roomUUID, MessageCursor through, Handler<AsyncResult<Void>> handler);
+
+    /**
+     * Create a new backend, as configured in the database (and kafka) sections
+     *
+     * @return  the backend
+     */
+    static StorageBackend create(Vertx vertx, Configuration configuration) {
+        StorageBackend backend;
+
+        String type = configuration.getDatabaseType();
+        if (type.equals(DATABASE_TYPE_MONGODB)) {
+            backend = new MongoStorageBackend(vertx, configuration);
+        } else if (type.equals(DATABASE_TYPE_LOG)) {
+            backend = new LogStorageBackend(vertx, configuration);
+        } else {
+            throw new ConfigurationException(MessageFormat.format("Unsupported database: {0}", type));
+        }
+
+        /* messages may go through kafka instead */
+        return configuration.isKafkaEnabled() ? new KafkaStorageBackend(vertx, configuration, backend) : backend;
+    }
+}
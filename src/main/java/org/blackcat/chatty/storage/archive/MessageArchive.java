@@ -0,0 +1,384 @@
+package org.blackcat.chatty.storage.archive;
+
+import io.vertx.core.json.JsonObject;
+import org.blackcat.chatty.mappers.MessageMapper;
+import org.blackcat.chatty.mappers.UserMapper;
+import org.blackcat.chatty.queries.MessageCursor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold tier for messages moved out of the hot store. Layout under the root directory:
+ *
+ * [roomUUID]/[yyyy-MM-dd]/[first timeStamp]-[last timeStamp].jsonl.gz
+ *
+ * Each archived batch becomes one gzip'd JSON-lines file per (UTC) day it spans, written
+ * aside then renamed into place, so that files are either complete or absent. Messages are
+ * archived oldest first: files never overlap, except for a batch archived twice when the hot
+ * store could not drop it the first time, and such duplicates are skipped on reads.
+ *
+ * All blocking, callers must stay off event loops.
+ */
+final public class MessageArchive {
+
+    final private static String SUFFIX = ".jsonl.gz";
+    final private static String TEMPORARY_SUFFIX = ".tmp";
+
+    final private static DateTimeFormatter DAY_FORMATTER =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneOffset.UTC);
+
+    private final File root;
+
+    /* the last archived message, by room uuid, as read from the newest archive file; other
+       data store instances archive too, the file is checked for changes on each lookup */
+    private final Map<String, LastMessage> lastMessages = new HashMap<>();
+
+    public MessageArchive(File root) {
+        this.root = root;
+    }
+
+    /**
+     * Archives a batch of messages of a room, oldest first, and makes it durable.
+     *
+     * @param roomUUID
+     * @param messages
+     * @throws IOException
+     */
+    public synchronized void append(String roomUUID, List<MessageMapper> messages) throws IOException {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<MessageMapper>> days = new LinkedHashMap<>();
+        for (MessageMapper message : messages) {
+            days.computeIfAbsent(DAY_FORMATTER.format(Instant.ofEpochMilli(message.getTimeStamp())),
+                day -> new ArrayList<>()).add(message);
+        }
+
+        for (Map.Entry<String, List<MessageMapper>> day : days.entrySet()) {
+            writeFile(roomUUID, day.getKey(), day.getValue());
+        }
+        lastMessages.remove(roomUUID);
+    }
+
+    /**
+     * @param roomUUID
+     * @return the last archived message of the room, or null if nothing has been archived
+     * @throws IOException
+     */
+    public synchronized MessageCursor getLastCursor(String roomUUID) throws IOException {
+        MessageMapper lastMessage = getLastMessage(roomUUID);
+        return Objects.isNull(lastMessage) ? null : MessageCursor.of(lastMessage);
+    }
+
+    /**
+     * @param roomUUID
+     * @return the sequence number of the last archived message of the room, 0 if nothing has
+     *         been archived (or if it predates sequence numbers)
+     * @throws IOException
+     */
+    public synchronized long getLastSeq(String roomUUID) throws IOException {
+        MessageMapper lastMessage = getLastMessage(roomUUID);
+        return Objects.isNull(lastMessage) ? 0 : lastMessage.getSeq();
+    }
+
+    private MessageMapper getLastMessage(String roomUUID) throws IOException {
+        File file = lastFile(roomUUID);
+        if (Objects.isNull(file)) {
+            lastMessages.remove(roomUUID);
+            return null;
+        }
+
+        LastMessage lastMessage = lastMessages.get(roomUUID);
+        if (Objects.isNull(lastMessage) || ! lastMessage.isFrom(file)) {
+            List<MessageMapper> messages = readFile(roomUUID, file);
+            lastMessage = new LastMessage(file, messages.isEmpty() ? null : messages.get(messages.size() - 1));
+            lastMessages.put(roomUUID, lastMessage);
+        }
+        return lastMessage.message;
+    }
+
+    /* the last message of a room, along with the file it comes from */
+    final private static class LastMessage {
+        final File file;
+        final long lastModified;
+        final MessageMapper message;
+
+        LastMessage(File file, MessageMapper message) {
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.message = message;
+        }
+
+        boolean isFrom(File file) {
+            return this.file.equals(file) && lastModified == file.lastModified();
+        }
+    }
+
+    /**
+     * Reads a page of the archived history of a room. Messages carry their author snapshot,
+     * but not their room.
+     *
+     * @param roomUUID
+     * @param before - only messages older than this cursor, or null for the newest ones
+     * @param limit - the maximum number of messages
+     * @return the messages in chronological order, with one extra (oldest) message if older
+     *         ones exist
+     * @throws IOException
+     */
+    public synchronized List<MessageMapper> read(String roomUUID, MessageCursor before, int limit)
+        throws IOException {
+
+        NewestFirst newestFirst = new NewestFirst();
+        String beforeDay = Objects.isNull(before) ? null :
+                               DAY_FORMATTER.format(Instant.ofEpochMilli(before.getTimeStamp()));
+
+        List<File> files = files(roomUUID);
+        for (int i = files.size() - 1; i >= 0 && newestFirst.size() <= limit; -- i) {
+            File file = files.get(i);
+            if (! Objects.isNull(beforeDay) && file.getParentFile().getName().compareTo(beforeDay) > 0) {
+                continue;
+            }
+
+            List<MessageMapper> messages = readFile(roomUUID, file);
+            for (int j = messages.size() - 1; j >= 0 && newestFirst.size() <= limit; -- j) {
+                MessageMapper message = messages.get(j);
+                if (Objects.isNull(before) || compare(message, before) < 0) {
+                    newestFirst.add(message);
+                }
+            }
+        }
+
+        List<MessageMapper> messages = newestFirst.messages;
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * Reads the archived history of a room forward, one chunk at a time. Messages carry their
+     * author snapshot, but not their room.
+     *
+     * @param roomUUID
+     * @param after - only messages newer than this cursor, or null for the oldest ones
+     * @param limit - the maximum number of messages
+     * @return the messages in chronological order, with one extra (newest) message if newer
+     *         ones exist
+     * @throws IOException
+     */
+    public synchronized List<MessageMapper> readAfter(String roomUUID, MessageCursor after, int limit)
+        throws IOException {
+
+        List<MessageMapper> messages = new ArrayList<>();
+        for (File file : files(roomUUID)) {
+            if (messages.size() > limit) {
+                break;
+            }
+            if (! Objects.isNull(after) && lastTimeStamp(file) < after.getTimeStamp()) {
+                continue;
+            }
+
+            for (MessageMapper message : readFile(roomUUID, file)) {
+                if (messages.size() > limit) {
+                    break;
+                }
+
+                /* each message strictly newer than the previous one (skips duplicates) */
+                MessageCursor last = messages.isEmpty() ? after : MessageCursor.of(messages.get(messages.size() - 1));
+                if (Objects.isNull(last) || compare(message, last) > 0) {
+                    messages.add(message);
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Reads the archived messages of a room recorded after a given sequence number. There is
+     * no index by sequence number: files are scanned oldest first, this is the slow path of
+     * clients catching up on history that has been archived meanwhile.
+     *
+     * @param roomUUID
+     * @param seq - the last sequence number known
+     * @param limit - the maximum number of messages
+     * @return the messages in chronological order, with one extra (newest) message if newer
+     *         ones exist
+     * @throws IOException
+     */
+    public synchronized List<MessageMapper> readSince(String roomUUID, long seq, int limit) throws IOException {
+        List<MessageMapper> messages = new ArrayList<>();
+        for (File file : files(roomUUID)) {
+            if (messages.size() > limit) {
+                break;
+            }
+
+            for (MessageMapper message : readFile(roomUUID, file)) {
+                if (messages.size() > limit) {
+                    break;
+                }
+
+                /* increasing sequence numbers also skip duplicates */
+                long last = messages.isEmpty() ? seq : messages.get(messages.size() - 1).getSeq();
+                if (message.getSeq() > last) {
+                    messages.add(message);
+                }
+            }
+        }
+        return messages;
+    }
+
+    /* newest first, each message strictly older than the previous one (skips duplicates) */
+    final private static class NewestFirst {
+        final List<MessageMapper> messages = new ArrayList<>();
+
+        void add(MessageMapper message) {
+            if (messages.isEmpty() ||
+                    compare(message, MessageCursor.of(messages.get(messages.size() - 1))) < 0) {
+                messages.add(message);
+            }
+        }
+
+        int size() {
+            return messages.size();
+        }
+    }
+
+    /* archive files of a room, oldest first */
+    private List<File> files(String roomUUID) {
+        List<File> files = new ArrayList<>();
+
+        File[] days = new File(root, roomUUID).listFiles(File::isDirectory);
+        if (Objects.isNull(days)) {
+            return files;
+        }
+
+        Arrays.sort(days);
+        for (File day : days) {
+            File[] dayFiles = day.listFiles((dir, name) -> name.endsWith(SUFFIX));
+            if (! Objects.isNull(dayFiles)) {
+                Arrays.sort(dayFiles);
+                files.addAll(Arrays.asList(dayFiles));
+            }
+        }
+        return files;
+    }
+
+    /* the newest archive file of a room, or null if there is none */
+    private File lastFile(String roomUUID) {
+        File[] days = new File(root, roomUUID).listFiles(File::isDirectory);
+        if (Objects.isNull(days)) {
+            return null;
+        }
+
+        Arrays.sort(days);
+        for (int i = days.length - 1; i >= 0; -- i) {
+            File[] dayFiles = days[i].listFiles((dir, name) -> name.endsWith(SUFFIX));
+            if (! Objects.isNull(dayFiles) && dayFiles.length > 0) {
+                Arrays.sort(dayFiles);
+                return dayFiles[dayFiles.length - 1];
+            }
+        }
+        return null;
+    }
+
+    /* the timestamp of the newest message of an archive file, from its name */
+    private static long lastTimeStamp(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.length() - SUFFIX.length()));
+    }
+
+    private void writeFile(String roomUUID, String day, List<MessageMapper> messages) throws IOException {
+        File directory = new File(new File(root, roomUUID), day);
+        if (! directory.isDirectory() && ! directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+
+        String name = String.format("%020d-%020d%s", messages.get(0).getTimeStamp(),
+            messages.get(messages.size() - 1).getTimeStamp(), SUFFIX);
+        File file = new File(directory, name);
+        if (file.exists()) {
+            return; /* archived already */
+        }
+
+        File temporary = new File(directory, name + TEMPORARY_SUFFIX);
+        try (FileOutputStream fileOutputStream = new FileOutputStream(temporary)) {
+            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(fileOutputStream);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(gzipOutputStream, StandardCharsets.UTF_8));
+            for (MessageMapper message : messages) {
+                JsonObject jsonObject = new JsonObject()
+                                            .put("uuid", message.getUuid())
+                                            .put("seq", message.getSeq())
+                                            .put("timeStamp", message.getTimeStamp())
+                                            .put("authorUuid", message.getAuthorUuid())
+                                            .put("authorEmail", message.getAuthorEmail())
+                                            .put("text", message.getText());
+                writer.write(jsonObject.encode());
+                writer.write('\n');
+            }
+            writer.flush();
+            gzipOutputStream.finish();
+            fileOutputStream.getFD().sync();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<MessageMapper> readFile(String roomUUID, File file) throws IOException {
+        List<MessageMapper> messages = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                 new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+
+            String line;
+            while (! Objects.isNull(line = reader.readLine())) {
+                JsonObject jsonObject = new JsonObject(line);
+
+                UserMapper author = new UserMapper();
+                author.setUuid(jsonObject.getString("authorUuid"));
+                author.setEmail(jsonObject.getString("authorEmail"));
+
+                MessageMapper message = new MessageMapper();
+                message.setUuid(jsonObject.getString("uuid"));
+                message.setSeq(jsonObject.getLong("seq", 0L));
+                message.setTimeStamp(jsonObject.getLong("timeStamp"));
+                message.setText(jsonObject.getString("text"));
+                message.setAuthor(author);
+                message.setAuthorUuid(author.getUuid());
+                message.setAuthorEmail(author.getEmail());
+                message.setRoomUuid(roomUUID);
+                messages.add(message);
+            }
+        } catch (EOFException eofe) {
+            throw new IOException("Truncated archive file " + file, eofe);
+        }
+        return messages;
+    }
+
+    /* history order: timestamp, then uuid */
+    private static int compare(MessageMapper message, MessageCursor cursor) {
+        int result = Long.compare(message.getTimeStamp(), cursor.getTimeStamp());
+        return result != 0 ? result : message.getUuid().compareTo(cursor.getUuid());
+    }
+}
@@ -0,0 +1,198 @@
+package org.blackcat.chatty.storage.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import org.blackcat.chatty.conf.Configuration;
+import org.blackcat.chatty.mappers.MessageMapper;
+import org.blackcat.chatty.mappers.RoomMapper;
+import org.blackcat.chatty.mappers.UserMapper;
+import org.blackcat.chatty.queries.MessageCursor;
+import org.blackcat.chatty.queries.MessagePage;
+import org.blackcat.chatty.queries.RoomStats;
+import org.blackcat.chatty.queries.SearchPage;
+import org.blackcat.chatty.storage.StorageBackend;
+import org.blackcat.chatty.storage.kafka.KafkaMessageLog;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Messages go to a {@link KafkaMessageLog}, users and rooms to the underlying backend.
+ */
+final public class KafkaStorageBackend implements StorageBackend {
+
+    private final Vertx vertx;
+    private final Configuration configuration;
+    private final StorageBackend entities;
+
+    private KafkaMessageLog messageLog;
+
+    public KafkaStorageBackend(Vertx vertx, Configuration configuration, StorageBackend entities) {
+        this.vertx = vertx;
+        this.configuration = configuration;
+        this.entities = entities;
+    }
+
+    @Override
+    public void init(Handler<AsyncResult<Void>> handler) {
+        entities.init(asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+                return;
+            }
+
+            KafkaMessageLog.open(vertx, configuration, logAsyncResult -> {
+                if (logAsyncResult.failed()) {
+                    handler.handle(Future.failedFuture(logAsyncResult.cause()));
+                } else {
+                    messageLog = logAsyncResult.result();
+                    handler.handle(Future.succeededFuture());
+                }
+            });
+        });
+    }
+
+    @Override
+    public void close(Handler<AsyncResult<Void>> handler) {
+        Future.<Void>future(future -> {
+            if (Objects.isNull(messageLog)) {
+                future.complete();
+            } else {
+                messageLog.close(future);
+            }
+        }).compose(v -> Future.<Void>future(entities::close))
+          .setHandler(handler);
+    }
+
+    @Override
+    public void findCreateUserByEmail(String email, Handler<AsyncResult<UserMapper>> handler) {
+        entities.findCreateUserByEmail(email, handler);
+    }
+
+    @Override
+    public void findCreateRoomByName(String name, Handler<AsyncResult<RoomMapper>> handler) {
+        entities.findCreateRoomByName(name, handler);
+    }
+
+    @Override
+    public void findUserByUUID(String uuid, Handler<AsyncResult<UserMapper>> handler) {
+        entities.findUserByUUID(uuid, handler);
+    }
+
+    @Override
+    public void findRoomByUUID(String uuid, Handler<AsyncResult<RoomMapper>> handler) {
+        entities.findRoomByUUID(uuid, handler);
+    }
+
+    @Override
+    public void findUsersByUUIDs(List<String> uuids, Handler<AsyncResult<List<UserMapper>>> handler) {
+        entities.findUsersByUUIDs(uuids, handler);
+    }
+
+    @Override
+    public void findRoomsByUUIDs(List<String> uuids, Handler<AsyncResult<List<RoomMapper>>> handler) {
+        entities.findRoomsByUUIDs(uuids, handler);
+    }
+
+    @Override
+    public void findRooms(Handler<AsyncResult<List<RoomMapper>>> handler) {
+        entities.findRooms(handler);
+    }
+
+    @Override
+    public void recordMessages(List<MessageMapper> messages, Handler<AsyncResult<Void>> handler) {
+        messageLog.append(messages, handler);
+    }
+
+    @Override
+    public void fetchMessages(String roomUUID, MessageCursor before, int limit,
+                              Handler<AsyncResult<MessagePage>> handler) {
+
+        entities.findRoomByUUID(roomUUID, roomAsyncResult -> {
+            if (roomAsyncResult.failed()) {
+                handler.handle(Future.failedFuture(roomAsyncResult.cause()));
+                return;
+            }
+
+            RoomMapper room = roomAsyncResult.result();
+            messageLog.read(roomUUID, before, limit, asyncResult -> {
+                if (asyncResult.failed()) {
+                    handler.handle(Future.failedFuture(asyncResult.cause()));
+                } else {
+                    List<MessageMapper> messages = asyncResult.result().getMessages();
+                    messages.forEach(message -> message.setRoom(room));
+
+                    MessageCursor next = asyncResult.result().hasOlder() && ! messages.isEmpty() ?
+                                             MessageCursor.of(messages.get(0)) : null;
+                    handler.handle(Future.succeededFuture(new MessagePage(messages, next)));
+                }
+            });
+        });
+    }
+
+    @Override
+    public void findRoomStats(List<String> roomUUIDs, Handler<AsyncResult<List<RoomStats>>> handler) {
+        handler.handle(Future.succeededFuture(messageLog.readRoomStats(roomUUIDs)));
+    }
+
+    @Override
+    public void fetchMessagesSince(String roomUUID, long seq, int limit,
+                                   Handler<AsyncResult<List<MessageMapper>>> handler) {
+
+        entities.findRoomByUUID(roomUUID, roomAsyncResult -> {
+            if (roomAsyncResult.failed()) {
+                handler.handle(Future.failedFuture(roomAsyncResult.cause()));
+                return;
+            }
+
+            RoomMapper room = roomAsyncResult.result();
+            messageLog.readSince(roomUUID, seq, limit, asyncResult -> {
+                if (asyncResult.succeeded()) {
+                    asyncResult.result().forEach(message -> message.setRoom(room));
+                }
+                handler.handle(asyncResult);
+            });
+        });
+    }
+
+    @Override
+    public void fetchMessagesAfter(String roomUUID, MessageCursor after, int limit,
+                                   Handler<AsyncResult<List<MessageMapper>>> handler) {
+
+        entities.findRoomByUUID(roomUUID, roomAsyncResult -> {
+            if (roomAsyncResult.failed()) {
+                handler.handle(Future.failedFuture(roomAsyncResult.cause()));
+                return;
+            }
+
+            RoomMapper room = roomAsyncResult.result();
+            messageLog.readAfter(roomUUID, after, limit, asyncResult -> {
+                if (asyncResult.succeeded()) {
+                    asyncResult.result().forEach(message -> message.setRoom(room));
+                }
+                handler.handle(asyncResult);
+            });
+        });
+    }
+
+    @Override
+    public void searchMessages(String roomUUID, String query, int offset, int limit,
+                               Handler<AsyncResult<SearchPage>> handler) {
+        messageLog.search(roomUUID, query, offset, limit, handler);
+    }
+
+    /* the topic has a retention policy of its own, history is never moved out of it */
+    @Override
+    public void fetchExpiredMessages(String roomUUID, MessageCursor after, long before, int limit,
+                                     Handler<AsyncResult<List<MessageMapper>>> handler) {
+        handler.handle(Future.succeededFuture(Collections.emptyList()));
+    }
+
+    @Override
+    public void expireMessages(String roomUUID, MessageCursor through, Handler<AsyncResult<Void>> handler) {
+        handler.handle(Future.succeededFuture());
+    }
+}
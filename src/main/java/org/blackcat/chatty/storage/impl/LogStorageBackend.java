@@ -0,0 +1,213 @@
+package org.blackcat.chatty.storage.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import org.blackcat.chatty.conf.Configuration;
+import org.blackcat.chatty.mappers.MessageMapper;
+import org.blackcat.chatty.mappers.RoomMapper;
+import org.blackcat.chatty.mappers.UserMapper;
+import org.blackcat.chatty.queries.MessageCursor;
+import org.blackcat.chatty.queries.MessagePage;
+import org.blackcat.chatty.queries.RoomStats;
+import org.blackcat.chatty.queries.SearchPage;
+import org.blackcat.chatty.storage.StorageBackend;
+import org.blackcat.chatty.storage.log.LogStore;
+
+import java.io.File;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Embedded backend, backed by a {@link LogStore} under the storage root. Store operations
+ * block, they are run on worker threads; writes keep the order they were requested in.
+ */
+final public class LogStorageBackend implements StorageBackend {
+
+    /* the store lives in its own directory, under the storage root */
+    final private static String LOG_DIRECTORY = "log";
+
+    private final Vertx vertx;
+    private final Configuration configuration;
+
+    private LogStore store;
+
+    public LogStorageBackend(Vertx vertx, Configuration configuration) {
+        this.vertx = vertx;
+        this.configuration = configuration;
+    }
+
+    @Override
+    public void init(Handler<AsyncResult<Void>> handler) {
+        vertx.<Void>executeBlocking(future -> {
+            try {
+                File root = new File(configuration.getStorageRoot(), LOG_DIRECTORY);
+                store = LogStore.open(root, configuration.getDatabaseLogSegmentSize());
+                future.complete();
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, handler);
+    }
+
+    @Override
+    public void close(Handler<AsyncResult<Void>> handler) {
+        if (Objects.isNull(store)) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+
+        vertx.<Void>executeBlocking(future -> {
+            try {
+                store.close();
+                future.complete();
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, handler);
+    }
+
+    @Override
+    public void findCreateUserByEmail(String email, Handler<AsyncResult<UserMapper>> handler) {
+        vertx.<UserMapper>executeBlocking(future -> {
+            try {
+                future.complete(store.findCreateUserByEmail(email));
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, true, handler);
+    }
+
+    @Override
+    public void findCreateRoomByName(String name, Handler<AsyncResult<RoomMapper>> handler) {
+        vertx.<RoomMapper>executeBlocking(future -> {
+            try {
+                future.complete(store.findCreateRoomByName(name));
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, true, handler);
+    }
+
+    /* entities are held in memory by the store, there is nothing to block on */
+    @Override
+    public void findUserByUUID(String uuid, Handler<AsyncResult<UserMapper>> handler) {
+        handler.handle(Future.succeededFuture(store.findUserByUUID(uuid)));
+    }
+
+    @Override
+    public void findRoomByUUID(String uuid, Handler<AsyncResult<RoomMapper>> handler) {
+        handler.handle(Future.succeededFuture(store.findRoomByUUID(uuid)));
+    }
+
+    @Override
+    public void findUsersByUUIDs(List<String> uuids, Handler<AsyncResult<List<UserMapper>>> handler) {
+        handler.handle(Future.succeededFuture(store.findUsersByUUIDs(uuids)));
+    }
+
+    @Override
+    public void findRoomsByUUIDs(List<String> uuids, Handler<AsyncResult<List<RoomMapper>>> handler) {
+        handler.handle(Future.succeededFuture(store.findRoomsByUUIDs(uuids)));
+    }
+
+    @Override
+    public void findRooms(Handler<AsyncResult<List<RoomMapper>>> handler) {
+        handler.handle(Future.succeededFuture(store.findRooms()));
+    }
+
+    @Override
+    public void recordMessages(List<MessageMapper> messages, Handler<AsyncResult<Void>> handler) {
+        vertx.<Void>executeBlocking(future -> {
+            try {
+                store.appendMessages(messages);
+                future.complete();
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, true, handler);
+    }
+
+    @Override
+    public void fetchMessages(String roomUUID, MessageCursor before, int limit,
+                              Handler<AsyncResult<MessagePage>> handler) {
+        vertx.<MessagePage>executeBlocking(future -> {
+            try {
+                future.complete(store.readMessages(roomUUID, before, limit));
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false, handler);
+    }
+
+    @Override
+    public void searchMessages(String roomUUID, String query, int offset, int limit,
+                               Handler<AsyncResult<SearchPage>> handler) {
+        vertx.<SearchPage>executeBlocking(future -> {
+            try {
+                future.complete(store.searchMessages(roomUUID, query, offset, limit));
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false, handler);
+    }
+
+    @Override
+    public void findRoomStats(List<String> roomUUIDs, Handler<AsyncResult<List<RoomStats>>> handler) {
+        vertx.<List<RoomStats>>executeBlocking(future -> {
+            try {
+                future.complete(store.readRoomStats(roomUUIDs));
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false, handler);
+    }
+
+    @Override
+    public void fetchMessagesSince(String roomUUID, long seq, int limit,
+                                   Handler<AsyncResult<List<MessageMapper>>> handler) {
+        vertx.<List<MessageMapper>>executeBlocking(future -> {
+            try {
+                future.complete(store.readMessagesSince(roomUUID, seq, limit));
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false, handler);
+    }
+
+    @Override
+    public void fetchMessagesAfter(String roomUUID, MessageCursor after, int limit,
+                                   Handler<AsyncResult<List<MessageMapper>>> handler) {
+        vertx.<List<MessageMapper>>executeBlocking(future -> {
+            try {
+                future.complete(store.readMessagesAfter(roomUUID, after, limit));
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false, handler);
+    }
+
+    @Override
+    public void fetchExpiredMessages(String roomUUID, MessageCursor after, long before, int limit,
+                                     Handler<AsyncResult<List<MessageMapper>>> handler) {
+        vertx.<List<MessageMapper>>executeBlocking(future -> {
+            try {
+                future.complete(store.readExpiredMessages(roomUUID, after, before, limit));
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false, handler);
+    }
+
+    @Override
+    public void expireMessages(String roomUUID, MessageCursor through, Handler<AsyncResult<Void>> handler) {
+        vertx.<Void>executeBlocking(future -> {
+            try {
+                store.expireMessages(roomUUID, through);
+                future.complete();
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, true, handler);
+    }
+}
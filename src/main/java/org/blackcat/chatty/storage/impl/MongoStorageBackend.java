@@ -0,0 +1,1419 @@
+package org.blackcat.chatty.storage.impl;
+
+import de.braintags.vertx.jomnigate.dataaccess.query.IQuery;
+import de.braintags.vertx.jomnigate.dataaccess.query.ISearchCondition;
+import de.braintags.vertx.jomnigate.dataaccess.write.IWrite;
+import de.braintags.vertx.jomnigate.init.DataStoreSettings;
+import de.braintags.vertx.jomnigate.mongo.MongoDataStore;
+import de.braintags.vertx.jomnigate.util.QueryHelper;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.IndexOptions;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
+import io.vertx.ext.mongo.UpdateOptions;
+import org.blackcat.chatty.conf.Configuration;
+import org.blackcat.chatty.mappers.MessageMapper;
+import org.blackcat.chatty.mappers.RoomMapper;
+import org.blackcat.chatty.mappers.UserMapper;
+import org.blackcat.chatty.queries.MessageCursor;
+import org.blackcat.chatty.queries.MessagePage;
+import org.blackcat.chatty.queries.RoomStats;
+import org.blackcat.chatty.queries.SearchPage;
+import org.blackcat.chatty.search.MessageIndex;
+import org.blackcat.chatty.storage.StorageBackend;
+import org.blackcat.chatty.verticles.DataStoreVerticle;
+
+import java.text.MessageFormat;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.blackcat.chatty.conf.Keys.DATABASE_QUERY_PLAN_CHECK_FAIL;
+import static org.blackcat.chatty.conf.Keys.DATABASE_QUERY_PLAN_CHECK_OFF;
+
+/**
+ * MongoDB backend, entities are mapped by jomnigate.
+ */
+final public class MongoStorageBackend implements StorageBackend {
+
+    /* collections, as mapped by jomnigate (entity class simple name, @Id stored as _id) */
+    final private static String USERS_COLLECTION = UserMapper.class.getSimpleName();
+    final private static String ROOMS_COLLECTION = RoomMapper.class.getSimpleName();
+    final private static String MESSAGES_COLLECTION = MessageMapper.class.getSimpleName();
+
+    /* maintained along with messages, one document per room, keyed by room uuid; also holds
+       the sequence counter of the room */
+    final private static String ROOM_STATS_COLLECTION = "RoomStats";
+
+    /* one document per (room, author) pair, keyed by both, so that the first message of an
+       author in a room can be told apart when counting authors */
+    final private static String ROOM_AUTHORS_COLLECTION = "RoomAuthors";
+
+    /* one document per one-off migration, keyed by name, with the version it completed at */
+    final private static String MIGRATIONS_COLLECTION = "Migrations";
+
+    /* how many legacy timestamps are converted per round trip */
+    final private static int TIMESTAMP_MIGRATION_BATCH = 1000;
+
+    /* how many legacy messages are numbered per round trip */
+    final private static int SEQ_MIGRATION_BATCH = 1000;
+
+    /* how many times a batch of messages of a room is written before giving up */
+    final private static int SEQ_ATTEMPTS = 3;
+
+    /* the schema state of each database, by host, port and name */
+    final private static String SCHEMA_MAP = "chatty.mongo-schema";
+    final private static String SCHEMA_PREPARING = "preparing";
+    final private static String SCHEMA_READY = "ready";
+
+    /* how often instances check whether the schema is ready */
+    final private static long SCHEMA_POLL_INTERVAL = 100; /* ms */
+
+    /* plan stages that are not backed by an index */
+    final private static List<String> UNINDEXED_STAGES = Arrays.asList("COLLSCAN", "SORT");
+
+    final private Logger logger = LoggerFactory.getLogger(MongoStorageBackend.class);
+
+    private final Vertx vertx;
+    private final Configuration configuration;
+
+    private MongoClient mongoClient;
+    private MongoDataStore mongoDataStore;
+
+    public MongoStorageBackend(Vertx vertx, Configuration configuration) {
+        this.vertx = vertx;
+        this.configuration = configuration;
+    }
+
+    @Override
+    public void init(Handler<AsyncResult<Void>> handler) {
+        vertx.executeBlocking(future -> {
+            /* connect to mongodb data store */
+            String connectionString = String.format("%s://%s:%s",
+                    configuration.getDatabaseType(),
+                    configuration.getDatabaseHost(),
+                    configuration.getDatabasePort());
+
+            JsonObject mongodbConfig = new JsonObject()
+                    .put("connection_string", connectionString)
+                    .put("db_name", configuration.getDatabaseName());
+
+            DataStoreSettings dataStoreSettings = new DataStoreSettings();
+
+            mongoClient = MongoClient.createShared(vertx, mongodbConfig);
+            mongoDataStore = new MongoDataStore(vertx, mongoClient, new JsonObject(), dataStoreSettings);
+
+            future.complete();
+        }, res -> {
+            if (res.failed()) {
+                handler.handle(Future.failedFuture(res.cause()));
+            } else {
+                Future.<Void>future(this::prepareSchema)
+                    .compose(v -> Future.<Void>future(this::verifyQueryPlans))
+                    .setHandler(handler);
+            }
+        });
+    }
+
+    /**
+     * Runs the migrations and creates the indexes, once for all the instances of the backend
+     * sharing a database. The first one to claim the database in the local map does the job,
+     * the others wait for it to be done; should it fail, the claim is released, for the next
+     * one in line to try again.
+     *
+     * @param handler
+     */
+    private void prepareSchema(Handler<AsyncResult<Void>> handler) {
+        LocalMap<String, String> schemaMap = vertx.sharedData().getLocalMap(SCHEMA_MAP);
+        String database = String.format("%s:%s/%s", configuration.getDatabaseHost(),
+            configuration.getDatabasePort(), configuration.getDatabaseName());
+
+        String state = schemaMap.putIfAbsent(database, SCHEMA_PREPARING);
+        if (Objects.isNull(state)) {
+            Future.<Void>future(this::migrate)
+                .compose(v -> Future.<Void>future(this::ensureIndexes))
+                .setHandler(asyncResult -> {
+                    if (asyncResult.failed()) {
+                        schemaMap.remove(database);
+                    } else {
+                        schemaMap.put(database, SCHEMA_READY);
+                    }
+                    handler.handle(asyncResult);
+                });
+        } else if (state.equals(SCHEMA_READY)) {
+            handler.handle(Future.succeededFuture());
+        } else {
+            logger.debug("Waiting for another instance to prepare {}", database);
+            vertx.setTimer(SCHEMA_POLL_INTERVAL, id -> prepareSchema(handler));
+        }
+    }
+
+    @Override
+    public void close(Handler<AsyncResult<Void>> handler) {
+        if (! Objects.isNull(mongoClient)) {
+            mongoClient.close();
+        }
+        handler.handle(Future.succeededFuture());
+    }
+
+    @Override
+    public void findCreateUserByEmail(String email, Handler<AsyncResult<UserMapper>> handler) {
+        findCreateDocument(USERS_COLLECTION, "email", email, true, asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+            } else {
+                JsonObject document = asyncResult.result();
+
+                UserMapper userMapper = new UserMapper();
+                userMapper.setUuid(document.getString("_id"));
+                userMapper.setEmail(document.getString("email"));
+                handler.handle(Future.succeededFuture(userMapper));
+            }
+        });
+    }
+
+    @Override
+    public void findCreateRoomByName(String name, Handler<AsyncResult<RoomMapper>> handler) {
+        findCreateDocument(ROOMS_COLLECTION, "name", name, true, asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+            } else {
+                JsonObject document = asyncResult.result();
+
+                RoomMapper roomMapper = new RoomMapper();
+                roomMapper.setUuid(document.getString("_id"));
+                roomMapper.setName(document.getString("name"));
+                handler.handle(Future.succeededFuture(roomMapper));
+            }
+        });
+    }
+
+    /**
+     * Finds the document with the given value of a unique field, or creates it with a fresh
+     * uuid, in a single atomic round trip (upsert). Two concurrent upserts of a new value may
+     * still collide on the unique index: the loser retries, and then finds the document
+     * created by the winner.
+     *
+     * @param collection
+     * @param field - a field with a unique index
+     * @param value
+     * @param retry - whether to retry once on failure
+     * @param handler - called back with the document, as found or created
+     */
+    private void findCreateDocument(String collection, String field, String value, boolean retry,
+                                    Handler<AsyncResult<JsonObject>> handler) {
+
+        JsonObject query = new JsonObject().put(field, value);
+        JsonObject update = new JsonObject()
+                                .put("$setOnInsert", new JsonObject()
+                                                         .put("_id", UUID.randomUUID().toString()));
+
+        UpdateOptions updateOptions = new UpdateOptions()
+                                          .setUpsert(true)
+                                          .setReturningNewDocument(true);
+
+        mongoClient.findOneAndUpdateWithOptions(collection, query, update, new FindOptions(), updateOptions,
+            asyncResult -> {
+                if (asyncResult.failed() && retry) {
+                    logger.debug("Retrying upsert of {} {} in {}: {}",
+                        field, value, collection, asyncResult.cause().toString());
+                    findCreateDocument(collection, field, value, false, handler);
+                } else {
+                    handler.handle(asyncResult);
+                }
+            });
+    }
+
+    @Override
+    public void findUserByUUID(String uuid, Handler<AsyncResult<UserMapper>> handler) {
+        IQuery<UserMapper> query = mongoDataStore.createQuery(UserMapper.class);
+        query.setSearchCondition(ISearchCondition.isEqual("uuid", uuid));
+
+        QueryHelper.executeToFirstRecord(query, false, handler);
+    }
+
+    @Override
+    public void findRoomByUUID(String uuid, Handler<AsyncResult<RoomMapper>> handler) {
+        IQuery<RoomMapper> query = mongoDataStore.createQuery(RoomMapper.class);
+        query.setSearchCondition(ISearchCondition.isEqual("uuid", uuid));
+
+        QueryHelper.executeToFirstRecord(query, false, handler);
+    }
+
+    @Override
+    public void findUsersByUUIDs(List<String> uuids, Handler<AsyncResult<List<UserMapper>>> handler) {
+        IQuery<UserMapper> query = mongoDataStore.createQuery(UserMapper.class);
+        query.setSearchCondition(ISearchCondition.in("uuid", uuids));
+
+        QueryHelper.executeToList(query, handler);
+    }
+
+    @Override
+    public void findRoomsByUUIDs(List<String> uuids, Handler<AsyncResult<List<RoomMapper>>> handler) {
+        IQuery<RoomMapper> query = mongoDataStore.createQuery(RoomMapper.class);
+        query.setSearchCondition(ISearchCondition.in("uuid", uuids));
+
+        QueryHelper.executeToList(query, handler);
+    }
+
+    @Override
+    public void findRooms(Handler<AsyncResult<List<RoomMapper>>> handler) {
+        IQuery<RoomMapper> query = mongoDataStore.createQuery(RoomMapper.class);
+        QueryHelper.executeToList(query, handler);
+    }
+
+    @Override
+    public void recordMessages(List<MessageMapper> messages, Handler<AsyncResult<Void>> handler) {
+        Map<String, List<MessageMapper>> messagesByRoom = messages.stream()
+            .collect(Collectors.groupingBy(MessageMapper::getRoomUuid, LinkedHashMap::new, Collectors.toList()));
+
+        /* uuids are given upfront, for retries to tell the messages that made it */
+        for (MessageMapper message : messages) {
+            if (Objects.isNull(message.getUuid())) {
+                message.setUuid(UUID.randomUUID().toString());
+            }
+        }
+
+        List<Future> futures = new ArrayList<>(messagesByRoom.size());
+        for (Map.Entry<String, List<MessageMapper>> entry : messagesByRoom.entrySet()) {
+            Future<Void> future = Future.future();
+            recordRoomMessages(entry.getKey(), entry.getValue(), SEQ_ATTEMPTS, future);
+            futures.add(future);
+        }
+
+        CompositeFuture.join(futures).setHandler(asyncResult -> {
+            /* rooms whose messages did make it count in stats, even if others failed */
+            List<MessageMapper> recorded = new ArrayList<>(messages.size());
+            int i = 0;
+            for (List<MessageMapper> roomMessages : messagesByRoom.values()) {
+                if (futures.get(i ++).succeeded()) {
+                    recorded.addAll(roomMessages);
+                }
+            }
+
+            Future.<Void>future(future -> {
+                if (recorded.isEmpty()) {
+                    future.complete();
+                } else {
+                    updateRoomStats(recorded, future);
+                }
+            }).setHandler(v -> handler.handle(asyncResult.map(composite -> null)));
+        });
+    }
+
+    /**
+     * Records the messages of a room, numbered from the counter kept in the stats of the room.
+     * Numbers are reserved with a single atomic increment per batch, so that concurrent writers
+     * never contend for the same ones, and the counter outlives the messages themselves: once
+     * expired to the archive, their numbers are not handed out again.
+     *
+     * On failure, the numbers of the messages are looked up: those that made it are done, the
+     * others are written again with the number they reserved (one held by another message, a
+     * number given upfront, is replaced by a new one). Should all attempts fail, the messages
+     * that made it keep their numbers, the others leave a gap behind, the batch fails.
+     *
+     * @param roomUUID
+     * @param messages - with a 0 sequence number if they are to be numbered
+     * @param attempts - the number of writes left
+     * @param handler
+     */
+    private void recordRoomMessages(String roomUUID, List<MessageMapper> messages, int attempts,
+                                    Handler<AsyncResult<Void>> handler) {
+
+        List<MessageMapper> unnumbered = messages.stream()
+                                             .filter(message -> message.getSeq() == 0)
+                                             .collect(Collectors.toList());
+
+        Future.<Void>future(future -> {
+            if (unnumbered.isEmpty()) {
+                future.complete();
+                return;
+            }
+
+            reserveSeqs(roomUUID, unnumbered.size(), reserveAsyncResult -> {
+                if (reserveAsyncResult.failed()) {
+                    future.fail(reserveAsyncResult.cause());
+                } else {
+                    long seq = reserveAsyncResult.result();
+                    for (MessageMapper message : unnumbered) {
+                        message.setSeq(++ seq);
+                    }
+                    future.complete();
+                }
+            });
+        }).compose(v -> Future.<Void>future(future -> writeMessages(messages, future)))
+          .setHandler(asyncResult -> {
+              if (asyncResult.succeeded() || attempts <= 1) {
+                  handler.handle(asyncResult);
+                  return;
+              }
+
+              logger.debug("Retrying the write of {} messages of room {}: {}",
+                  messages.size(), roomUUID, asyncResult.cause().toString());
+
+              findSeqHolders(roomUUID, messages, holdersAsyncResult -> {
+                  if (holdersAsyncResult.failed()) {
+                      handler.handle(Future.failedFuture(holdersAsyncResult.cause()));
+                      return;
+                  }
+
+                  Map<Long, String> holders = holdersAsyncResult.result();
+                  List<MessageMapper> remaining = new ArrayList<>();
+                  for (MessageMapper message : messages) {
+                      String holder = holders.get(message.getSeq());
+                      if (message.getUuid().equals(holder)) {
+                          continue; /* recorded */
+                      }
+                      if (! Objects.isNull(holder)) {
+                          message.setSeq(0); /* taken by another writer */
+                      }
+                      remaining.add(message);
+                  }
+
+                  if (remaining.isEmpty()) {
+                      handler.handle(Future.succeededFuture());
+                  } else {
+                      recordRoomMessages(roomUUID, remaining, attempts - 1, handler);
+                  }
+              });
+          });
+    }
+
+    private void writeMessages(List<MessageMapper> messages, Handler<AsyncResult<Void>> handler) {
+        /* the snapshot is always recorded, references only in the referenced layout */
+        final boolean denormalized = configuration.isDatabaseDenormalizedMessagesEnabled();
+
+        List<UserMapper> authors = messages.stream().map(MessageMapper::getAuthor).collect(Collectors.toList());
+        List<RoomMapper> rooms = messages.stream().map(MessageMapper::getRoom).collect(Collectors.toList());
+
+        IWrite<MessageMapper> write = mongoDataStore.createWrite(MessageMapper.class);
+        for (MessageMapper messageMapper : messages) {
+            if (denormalized) {
+                messageMapper.setAuthor(null);
+                messageMapper.setRoom(null);
+            }
+            write.add(messageMapper);
+        }
+
+        write.save(result -> {
+            /* callers get their messages back as they handed them over */
+            for (int i = 0; i < messages.size(); ++ i) {
+                messages.get(i).setAuthor(authors.get(i));
+                messages.get(i).setRoom(rooms.get(i));
+            }
+            handler.handle(result.map(v -> null));
+        });
+    }
+
+    /* reserves count sequence numbers of a room, yields the one before the first of them */
+    private void reserveSeqs(String roomUUID, int count, Handler<AsyncResult<Long>> handler) {
+        FindOptions lastSeqOnly = new FindOptions().setFields(new JsonObject().put("lastSeq", 1));
+        UpdateOptions options = new UpdateOptions().setUpsert(true).setReturningNewDocument(true);
+
+        mongoClient.findOneAndUpdateWithOptions(ROOM_STATS_COLLECTION,
+            new JsonObject().put("_id", roomUUID),
+            new JsonObject().put("$inc", new JsonObject().put("lastSeq", count)),
+            lastSeqOnly, options, asyncResult -> handler.handle(asyncResult.map(document ->
+                document.getLong("lastSeq") - count)));
+    }
+
+    /* the uuids of the messages holding the sequence numbers of the given ones, by number */
+    private void findSeqHolders(String roomUUID, List<MessageMapper> messages,
+                                Handler<AsyncResult<Map<Long, String>>> handler) {
+
+        JsonArray seqs = new JsonArray(messages.stream()
+                                           .map(MessageMapper::getSeq)
+                                           .filter(seq -> seq > 0)
+                                           .collect(Collectors.toList()));
+
+        JsonObject filter = new JsonObject()
+                                .put(messageRoomField(), roomUUID)
+                                .put("seq", new JsonObject().put("$in", seqs));
+        FindOptions options = new FindOptions().setFields(new JsonObject().put("_id", 1).put("seq", 1));
+
+        mongoClient.findWithOptions(MESSAGES_COLLECTION, filter, options, asyncResult ->
+            handler.handle(asyncResult.map(documents -> documents.stream()
+                                                            .collect(Collectors.toMap(
+                                                                document -> document.getLong("seq"),
+                                                                document -> document.getString("_id"))))));
+    }
+
+    /**
+     * Accounts for newly recorded messages in the stats of their rooms. Authors go first, with
+     * one upsert per (room, author) pair: only the first message of an author in a room
+     * inserts a document, and the inserted ones are counted. Then one atomic update per room:
+     * counters are incremented, and the last message moved forward ($max compares {timeStamp,
+     * uuid} documents field by field, that is in history order). Stats are a derived view: a
+     * failure is logged, the messages stay recorded.
+     *
+     * @param messages
+     * @param handler
+     */
+    private void updateRoomStats(List<MessageMapper> messages, Handler<AsyncResult<Void>> handler) {
+        Map<String, List<MessageMapper>> messagesByRoom = messages.stream()
+            .collect(Collectors.groupingBy(MessageMapper::getRoomUuid, LinkedHashMap::new, Collectors.toList()));
+
+        /* the room of each upsert, by index */
+        List<String> upsertRooms = new ArrayList<>();
+        List<BulkOperation> upserts = new ArrayList<>();
+        for (Map.Entry<String, List<MessageMapper>> entry : messagesByRoom.entrySet()) {
+            List<BulkOperation> roomUpserts = roomAuthorUpserts(entry.getKey(), entry.getValue().stream()
+                                                                                    .map(MessageMapper::getAuthorUuid)
+                                                                                    .distinct()
+                                                                                    .collect(Collectors.toList()));
+            upserts.addAll(roomUpserts);
+            upsertRooms.addAll(Collections.nCopies(roomUpserts.size(), entry.getKey()));
+        }
+
+        mongoClient.bulkWrite(ROOM_AUTHORS_COLLECTION, upserts, authorsAsyncResult -> {
+            Map<String, Long> newAuthors = new HashMap<>();
+            if (authorsAsyncResult.failed()) {
+                logger.error("Could not update room authors: {}", authorsAsyncResult.cause().toString());
+            } else {
+                for (JsonObject upsert : authorsAsyncResult.result().getUpserts()) {
+                    newAuthors.merge(upsertRooms.get(upsert.getInteger(MongoClientBulkWriteResult.INDEX)),
+                        1L, Long::sum);
+                }
+            }
+
+            List<BulkOperation> operations = new ArrayList<>(messagesByRoom.size());
+            for (Map.Entry<String, List<MessageMapper>> entry : messagesByRoom.entrySet()) {
+                MessageMapper last = entry.getValue().stream()
+                                         .max(Comparator.comparing(MessageCursor::of))
+                                         .orElseThrow(IllegalStateException::new);
+
+                operations.add(BulkOperation.createUpdate(
+                    new JsonObject().put("_id", entry.getKey()),
+                    new JsonObject()
+                        .put("$max", new JsonObject().put("lastMessage", MessageCursor.of(last).toJson()))
+                        .put("$inc", new JsonObject()
+                                         .put("messages", entry.getValue().size())
+                                         .put("authors", newAuthors.getOrDefault(entry.getKey(), 0L))),
+                    true, false));
+            }
+
+            mongoClient.bulkWrite(ROOM_STATS_COLLECTION, operations, asyncResult -> {
+                if (asyncResult.failed()) {
+                    logger.error("Could not update room stats: {}", asyncResult.cause().toString());
+                }
+                handler.handle(Future.succeededFuture());
+            });
+        });
+    }
+
+    /* inserts the (room, author) documents missing, leaves existing ones alone */
+    private List<BulkOperation> roomAuthorUpserts(String roomUUID, List<String> authorUUIDs) {
+        return authorUUIDs.stream()
+                   .map(authorUUID -> BulkOperation.createUpdate(
+                       new JsonObject().put("_id", roomUUID + "/" + authorUUID),
+                       new JsonObject().put("$setOnInsert", new JsonObject()
+                                                                .put("room", roomUUID)
+                                                                .put("author", authorUUID)),
+                       true, false))
+                   .collect(Collectors.toList());
+    }
+
+    @Override
+    public void findRoomStats(List<String> roomUUIDs, Handler<AsyncResult<List<RoomStats>>> handler) {
+        JsonObject filter = new JsonObject()
+                                .put("_id", new JsonObject().put("$in", new JsonArray(roomUUIDs)));
+
+        mongoClient.find(ROOM_STATS_COLLECTION, filter, asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+                return;
+            }
+
+            handler.handle(Future.succeededFuture(asyncResult.result().stream()
+                                                      .map(this::toRoomStats)
+                                                      .collect(Collectors.toList())));
+        });
+    }
+
+    private RoomStats toRoomStats(JsonObject document) {
+        JsonObject lastMessage = document.getJsonObject("lastMessage");
+
+        return new RoomStats(document.getString("_id"), document.getLong("messages", 0L),
+            Objects.isNull(lastMessage) ? null : MessageCursor.fromJson(lastMessage),
+            document.getLong("authors", 0L));
+    }
+
+    @Override
+    public void fetchMessages(String roomUUID, MessageCursor before, int limit,
+                              Handler<AsyncResult<MessagePage>> handler) {
+
+        IQuery<MessageMapper> query = mongoDataStore.createQuery(MessageMapper.class);
+
+        ISearchCondition inRoom = ISearchCondition.isEqual(messageRoomField(), roomUUID);
+        if (Objects.isNull(before)) {
+            query.setSearchCondition(inRoom);
+        } else {
+            /* strictly older than the cursor, uuid breaks ties on equal timestamps */
+            query.setSearchCondition(ISearchCondition.and(inRoom, ISearchCondition.or(
+                ISearchCondition.smaller("timeStamp", before.getTimeStamp()),
+                ISearchCondition.and(
+                    ISearchCondition.isEqual("timeStamp", before.getTimeStamp()),
+                    ISearchCondition.smaller("uuid", before.getUuid())))));
+        }
+
+        /* newest first, one extra record tells whether an older page exists */
+        query.addSort("timeStamp", false);
+        query.addSort("uuid", false);
+        query.setLimit(limit + 1);
+
+        QueryHelper.executeToList(query, listAsyncResult -> {
+            if (listAsyncResult.failed()) {
+                handler.handle(Future.failedFuture(listAsyncResult.cause()));
+            } else {
+                List<MessageMapper> newestFirst = listAsyncResult.result();
+                newestFirst.forEach(this::hydrateMessage);
+
+                boolean hasOlder = newestFirst.size() > limit;
+                List<MessageMapper> messages =
+                    new ArrayList<>(newestFirst.subList(0, Math.min(limit, newestFirst.size())));
+                Collections.reverse(messages);
+
+                MessageCursor next = hasOlder ? MessageCursor.of(messages.get(0)) : null;
+                handler.handle(Future.succeededFuture(new MessagePage(messages, next)));
+            }
+        });
+    }
+
+    @Override
+    public void searchMessages(String roomUUID, String query, int offset, int limit,
+                               Handler<AsyncResult<SearchPage>> handler) {
+
+        /* quoted terms must all match, as with the other backends */
+        String search = MessageIndex.tokenize(query).keySet().stream()
+                            .map(term -> "\"" + term + "\"")
+                            .collect(Collectors.joining(" "));
+        if (search.isEmpty()) {
+            handler.handle(Future.succeededFuture(new SearchPage(new ArrayList<>(), null)));
+            return;
+        }
+
+        JsonObject filter = new JsonObject()
+                                .put("$text", new JsonObject().put("$search", search));
+        if (! Objects.isNull(roomUUID)) {
+            filter.put(messageRoomField(), roomUUID);
+        }
+
+        /* ranked by the text index, one extra result tells whether a following page exists */
+        JsonObject textScore = new JsonObject().put("$meta", "textScore");
+        FindOptions findOptions = new FindOptions()
+                                      .setFields(new JsonObject()
+                                                     .put("_id", 1)
+                                                     .put("score", textScore))
+                                      .setSort(new JsonObject()
+                                                   .put("score", textScore)
+                                                   .put("timeStamp", -1))
+                                      .setSkip(offset)
+                                      .setLimit(limit + 1);
+
+        mongoClient.findWithOptions(MESSAGES_COLLECTION, filter, findOptions, asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+                return;
+            }
+
+            List<JsonObject> documents = asyncResult.result();
+            Integer next = documents.size() > limit ? offset + limit : null;
+            List<String> uuids = documents.stream()
+                                     .limit(limit)
+                                     .map(document -> document.getString("_id"))
+                                     .collect(Collectors.toList());
+            if (uuids.isEmpty()) {
+                handler.handle(Future.succeededFuture(new SearchPage(new ArrayList<>(), next)));
+                return;
+            }
+
+            IQuery<MessageMapper> messagesQuery = mongoDataStore.createQuery(MessageMapper.class);
+            messagesQuery.setSearchCondition(ISearchCondition.in("uuid", uuids));
+
+            QueryHelper.executeToList(messagesQuery, listAsyncResult -> {
+                if (listAsyncResult.failed()) {
+                    handler.handle(Future.failedFuture(listAsyncResult.cause()));
+                } else {
+                    /* back to the ranking order */
+                    List<MessageMapper> messages = new ArrayList<>(listAsyncResult.result());
+                    messages.forEach(this::hydrateMessage);
+                    messages.sort(Comparator.comparingInt(message -> uuids.indexOf(message.getUuid())));
+
+                    handler.handle(Future.succeededFuture(new SearchPage(messages, next)));
+                }
+            });
+        });
+    }
+
+    @Override
+    public void fetchMessagesSince(String roomUUID, long seq, int limit,
+                                   Handler<AsyncResult<List<MessageMapper>>> handler) {
+
+        IQuery<MessageMapper> query = mongoDataStore.createQuery(MessageMapper.class);
+        query.setSearchCondition(ISearchCondition.and(
+            ISearchCondition.isEqual(messageRoomField(), roomUUID),
+            ISearchCondition.larger("seq", seq)));
+        query.addSort("seq", true);
+        query.setLimit(limit);
+
+        QueryHelper.executeToList(query, asyncResult -> {
+            if (asyncResult.succeeded()) {
+                asyncResult.result().forEach(this::hydrateMessage);
+            }
+            handler.handle(asyncResult);
+        });
+    }
+
+    @Override
+    public void fetchMessagesAfter(String roomUUID, MessageCursor after, int limit,
+                                   Handler<AsyncResult<List<MessageMapper>>> handler) {
+        /* same query, with no expiry bound */
+        fetchExpiredMessages(roomUUID, after, Long.MAX_VALUE, limit, handler);
+    }
+
+    @Override
+    public void fetchExpiredMessages(String roomUUID, MessageCursor after, long before, int limit,
+                                     Handler<AsyncResult<List<MessageMapper>>> handler) {
+
+        IQuery<MessageMapper> query = mongoDataStore.createQuery(MessageMapper.class);
+
+        ISearchCondition expired = ISearchCondition.and(
+            ISearchCondition.isEqual(messageRoomField(), roomUUID),
+            ISearchCondition.smaller("timeStamp", before));
+        if (Objects.isNull(after)) {
+            query.setSearchCondition(expired);
+        } else {
+            query.setSearchCondition(ISearchCondition.and(expired, ISearchCondition.or(
+                ISearchCondition.larger("timeStamp", after.getTimeStamp()),
+                ISearchCondition.and(
+                    ISearchCondition.isEqual("timeStamp", after.getTimeStamp()),
+                    ISearchCondition.larger("uuid", after.getUuid())))));
+        }
+
+        /* oldest first, the history index serves both directions */
+        query.addSort("timeStamp", true);
+        query.addSort("uuid", true);
+        query.setLimit(limit);
+
+        QueryHelper.executeToList(query, asyncResult -> {
+            if (asyncResult.succeeded()) {
+                asyncResult.result().forEach(this::hydrateMessage);
+            }
+            handler.handle(asyncResult);
+        });
+    }
+
+    @Override
+    public void expireMessages(String roomUUID, MessageCursor through, Handler<AsyncResult<Void>> handler) {
+        JsonObject filter = new JsonObject()
+                                .put(messageRoomField(), roomUUID)
+                                .put("$or", new JsonArray()
+                                                .add(new JsonObject()
+                                                         .put("timeStamp", new JsonObject()
+                                                                               .put("$lt", through.getTimeStamp())))
+                                                .add(new JsonObject()
+                                                         .put("timeStamp", through.getTimeStamp())
+                                                         .put("_id", new JsonObject()
+                                                                         .put("$lte", through.getUuid()))));
+
+        mongoClient.removeDocuments(MESSAGES_COLLECTION, filter, asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+            } else {
+                logger.debug("Expired {} messages of room {}", asyncResult.result().getRemovedCount(), roomUUID);
+                handler.handle(Future.succeededFuture());
+            }
+        });
+    }
+
+    /**
+     * Runs the one-off migrations that have not completed yet, in order. Completed migrations
+     * are recorded along with their version, so that they cost a single lookup on later
+     * startups; a migration whose version has changed (the message layout, when switched) runs
+     * again. All of them are idempotent, an interrupted one simply runs again on next startup.
+     *
+     * @param handler
+     */
+    private void migrate(Handler<AsyncResult<Void>> handler) {
+        mongoClient.find(MIGRATIONS_COLLECTION, new JsonObject(), asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+                return;
+            }
+
+            Map<String, String> completed = asyncResult.result().stream()
+                                                .collect(Collectors.toMap(
+                                                    migration -> migration.getString("_id"),
+                                                    migration -> migration.getString("version")));
+
+            String layout = configuration.isDatabaseDenormalizedMessagesEnabled() ? "denormalized" : "referenced";
+            Future.<Void>future(f -> migrateOnce(completed, "timeStamps", "1", this::migrateTimeStamps, f))
+                .compose(v -> Future.<Void>future(f -> migrateOnce(completed, "messageLayout", layout,
+                    this::migrateMessages, f)))
+                .compose(v -> Future.<Void>future(f -> migrateOnce(completed, "roomStats", "1",
+                    this::migrateRoomStats, f)))
+                .compose(v -> Future.<Void>future(f -> migrateOnce(completed, "sequenceNumbers", "1",
+                    this::migrateSequenceNumbers, f)))
+                .setHandler(handler);
+        });
+    }
+
+    private void migrateOnce(Map<String, String> completed, String name, String version,
+                             Consumer<Handler<AsyncResult<Void>>> migration, Handler<AsyncResult<Void>> handler) {
+        if (version.equals(completed.get(name))) {
+            logger.debug("Migration {} ({}) has completed already", name, version);
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+
+        migration.accept(asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(asyncResult);
+                return;
+            }
+
+            JsonObject record = new JsonObject()
+                                    .put("_id", name)
+                                    .put("version", version)
+                                    .put("timeStamp", System.currentTimeMillis());
+
+            mongoClient.save(MIGRATIONS_COLLECTION, record, saveAsyncResult ->
+                handler.handle(saveAsyncResult.map(v -> null)));
+        });
+    }
+
+    /**
+     * Brings existing message documents to the configured layout. Denormalized messages carry a
+     * snapshot of their author (uuid, email) and room (uuid); referenced messages point to the
+     * user and room entities, which the mapper resolves on every read.
+     *
+     * Both directions are idempotent, and cost one update per user and per room regardless of
+     * the number of messages.
+     *
+     * @param handler
+     */
+    private void migrateMessages(Handler<AsyncResult<Void>> handler) {
+        final boolean denormalized = configuration.isDatabaseDenormalizedMessagesEnabled();
+        final List<JsonObject[]> updates = new ArrayList<>();
+
+        FindOptions uuidsOnly = new FindOptions().setFields(new JsonObject().put("_id", 1));
+        mongoClient.findWithOptions(ROOMS_COLLECTION, new JsonObject(), uuidsOnly, roomsAsyncResult -> {
+            if (roomsAsyncResult.failed()) {
+                handler.handle(Future.failedFuture(roomsAsyncResult.cause()));
+                return;
+            }
+
+            FindOptions emails = new FindOptions().setFields(new JsonObject().put("email", 1));
+            mongoClient.findWithOptions(USERS_COLLECTION, new JsonObject(), emails, usersAsyncResult -> {
+                if (usersAsyncResult.failed()) {
+                    handler.handle(Future.failedFuture(usersAsyncResult.cause()));
+                    return;
+                }
+
+                for (JsonObject room : roomsAsyncResult.result()) {
+                    String uuid = room.getString("_id");
+                    if (denormalized) {
+                        updates.add(new JsonObject[]{
+                            new JsonObject()
+                                .put("room", uuid)
+                                .put("roomUuid", new JsonObject().put("$exists", false)),
+                            new JsonObject()
+                                .put("$set", new JsonObject().put("roomUuid", uuid))});
+                    } else {
+                        updates.add(new JsonObject[]{
+                            new JsonObject()
+                                .put("roomUuid", uuid)
+                                .put("room", new JsonObject().put("$exists", false)),
+                            new JsonObject()
+                                .put("$set", new JsonObject().put("room", uuid))});
+                    }
+                }
+
+                for (JsonObject user : usersAsyncResult.result()) {
+                    String uuid = user.getString("_id");
+                    if (denormalized) {
+                        updates.add(new JsonObject[]{
+                            new JsonObject()
+                                .put("author", uuid)
+                                .put("authorUuid", new JsonObject().put("$exists", false)),
+                            new JsonObject()
+                                .put("$set", new JsonObject()
+                                                 .put("authorUuid", uuid)
+                                                 .put("authorEmail", user.getString("email")))});
+                    } else {
+                        updates.add(new JsonObject[]{
+                            new JsonObject()
+                                .put("authorUuid", uuid)
+                                .put("author", new JsonObject().put("$exists", false)),
+                            new JsonObject()
+                                .put("$set", new JsonObject().put("author", uuid))});
+                    }
+                }
+
+                if (denormalized) {
+                    /* references are dropped last, once every snapshot is in place */
+                    updates.add(new JsonObject[]{
+                        new JsonObject()
+                            .put("roomUuid", new JsonObject().put("$exists", true))
+                            .put("authorUuid", new JsonObject().put("$exists", true))
+                            .put("$or", new JsonArray()
+                                            .add(new JsonObject().put("room", new JsonObject().put("$exists", true)))
+                                            .add(new JsonObject().put("author", new JsonObject().put("$exists", true)))),
+                        new JsonObject()
+                            .put("$unset", new JsonObject()
+                                               .put("room", "")
+                                               .put("author", ""))});
+                }
+
+                applyUpdates(MESSAGES_COLLECTION, updates.iterator(), 0, asyncResult -> {
+                    if (asyncResult.failed()) {
+                        handler.handle(Future.failedFuture(asyncResult.cause()));
+                    } else {
+                        long modified = asyncResult.result();
+                        if (modified > 0) {
+                            logger.info("Migrated {} message documents to the {} layout",
+                                modified, denormalized ? "denormalized" : "referenced");
+                        }
+                        handler.handle(Future.succeededFuture());
+                    }
+                });
+            });
+        });
+    }
+
+    /**
+     * Builds the stats of every room out of its messages, for databases that predate them.
+     * Only runs while the stats collection is empty, that is once; rooms are done one at a
+     * time, with a count, a distinct and a single-document lookup each, then the authors
+     * upserts.
+     *
+     * @param handler
+     */
+    private void migrateRoomStats(Handler<AsyncResult<Void>> handler) {
+        mongoClient.count(ROOM_STATS_COLLECTION, new JsonObject(), countAsyncResult -> {
+            if (countAsyncResult.failed()) {
+                handler.handle(Future.failedFuture(countAsyncResult.cause()));
+                return;
+            }
+            if (countAsyncResult.result() > 0) {
+                handler.handle(Future.succeededFuture());
+                return;
+            }
+
+            FindOptions uuidsOnly = new FindOptions().setFields(new JsonObject().put("_id", 1));
+            mongoClient.findWithOptions(ROOMS_COLLECTION, new JsonObject(), uuidsOnly, roomsAsyncResult -> {
+                if (roomsAsyncResult.failed()) {
+                    handler.handle(Future.failedFuture(roomsAsyncResult.cause()));
+                    return;
+                }
+
+                Iterator<String> roomUUIDs = roomsAsyncResult.result().stream()
+                                                 .map(room -> room.getString("_id"))
+                                                 .iterator();
+
+                migrateRoomStats(roomUUIDs, 0, asyncResult -> {
+                    if (asyncResult.failed()) {
+                        handler.handle(Future.failedFuture(asyncResult.cause()));
+                    } else {
+                        if (asyncResult.result() > 0) {
+                            logger.info("Built the stats of {} rooms", asyncResult.result());
+                        }
+                        handler.handle(Future.succeededFuture());
+                    }
+                });
+            });
+        });
+    }
+
+    private void migrateRoomStats(Iterator<String> roomUUIDs, int migrated, Handler<AsyncResult<Integer>> handler) {
+        if (! roomUUIDs.hasNext()) {
+            handler.handle(Future.succeededFuture(migrated));
+            return;
+        }
+
+        String roomUUID = roomUUIDs.next();
+        JsonObject inRoom = new JsonObject().put(messageRoomField(), roomUUID);
+        String authorField = configuration.isDatabaseDenormalizedMessagesEnabled() ? "authorUuid" : "author";
+
+        FindOptions newest = new FindOptions()
+                                 .setFields(new JsonObject().put("timeStamp", 1))
+                                 .setSort(new JsonObject().put("timeStamp", -1).put("_id", -1))
+                                 .setLimit(1);
+
+        Future<Long> count = Future.future();
+        Future<JsonArray> authors = Future.future();
+        Future<List<JsonObject>> last = Future.future();
+        mongoClient.count(MESSAGES_COLLECTION, inRoom, count.completer());
+        mongoClient.distinctWithQuery(MESSAGES_COLLECTION, authorField, String.class.getName(), inRoom,
+            authors.completer());
+        mongoClient.findWithOptions(MESSAGES_COLLECTION, inRoom, newest, last.completer());
+
+        CompositeFuture.all(count, authors, last).setHandler(asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+                return;
+            }
+            if (count.result() == 0) {
+                migrateRoomStats(roomUUIDs, migrated, handler);
+                return;
+            }
+
+            JsonObject newestMessage = last.result().get(0);
+            JsonObject stats = new JsonObject()
+                                   .put("_id", roomUUID)
+                                   .put("messages", count.result())
+                                   .put("lastMessage", new MessageCursor(newestMessage.getLong("timeStamp"),
+                                       newestMessage.getString("_id")).toJson())
+                                   .put("authors", (long) authors.result().size());
+
+            @SuppressWarnings("unchecked")
+            List<String> authorUUIDs = authors.result().getList();
+            Future<MongoClientBulkWriteResult> upserts = Future.future();
+            if (authorUUIDs.isEmpty()) {
+                upserts.complete();
+            } else {
+                mongoClient.bulkWrite(ROOM_AUTHORS_COLLECTION, roomAuthorUpserts(roomUUID, authorUUIDs),
+                    upserts.completer());
+            }
+
+            upserts.compose(v -> {
+                Future<String> save = Future.future();
+                mongoClient.save(ROOM_STATS_COLLECTION, stats, save.completer());
+                return save;
+            }).setHandler(saveAsyncResult -> {
+                if (saveAsyncResult.failed()) {
+                    handler.handle(Future.failedFuture(saveAsyncResult.cause()));
+                } else {
+                    migrateRoomStats(roomUUIDs, migrated + 1, handler);
+                }
+            });
+        });
+    }
+
+    /**
+     * Numbers the messages recorded before sequence numbers existed, in history order, a
+     * batch at a time. Numbered documents no longer match, so the migration can be resumed at
+     * any point. Numbers go from the highest one in use on, which then seeds the counter
+     * kept in the stats of the room.
+     *
+     * @param handler
+     */
+    private void migrateSequenceNumbers(Handler<AsyncResult<Void>> handler) {
+        FindOptions uuidsOnly = new FindOptions().setFields(new JsonObject().put("_id", 1));
+        mongoClient.findWithOptions(ROOMS_COLLECTION, new JsonObject(), uuidsOnly, roomsAsyncResult -> {
+            if (roomsAsyncResult.failed()) {
+                handler.handle(Future.failedFuture(roomsAsyncResult.cause()));
+                return;
+            }
+
+            Iterator<String> roomUUIDs = roomsAsyncResult.result().stream()
+                                             .map(room -> room.getString("_id"))
+                                             .iterator();
+
+            migrateSequenceNumbers(roomUUIDs, 0, asyncResult -> {
+                if (asyncResult.failed()) {
+                    handler.handle(Future.failedFuture(asyncResult.cause()));
+                } else {
+                    if (asyncResult.result() > 0) {
+                        logger.info("Numbered {} messages", asyncResult.result());
+                    }
+                    handler.handle(Future.succeededFuture());
+                }
+            });
+        });
+    }
+
+    private void migrateSequenceNumbers(Iterator<String> roomUUIDs, long migrated, Handler<AsyncResult<Long>> handler) {
+        if (! roomUUIDs.hasNext()) {
+            handler.handle(Future.succeededFuture(migrated));
+            return;
+        }
+
+        String roomUUID = roomUUIDs.next();
+        FindOptions highest = new FindOptions()
+                                  .setFields(new JsonObject().put("seq", 1))
+                                  .setSort(new JsonObject().put("seq", -1))
+                                  .setLimit(1);
+
+        mongoClient.findWithOptions(MESSAGES_COLLECTION, new JsonObject().put(messageRoomField(), roomUUID),
+            highest, findAsyncResult -> {
+                if (findAsyncResult.failed()) {
+                    handler.handle(Future.failedFuture(findAsyncResult.cause()));
+                    return;
+                }
+
+                List<JsonObject> documents = findAsyncResult.result();
+                long seq = documents.isEmpty() ? 0 : documents.get(0).getLong("seq", 0L);
+                Future.<Long>future(future -> migrateSequenceNumbers(roomUUID, seq, 0, future))
+                    .compose(numbered -> Future.<Long>future(future -> {
+                        long lastSeq = seq + numbered;
+                        if (lastSeq == 0) {
+                            future.complete(numbered);
+                            return;
+                        }
+
+                        /* the counter takes over from the highest number in use */
+                        mongoClient.updateCollectionWithOptions(ROOM_STATS_COLLECTION,
+                            new JsonObject().put("_id", roomUUID),
+                            new JsonObject().put("$max", new JsonObject().put("lastSeq", lastSeq)),
+                            new UpdateOptions().setUpsert(true),
+                            updateAsyncResult -> future.handle(updateAsyncResult.map(numbered)));
+                    }))
+                    .setHandler(asyncResult -> {
+                        if (asyncResult.failed()) {
+                            handler.handle(Future.failedFuture(asyncResult.cause()));
+                        } else {
+                            migrateSequenceNumbers(roomUUIDs, migrated + asyncResult.result(), handler);
+                        }
+                    });
+            });
+    }
+
+    private void migrateSequenceNumbers(String roomUUID, long seq, long migrated, Handler<AsyncResult<Long>> handler) {
+        JsonObject unnumbered = new JsonObject()
+                                    .put(messageRoomField(), roomUUID)
+                                    .put("seq", new JsonObject().put("$exists", false));
+
+        FindOptions options = new FindOptions()
+                                  .setFields(new JsonObject().put("_id", 1))
+                                  .setSort(new JsonObject().put("timeStamp", 1).put("_id", 1))
+                                  .setLimit(SEQ_MIGRATION_BATCH);
+
+        mongoClient.findWithOptions(MESSAGES_COLLECTION, unnumbered, options, findAsyncResult -> {
+            if (findAsyncResult.failed()) {
+                handler.handle(Future.failedFuture(findAsyncResult.cause()));
+                return;
+            }
+
+            List<JsonObject> documents = findAsyncResult.result();
+            if (documents.isEmpty()) {
+                handler.handle(Future.succeededFuture(migrated));
+                return;
+            }
+
+            List<BulkOperation> operations = new ArrayList<>(documents.size());
+            long next = seq;
+            for (JsonObject document : documents) {
+                operations.add(BulkOperation.createUpdate(
+                    new JsonObject().put("_id", document.getValue("_id")),
+                    new JsonObject().put("$set", new JsonObject().put("seq", ++ next))));
+            }
+
+            long last = next;
+            mongoClient.bulkWrite(MESSAGES_COLLECTION, operations, writeAsyncResult -> {
+                if (writeAsyncResult.failed()) {
+                    handler.handle(Future.failedFuture(writeAsyncResult.cause()));
+                } else {
+                    migrateSequenceNumbers(roomUUID, last, migrated + documents.size(), handler);
+                }
+            });
+        });
+    }
+
+    /**
+     * Converts message timestamps stored as ISO-8601 strings to epoch millis, a batch at a time.
+     * Converted documents no longer match, so the migration can be resumed at any point.
+     *
+     * @param handler
+     */
+    private void migrateTimeStamps(Handler<AsyncResult<Void>> handler) {
+        migrateTimeStamps(0, asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+            } else {
+                long migrated = asyncResult.result();
+                if (migrated > 0) {
+                    logger.info("Converted {} message timestamps to epoch millis", migrated);
+                }
+                handler.handle(Future.succeededFuture());
+            }
+        });
+    }
+
+    private void migrateTimeStamps(long migrated, Handler<AsyncResult<Long>> handler) {
+        JsonObject isoTimeStamps = new JsonObject()
+                                       .put("timeStamp", new JsonObject().put("$type", "string"));
+
+        FindOptions options = new FindOptions()
+                                  .setFields(new JsonObject().put("timeStamp", 1))
+                                  .setLimit(TIMESTAMP_MIGRATION_BATCH);
+
+        mongoClient.findWithOptions(MESSAGES_COLLECTION, isoTimeStamps, options, findAsyncResult -> {
+            if (findAsyncResult.failed()) {
+                handler.handle(Future.failedFuture(findAsyncResult.cause()));
+                return;
+            }
+
+            List<JsonObject> documents = findAsyncResult.result();
+            if (documents.isEmpty()) {
+                handler.handle(Future.succeededFuture(migrated));
+                return;
+            }
+
+            List<BulkOperation> operations = new ArrayList<>(documents.size());
+            try {
+                for (JsonObject document : documents) {
+                    long epochMillis = Instant.parse(document.getString("timeStamp")).toEpochMilli();
+                    operations.add(BulkOperation.createUpdate(
+                        new JsonObject().put("_id", document.getValue("_id")),
+                        new JsonObject().put("$set", new JsonObject().put("timeStamp", epochMillis))));
+                }
+            } catch (DateTimeParseException dtpe) {
+                handler.handle(Future.failedFuture(dtpe));
+                return;
+            }
+
+            mongoClient.bulkWrite(MESSAGES_COLLECTION, operations, writeAsyncResult -> {
+                if (writeAsyncResult.failed()) {
+                    handler.handle(Future.failedFuture(writeAsyncResult.cause()));
+                } else {
+                    migrateTimeStamps(migrated + documents.size(), handler);
+                }
+            });
+        });
+    }
+
+    /* runs multi-document updates one after the other, accumulating the number of modified documents */
+    private void applyUpdates(String collection, Iterator<JsonObject[]> updates, long modified,
+                              Handler<AsyncResult<Long>> handler) {
+        if (! updates.hasNext()) {
+            handler.handle(Future.succeededFuture(modified));
+            return;
+        }
+
+        JsonObject[] update = updates.next();
+        mongoClient.updateCollectionWithOptions(collection, update[0], update[1],
+            new UpdateOptions().setMulti(true), asyncResult -> {
+                if (asyncResult.failed()) {
+                    handler.handle(Future.failedFuture(asyncResult.cause()));
+                } else {
+                    applyUpdates(collection, updates,
+                        modified + asyncResult.result().getDocModified(), handler);
+                }
+            });
+    }
+
+    /* the field messages are filtered on by room, depending on the configured layout */
+    private String messageRoomField() {
+        return configuration.isDatabaseDenormalizedMessagesEnabled() ? "roomUuid" : "room";
+    }
+
+    /**
+     * Restores author and room on messages stored in the denormalized layout, out of their
+     * snapshot. No lookup is involved, the room name is not part of the snapshot.
+     *
+     * @param messageMapper
+     */
+    private void hydrateMessage(MessageMapper messageMapper) {
+        if (Objects.isNull(messageMapper.getAuthor()) && ! Objects.isNull(messageMapper.getAuthorUuid())) {
+            UserMapper author = new UserMapper();
+            author.setUuid(messageMapper.getAuthorUuid());
+            author.setEmail(messageMapper.getAuthorEmail());
+            messageMapper.setAuthor(author);
+        }
+
+        if (Objects.isNull(messageMapper.getRoom()) && ! Objects.isNull(messageMapper.getRoomUuid())) {
+            RoomMapper room = new RoomMapper();
+            room.setUuid(messageMapper.getRoomUuid());
+            messageMapper.setRoom(room);
+        }
+    }
+
+    /**
+     * Creates the indexes backing the hot lookups, unless they already exist. uuid lookups
+     * are served by the implicit _id index.
+     *
+     * @param handler
+     */
+    private void ensureIndexes(Handler<AsyncResult<Void>> handler) {
+        List<Future> futures = Arrays.asList(
+            ensureIndex(USERS_COLLECTION, new JsonObject().put("email", 1), true),
+            ensureIndex(ROOMS_COLLECTION, new JsonObject().put("name", 1), true),
+            ensureIndex(MESSAGES_COLLECTION, new JsonObject()
+                                                 .put(messageRoomField(), 1)
+                                                 .put("timeStamp", -1)
+                                                 .put("_id", -1), false),
+            /* catching up by sequence number, and allocating them */
+            ensureIndex(MESSAGES_COLLECTION, new JsonObject()
+                                                 .put(messageRoomField(), 1)
+                                                 .put("seq", 1), true),
+            /* searches, there can be only one text index per collection */
+            ensureIndex(MESSAGES_COLLECTION, new JsonObject().put("text", "text"), false));
+
+        CompositeFuture.all(futures).setHandler(asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+            } else {
+                logger.info("Indexes are in place");
+                handler.handle(Future.succeededFuture());
+            }
+        });
+    }
+
+    private Future<Void> ensureIndex(String collection, JsonObject key, boolean unique) {
+        Future<Void> future = Future.future();
+        mongoClient.createIndexWithOptions(collection, key, new IndexOptions().unique(unique), asyncResult -> {
+            if (asyncResult.failed()) {
+                future.fail(new RuntimeException(MessageFormat.format("{0} {1}: {2}",
+                    collection, key.encode(), asyncResult.cause().getMessage()), asyncResult.cause()));
+            } else {
+                logger.debug("Index {} {} ok", collection, key.encode());
+                future.complete();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Asks mongodb to explain the hot queries and checks that none of them would scan a
+     * collection or sort in memory. Depending on configuration, offending queries are either
+     * logged or make the verticle fail to start.
+     *
+     * @param handler
+     */
+    private void verifyQueryPlans(Handler<AsyncResult<Void>> handler) {
+        String check = configuration.getDatabaseQueryPlanCheck();
+        if (check.equals(DATABASE_QUERY_PLAN_CHECK_OFF)) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+
+        /* probe values are irrelevant, only the shape of the queries matters */
+        String probe = UUID.randomUUID().toString();
+        long probeTimeStamp = System.currentTimeMillis();
+        JsonObject newestFirst = new JsonObject()
+                                     .put("timeStamp", -1)
+                                     .put("_id", -1);
+
+        List<Future> futures = Arrays.asList(
+            explain(DataStoreVerticle.FIND_CREATE_USER_BY_EMAIL, USERS_COLLECTION,
+                new JsonObject().put("email", probe), null),
+            explain(DataStoreVerticle.FIND_CREATE_ROOM_BY_NAME, ROOMS_COLLECTION,
+                new JsonObject().put("name", probe), null),
+            explain(DataStoreVerticle.FIND_USER_BY_UUID, USERS_COLLECTION,
+                new JsonObject().put("_id", probe), null),
+            explain(DataStoreVerticle.FIND_ROOM_BY_UUID, ROOMS_COLLECTION,
+                new JsonObject().put("_id", probe), null),
+            explain(DataStoreVerticle.FETCH_MESSAGES, MESSAGES_COLLECTION,
+                new JsonObject().put(messageRoomField(), probe), newestFirst),
+            explain(DataStoreVerticle.FETCH_MESSAGES, MESSAGES_COLLECTION,
+                new JsonObject()
+                    .put(messageRoomField(), probe)
+                    .put("$or", new JsonArray()
+                                    .add(new JsonObject().put("timeStamp", new JsonObject().put("$lt", probeTimeStamp)))
+                                    .add(new JsonObject()
+                                             .put("timeStamp", probeTimeStamp)
+                                             .put("_id", new JsonObject().put("$lt", probe)))),
+                newestFirst),
+            explain(DataStoreVerticle.FETCH_MESSAGES, MESSAGES_COLLECTION,
+                new JsonObject()
+                    .put(messageRoomField(), probe)
+                    .put("seq", new JsonObject().put("$gt", 0)),
+                new JsonObject().put("seq", 1)));
+
+        CompositeFuture.join(futures).setHandler(asyncResult -> {
+            List<String> offenders = futures.stream()
+                                         .filter(Future::failed)
+                                         .map(future -> future.cause().getMessage())
+                                         .collect(Collectors.toList());
+
+            if (offenders.isEmpty()) {
+                logger.info("All hot queries are backed by indexes");
+                handler.handle(Future.succeededFuture());
+            } else {
+                offenders.forEach(offender -> logger.warn("Query plan check: {}", offender));
+                if (check.equals(DATABASE_QUERY_PLAN_CHECK_FAIL)) {
+                    handler.handle(Future.failedFuture(MessageFormat.format(
+                        "{0} hot queries are not backed by indexes", offenders.size())));
+                } else {
+                    handler.handle(Future.succeededFuture());
+                }
+            }
+        });
+    }
+
+    private Future<Void> explain(String queryType, String collection, JsonObject filter, JsonObject sort) {
+        Future<Void> future = Future.future();
+
+        JsonObject find = new JsonObject()
+                              .put("find", collection)
+                              .put("filter", filter);
+        if (! Objects.isNull(sort)) {
+            find.put("sort", sort);
+        }
+
+        JsonObject command = new JsonObject()
+                                 .put("explain", find)
+                                 .put("verbosity", "queryPlanner");
+
+        mongoClient.runCommand("explain", command, asyncResult -> {
+            if (asyncResult.failed()) {
+                future.fail(MessageFormat.format("{0}: explain failed ({1})",
+                    queryType, asyncResult.cause().getMessage()));
+            } else {
+                JsonObject winningPlan = asyncResult.result()
+                                             .getJsonObject("queryPlanner", new JsonObject())
+                                             .getJsonObject("winningPlan", new JsonObject());
+
+                List<String> stages = new ArrayList<>();
+                collectStages(winningPlan, stages);
+
+                List<String> unindexed = stages.stream()
+                                             .filter(UNINDEXED_STAGES::contains)
+                                             .collect(Collectors.toList());
+                if (unindexed.isEmpty()) {
+                    logger.debug("{} on {}: {}", queryType, collection, stages);
+                    future.complete();
+                } else {
+                    future.fail(MessageFormat.format("{0} on {1} {2} uses {3}",
+                        queryType, collection, filter.encode(), unindexed));
+                }
+            }
+        });
+
+        return future;
+    }
+
+    private void collectStages(JsonObject plan, List<String> stages) {
+        String stage = plan.getString("stage");
+        if (! Objects.isNull(stage)) {
+            stages.add(stage);
+        }
+
+        JsonObject inputStage = plan.getJsonObject("inputStage");
+        if (! Objects.isNull(inputStage)) {
+            collectStages(inputStage, stages);
+        }
+
+        /* OR and merge-sort stages have several children */
+        JsonArray inputStages = plan.getJsonArray("inputStages");
+        if (! Objects.isNull(inputStages)) {
+            for (int i = 0; i < inputStages.size(); ++ i) {
+                collectStages(inputStages.getJsonObject(i), stages);
+            }
+        }
+    }
+}
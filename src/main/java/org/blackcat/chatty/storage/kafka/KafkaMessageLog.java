@@ -0,0 +1,823 @@
+package org.blackcat.chatty.storage.kafka;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.kafka.client.common.TopicPartition;
+import io.vertx.kafka.client.consumer.KafkaConsumer;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
+import io.vertx.kafka.client.producer.KafkaProducer;
+import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import io.vertx.kafka.client.producer.RecordMetadata;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.blackcat.chatty.conf.Configuration;
+import org.blackcat.chatty.mappers.MessageMapper;
+import org.blackcat.chatty.mappers.UserMapper;
+import org.blackcat.chatty.queries.MessageCursor;
+import org.blackcat.chatty.queries.RoomStats;
+import org.blackcat.chatty.queries.SearchPage;
+import org.blackcat.chatty.search.MessageIndex;
+import org.blackcat.chatty.storage.MessageIds;
+import org.blackcat.chatty.verticles.DataStoreVerticle;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Message log backed by a Kafka topic. Records are keyed by room uuid, so that the history
+ * of a room lives, in order, in a single partition; their value holds the author snapshot
+ * and the text, their timestamp is the message's.
+ *
+ * On open, the topic is replayed from the beginning to build an in-memory index of the
+ * offsets of each room, then tailed: records past the end of the topic as it was at open
+ * time are fanned out to {@link DataStoreVerticle#RECORDED_MESSAGES_ADDRESS}, whoever
+ * produced them. History pages are read by offset, with a plain consumer on a worker.
+ * Message texts are indexed in memory along the way, for searches, and so are room stats.
+ *
+ * Sequence numbers are stored in records: writers number their messages after the last one
+ * of the room they know of. Concurrent writers may pick the same numbers, so readers do not
+ * take them as is: the first record of a room in the topic keeps its number, the following
+ * ones are numbered on from it in partition order, the same for every process. Retention
+ * drops records from the head of the topic, numbers stay put. Appends complete once their
+ * records have been tailed and numbered.
+ *
+ * One log is shared by all data store verticles of a process, per brokers and topic. The
+ * partition count of the topic must not change once messages have been recorded.
+ */
+final public class KafkaMessageLog {
+
+    /* a history read gives up after this long */
+    final private static long READ_TIMEOUT = 10000; /* ms */
+    final private static long POLL_TIMEOUT = 100; /* ms */
+
+    /* an append gives up waiting for its records to be tailed after this long */
+    final private static long APPEND_TIMEOUT = 10000; /* ms */
+
+    /* opened logs, by brokers and topic */
+    final private static Map<String, KafkaMessageLog> logs = new HashMap<>();
+
+    final private Logger logger = LoggerFactory.getLogger(KafkaMessageLog.class);
+
+    private final Vertx vertx;
+    private final Configuration configuration;
+    private final String name;
+    private final String topic;
+
+    private KafkaProducer<String, String> producer;
+    private KafkaConsumer<String, String> tail;
+
+    /* history reads, guarded by itself */
+    private org.apache.kafka.clients.consumer.KafkaConsumer<String, String> reader;
+
+    /* guarded by this */
+    private final Map<String, RoomIndex> rooms = new HashMap<>();
+
+    /* the highest sequence number given to the appends of each room, guarded by this */
+    private final Map<String, Long> appendedSeqs = new HashMap<>();
+
+    /* the next offset to tail, by partition, and appends waiting for their records to be
+       tailed, by partition and offset; guarded by this */
+    private final Map<Integer, Long> tailOffsets = new HashMap<>();
+    private final Map<String, Handler<AsyncResult<Long>>> tailWaiters = new HashMap<>();
+
+    /* thread-safe */
+    private final MessageIndex searchIndex = new MessageIndex();
+    private final Map<Integer, Long> fanoutOffsets = new HashMap<>();
+    private final Map<Integer, Long> replayOffsets = new HashMap<>();
+    private final List<Runnable> waiters = new ArrayList<>();
+    private boolean ready;
+    private Throwable failure;
+
+    /* guarded by logs */
+    private int references;
+
+    private KafkaMessageLog(Vertx vertx, Configuration configuration, String name) {
+        this.vertx = vertx;
+        this.configuration = configuration;
+        this.name = name;
+        this.topic = configuration.getKafkaTopic();
+    }
+
+    /**
+     * Opens the configured log, or shares the one already opened by this process. The handler
+     * is called back once the log has been replayed. Each successful call must be matched by
+     * a call to {@link #close(Handler)}.
+     *
+     * @param vertx
+     * @param configuration
+     * @param handler
+     */
+    public static void open(Vertx vertx, Configuration configuration, Handler<AsyncResult<KafkaMessageLog>> handler) {
+        String name = configuration.getKafkaBootstrapServers() + "/" + configuration.getKafkaTopic();
+
+        KafkaMessageLog log;
+        boolean created = false;
+        synchronized (logs) {
+            log = logs.get(name);
+            if (Objects.isNull(log)) {
+                log = new KafkaMessageLog(vertx, configuration, name);
+                logs.put(name, log);
+                created = true;
+            }
+            ++ log.references;
+        }
+
+        final KafkaMessageLog opened = log;
+        opened.whenReady(vertx.getOrCreateContext(), asyncResult -> {
+            if (asyncResult.failed()) {
+                opened.release();
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+            } else {
+                handler.handle(Future.succeededFuture(opened));
+            }
+        });
+
+        if (created) {
+            opened.start();
+        }
+    }
+
+    public void close(Handler<AsyncResult<Void>> handler) {
+        if (! release()) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+
+        if (! Objects.isNull(tail)) {
+            tail.close();
+        }
+        if (! Objects.isNull(producer)) {
+            producer.close();
+        }
+        vertx.<Void>executeBlocking(future -> {
+            if (! Objects.isNull(reader)) {
+                synchronized (reader) {
+                    reader.close();
+                }
+            }
+            future.complete();
+        }, handler);
+    }
+
+    /**
+     * Appends a batch of messages. Kafka has no atomic batches outside of transactions: on
+     * failure, some of the messages may still have been recorded (and fanned out). On success,
+     * each message has been assigned its uuid and sequence number.
+     *
+     * @param messages
+     * @param handler
+     */
+    public void append(List<MessageMapper> messages, Handler<AsyncResult<Void>> handler) {
+        Context context = vertx.getOrCreateContext();
+
+        List<Future> writes = new ArrayList<>(messages.size());
+        for (MessageMapper message : messages) {
+            JsonObject value = new JsonObject()
+                                   .put("seq", nextSeq(message.getRoomUuid()))
+                                   .put("authorUuid", message.getAuthorUuid())
+                                   .put("authorEmail", message.getAuthorEmail())
+                                   .put("text", message.getText());
+
+            Future<RecordMetadata> write = Future.future();
+            producer.write(KafkaProducerRecord.create(topic, message.getRoomUuid(), value.encode(),
+                message.getTimeStamp(), null), write.completer());
+            writes.add(write);
+        }
+
+        CompositeFuture.all(writes).setHandler(asyncResult -> {
+            if (asyncResult.failed()) {
+                /* numbers given to records that may not be in the topic are given again */
+                synchronized (this) {
+                    messages.forEach(message -> appendedSeqs.remove(message.getRoomUuid()));
+                }
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+                return;
+            }
+
+            List<Future> numbered = new ArrayList<>(messages.size());
+            for (int i = 0; i < messages.size(); ++ i) {
+                MessageMapper message = messages.get(i);
+                RecordMetadata metadata = asyncResult.result().resultAt(i);
+                message.setUuid(MessageIds.messageUUID(message.getRoomUuid(), metadata.getOffset()));
+
+                Future<Long> seq = Future.future();
+                whenTailed(message.getRoomUuid(), metadata.getPartition(), metadata.getOffset(), context, seq);
+                numbered.add(seq.map(number -> {
+                    message.setSeq(number);
+                    return null;
+                }));
+            }
+
+            CompositeFuture.all(numbered).setHandler(numberedAsyncResult ->
+                handler.handle(numberedAsyncResult.map(v -> null)));
+        });
+    }
+
+    /* the number a writer gives to its next message of a room, after the last one it knows of */
+    private synchronized long nextSeq(String roomUUID) {
+        RoomIndex index = rooms.get(roomUUID);
+        long seq = Math.max(Objects.isNull(index) ? 0 : index.lastSeq(), appendedSeqs.getOrDefault(roomUUID, 0L)) + 1;
+        appendedSeqs.put(roomUUID, seq);
+        return seq;
+    }
+
+    /* calls back with the sequence number of an appended record once it has been tailed */
+    private void whenTailed(String roomUUID, int partition, long offset, Context context,
+                            Handler<AsyncResult<Long>> handler) {
+
+        String key = partition + ":" + offset;
+        Handler<AsyncResult<Long>> waiter = asyncResult -> context.runOnContext(v -> handler.handle(asyncResult));
+
+        synchronized (this) {
+            if (offset < tailOffsets.getOrDefault(partition, 0L)) {
+                long seq = seqOf(roomUUID, offset);
+                waiter.handle(Future.succeededFuture(seq));
+                return;
+            }
+            tailWaiters.put(key, waiter);
+        }
+
+        vertx.setTimer(APPEND_TIMEOUT, id -> {
+            Handler<AsyncResult<Long>> expired;
+            synchronized (this) {
+                expired = tailWaiters.remove(key);
+            }
+            if (! Objects.isNull(expired)) {
+                expired.handle(Future.failedFuture(MessageFormat.format(
+                    "Offset {0} of partition {1} was recorded, but not tailed", offset, partition)));
+            }
+        });
+    }
+
+    /**
+     * Reads a page of the history of a room. Messages carry their author snapshot, but not
+     * their room.
+     *
+     * @param roomUUID
+     * @param before - the cursor of the previous page, or null for the newest page
+     * @param limit - the maximum number of messages in the page
+     * @param handler - called back with the page, in chronological order, and whether an
+     *                  older page exists
+     */
+    public void read(String roomUUID, MessageCursor before, int limit,
+                     Handler<AsyncResult<HistoryRange>> handler) {
+
+        final int partition;
+        final long[] offsets;
+        final boolean hasOlder;
+
+        synchronized (this) {
+            RoomIndex index = rooms.get(roomUUID);
+            if (Objects.isNull(index)) {
+                handler.handle(Future.succeededFuture(new HistoryRange(new ArrayList<>(), false)));
+                return;
+            }
+
+            int to;
+            try {
+                to = Objects.isNull(before) ? index.size :
+                         index.lowerBound(MessageIds.offsetOf(roomUUID, before.getUuid()));
+            } catch (IllegalArgumentException iae) {
+                handler.handle(Future.failedFuture(iae));
+                return;
+            }
+
+            int from = Math.max(0, to - limit);
+            partition = index.partition;
+            offsets = Arrays.copyOfRange(index.offsets, from, to);
+            hasOlder = from > 0;
+        }
+
+        if (offsets.length == 0) {
+            handler.handle(Future.succeededFuture(new HistoryRange(new ArrayList<>(), false)));
+            return;
+        }
+
+        vertx.<HistoryRange>executeBlocking(future -> {
+            try {
+                future.complete(new HistoryRange(readRange(roomUUID, partition, offsets), hasOlder));
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false, handler);
+    }
+
+    /**
+     * Reads the messages of a room past a cursor, the history read forward. Messages carry
+     * their author snapshot, but not their room.
+     *
+     * @param roomUUID
+     * @param after - only messages past this cursor, or null for the oldest ones
+     * @param limit - the maximum number of messages
+     * @param handler - called back with the messages, oldest first
+     */
+    public void readAfter(String roomUUID, MessageCursor after, int limit,
+                          Handler<AsyncResult<List<MessageMapper>>> handler) {
+
+        final int partition;
+        final long[] offsets;
+
+        synchronized (this) {
+            RoomIndex index = rooms.get(roomUUID);
+            if (Objects.isNull(index)) {
+                handler.handle(Future.succeededFuture(new ArrayList<>()));
+                return;
+            }
+
+            int from;
+            try {
+                /* past the offset of the cursor, whether it is still indexed or not */
+                from = Objects.isNull(after) ? 0 :
+                           index.lowerBound(MessageIds.offsetOf(roomUUID, after.getUuid()) + 1);
+            } catch (IllegalArgumentException iae) {
+                handler.handle(Future.failedFuture(iae));
+                return;
+            }
+
+            int to = Math.min(index.size, from + limit);
+            partition = index.partition;
+            offsets = Arrays.copyOfRange(index.offsets, from, Math.max(from, to));
+        }
+
+        if (offsets.length == 0) {
+            handler.handle(Future.succeededFuture(new ArrayList<>()));
+            return;
+        }
+
+        vertx.<List<MessageMapper>>executeBlocking(future -> {
+            try {
+                future.complete(readRange(roomUUID, partition, offsets));
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false, handler);
+    }
+
+    /**
+     * Reads the messages of a room recorded after a given sequence number. Messages carry
+     * their author snapshot, but not their room.
+     *
+     * @param roomUUID
+     * @param seq - the last sequence number known, 0 for the oldest messages
+     * @param limit - the maximum number of messages
+     * @param handler - called back with the messages, oldest first
+     */
+    public void readSince(String roomUUID, long seq, int limit, Handler<AsyncResult<List<MessageMapper>>> handler) {
+        final int partition;
+        final long[] offsets;
+
+        synchronized (this) {
+            RoomIndex index = rooms.get(roomUUID);
+            if (Objects.isNull(index) || seq >= index.lastSeq()) {
+                handler.handle(Future.succeededFuture(new ArrayList<>()));
+                return;
+            }
+
+            /* the message after seq is at rank seq - firstSeq + 1, or dropped by retention */
+            int from = (int) Math.max(0, seq - index.firstSeq + 1);
+            partition = index.partition;
+            offsets = Arrays.copyOfRange(index.offsets, from, Math.min(index.size, from + limit));
+        }
+
+        vertx.<List<MessageMapper>>executeBlocking(future -> {
+            try {
+                future.complete(readRange(roomUUID, partition, offsets));
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false, handler);
+    }
+
+    /**
+     * Looks up the stats of many rooms at once, out of the index. Only the messages still in
+     * the topic count.
+     *
+     * @param roomUUIDs
+     * @return the stats of the rooms that have messages
+     */
+    public synchronized List<RoomStats> readRoomStats(List<String> roomUUIDs) {
+        List<RoomStats> stats = new ArrayList<>();
+        for (String roomUUID : roomUUIDs) {
+            RoomIndex index = rooms.get(roomUUID);
+            if (Objects.isNull(index) || index.size == 0) {
+                continue;
+            }
+
+            MessageCursor lastMessage = new MessageCursor(index.lastTimeStamp,
+                MessageIds.messageUUID(roomUUID, index.offsets[index.size - 1]));
+            stats.add(new RoomStats(roomUUID, index.size, lastMessage, index.authors.size()));
+        }
+        return stats;
+    }
+
+    /**
+     * Searches messages, by way of the index. Results carry their room uuid only.
+     *
+     * @param roomUUID - the room to search, or null for all of them
+     * @param query - free text, all of its terms must match
+     * @param offset - the number of results to skip
+     * @param limit - the maximum number of results
+     * @param handler - called back with the page of results, best match first
+     */
+    public void search(String roomUUID, String query, int offset, int limit,
+                       Handler<AsyncResult<SearchPage>> handler) {
+
+        /* one extra hit tells whether a following page exists */
+        List<MessageIndex.Hit> hits = searchIndex.search(Objects.isNull(roomUUID) ? null :
+                                                       Collections.singleton(roomUUID), query, offset + limit + 1);
+
+        Integer next = hits.size() > offset + limit ? offset + limit : null;
+        List<MessageIndex.Hit> page = hits.subList(Math.min(offset, hits.size()), Math.min(offset + limit, hits.size()));
+        if (page.isEmpty()) {
+            handler.handle(Future.succeededFuture(new SearchPage(new ArrayList<>(), next)));
+            return;
+        }
+
+        Map<String, Integer> partitions = new HashMap<>();
+        synchronized (this) {
+            page.forEach(hit -> partitions.put(hit.getRoomUUID(), rooms.get(hit.getRoomUUID()).partition));
+        }
+
+        vertx.<SearchPage>executeBlocking(future -> {
+            try {
+                /* hits are scattered all over the history, each one is read on its own */
+                List<MessageMapper> messages = new ArrayList<>(page.size());
+                for (MessageIndex.Hit hit : page) {
+                    messages.addAll(readRange(hit.getRoomUUID(), partitions.get(hit.getRoomUUID()),
+                        new long[] { hit.getOffset() }));
+                }
+                future.complete(new SearchPage(messages, next));
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false, handler);
+    }
+
+    /**
+     * A page of history, as read from the log.
+     */
+    final public static class HistoryRange {
+        private final List<MessageMapper> messages;
+        private final boolean hasOlder;
+
+        HistoryRange(List<MessageMapper> messages, boolean hasOlder) {
+            this.messages = messages;
+            this.hasOlder = hasOlder;
+        }
+
+        public List<MessageMapper> getMessages() {
+            return messages;
+        }
+
+        public boolean hasOlder() {
+            return hasOlder;
+        }
+    }
+
+    /* creates the topic if needed, then replays it */
+    private void start() {
+        vertx.<Map<Integer, long[]>>executeBlocking(future -> {
+            try {
+                ensureTopic();
+
+                reader = new org.apache.kafka.clients.consumer.KafkaConsumer<>(consumerConfig());
+                List<org.apache.kafka.common.TopicPartition> partitions =
+                    reader.partitionsFor(topic).stream()
+                          .map(info -> new org.apache.kafka.common.TopicPartition(topic, info.partition()))
+                          .collect(Collectors.toList());
+
+                Map<org.apache.kafka.common.TopicPartition, Long> beginning = reader.beginningOffsets(partitions);
+                Map<org.apache.kafka.common.TopicPartition, Long> end = reader.endOffsets(partitions);
+
+                Map<Integer, long[]> bounds = new HashMap<>();
+                for (org.apache.kafka.common.TopicPartition partition : partitions) {
+                    bounds.put(partition.partition(), new long[] { beginning.get(partition), end.get(partition) });
+                }
+                future.complete(bounds);
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, asyncResult -> {
+            if (asyncResult.failed()) {
+                fail(asyncResult.cause());
+                return;
+            }
+
+            Map<Integer, long[]> bounds = asyncResult.result();
+            synchronized (this) {
+                bounds.forEach((partition, range) -> {
+                    fanoutOffsets.put(partition, range[1]);
+                    if (range[1] > range[0]) {
+                        replayOffsets.put(partition, range[1] - 1);
+                    }
+                });
+            }
+
+            Map<String, String> producerConfig = new HashMap<>();
+            producerConfig.put("bootstrap.servers", configuration.getKafkaBootstrapServers());
+            producerConfig.put("key.serializer", StringSerializer.class.getName());
+            producerConfig.put("value.serializer", StringSerializer.class.getName());
+            producerConfig.put("acks", "all");
+            producerConfig.put("enable.idempotence", "true");
+            producer = KafkaProducer.createShared(vertx, name, producerConfig);
+
+            Map<String, String> consumerConfig = new HashMap<>();
+            consumerConfig().forEach((key, value) -> consumerConfig.put((String) key, (String) value));
+
+            tail = KafkaConsumer.create(vertx, consumerConfig);
+            tail.exceptionHandler(t -> logger.error("Kafka consumer error: {}", t.toString()));
+            tail.handler(this::onRecord);
+
+            Set<TopicPartition> partitions = bounds.keySet().stream()
+                                                 .map(partition -> new TopicPartition(topic, partition))
+                                                 .collect(Collectors.toSet());
+            tail.assign(partitions, assignAsyncResult -> {
+                if (assignAsyncResult.failed()) {
+                    fail(assignAsyncResult.cause());
+                } else {
+                    checkReplayed();
+                }
+            });
+        });
+    }
+
+    private void ensureTopic() throws InterruptedException, ExecutionException {
+        Properties properties = new Properties();
+        properties.put("bootstrap.servers", configuration.getKafkaBootstrapServers());
+
+        try (AdminClient adminClient = AdminClient.create(properties)) {
+            if (! adminClient.listTopics().names().get().contains(topic)) {
+                NewTopic newTopic = new NewTopic(topic, configuration.getKafkaPartitions(),
+                                                    (short) configuration.getKafkaReplicationFactor());
+                try {
+                    adminClient.createTopics(Collections.singleton(newTopic)).all().get();
+                    logger.info("Created topic {}", topic);
+                } catch (ExecutionException ee) {
+                    /* another process created it meanwhile */
+                    if (! (ee.getCause() instanceof TopicExistsException)) {
+                        throw ee;
+                    }
+                }
+            }
+        }
+    }
+
+    /* no group: partitions are assigned explicitly, and nothing is committed */
+    private Properties consumerConfig() {
+        Properties properties = new Properties();
+        properties.put("bootstrap.servers", configuration.getKafkaBootstrapServers());
+        properties.put("key.deserializer", StringDeserializer.class.getName());
+        properties.put("value.deserializer", StringDeserializer.class.getName());
+        properties.put("enable.auto.commit", "false");
+        properties.put("auto.offset.reset", "earliest");
+        return properties;
+    }
+
+    private void onRecord(KafkaConsumerRecord<String, String> record) {
+        String roomUUID = record.key();
+        if (Objects.isNull(roomUUID)) {
+            synchronized (this) {
+                tailOffsets.put(record.partition(), record.offset() + 1);
+            }
+            return;
+        }
+
+        JsonObject value = new JsonObject(record.value());
+        long seq = index(roomUUID, record.partition(), record.offset(), record.timestamp(),
+                       value.getString("authorUuid"), value.getLong("seq", 0L));
+        searchIndex.add(roomUUID, record.offset(), value.getString("text"));
+
+        boolean fanout;
+        Handler<AsyncResult<Long>> waiter;
+        synchronized (this) {
+            tailOffsets.put(record.partition(), record.offset() + 1);
+            waiter = tailWaiters.remove(record.partition() + ":" + record.offset());
+            fanout = record.offset() >= fanoutOffsets.getOrDefault(record.partition(), 0L);
+
+            Long replayed = replayOffsets.get(record.partition());
+            if (! Objects.isNull(replayed) && record.offset() >= replayed) {
+                replayOffsets.remove(record.partition());
+            }
+        }
+
+        if (! Objects.isNull(waiter)) {
+            waiter.handle(Future.succeededFuture(seq));
+        }
+        if (fanout) {
+            MessageMapper message = toMessage(roomUUID, record.offset(), record.timestamp(), record.value());
+            vertx.eventBus().send(DataStoreVerticle.RECORDED_MESSAGES_ADDRESS, message);
+        }
+
+        checkReplayed();
+    }
+
+    private List<MessageMapper> readRange(String roomUUID, int partition, long[] offsets) throws IOException {
+        org.apache.kafka.common.TopicPartition topicPartition =
+            new org.apache.kafka.common.TopicPartition(topic, partition);
+
+        long first = offsets[0];
+        long last = offsets[offsets.length - 1];
+        long deadline = System.currentTimeMillis() + READ_TIMEOUT;
+
+        List<MessageMapper> messages = new ArrayList<>(offsets.length);
+        synchronized (reader) {
+            reader.assign(Collections.singleton(topicPartition));
+            reader.seek(topicPartition, first);
+
+            while (reader.position(topicPartition) <= last) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException(MessageFormat.format(
+                        "Timed out reading offsets {0} to {1} of {2}", first, last, topicPartition));
+                }
+
+                for (ConsumerRecord<String, String> record : reader.poll(POLL_TIMEOUT)) {
+                    if (record.offset() <= last && roomUUID.equals(record.key()) &&
+                            Arrays.binarySearch(offsets, record.offset()) >= 0) {
+                        messages.add(toMessage(roomUUID, record.offset(), record.timestamp(), record.value()));
+                    }
+                }
+            }
+        }
+        return messages;
+    }
+
+    private MessageMapper toMessage(String roomUUID, long offset, long timeStamp, String value) {
+        JsonObject jsonObject = new JsonObject(value);
+
+        UserMapper author = new UserMapper();
+        author.setUuid(jsonObject.getString("authorUuid"));
+        author.setEmail(jsonObject.getString("authorEmail"));
+
+        MessageMapper message = new MessageMapper();
+        message.setUuid(MessageIds.messageUUID(roomUUID, offset));
+        message.setSeq(seqOf(roomUUID, offset));
+        message.setTimeStamp(timeStamp);
+        message.setText(jsonObject.getString("text"));
+        message.setAuthor(author);
+        message.setAuthorUuid(author.getUuid());
+        message.setAuthorEmail(author.getEmail());
+        message.setRoomUuid(roomUUID);
+        return message;
+    }
+
+    /**
+     * Indexes a tailed record, records come in partition order.
+     *
+     * @param roomUUID
+     * @param partition
+     * @param offset
+     * @param timeStamp
+     * @param authorUUID
+     * @param storedSeq - the sequence number given by the writer, 0 for records that predate them
+     * @return the sequence number of the record, 0 if it is not indexed
+     */
+    private synchronized long index(String roomUUID, int partition, long offset, long timeStamp,
+                                    String authorUUID, long storedSeq) {
+
+        RoomIndex index = rooms.get(roomUUID);
+        if (Objects.isNull(index)) {
+            index = new RoomIndex(partition, Math.max(1, storedSeq));
+            rooms.put(roomUUID, index);
+        }
+        if (index.partition != partition) {
+            logger.warn("Ignoring offset {} of room {}: found in partition {}, expected {}",
+                offset, roomUUID, partition, index.partition);
+            return 0;
+        }
+        if (index.add(offset)) {
+            index.authors.add(authorUUID);
+            index.lastTimeStamp = timeStamp;
+        }
+        return seqOf(roomUUID, offset);
+    }
+
+    /* the sequence number of an indexed offset */
+    private synchronized long seqOf(String roomUUID, long offset) {
+        RoomIndex index = rooms.get(roomUUID);
+        return Objects.isNull(index) ? 0 : index.firstSeq + index.lowerBound(offset);
+    }
+
+    private void whenReady(Context context, Handler<AsyncResult<Void>> handler) {
+        Runnable waiter = () -> context.runOnContext(v -> {
+            if (Objects.isNull(failure)) {
+                handler.handle(Future.succeededFuture());
+            } else {
+                handler.handle(Future.failedFuture(failure));
+            }
+        });
+
+        synchronized (this) {
+            if (! ready) {
+                waiters.add(waiter);
+                return;
+            }
+        }
+        waiter.run();
+    }
+
+    private void checkReplayed() {
+        List<Runnable> notified;
+        synchronized (this) {
+            if (ready || ! replayOffsets.isEmpty() || Objects.isNull(tail)) {
+                return;
+            }
+
+            ready = true;
+            notified = new ArrayList<>(waiters);
+            waiters.clear();
+            logger.info("Replayed topic {}: {} rooms", topic, rooms.size());
+        }
+        notified.forEach(Runnable::run);
+    }
+
+    private void fail(Throwable cause) {
+        logger.error("Could not open topic {}: {}", topic, cause.toString());
+
+        List<Runnable> notified;
+        synchronized (this) {
+            failure = cause;
+            ready = true;
+            notified = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        notified.forEach(Runnable::run);
+    }
+
+    /* true if this was the last reference */
+    private boolean release() {
+        synchronized (logs) {
+            if (-- references > 0) {
+                return false;
+            }
+            logs.remove(name);
+            return true;
+        }
+    }
+
+    /* offsets of the messages of a room, in increasing order, along with the room stats; the
+       sequence numbers of the messages follow each other from the first one on */
+    final private static class RoomIndex {
+        final int partition;
+        final long firstSeq;
+        long[] offsets = new long[16];
+        int size;
+
+        final Set<String> authors = new HashSet<>();
+        long lastTimeStamp;
+
+        RoomIndex(int partition, long firstSeq) {
+            this.partition = partition;
+            this.firstSeq = firstSeq;
+        }
+
+        long lastSeq() {
+            return firstSeq + size - 1;
+        }
+
+        /* false if the offset was known already */
+        boolean add(long offset) {
+            int index = Arrays.binarySearch(offsets, 0, size, offset);
+            if (index >= 0) {
+                return false; /* recorded here, then tailed */
+            }
+
+            index = -index - 1;
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * size);
+            }
+            System.arraycopy(offsets, index, offsets, index + 1, size - index);
+            offsets[index] = offset;
+            ++ size;
+            return true;
+        }
+
+        /* the number of offsets lower than the given one */
+        int lowerBound(long offset) {
+            int index = Arrays.binarySearch(offsets, 0, size, offset);
+            return index >= 0 ? index : -index - 1;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package org.blackcat.chatty.storage.log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * A segment of a room log: an append-only file of records, along with its sparse index.
+ *
+ * Records are laid out as [int length][int crc32][long timeStamp][payload], the checksum
+ * covering timestamp and payload. Offsets are implicit: the n-th record of a segment has
+ * offset baseOffset + n.
+ *
+ * The index holds one [long timeStamp][long offset][long position] entry for the first
+ * record, then one every indexInterval bytes or so. Both timestamps and offsets grow along
+ * the segment, so either can be looked up by binary search, then by a short forward scan.
+ *
+ * Reads go through a read-only memory mapping of the segment, refreshed when the segment
+ * has grown since it was last mapped. Not thread-safe, segments are guarded by their store.
+ */
+final class LogSegment implements Closeable {
+
+    final static String SEGMENT_SUFFIX = ".seg";
+    final static String INDEX_SUFFIX = ".idx";
+
+    final private static int HEADER_SIZE = 16;
+    final private static int INDEX_ENTRY_SIZE = 24;
+
+    /**
+     * Receives records, in offset order.
+     */
+    interface RecordHandler {
+        void handle(long offset, long timeStamp, byte[] payload);
+    }
+
+    private final long baseOffset;
+    private final File segmentFile;
+    private final File indexFile;
+    private final int indexInterval;
+
+    private final FileChannel channel;
+    private final FileChannel indexChannel;
+
+    /* sparse index, mirrored in memory */
+    private long[] indexTimeStamps = new long[16];
+    private long[] indexOffsets = new long[16];
+    private long[] indexPositions = new long[16];
+    private int indexSize;
+
+    /* tail state */
+    private long size;
+    private long nextOffset;
+    private long lastTimeStamp = -1;
+    private long bytesSinceIndex;
+
+    /* read view, covers [0, mapped.capacity()) */
+    private MappedByteBuffer mapped;
+
+    private LogSegment(File directory, long baseOffset, int indexInterval) throws IOException {
+        this.baseOffset = baseOffset;
+        this.segmentFile = new File(directory, fileName(baseOffset, SEGMENT_SUFFIX));
+        this.indexFile = new File(directory, fileName(baseOffset, INDEX_SUFFIX));
+        this.indexInterval = indexInterval;
+
+        this.channel = FileChannel.open(segmentFile.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.indexChannel = FileChannel.open(indexFile.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Opens (or creates) a segment. Whatever follows the last valid record, e.g. a record
+     * that was being written when the process died, is truncated away.
+     *
+     * @param directory
+     * @param baseOffset - the offset of the first record in the segment
+     * @param indexInterval - the number of bytes between two index entries
+     * @return the segment
+     * @throws IOException
+     */
+    static LogSegment open(File directory, long baseOffset, int indexInterval) throws IOException {
+        LogSegment segment = new LogSegment(directory, baseOffset, indexInterval);
+        try {
+            segment.loadIndex();
+            segment.truncate(Long.MAX_VALUE);
+        } catch (IOException ioe) {
+            segment.close();
+            throw ioe;
+        }
+        return segment;
+    }
+
+    static String fileName(long baseOffset, String suffix) {
+        return String.format("%020d%s", baseOffset, suffix);
+    }
+
+    long getBaseOffset() {
+        return baseOffset;
+    }
+
+    /**
+     * @return the offset the next appended record will be given
+     */
+    long getNextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * @return the size of the segment, in bytes
+     */
+    long getSize() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return nextOffset == baseOffset;
+    }
+
+    /**
+     * @return the timestamp of the first record, or -1 if the segment is empty
+     */
+    long getFirstTimeStamp() {
+        return indexSize == 0 ? -1 : indexTimeStamps[0];
+    }
+
+    /**
+     * @return the timestamp of the last record, or -1 if the segment is empty
+     */
+    long getLastTimeStamp() {
+        return lastTimeStamp;
+    }
+
+    /**
+     * Appends a record. The record is not durable until the segment is flushed.
+     *
+     * @param timeStamp - must not be older than the last record
+     * @param payload
+     * @return the offset of the record
+     * @throws IOException
+     */
+    long append(long timeStamp, byte[] payload) throws IOException {
+        if (timeStamp < lastTimeStamp) {
+            throw new IllegalArgumentException("Records must be appended in timestamp order");
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt(checksum(timeStamp, payload));
+        record.putLong(timeStamp);
+        record.put(payload);
+        record.flip();
+
+        long position = size;
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+
+        long offset = nextOffset;
+        advance(timeStamp, offset, size, HEADER_SIZE + payload.length);
+        return offset;
+    }
+
+    /**
+     * Makes all appended records durable.
+     *
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        channel.force(false);
+        indexChannel.force(false);
+    }
+
+    /**
+     * Feeds the records in [fromOffset, toOffset) to the handler.
+     *
+     * @param fromOffset
+     * @param toOffset
+     * @param handler
+     * @throws IOException
+     */
+    void read(long fromOffset, long toOffset, RecordHandler handler) throws IOException {
+        if (fromOffset >= nextOffset || toOffset <= baseOffset) {
+            return;
+        }
+
+        ByteBuffer view = view();
+
+        int entry = floorEntry(indexOffsets, fromOffset);
+        long position = entry < 0 ? 0 : indexPositions[entry];
+        long offset = entry < 0 ? baseOffset : indexOffsets[entry];
+
+        while (offset < toOffset && position < size) {
+            int length = view.getInt((int) position);
+            if (offset >= fromOffset) {
+                long timeStamp = view.getLong((int) position + 8);
+                byte[] payload = new byte[length];
+                ByteBuffer slice = view.duplicate();
+                slice.position((int) position + HEADER_SIZE);
+                slice.get(payload);
+                handler.handle(offset, timeStamp, payload);
+            }
+            position += HEADER_SIZE + length;
+            ++ offset;
+        }
+    }
+
+    /**
+     * Looks up the first record recorded at or after the given time.
+     *
+     * @param timeStamp
+     * @return the offset of the record, or the next offset if there is no such record
+     * @throws IOException
+     */
+    long offsetOf(long timeStamp) throws IOException {
+        if (isEmpty() || timeStamp > lastTimeStamp) {
+            return nextOffset;
+        }
+
+        /* the record lies after the last entry older than timeStamp */
+        int entry = floorEntry(indexTimeStamps, timeStamp - 1);
+        if (entry < 0) {
+            return baseOffset;
+        }
+
+        ByteBuffer view = view();
+        long position = indexPositions[entry];
+        long offset = indexOffsets[entry];
+        while (position < size && view.getLong((int) position + 8) < timeStamp) {
+            position += HEADER_SIZE + view.getInt((int) position);
+            ++ offset;
+        }
+        return offset;
+    }
+
+    /**
+     * Drops all records from the given offset on. Also used on open, to recover the tail of
+     * the segment: records are scanned from the last index entry, and the segment is cut
+     * after the last valid one.
+     *
+     * @param offset
+     * @throws IOException
+     */
+    void truncate(long offset) throws IOException {
+        /* index entries at or after the offset are gone */
+        while (indexSize > 0 && indexOffsets[indexSize - 1] >= offset) {
+            -- indexSize;
+        }
+
+        long fileSize = channel.size();
+        ByteBuffer view = fileSize == 0 ? ByteBuffer.allocate(0) :
+                              channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+
+        while (true) {
+            long position = indexSize == 0 ? 0 : indexPositions[indexSize - 1];
+            long recordOffset = indexSize == 0 ? baseOffset : indexOffsets[indexSize - 1];
+
+            size = position;
+            nextOffset = recordOffset;
+            lastTimeStamp = indexSize == 0 ? -1 : indexTimeStamps[indexSize - 1];
+            bytesSinceIndex = 0;
+
+            while (recordOffset < offset && position + HEADER_SIZE <= fileSize) {
+                int length = view.getInt((int) position);
+                int crc = view.getInt((int) position + 4);
+                long timeStamp = view.getLong((int) position + 8);
+                if (length < 0 || position + HEADER_SIZE + length > fileSize || timeStamp < lastTimeStamp) {
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                ByteBuffer slice = view.duplicate();
+                slice.position((int) position + HEADER_SIZE);
+                slice.get(payload);
+                if (crc != checksum(timeStamp, payload)) {
+                    break;
+                }
+
+                advance(timeStamp, recordOffset, position, HEADER_SIZE + length);
+                position += HEADER_SIZE + length;
+                ++ recordOffset;
+            }
+
+            /* an entry pointing to a damaged record is dropped, and the scan resumed from the previous one */
+            if (indexSize > 0 && indexPositions[indexSize - 1] >= size) {
+                -- indexSize;
+            } else {
+                break;
+            }
+        }
+
+        /* the old mapping may extend past the new end of file */
+        mapped = null;
+        channel.truncate(size);
+        indexChannel.truncate((long) indexSize * INDEX_ENTRY_SIZE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mapped = null;
+        try {
+            channel.close();
+        } finally {
+            indexChannel.close();
+        }
+    }
+
+    /**
+     * Closes the segment, and removes its files.
+     *
+     * @throws IOException
+     */
+    void delete() throws IOException {
+        close();
+        if (! segmentFile.delete() || ! indexFile.delete()) {
+            throw new IOException("Could not delete segment " + segmentFile);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LogSegment{" +
+                "file=" + segmentFile +
+                ", nextOffset=" + nextOffset +
+                ", size=" + size +
+                '}';
+    }
+
+    /* accounts for a record written at position, adding an index entry when due */
+    private void advance(long timeStamp, long offset, long position, int recordSize) throws IOException {
+        boolean indexed = indexSize > 0 && indexPositions[indexSize - 1] == position;
+        if (! indexed && (indexSize == 0 || bytesSinceIndex >= indexInterval)) {
+            addIndexEntry(timeStamp, offset, position);
+            bytesSinceIndex = 0;
+        }
+
+        bytesSinceIndex += recordSize;
+        size = position + recordSize;
+        nextOffset = offset + 1;
+        lastTimeStamp = timeStamp;
+    }
+
+    private void addIndexEntry(long timeStamp, long offset, long position) throws IOException {
+        if (indexSize == indexOffsets.length) {
+            int capacity = 2 * indexSize;
+            indexTimeStamps = Arrays.copyOf(indexTimeStamps, capacity);
+            indexOffsets = Arrays.copyOf(indexOffsets, capacity);
+            indexPositions = Arrays.copyOf(indexPositions, capacity);
+        }
+
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        entry.putLong(timeStamp).putLong(offset).putLong(position).flip();
+        long entryPosition = (long) indexSize * INDEX_ENTRY_SIZE;
+        while (entry.hasRemaining()) {
+            entryPosition += indexChannel.write(entry, entryPosition);
+        }
+
+        indexTimeStamps[indexSize] = timeStamp;
+        indexOffsets[indexSize] = offset;
+        indexPositions[indexSize] = position;
+        ++ indexSize;
+    }
+
+    /* keeps the longest valid prefix of the index file */
+    private void loadIndex() throws IOException {
+        long segmentSize = channel.size();
+        int entries = (int) (indexChannel.size() / INDEX_ENTRY_SIZE);
+
+        ByteBuffer buffer = ByteBuffer.allocate(entries * INDEX_ENTRY_SIZE);
+        while (buffer.hasRemaining() && indexChannel.read(buffer, buffer.position()) > 0) {
+            /* keep reading */
+        }
+        buffer.flip();
+
+        indexSize = 0;
+        for (int i = 0; i < entries; ++ i) {
+            long timeStamp = buffer.getLong();
+            long offset = buffer.getLong();
+            long position = buffer.getLong();
+
+            boolean valid = indexSize == 0 ?
+                                offset == baseOffset && position == 0 :
+                                offset > indexOffsets[indexSize - 1] &&
+                                    position > indexPositions[indexSize - 1] &&
+                                    timeStamp >= indexTimeStamps[indexSize - 1];
+            if (! valid || position >= segmentSize) {
+                break;
+            }
+
+            if (indexSize == indexOffsets.length) {
+                int capacity = 2 * indexSize;
+                indexTimeStamps = Arrays.copyOf(indexTimeStamps, capacity);
+                indexOffsets = Arrays.copyOf(indexOffsets, capacity);
+                indexPositions = Arrays.copyOf(indexPositions, capacity);
+            }
+            indexTimeStamps[indexSize] = timeStamp;
+            indexOffsets[indexSize] = offset;
+            indexPositions[indexSize] = position;
+            ++ indexSize;
+        }
+    }
+
+    private ByteBuffer view() throws IOException {
+        if (Objects.isNull(mapped) || mapped.capacity() < size) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return mapped;
+    }
+
+    /* the last entry whose key is not greater than the given one, -1 if none */
+    private int floorEntry(long[] keys, long key) {
+        int low = 0;
+        int high = indexSize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    private static int checksum(long timeStamp, byte[] payload) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(ByteBuffer.allocate(8).putLong(timeStamp).array());
+        crc32.update(payload);
+        return (int) crc32.getValue();
+    }
+}
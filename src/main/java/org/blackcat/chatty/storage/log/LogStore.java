@@ -0,0 +1,616 @@
+package org.blackcat.chatty.storage.log;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.blackcat.chatty.mappers.MessageMapper;
+import org.blackcat.chatty.mappers.RoomMapper;
+import org.blackcat.chatty.mappers.UserMapper;
+import org.blackcat.chatty.queries.MessageCursor;
+import org.blackcat.chatty.queries.MessagePage;
+import org.blackcat.chatty.queries.RoomStats;
+import org.blackcat.chatty.queries.SearchPage;
+import org.blackcat.chatty.search.MessageIndex;
+import org.blackcat.chatty.storage.MessageIds;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * An embedded, file-based store. Layout under the root directory:
+ *
+ * users.jsonl, rooms.jsonl - entities, one JSON object per line, loaded in memory on open
+ * authors.jsonl - the distinct authors of each room, for room stats, same format
+ * rooms/[roomUUID]/ - the message log of each room, see {@link RoomLog}
+ *
+ * Messages are stored as a snapshot of their author, along with their text. Within a room,
+ * offsets and timestamps grow together (timestamps are clamped to the last one recorded),
+ * so that the (timeStamp, uuid) order of the history is the log order, see {@link MessageIds}.
+ * Offsets are gap-free within a room: the sequence number of a message is its offset + 1.
+ *
+ * Message texts are indexed in memory for searches: the index is built out of the room logs
+ * on open, then maintained as messages are appended. So are room stats: the number of
+ * messages of a room is the next offset of its log, which expiry leaves alone.
+ *
+ * A root is owned by one process at a time (a lock file guards it), and shared by all data
+ * store verticles of that process. All blocking, callers must stay off event loops.
+ */
+final public class LogStore implements Closeable {
+
+    final private static String LOCK_FILE = "LOCK";
+    final private static String USERS_FILE = "users.jsonl";
+    final private static String ROOMS_FILE = "rooms.jsonl";
+    final private static String AUTHORS_FILE = "authors.jsonl";
+    final private static String ROOMS_DIRECTORY = "rooms";
+
+    /* bytes between two index entries */
+    final private static int INDEX_INTERVAL = 4096;
+
+    /* opened stores, by canonical root path */
+    final private static Map<String, LogStore> stores = new HashMap<>();
+
+    final private Logger logger = LoggerFactory.getLogger(LogStore.class);
+
+    private final String path;
+    private final File root;
+    private final long segmentSize;
+
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    private final FileChannel usersChannel;
+    private final FileChannel roomsChannel;
+    private final FileChannel authorsChannel;
+
+    private final Map<String, UserMapper> usersByUUID = new HashMap<>();
+    private final Map<String, UserMapper> usersByEmail = new HashMap<>();
+    private final Map<String, RoomMapper> roomsByUUID = new LinkedHashMap<>();
+    private final Map<String, RoomMapper> roomsByName = new HashMap<>();
+
+    /* opened lazily, by room uuid */
+    private final Map<String, RoomLog> roomLogs = new HashMap<>();
+
+    private final MessageIndex index = new MessageIndex();
+
+    /* room stats, by room uuid */
+    private final Map<String, Set<String>> authorsByRoom = new HashMap<>();
+    private final Map<String, MessageCursor> lastMessages = new HashMap<>();
+
+    private int references;
+
+    private LogStore(String path, File root, long segmentSize) throws IOException {
+        this.path = path;
+        this.root = root;
+        this.segmentSize = segmentSize;
+
+        if (! root.isDirectory() && ! root.mkdirs()) {
+            throw new IOException("Could not create directory " + root);
+        }
+
+        lockChannel = FileChannel.open(new File(root, LOCK_FILE).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        lock = lockChannel.tryLock();
+        if (Objects.isNull(lock)) {
+            lockChannel.close();
+            throw new IOException(MessageFormat.format("{0} is in use by another process", root));
+        }
+
+        usersChannel = openEntities(USERS_FILE, UserMapper.class, user -> {
+            usersByUUID.put(user.getUuid(), user);
+            usersByEmail.put(user.getEmail(), user);
+            return user;
+        });
+        roomsChannel = openEntities(ROOMS_FILE, RoomMapper.class, room -> {
+            roomsByUUID.put(room.getUuid(), room);
+            roomsByName.put(room.getName(), room);
+            return room;
+        });
+        authorsChannel = openEntities(AUTHORS_FILE, RoomAuthor.class, roomAuthor -> {
+            authorsByRoom.computeIfAbsent(roomAuthor.getRoomUuid(), roomUUID -> new HashSet<>())
+                .add(roomAuthor.getAuthorUuid());
+            return roomAuthor;
+        });
+
+        long indexed = indexMessages();
+
+        logger.info("Opened log store {} ({} users, {} rooms, {} messages)", root,
+            usersByUUID.size(), roomsByUUID.size(), indexed);
+    }
+
+    /**
+     * Opens the store under the given root, or shares the one already opened by this process.
+     * Each successful call must be matched by a call to {@link #close()}.
+     *
+     * @param root
+     * @param segmentSize - the size past which a new segment is rolled, in bytes
+     * @return the store
+     * @throws IOException
+     */
+    public static LogStore open(File root, long segmentSize) throws IOException {
+        String path = root.getCanonicalPath();
+        synchronized (stores) {
+            LogStore store = stores.get(path);
+            if (Objects.isNull(store)) {
+                store = new LogStore(path, root, segmentSize);
+                stores.put(path, store);
+            }
+            ++ store.references;
+            return store;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (stores) {
+            if (-- references > 0) {
+                return;
+            }
+            stores.remove(path);
+        }
+
+        synchronized (this) {
+            try {
+                for (RoomLog roomLog : roomLogs.values()) {
+                    roomLog.close();
+                }
+                roomLogs.clear();
+                usersChannel.close();
+                roomsChannel.close();
+                authorsChannel.close();
+            } finally {
+                lock.release();
+                lockChannel.close();
+            }
+        }
+    }
+
+    public synchronized UserMapper findCreateUserByEmail(String email) throws IOException {
+        UserMapper user = usersByEmail.get(email);
+        if (Objects.isNull(user)) {
+            user = new UserMapper();
+            user.setUuid(UUID.randomUUID().toString());
+            user.setEmail(email);
+
+            appendEntity(usersChannel, JsonObject.mapFrom(user));
+            usersByUUID.put(user.getUuid(), user);
+            usersByEmail.put(email, user);
+        }
+        return user;
+    }
+
+    public synchronized RoomMapper findCreateRoomByName(String name) throws IOException {
+        RoomMapper room = roomsByName.get(name);
+        if (Objects.isNull(room)) {
+            room = new RoomMapper();
+            room.setUuid(UUID.randomUUID().toString());
+            room.setName(name);
+
+            appendEntity(roomsChannel, JsonObject.mapFrom(room));
+            roomsByUUID.put(room.getUuid(), room);
+            roomsByName.put(name, room);
+        }
+        return room;
+    }
+
+    public synchronized UserMapper findUserByUUID(String uuid) {
+        return usersByUUID.get(uuid);
+    }
+
+    public synchronized RoomMapper findRoomByUUID(String uuid) {
+        return roomsByUUID.get(uuid);
+    }
+
+    public synchronized List<UserMapper> findUsersByUUIDs(List<String> uuids) {
+        return uuids.stream()
+                   .map(usersByUUID::get)
+                   .filter(Objects::nonNull)
+                   .collect(Collectors.toList());
+    }
+
+    public synchronized List<RoomMapper> findRoomsByUUIDs(List<String> uuids) {
+        return uuids.stream()
+                   .map(roomsByUUID::get)
+                   .filter(Objects::nonNull)
+                   .collect(Collectors.toList());
+    }
+
+    public synchronized List<RoomMapper> findRooms() {
+        return new ArrayList<>(roomsByUUID.values());
+    }
+
+    /**
+     * Appends a batch of messages, all or none, and makes them durable. On success, each
+     * message has been assigned its uuid, and its timestamp may have been moved forward to
+     * keep the room history ordered.
+     *
+     * @param messages
+     * @throws IOException
+     */
+    public synchronized void appendMessages(List<MessageMapper> messages) throws IOException {
+        /* where each touched room stood before the batch */
+        Map<RoomLog, Long> marks = new LinkedHashMap<>();
+        List<Long> offsets = new ArrayList<>(messages.size());
+        List<Long> timeStamps = new ArrayList<>(messages.size());
+
+        try {
+            for (MessageMapper message : messages) {
+                String roomUUID = message.getRoomUuid();
+                if (! roomsByUUID.containsKey(roomUUID)) {
+                    throw new IOException(MessageFormat.format("No such room: {0}", roomUUID));
+                }
+
+                RoomLog roomLog = roomLog(roomUUID, true);
+                marks.putIfAbsent(roomLog, roomLog.getNextOffset());
+
+                long timeStamp = Math.max(message.getTimeStamp(), roomLog.getLastTimeStamp());
+                JsonObject payload = new JsonObject()
+                                         .put("authorUuid", message.getAuthorUuid())
+                                         .put("authorEmail", message.getAuthorEmail())
+                                         .put("text", message.getText());
+
+                offsets.add(roomLog.append(timeStamp, payload.toBuffer().getBytes()));
+                timeStamps.add(timeStamp);
+            }
+
+            for (RoomLog roomLog : marks.keySet()) {
+                roomLog.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Map.Entry<RoomLog, Long> mark : marks.entrySet()) {
+                try {
+                    mark.getKey().truncate(mark.getValue());
+                } catch (IOException ioe) {
+                    logger.error("Could not roll back a partial batch: {}", ioe.toString());
+                }
+            }
+            throw e;
+        }
+
+        for (int i = 0; i < messages.size(); ++ i) {
+            MessageMapper message = messages.get(i);
+            message.setUuid(MessageIds.messageUUID(message.getRoomUuid(), offsets.get(i)));
+            message.setSeq(offsets.get(i) + 1);
+            message.setTimeStamp(timeStamps.get(i));
+            index.add(message.getRoomUuid(), offsets.get(i), message.getText());
+            updateRoomStats(message.getRoomUuid(), MessageCursor.of(message), message.getAuthorUuid());
+        }
+    }
+
+    /**
+     * Looks up the stats of many rooms at once.
+     *
+     * @param roomUUIDs
+     * @return the stats of the rooms that have messages
+     * @throws IOException
+     */
+    public synchronized List<RoomStats> readRoomStats(List<String> roomUUIDs) throws IOException {
+        List<RoomStats> stats = new ArrayList<>();
+        for (String roomUUID : roomUUIDs) {
+            RoomLog roomLog = roomLog(roomUUID, false);
+            if (Objects.isNull(roomLog) || roomLog.getNextOffset() == 0) {
+                continue;
+            }
+
+            stats.add(new RoomStats(roomUUID, roomLog.getNextOffset(), lastMessages.get(roomUUID),
+                authorsByRoom.getOrDefault(roomUUID, Collections.emptySet()).size()));
+        }
+        return stats;
+    }
+
+    /**
+     * Reads a page of the history of a room.
+     *
+     * @param roomUUID
+     * @param before - the cursor of the previous page, or null for the newest page
+     * @param limit - the maximum number of messages in the page
+     * @return the page, in chronological order
+     * @throws IOException
+     * @throws IllegalArgumentException if the cursor does not belong to the room
+     */
+    public synchronized MessagePage readMessages(String roomUUID, MessageCursor before, int limit)
+        throws IOException {
+
+        RoomMapper room = roomsByUUID.get(roomUUID);
+        RoomLog roomLog = roomLog(roomUUID, false);
+        if (Objects.isNull(room) || Objects.isNull(roomLog)) {
+            return new MessagePage(new ArrayList<>(), null);
+        }
+
+        long toOffset = Objects.isNull(before) ?
+                            roomLog.getNextOffset() : Math.min(MessageIds.offsetOf(roomUUID, before.getUuid()), roomLog.getNextOffset());
+        long fromOffset = Math.max(roomLog.getFirstOffset(), toOffset - limit);
+
+        List<MessageMapper> messages = readRange(room, roomLog, fromOffset, toOffset);
+
+        MessageCursor next = fromOffset > roomLog.getFirstOffset() && ! messages.isEmpty() ?
+                                 MessageCursor.of(messages.get(0)) : null;
+        return new MessagePage(messages, next);
+    }
+
+    /**
+     * Reads the messages of a room past a cursor, the history read forward.
+     *
+     * @param roomUUID
+     * @param after - only messages past this cursor, or null for the oldest ones
+     * @param limit - the maximum number of messages
+     * @return the messages, oldest first
+     * @throws IOException
+     */
+    public List<MessageMapper> readMessagesAfter(String roomUUID, MessageCursor after, int limit)
+        throws IOException {
+        return readExpiredMessages(roomUUID, after, Long.MAX_VALUE, limit);
+    }
+
+    /**
+     * Reads the messages of a room recorded after a given sequence number. Messages that have
+     * expired are out of reach.
+     *
+     * @param roomUUID
+     * @param seq - the last sequence number known, 0 for the oldest messages
+     * @param limit - the maximum number of messages
+     * @return the messages, oldest first
+     * @throws IOException
+     */
+    public synchronized List<MessageMapper> readMessagesSince(String roomUUID, long seq, int limit)
+        throws IOException {
+
+        RoomMapper room = roomsByUUID.get(roomUUID);
+        RoomLog roomLog = roomLog(roomUUID, false);
+        if (Objects.isNull(room) || Objects.isNull(roomLog)) {
+            return new ArrayList<>();
+        }
+
+        /* the message after seq is at offset seq */
+        long fromOffset = Math.max(roomLog.getFirstOffset(), seq);
+        long toOffset = Math.min(roomLog.getNextOffset(), fromOffset + limit);
+        if (fromOffset >= toOffset) {
+            return new ArrayList<>();
+        }
+        return readRange(room, roomLog, fromOffset, toOffset);
+    }
+
+    /**
+     * Reads the oldest messages of a room recorded before the given time.
+     *
+     * @param roomUUID
+     * @param after - only messages past this cursor, or null for the oldest ones
+     * @param before - epoch millis
+     * @param limit - the maximum number of messages
+     * @return the messages, oldest first
+     * @throws IOException
+     */
+    public synchronized List<MessageMapper> readExpiredMessages(String roomUUID, MessageCursor after,
+                                                                long before, int limit) throws IOException {
+
+        RoomMapper room = roomsByUUID.get(roomUUID);
+        RoomLog roomLog = roomLog(roomUUID, false);
+        if (Objects.isNull(room) || Objects.isNull(roomLog)) {
+            return new ArrayList<>();
+        }
+
+        long fromOffset = roomLog.getFirstOffset();
+        if (! Objects.isNull(after)) {
+            try {
+                fromOffset = Math.max(fromOffset, MessageIds.offsetOf(roomUUID, after.getUuid()) + 1);
+            } catch (IllegalArgumentException iae) {
+                /* archived by another backend, start over from the oldest record */
+            }
+        }
+        long toOffset = Math.min(roomLog.offsetOf(before), fromOffset + limit);
+        if (fromOffset >= toOffset) {
+            return new ArrayList<>();
+        }
+        return readRange(room, roomLog, fromOffset, toOffset);
+    }
+
+    /**
+     * Drops the segments of a room holding only messages up to and including the given one.
+     *
+     * @param roomUUID
+     * @param through
+     * @throws IOException
+     */
+    public synchronized void expireMessages(String roomUUID, MessageCursor through) throws IOException {
+        RoomLog roomLog = roomLog(roomUUID, false);
+        if (Objects.isNull(roomLog)) {
+            return;
+        }
+
+        int deleted = roomLog.deleteThrough(MessageIds.offsetOf(roomUUID, through.getUuid()));
+        if (deleted > 0) {
+            index.removeBefore(roomUUID, roomLog.getFirstOffset());
+            logger.info("Dropped {} expired segments of room {}", deleted, roomUUID);
+        }
+    }
+
+    /**
+     * Searches messages, by way of the index.
+     *
+     * @param roomUUID - the room to search, or null for all of them
+     * @param query - free text, all of its terms must match
+     * @param offset - the number of results to skip
+     * @param limit - the maximum number of results
+     * @return the page of results, best match first
+     * @throws IOException
+     */
+    public synchronized SearchPage searchMessages(String roomUUID, String query, int offset, int limit)
+        throws IOException {
+
+        /* one extra hit tells whether a following page exists */
+        List<MessageIndex.Hit> hits = index.search(Objects.isNull(roomUUID) ? null :
+                                                       Collections.singleton(roomUUID), query, offset + limit + 1);
+
+        List<MessageMapper> messages = new ArrayList<>();
+        for (MessageIndex.Hit hit : hits.subList(Math.min(offset, hits.size()), Math.min(offset + limit, hits.size()))) {
+            RoomMapper room = roomsByUUID.get(hit.getRoomUUID());
+            RoomLog roomLog = roomLog(hit.getRoomUUID(), false);
+            if (! Objects.isNull(room) && ! Objects.isNull(roomLog)) {
+                messages.addAll(readRange(room, roomLog, hit.getOffset(), hit.getOffset() + 1));
+            }
+        }
+
+        return new SearchPage(messages, hits.size() > offset + limit ? offset + limit : null);
+    }
+
+    /* feeds the messages of all rooms to the index, returns their number */
+    private long indexMessages() throws IOException {
+        long indexed = 0;
+        for (String roomUUID : roomsByUUID.keySet()) {
+            RoomLog roomLog = roomLog(roomUUID, false);
+            if (Objects.isNull(roomLog)) {
+                continue;
+            }
+
+            roomLog.read(roomLog.getFirstOffset(), roomLog.getNextOffset(), (offset, timeStamp, bytes) -> {
+                JsonObject payload = new JsonObject(Buffer.buffer(bytes));
+                index.add(roomUUID, offset, payload.getString("text"));
+
+                /* also brings stores that predate room stats up to date */
+                updateRoomStats(roomUUID, new MessageCursor(timeStamp, MessageIds.messageUUID(roomUUID, offset)),
+                    payload.getString("authorUuid"));
+            });
+            indexed += roomLog.getNextOffset() - roomLog.getFirstOffset();
+        }
+        return indexed;
+    }
+
+    /* a derived view of the history: failures are logged, never propagated */
+    private void updateRoomStats(String roomUUID, MessageCursor message, String authorUUID) {
+        lastMessages.put(roomUUID, message);
+
+        if (authorsByRoom.computeIfAbsent(roomUUID, uuid -> new HashSet<>()).add(authorUUID)) {
+            RoomAuthor roomAuthor = new RoomAuthor();
+            roomAuthor.setRoomUuid(roomUUID);
+            roomAuthor.setAuthorUuid(authorUUID);
+            try {
+                appendEntity(authorsChannel, JsonObject.mapFrom(roomAuthor));
+            } catch (IOException ioe) {
+                logger.error("Could not record author {} of room {}: {}", authorUUID, roomUUID, ioe.toString());
+            }
+        }
+    }
+
+    private List<MessageMapper> readRange(RoomMapper room, RoomLog roomLog,
+                                          long fromOffset, long toOffset) throws IOException {
+        String roomUUID = room.getUuid();
+
+        List<MessageMapper> messages = new ArrayList<>();
+        roomLog.read(fromOffset, toOffset, (offset, timeStamp, bytes) -> {
+            JsonObject payload = new JsonObject(Buffer.buffer(bytes));
+
+            UserMapper author = new UserMapper();
+            author.setUuid(payload.getString("authorUuid"));
+            author.setEmail(payload.getString("authorEmail"));
+
+            MessageMapper message = new MessageMapper();
+            message.setUuid(MessageIds.messageUUID(roomUUID, offset));
+            message.setSeq(offset + 1);
+            message.setTimeStamp(timeStamp);
+            message.setText(payload.getString("text"));
+            message.setAuthor(author);
+            message.setAuthorUuid(author.getUuid());
+            message.setAuthorEmail(author.getEmail());
+            message.setRoom(room);
+            message.setRoomUuid(roomUUID);
+            messages.add(message);
+        });
+        return messages;
+    }
+
+    private RoomLog roomLog(String roomUUID, boolean create) throws IOException {
+        RoomLog roomLog = roomLogs.get(roomUUID);
+        if (Objects.isNull(roomLog)) {
+            File directory = new File(new File(root, ROOMS_DIRECTORY), roomUUID);
+            if (! create && ! directory.isDirectory()) {
+                return null;
+            }
+
+            roomLog = RoomLog.open(directory, segmentSize, INDEX_INTERVAL);
+            roomLogs.put(roomUUID, roomLog);
+        }
+        return roomLog;
+    }
+
+    /* loads an entity file, and opens it for appending */
+    private <T> FileChannel openEntities(String name, Class<T> entityClass,
+                                         Function<T, T> loader) throws IOException {
+        File file = new File(root, name);
+        long valid = 0;
+
+        if (file.exists()) {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            int start = 0;
+            for (int i = 0; i < bytes.length; ++ i) {
+                if (bytes[i] == '\n') {
+                    String line = new String(bytes, start, i - start, StandardCharsets.UTF_8);
+                    try {
+                        loader.apply(new JsonObject(line).mapTo(entityClass));
+                    } catch (DecodeException | IllegalArgumentException e) {
+                        throw new IOException(MessageFormat.format("{0} is corrupt: {1}", file, line), e);
+                    }
+                    start = i + 1;
+                }
+            }
+            /* a line without its newline was being written when the process died */
+            valid = start;
+        }
+
+        FileChannel channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(valid);
+        channel.position(valid);
+        return channel;
+    }
+
+    private void appendEntity(FileChannel channel, JsonObject entity) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((entity.encode() + "\n").getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            channel.write(line);
+        }
+        channel.force(false);
+    }
+
+    /* a line of the authors file */
+    final public static class RoomAuthor {
+        private String roomUuid;
+        private String authorUuid;
+
+        public String getRoomUuid() {
+            return roomUuid;
+        }
+
+        public void setRoomUuid(String roomUuid) {
+            this.roomUuid = roomUuid;
+        }
+
+        public String getAuthorUuid() {
+            return authorUuid;
+        }
+
+        public void setAuthorUuid(String authorUuid) {
+            this.authorUuid = authorUuid;
+        }
+    }
+}
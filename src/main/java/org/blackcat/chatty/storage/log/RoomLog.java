@@ -0,0 +1,205 @@
+package org.blackcat.chatty.storage.log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The message log of a room: a directory of segments, named after their base offset. Only
+ * the last segment is appended to; a new one is rolled once it has reached the configured
+ * size. Not thread-safe, room logs are guarded by their store.
+ */
+final class RoomLog implements Closeable {
+
+    private final File directory;
+    private final long segmentSize;
+    private final int indexInterval;
+
+    /* by base offset, the last one is active */
+    private final List<LogSegment> segments = new ArrayList<>();
+
+    private RoomLog(File directory, long segmentSize, int indexInterval) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.indexInterval = indexInterval;
+    }
+
+    /**
+     * Opens (or creates) the log of a room.
+     *
+     * @param directory
+     * @param segmentSize - the size past which a new segment is rolled, in bytes
+     * @param indexInterval - the number of bytes between two index entries
+     * @return the room log
+     * @throws IOException
+     */
+    static RoomLog open(File directory, long segmentSize, int indexInterval) throws IOException {
+        if (! directory.isDirectory() && ! directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+
+        RoomLog roomLog = new RoomLog(directory, segmentSize, indexInterval);
+        try {
+            String[] names = directory.list((dir, name) -> name.endsWith(LogSegment.SEGMENT_SUFFIX));
+            long[] baseOffsets = Arrays.stream(Objects.requireNonNull(names))
+                                     .mapToLong(name -> Long.parseLong(
+                                         name.substring(0, name.length() - LogSegment.SEGMENT_SUFFIX.length())))
+                                     .sorted()
+                                     .toArray();
+
+            for (long baseOffset : baseOffsets) {
+                roomLog.segments.add(LogSegment.open(directory, baseOffset, indexInterval));
+            }
+            if (roomLog.segments.isEmpty()) {
+                roomLog.segments.add(LogSegment.open(directory, 0, indexInterval));
+            }
+        } catch (IOException | RuntimeException e) {
+            roomLog.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        return roomLog;
+    }
+
+    /**
+     * @return the offset of the oldest record still in the log
+     */
+    long getFirstOffset() {
+        return segments.get(0).getBaseOffset();
+    }
+
+    /**
+     * @return the offset the next appended record will be given
+     */
+    long getNextOffset() {
+        return activeSegment().getNextOffset();
+    }
+
+    /**
+     * @return the timestamp of the last record, or -1 if the log is empty
+     */
+    long getLastTimeStamp() {
+        for (int i = segments.size() - 1; i >= 0; -- i) {
+            LogSegment segment = segments.get(i);
+            if (! segment.isEmpty()) {
+                return segment.getLastTimeStamp();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends a record, rolling a new segment if the active one is full.
+     *
+     * @param timeStamp - must not be older than the last record
+     * @param payload
+     * @return the offset of the record
+     * @throws IOException
+     */
+    long append(long timeStamp, byte[] payload) throws IOException {
+        LogSegment active = activeSegment();
+        if (active.getSize() >= segmentSize) {
+            /* the sealed segment must be durable before records go elsewhere */
+            active.flush();
+            active = LogSegment.open(directory, active.getNextOffset(), indexInterval);
+            segments.add(active);
+        }
+        return active.append(timeStamp, payload);
+    }
+
+    /**
+     * Makes all appended records durable.
+     *
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        activeSegment().flush();
+    }
+
+    /**
+     * Feeds the records in [fromOffset, toOffset) to the handler, oldest first.
+     *
+     * @param fromOffset
+     * @param toOffset
+     * @param handler
+     * @throws IOException
+     */
+    void read(long fromOffset, long toOffset, LogSegment.RecordHandler handler) throws IOException {
+        for (LogSegment segment : segments) {
+            if (segment.getNextOffset() > fromOffset && segment.getBaseOffset() < toOffset) {
+                segment.read(fromOffset, toOffset, handler);
+            }
+        }
+    }
+
+    /**
+     * Looks up the first record recorded at or after the given time, by way of the
+     * segments time indexes.
+     *
+     * @param timeStamp
+     * @return the offset of the record, or the next offset if there is no such record
+     * @throws IOException
+     */
+    long offsetOf(long timeStamp) throws IOException {
+        for (LogSegment segment : segments) {
+            if (! segment.isEmpty() && segment.getLastTimeStamp() >= timeStamp) {
+                return segment.offsetOf(timeStamp);
+            }
+        }
+        return getNextOffset();
+    }
+
+    /**
+     * Drops all records from the given offset on, segments rolled after it included.
+     *
+     * @param offset
+     * @throws IOException
+     */
+    void truncate(long offset) throws IOException {
+        while (segments.size() > 1 && activeSegment().getBaseOffset() >= offset) {
+            segments.remove(segments.size() - 1).delete();
+        }
+        activeSegment().truncate(offset);
+    }
+
+    /**
+     * Drops the sealed segments whose records are all at or before the given offset. The
+     * active segment is always kept, even if it holds no records past the offset.
+     *
+     * @param offset
+     * @return the number of segments dropped
+     * @throws IOException
+     */
+    int deleteThrough(long offset) throws IOException {
+        int deleted = 0;
+        while (segments.size() > 1 && segments.get(0).getNextOffset() <= offset + 1) {
+            segments.remove(0).delete();
+            ++ deleted;
+        }
+        return deleted;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (LogSegment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException ioe) {
+                failure = ioe;
+            }
+        }
+        segments.clear();
+
+        if (! Objects.isNull(failure)) {
+            throw failure;
+        }
+    }
+
+    private LogSegment activeSegment() {
+        return segments.get(segments.size() - 1);
+    }
+}
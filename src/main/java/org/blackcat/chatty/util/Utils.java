@@ -2,6 +2,7 @@ package org.blackcat.chatty.util;
 
 import io.vertx.core.json.JsonArray;
 import io.vertx.ext.web.RoutingContext;
+import org.blackcat.chatty.mappers.MessageMapper;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.UnsupportedEncodingException;
@@ -11,6 +12,10 @@ import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
@@ -24,6 +29,11 @@ final public class Utils {
 
     static final int DISK_STORAGE_UNIT = 1024;
 
+    /* same rendering as DateFormat.getDateTimeInstance(SHORT, MEDIUM), but immutable and thread-safe */
+    static final DateTimeFormatter timeStampFormatter =
+        DateTimeFormatter.ofLocalizedDateTime(FormatStyle.SHORT, FormatStyle.MEDIUM)
+            .withZone(ZoneId.systemDefault());
+
     private Utils()
     {}
 
@@ -53,6 +63,56 @@ final public class Utils {
         return nameStub + "." + UUID.randomUUID().toString();
     }
 
+    /**
+     * Formats a message timestamp for display.
+     *
+     * @param timeStamp - epoch millis
+     * @return the formatted timestamp
+     */
+    @NotNull
+    public static String formatTimeStamp(long timeStamp) {
+        return timeStampFormatter.format(Instant.ofEpochMilli(timeStamp));
+    }
+
+    /**
+     * Encodes a message the way it is sent to clients, fanout and history alike:
+     * [seq, timeStamp, authorUuid, text]. Clients format it for display.
+     *
+     * @param message
+     * @return the message record
+     */
+    @NotNull
+    public static JsonArray messageRecord(MessageMapper message) {
+        return new JsonArray()
+                   .add(message.getSeq())
+                   .add(message.getTimeStamp())
+                   .add(message.getAuthor().getUuid())
+                   .add(message.getText());
+    }
+
+    /**
+     * Escapes text for inclusion in html, as the template engine does.
+     *
+     * @param s
+     * @return the escaped text
+     */
+    @NotNull
+    public static String escapeHtml(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); ++ i) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&': sb.append("&amp;"); break;
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '"': sb.append("&quot;"); break;
+                case '\'': sb.append("&#39;"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
     public static boolean isValidEmail(String email) {
         Objects.requireNonNull(email);
         return emailPattern.matcher(email).matches();
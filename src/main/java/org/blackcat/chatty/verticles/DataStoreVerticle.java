@@ -1,38 +1,63 @@
 package org.blackcat.chatty.verticles;
 
-import de.braintags.vertx.jomnigate.dataaccess.query.IQuery;
-import de.braintags.vertx.jomnigate.dataaccess.query.ISearchCondition;
-import de.braintags.vertx.jomnigate.dataaccess.write.IWrite;
-import de.braintags.vertx.jomnigate.init.DataStoreSettings;
-import de.braintags.vertx.jomnigate.mongo.MongoDataStore;
-import de.braintags.vertx.jomnigate.util.QueryHelper;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import io.vertx.ext.mongo.MongoClient;
+import io.vertx.core.shareddata.LocalMap;
+import org.blackcat.chatty.cache.EntityCache;
+import org.blackcat.chatty.cache.SingleFlight;
+import org.blackcat.chatty.codecs.Codecs;
 import org.blackcat.chatty.conf.Configuration;
+import org.blackcat.chatty.http.requests.MainHandler;
 import org.blackcat.chatty.mappers.MessageMapper;
 import org.blackcat.chatty.mappers.RoomMapper;
 import org.blackcat.chatty.mappers.UserMapper;
-
+import org.blackcat.chatty.queries.MessageCursor;
+import org.blackcat.chatty.queries.MessagePage;
+import org.blackcat.chatty.queries.RoomStats;
+import org.blackcat.chatty.queries.SearchPage;
+import org.blackcat.chatty.storage.StorageBackend;
+import org.blackcat.chatty.storage.archive.MessageArchive;
+
+import java.io.File;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
 public class DataStoreVerticle extends AbstractVerticle {
 
+    /* bridged to clients, json replies */
     final public static String ADDRESS = "webchat.data-store";
 
+    /* in-process only, replies are passed as they are and failures as reply failures */
+    final public static String LOCAL_ADDRESS = "chatty.data-store";
+    final public static int QUERY_FAILURE = 1;
+
+    /* recorded messages, when fanout is driven by the message log (not bridged to clients) */
+    final public static String RECORDED_MESSAGES_ADDRESS = "chatty.recorded-messages";
+
     /* canonical getters  */
     final public static String FIND_USER_BY_UUID = "find-user-by-uuid";
     final public static String FIND_ROOM_BY_UUID = "find-room-by-uuid";
 
+    /* multi-gets, missing entities are left out */
+    final public static String FIND_USERS_BY_UUIDS = "find-users-by-uuids";
+    final public static String FIND_ROOMS_BY_UUIDS = "find-rooms-by-uuids";
+
     /* specific getters */
     final public static String FIND_CREATE_USER_BY_EMAIL = "find-create-user-by-email";
     final public static String FIND_CREATE_ROOM_BY_NAME = "find-create-room-by-name";
@@ -40,18 +65,71 @@ public class DataStoreVerticle extends AbstractVerticle {
     /* message queries */
     final public static String RECORD_MESSAGE = "record-message";
     final public static String FETCH_MESSAGES = "fetch-messages";
+    final public static String SEARCH_MESSAGES = "search-messages";
 
     /* room queries */
     final public static String GET_GENERAL_ROOM_UUID = "get-general-room-uuid";
     final public static String FIND_ROOMS = "find-rooms";
+    final public static String ROOM_STATS = "room-stats";
+
+    /* diagnostics, served on LOCAL_ADDRESS only */
+    final public static String DATA_STORE_STATS = "data-store-stats";
 
     final public static String GENERAL_ROOM_NAME = "General";
 
+    /* history paging */
+    final public static int DEFAULT_FETCH_LIMIT = 100;
+    final public static int MAX_FETCH_LIMIT = 1000;
+
+    /* search paging, results past the window are out of reach */
+    final public static int DEFAULT_SEARCH_LIMIT = 20;
+    final public static int MAX_SEARCH_LIMIT = 100;
+    final public static int MAX_SEARCH_WINDOW = 1000;
+
+    /* multi-gets */
+    final public static int MAX_LOOKUP_SIZE = 1000;
+
+    /* archiving, messages are moved to the archive in batches of this size */
+    final private static String ARCHIVE_DIRECTORY = "archive";
+    final private static int ARCHIVE_BATCH = 1000;
+    final private static long DAY = 24 * 60 * 60 * 1000L; /* ms */
+
+    /* local map used to elect the instance in charge of archiving */
+    final private static String DATA_STORE_MAP = "webchat.data-store";
+    final private static String ARCHIVER_KEY = "archiver";
+
     private Logger logger;
-    private MongoDataStore mongoDataStore;
+    private Configuration configuration;
+    private StorageBackend backend;
+    private MessageArchive archive;
+
+    /* identifies this instance, when several are deployed */
+    private final String instanceID = UUID.randomUUID().toString();
+    private long archiveTimerID = -1;
+    private boolean archiving;
 
     private String generalRoomUUID;
 
+    /* entity caches, users and rooms never change once created */
+    private EntityCache<String, UserMapper> usersByUUID;
+    private EntityCache<String, UserMapper> usersByEmail;
+    private EntityCache<String, RoomMapper> roomsByUUID;
+    private EntityCache<String, RoomMapper> roomsByName;
+
+    /* cache misses in flight, identical lookups share a single backend call */
+    private final SingleFlight<String, UserMapper> userByEmailFlights = new SingleFlight<>();
+    private final SingleFlight<String, RoomMapper> roomByNameFlights = new SingleFlight<>();
+    private final SingleFlight<String, UserMapper> userByUUIDFlights = new SingleFlight<>();
+    private final SingleFlight<String, RoomMapper> roomByUUIDFlights = new SingleFlight<>();
+    private final SingleFlight<String, List<RoomMapper>> roomsFlights = new SingleFlight<>();
+
+    /* latest ingest statistics of each web server instance, by instance */
+    private final Map<String, WebServerStats> webServerStats = new HashMap<>();
+
+    /* group commit: messages waiting for the current batch to be written */
+    private List<PendingMessage> pendingMessages = new ArrayList<>();
+    private long groupCommitTimerID = -1;
+
     @Override
     public void start(Future<Void> startFuture) {
 
@@ -59,31 +137,33 @@ public class DataStoreVerticle extends AbstractVerticle {
         vertx.executeBlocking(future -> {
 
             /* retrieve configuration object from vert.x ctx */
-            Configuration configuration = new Configuration(vertx.getOrCreateContext().config());
+            configuration = new Configuration(vertx.getOrCreateContext().config());
 
-            /* connect to mongodb data store */
-            String connectionString = String.format("%s://%s:%s",
-                    configuration.getDatabaseType(),
-                    configuration.getDatabaseHost(),
-                    configuration.getDatabasePort());
+            int cacheSize = configuration.getDatabaseCacheSize();
+            usersByUUID = new EntityCache<>(cacheSize);
+            usersByEmail = new EntityCache<>(cacheSize);
+            roomsByUUID = new EntityCache<>(cacheSize);
+            roomsByName = new EntityCache<>(cacheSize);
 
-            JsonObject mongodbConfig = new JsonObject()
-                    .put("connection_string", connectionString)
-                    .put("db_name", configuration.getDatabaseName());
-
-            DataStoreSettings dataStoreSettings = new DataStoreSettings();
-
-            MongoClient mongoClient = MongoClient.createShared(vertx, mongodbConfig);
-            mongoDataStore = new MongoDataStore(vertx, mongoClient, new JsonObject(), dataStoreSettings);
+            backend = StorageBackend.create(vertx, configuration);
+            archive = new MessageArchive(new File(configuration.getStorageRoot(), ARCHIVE_DIRECTORY));
 
             future.complete();
         }, res -> {
             if (res.succeeded()) {
-                initData(_1 -> {
-                    setupQueryDispatch(_2 -> {
-                        startFuture.complete();
+                Future.<Void>future(backend::init)
+                    .compose(v -> Future.<Void>future(this::initData))
+                    .compose(v -> Future.<Void>future(this::setupQueryDispatch))
+                    .compose(v -> Future.<Void>future(this::setupArchiving))
+                    .setHandler(asyncResult -> {
+                        if (asyncResult.failed()) {
+                            Throwable cause = asyncResult.cause();
+                            logger.error(cause.toString());
+                            startFuture.fail(cause);
+                        } else {
+                            startFuture.complete();
+                        }
                     });
-                });
             } else {
                 Throwable cause = res.cause();
                 logger.error(cause.toString());
@@ -92,27 +172,39 @@ public class DataStoreVerticle extends AbstractVerticle {
         });
     }
 
+    @Override
+    public void stop(Future<Void> stopFuture) {
+        if (archiveTimerID != -1) {
+            vertx.cancelTimer(archiveTimerID);
+
+            /* release the role, so that a later deployment can take it */
+            LocalMap<String, String> dataStoreMap = vertx.sharedData().getLocalMap(DATA_STORE_MAP);
+            dataStoreMap.removeIfPresent(ARCHIVER_KEY, instanceID);
+        }
+
+        /* do not lose messages still waiting for their batch */
+        Future.<Void>future(this::flushMessages)
+            .compose(v -> Future.<Void>future(backend::close))
+            .setHandler(stopFuture);
+    }
+
     private void initData(Handler<AsyncResult<Void>> handler) {
         /* creator is null */
         findCreateRoomByName(new JsonObject().put("name", GENERAL_ROOM_NAME), asyncResult -> {
-            if (asyncResult.failed())
+            if (asyncResult.failed()) {
                 handler.handle(Future.failedFuture(asyncResult.cause()));
+                return;
+            }
 
             RoomMapper room = asyncResult.result();
 
             logger.info("General room is {}", room);
             generalRoomUUID = room.getUuid();
 
-            handler.handle(null); /* done */
+            handler.handle(Future.succeededFuture()); /* done */
         });
     }
 
-    private JsonObject makeFailure(String cause) {
-        return new JsonObject()
-                .put("failure", new JsonObject()
-                        .put("cause", cause));
-    }
-
     private JsonObject makeFailure(Throwable cause) {
         return new JsonObject()
                 .put("failure", new JsonObject().put("cause",
@@ -120,278 +212,473 @@ public class DataStoreVerticle extends AbstractVerticle {
     }
 
     private void setupQueryDispatch(Handler<AsyncResult<Void>> handler) {
-        vertx.eventBus()
-                .consumer(ADDRESS, msg -> {
-                    JsonObject obj = (JsonObject) msg.body();
-                    String queryType = obj.getString("type");
-                    JsonObject params = obj.getJsonObject("params");
-
-                    switch(queryType) {
-                        case FIND_CREATE_USER_BY_EMAIL:
-                            findCreateUserByEmail(params, asyncResult -> {
-                                JsonObject reply;
-                                if (asyncResult.failed()) {
-                                   reply = makeFailure(asyncResult.cause());
-                                } else {
-                                    UserMapper user = asyncResult.result();
-                                    reply = new JsonObject().put("result",
-                                            Objects.isNull(user) ? null : JsonObject.mapFrom(user));
-                                }
-
-                                Objects.requireNonNull(reply);
-                                logger.debug("{}({}) := {}", FIND_CREATE_USER_BY_EMAIL, params, reply);
-                                msg.reply(reply);
-                            });
-                            break;
-
-                        case FIND_CREATE_ROOM_BY_NAME:
-                            findCreateRoomByName(params, asyncResult -> {
-                                JsonObject reply;
-                                if (asyncResult.failed()) {
-                                    reply = makeFailure(asyncResult.cause());
-                                } else {
-                                    RoomMapper room = asyncResult.result();
-                                    reply = new JsonObject().put("result",
-                                            Objects.isNull(room) ? null : JsonObject.mapFrom(room));
-                                }
-
-                                Objects.requireNonNull(reply);
-                                logger.debug("{}({}) := {}", FIND_CREATE_ROOM_BY_NAME, params, reply);
-                                msg.reply(reply);
-                            });
-                            break;
-
-                        case FIND_USER_BY_UUID:
-                            findUserByUUID(params, asyncResult -> {
-                                JsonObject reply;
-                                if (asyncResult.failed()) {
-                                    reply = makeFailure(asyncResult.cause());
-                                } else {
-                                    final UserMapper user = asyncResult.result();
-                                    reply = new JsonObject().put("result",
-                                            Objects.isNull(user) ? null : JsonObject.mapFrom(user));
-                                }
-
-                                Objects.requireNonNull(reply);
-                                logger.debug("{}({}) := {}", FIND_USER_BY_UUID, params, reply);
-                                msg.reply(reply);
-                            });
-                            break;
-
-                        case FIND_ROOM_BY_UUID:
-                            findRoomByUUID(params,  asyncResult -> {
-                                JsonObject reply;
-                                if (asyncResult.failed()) {
-                                    reply = makeFailure(asyncResult.cause());
-                                } else {
-                                    RoomMapper room = asyncResult.result();
-                                    reply = new JsonObject().put("result",
-                                            Objects.isNull(room) ? null : JsonObject.mapFrom(room));
-                                }
-
-                                Objects.requireNonNull(reply);
-                                logger.debug("{}({}) := {}", FIND_ROOM_BY_UUID, params, reply);
-                                msg.reply(reply);
-                            });
-                            break;
-
-                        case FIND_ROOMS:
-                            /* params unused here */
-                            findRooms(params, asyncResult -> {
-                                JsonObject reply;
-                                if (asyncResult.failed()) {
-                                    reply = makeFailure(asyncResult.cause());
-                                } else {
-                                    /* lists of objects need to be explicitly mapped to an array of of json objects */
-                                    JsonArray rooms = new JsonArray(asyncResult.result()
-                                            .stream().map(JsonObject::mapFrom).collect(Collectors.toList()));
-
-                                    reply = new JsonObject().put("result",
-                                            new JsonObject().put("rooms", rooms));
-                                }
-
-                                Objects.requireNonNull(reply);
-                                logger.debug("{}() := {}", FIND_ROOMS, reply);
-                                msg.reply(reply);
-                            });
-                            break;
-
-                        case RECORD_MESSAGE:
-                            recordMessage(params, asyncResult -> {
-                                JsonObject reply;
-                                if (asyncResult.failed()) {
-                                    reply = makeFailure(asyncResult.cause());
-                                } else {
-                                    MessageMapper message = asyncResult.result();
-                                    reply = new JsonObject().put("result",
-                                            Objects.isNull(message) ? null : JsonObject.mapFrom(message));
-                                }
-
-                                Objects.requireNonNull(reply);
-                                logger.debug("{}({}) := {}", RECORD_MESSAGE, params, reply);
-                                msg.reply(reply);
-                            });
-                            break;
-
-                        case FETCH_MESSAGES:
-                            fetchMessages(params, asyncResult -> {
-                                JsonObject reply;
-                                if (asyncResult.failed()) {
-                                    reply = makeFailure(asyncResult.cause());
-                                } else {
-                                    /* lists of objects need to be explicitly mapped to a list of json objects */
-                                    JsonArray messages =
-                                        new JsonArray(asyncResult.result()
-                                                          .stream()
-                                                          .map(JsonObject::mapFrom)
-                                                          .collect(Collectors.toList()));
-
-                                    reply = new JsonObject().put("result",
-                                            new JsonObject().put("messages", messages));
-                                }
-
-                                Objects.requireNonNull(reply);
-                                logger.debug("{}({}) := {}", FETCH_MESSAGES, params, reply);
-                                msg.reply(reply);
-                            });
-                            break;
-
-                        case GET_GENERAL_ROOM_UUID:
-                            JsonObject reply;
-                            if (Objects.isNull(generalRoomUUID)) {
-                                reply = makeFailure("No room UUID available");
-                            } else {
-                                reply = new JsonObject()
-                                        .put("result", new JsonObject()
-                                                .put("uuid", this.generalRoomUUID));
-                            }
-
-                            Objects.requireNonNull(reply);
-                            logger.debug("{} := {}", GET_GENERAL_ROOM_UUID, reply);
-                            msg.reply(reply);
-                            break;
-
-                        default:
-                            logger.error("Ignoring unsupported query type: {}", queryType);
-                    } /* switch() */
-                });
+        EventBus eventBus = vertx.eventBus();
+
+        /* bridged to clients: results are mapped to json */
+        eventBus.<JsonObject>consumer(ADDRESS, msg -> {
+            JsonObject obj = msg.body();
+            String queryType = obj.getString("type");
+            JsonObject params = obj.getJsonObject("params");
+
+            if (DATA_STORE_STATS.equals(queryType)) {
+                logger.warn("Refusing {} on {}", queryType, ADDRESS);
+                msg.reply(makeFailure(new IllegalArgumentException(queryType)));
+                return;
+            }
 
-        handler.handle(null); /* done */
-    } /* setupQueryDispatch() */
+            dispatchQuery(queryType, params, asyncResult -> {
+                JsonObject reply;
+                if (asyncResult.failed()) {
+                    reply = makeFailure(asyncResult.cause());
+                } else {
+                    reply = new JsonObject().put("result", toJson(queryType, asyncResult.result()));
+                }
 
-    private void findCreateUserByEmail(JsonObject params, Handler<AsyncResult<UserMapper>> handler) {
+                Objects.requireNonNull(reply);
+                logger.debug("{}({}) := {}", queryType, params, reply);
+                msg.reply(reply);
+            });
+        });
 
-        /* fetch params */
-        String email = params.getString("email");
+        /* web server instances that stop reporting are dropped, see DATA_STORE_STATS */
+        eventBus.<JsonObject>consumer(MainHandler.statsAddress, msg -> {
+            JsonObject obj = msg.body();
+            webServerStats.put(obj.getString("instance"), new WebServerStats(obj.getJsonObject("stats")));
+        });
 
-        IQuery<UserMapper> query = mongoDataStore.createQuery(UserMapper.class);
-        query.setSearchCondition(ISearchCondition.isEqual("email", email));
+        /* in-process: results are passed as they are, see Codecs */
+        eventBus.<JsonObject>consumer(LOCAL_ADDRESS, msg -> {
+            JsonObject obj = msg.body();
+            String queryType = obj.getString("type");
+            JsonObject params = obj.getJsonObject("params");
 
-        QueryHelper.executeToFirstRecord(query, false, asyncResult -> {
-            if (asyncResult.failed()) {
-                handler.handle(Future.failedFuture(asyncResult.cause()));
-            } else {
-                UserMapper result = asyncResult.result();
-                if (result != null) {
-                    handler.handle(Future.succeededFuture(result));
+            dispatchQuery(queryType, params, asyncResult -> {
+                if (asyncResult.failed()) {
+                    logger.debug("{}({}) failed: {}", queryType, params, asyncResult.cause().toString());
+                    msg.fail(QUERY_FAILURE, asyncResult.cause().toString());
                 } else {
-                    /* User does not exist. Create a new record. */
-                    UserMapper userMapper = new UserMapper();
-                    userMapper.setUuid(UUID.randomUUID().toString());
-                    userMapper.setEmail(email);
+                    logger.debug("{}({}) := {}", queryType, params, asyncResult.result());
+                    msg.reply(asyncResult.result(), deliveryOptions(queryType));
+                }
+            });
+        });
 
-                    IWrite<UserMapper> write = mongoDataStore.createWrite(UserMapper.class);
-                    write.add(userMapper);
+        handler.handle(Future.succeededFuture()); /* done */
+    } /* setupQueryDispatch() */
 
-                    write.save(writeAsyncResult -> {
-                        if (writeAsyncResult.failed()) {
-                            handler.handle(Future.failedFuture(writeAsyncResult.cause()));
-                        } else {
-                            handler.handle(Future.succeededFuture(userMapper));
-                        }
-                    });
+    /* lists have no default codec */
+    private DeliveryOptions deliveryOptions(String queryType) {
+        switch(queryType) {
+            case FIND_USERS_BY_UUIDS:
+                return Codecs.USER_LIST_DELIVERY;
+
+            case FIND_ROOMS_BY_UUIDS:
+            case FIND_ROOMS:
+                return Codecs.ROOM_LIST_DELIVERY;
+
+            case ROOM_STATS:
+                return Codecs.ROOM_STATS_LIST_DELIVERY;
+
+            default:
+                return new DeliveryOptions();
+        }
+    }
+
+    private void dispatchQuery(String queryType, JsonObject params, Handler<AsyncResult<Object>> handler) {
+        switch(queryType) {
+            case FIND_CREATE_USER_BY_EMAIL:
+                findCreateUserByEmail(params, asyncResult -> handler.handle(asyncResult.map(user -> user)));
+                break;
+
+            case FIND_CREATE_ROOM_BY_NAME:
+                findCreateRoomByName(params, asyncResult -> handler.handle(asyncResult.map(room -> room)));
+                break;
+
+            case FIND_USER_BY_UUID:
+                findUserByUUID(params, asyncResult -> handler.handle(asyncResult.map(user -> user)));
+                break;
+
+            case FIND_ROOM_BY_UUID:
+                findRoomByUUID(params, asyncResult -> handler.handle(asyncResult.map(room -> room)));
+                break;
+
+            case FIND_USERS_BY_UUIDS:
+                findUsersByUUIDs(params, asyncResult -> handler.handle(asyncResult.map(users -> users)));
+                break;
+
+            case FIND_ROOMS_BY_UUIDS:
+                findRoomsByUUIDs(params, asyncResult -> handler.handle(asyncResult.map(rooms -> rooms)));
+                break;
+
+            case FIND_ROOMS:
+                /* params unused here */
+                findRooms(params, asyncResult -> handler.handle(asyncResult.map(rooms -> rooms)));
+                break;
+
+            case ROOM_STATS:
+                findRoomStats(params, asyncResult -> handler.handle(asyncResult.map(stats -> stats)));
+                break;
+
+            case RECORD_MESSAGE:
+                recordMessage(params, asyncResult -> handler.handle(asyncResult.map(message -> message)));
+                break;
+
+            case FETCH_MESSAGES:
+                fetchMessages(params, asyncResult -> handler.handle(asyncResult.map(page -> page)));
+                break;
+
+            case SEARCH_MESSAGES:
+                searchMessages(params, asyncResult -> handler.handle(asyncResult.map(page -> page)));
+                break;
+
+            case GET_GENERAL_ROOM_UUID:
+                if (Objects.isNull(generalRoomUUID)) {
+                    handler.handle(Future.failedFuture("No room UUID available"));
+                } else {
+                    handler.handle(Future.succeededFuture(generalRoomUUID));
                 }
+                break;
+
+            case DATA_STORE_STATS:
+                long now = System.currentTimeMillis();
+                webServerStats.values().removeIf(stats -> now - stats.receivedAt > 3 * MainHandler.statsInterval);
+
+                JsonObject webServers = new JsonObject();
+                webServerStats.forEach((instance, stats) -> webServers.put(instance, stats.stats));
+
+                handler.handle(Future.succeededFuture(new JsonObject()
+                                                          .put("webServers", webServers)
+                                                          .put("caches", new JsonObject()
+                                                              .put("usersByUUID", usersByUUID.stats())
+                                                              .put("usersByEmail", usersByEmail.stats())
+                                                              .put("roomsByUUID", roomsByUUID.stats())
+                                                              .put("roomsByName", roomsByName.stats()))
+                                                          .put("singleFlight", new JsonObject()
+                                                              .put("userByEmail", userByEmailFlights.stats())
+                                                              .put("roomByName", roomByNameFlights.stats())
+                                                              .put("userByUUID", userByUUIDFlights.stats())
+                                                              .put("roomByUUID", roomByUUIDFlights.stats())
+                                                              .put("rooms", roomsFlights.stats()))));
+                break;
+
+            default:
+                logger.error("Ignoring unsupported query type: {}", queryType);
+        } /* switch() */
+    }
+
+    /* maps a query result to the json replied over the bridge */
+    @SuppressWarnings("unchecked")
+    private JsonObject toJson(String queryType, Object result) {
+        if (Objects.isNull(result)) {
+            return null;
+        }
+
+        switch(queryType) {
+            case FIND_USERS_BY_UUIDS:
+                JsonArray users = new JsonArray(((List<UserMapper>) result)
+                        .stream().map(JsonObject::mapFrom).collect(Collectors.toList()));
+
+                return new JsonObject().put("users", users);
+
+            case FIND_ROOMS_BY_UUIDS:
+            case FIND_ROOMS:
+                /* lists of objects need to be explicitly mapped to an array of of json objects */
+                JsonArray rooms = new JsonArray(((List<RoomMapper>) result)
+                        .stream().map(JsonObject::mapFrom).collect(Collectors.toList()));
+
+                return new JsonObject().put("rooms", rooms);
+
+            case FETCH_MESSAGES:
+                MessagePage page = (MessagePage) result;
+
+                /* lists of objects need to be explicitly mapped to a list of json objects */
+                JsonArray messages =
+                    new JsonArray(page.getMessages()
+                                      .stream()
+                                      .map(JsonObject::mapFrom)
+                                      .collect(Collectors.toList()));
+
+                JsonObject jsonObject = new JsonObject().put("messages", messages);
+                if (page.hasNext()) {
+                    jsonObject.put("next", page.getNext().toJson());
+                }
+                return jsonObject;
+
+            case SEARCH_MESSAGES:
+                SearchPage searchPage = (SearchPage) result;
+
+                return new JsonObject()
+                           .put("messages", new JsonArray(searchPage.getMessages()
+                                                              .stream()
+                                                              .map(JsonObject::mapFrom)
+                                                              .collect(Collectors.toList())))
+                           .put("next", searchPage.getNext());
+
+            case ROOM_STATS:
+                JsonArray stats = new JsonArray(((List<RoomStats>) result)
+                        .stream().map(RoomStats::toJson).collect(Collectors.toList()));
+
+                return new JsonObject().put("stats", stats);
+
+            case GET_GENERAL_ROOM_UUID:
+                return new JsonObject().put("uuid", result);
+
+            default:
+                return JsonObject.mapFrom(result);
+        }
+    }
+
+    private void findCreateUserByEmail(JsonObject params, Handler<AsyncResult<UserMapper>> handler) {
+        /* fetch params */
+        String email = params.getString("email");
+
+        UserMapper cached = usersByEmail.get(email);
+        if (! Objects.isNull(cached)) {
+            handler.handle(Future.succeededFuture(cached));
+            return;
+        }
+
+        userByEmailFlights.execute(email, flightHandler -> backend.findCreateUserByEmail(email, asyncResult -> {
+            if (asyncResult.succeeded()) {
+                cacheUser(asyncResult.result());
             }
-        });
+            flightHandler.handle(asyncResult);
+        }), handler);
     }
 
     private void findCreateRoomByName(JsonObject params, Handler<AsyncResult<RoomMapper>> handler) {
         /* fetch params */
         String name = params.getString("name");
 
-        IQuery<RoomMapper> query = mongoDataStore.createQuery(RoomMapper.class);
-        query.setSearchCondition(ISearchCondition.isEqual("name", name));
-
-        QueryHelper.executeToFirstRecord(query, false, asyncResult -> {
-            if (asyncResult.failed()) {
-                handler.handle(Future.failedFuture(asyncResult.cause()));
-            } else {
-                RoomMapper result = asyncResult.result();
-                if (result != null) {
-                    handler.handle(Future.succeededFuture(result));
-                } else {
-                    /* Room does not exist. Create a new record. */
-                    RoomMapper roomMapper = new RoomMapper();
-                    roomMapper.setUuid(UUID.randomUUID().toString());
-                    roomMapper.setName(name);
-
-                    IWrite<RoomMapper> write = mongoDataStore.createWrite(RoomMapper.class);
-                    write.add(roomMapper);
+        RoomMapper cached = roomsByName.get(name);
+        if (! Objects.isNull(cached)) {
+            handler.handle(Future.succeededFuture(cached));
+            return;
+        }
 
-                    write.save(writeAsyncResult -> {
-                        if (writeAsyncResult.failed()) {
-                            handler.handle(Future.failedFuture(writeAsyncResult.cause()));
-                        } else {
-                            handler.handle(Future.succeededFuture(roomMapper));
-                        }
-                    });
-                }
+        roomByNameFlights.execute(name, flightHandler -> backend.findCreateRoomByName(name, asyncResult -> {
+            if (asyncResult.succeeded()) {
+                cacheRoom(asyncResult.result());
             }
-        });
+            flightHandler.handle(asyncResult);
+        }), handler);
     }
 
     private void findUserByUUID(JsonObject params, Handler<AsyncResult<UserMapper>> handler) {
         /* fetch params */
         String uuid = params.getString("uuid");
 
-        IQuery<UserMapper> query = mongoDataStore.createQuery(UserMapper.class);
-        query.setSearchCondition(ISearchCondition.isEqual("uuid", uuid));
+        UserMapper cached = usersByUUID.get(uuid);
+        if (! Objects.isNull(cached)) {
+            handler.handle(Future.succeededFuture(cached));
+            return;
+        }
 
-        QueryHelper.executeToFirstRecord(query, false, handler);
+        userByUUIDFlights.execute(uuid, flightHandler -> backend.findUserByUUID(uuid, asyncResult -> {
+            if (asyncResult.succeeded()) {
+                cacheUser(asyncResult.result());
+            }
+            flightHandler.handle(asyncResult);
+        }), handler);
     }
 
     private void findRoomByUUID(JsonObject params, Handler<AsyncResult<RoomMapper>> handler) {
         /* fetch params */
         String uuid = params.getString("uuid");
 
-        IQuery<RoomMapper> query = mongoDataStore.createQuery(RoomMapper.class);
-        query.setSearchCondition(ISearchCondition.isEqual("uuid", uuid));
+        RoomMapper cached = roomsByUUID.get(uuid);
+        if (! Objects.isNull(cached)) {
+            handler.handle(Future.succeededFuture(cached));
+            return;
+        }
+
+        roomByUUIDFlights.execute(uuid, flightHandler -> backend.findRoomByUUID(uuid, asyncResult -> {
+            if (asyncResult.succeeded()) {
+                cacheRoom(asyncResult.result());
+            }
+            flightHandler.handle(asyncResult);
+        }), handler);
+    }
+
+    /**
+     * Looks up many users at once: cached ones first, then all the others with a single
+     * backend query.
+     *
+     * @param params - uuids
+     * @param handler - called back with the users found, in no particular order
+     */
+    private void findUsersByUUIDs(JsonObject params, Handler<AsyncResult<List<UserMapper>>> handler) {
+        /* fetch params */
+        List<String> uuids = lookupUUIDs(params);
+        if (uuids.size() > MAX_LOOKUP_SIZE) {
+            handler.handle(Future.failedFuture(MessageFormat.format(
+                "Too many users to look up: {0} (max {1})", uuids.size(), MAX_LOOKUP_SIZE)));
+            return;
+        }
+
+        List<UserMapper> users = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (String uuid : uuids) {
+            UserMapper cached = usersByUUID.get(uuid);
+            if (Objects.isNull(cached)) {
+                missing.add(uuid);
+            } else {
+                users.add(cached);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            handler.handle(Future.succeededFuture(users));
+            return;
+        }
 
-        QueryHelper.executeToFirstRecord(query, false, handler);
+        backend.findUsersByUUIDs(missing, asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+            } else {
+                asyncResult.result().forEach(this::cacheUser);
+                users.addAll(asyncResult.result());
+                handler.handle(Future.succeededFuture(users));
+            }
+        });
+    }
+
+    /**
+     * Looks up many rooms at once: cached ones first, then all the others with a single
+     * backend query.
+     *
+     * @param params - uuids
+     * @param handler - called back with the rooms found, in no particular order
+     */
+    private void findRoomsByUUIDs(JsonObject params, Handler<AsyncResult<List<RoomMapper>>> handler) {
+        /* fetch params */
+        List<String> uuids = lookupUUIDs(params);
+        if (uuids.size() > MAX_LOOKUP_SIZE) {
+            handler.handle(Future.failedFuture(MessageFormat.format(
+                "Too many rooms to look up: {0} (max {1})", uuids.size(), MAX_LOOKUP_SIZE)));
+            return;
+        }
+
+        List<RoomMapper> rooms = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (String uuid : uuids) {
+            RoomMapper cached = roomsByUUID.get(uuid);
+            if (Objects.isNull(cached)) {
+                missing.add(uuid);
+            } else {
+                rooms.add(cached);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            handler.handle(Future.succeededFuture(rooms));
+            return;
+        }
+
+        backend.findRoomsByUUIDs(missing, asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+            } else {
+                asyncResult.result().forEach(this::cacheRoom);
+                rooms.addAll(asyncResult.result());
+                handler.handle(Future.succeededFuture(rooms));
+            }
+        });
+    }
+
+    /**
+     * Looks up the activity of many rooms, maintained by the backend as messages are recorded.
+     *
+     * @param params - uuids
+     * @param handler - called back with the stats of each room, in the order of the uuids;
+     *                  rooms with no messages (or unknown) get empty stats
+     */
+    private void findRoomStats(JsonObject params, Handler<AsyncResult<List<RoomStats>>> handler) {
+        /* fetch params */
+        List<String> uuids = lookupUUIDs(params);
+        if (uuids.size() > MAX_LOOKUP_SIZE) {
+            handler.handle(Future.failedFuture(MessageFormat.format(
+                "Too many rooms to look up: {0} (max {1})", uuids.size(), MAX_LOOKUP_SIZE)));
+            return;
+        }
+
+        backend.findRoomStats(uuids, asyncResult -> handler.handle(asyncResult.map(found -> {
+            Map<String, RoomStats> statsByRoom = found.stream()
+                .collect(Collectors.toMap(RoomStats::getRoomUUID, stats -> stats));
+
+            return uuids.stream()
+                       .map(uuid -> statsByRoom.getOrDefault(uuid, RoomStats.empty(uuid)))
+                       .collect(Collectors.toList());
+        })));
+    }
+
+    /* distinct uuids of a multi-get */
+    private List<String> lookupUUIDs(JsonObject params) {
+        return params.getJsonArray("uuids", new JsonArray())
+                   .stream()
+                   .filter(Objects::nonNull)
+                   .map(String::valueOf)
+                   .distinct()
+                   .collect(Collectors.toList());
     }
 
     private void findRooms(JsonObject params, Handler<AsyncResult<List<RoomMapper>>> handler) {
         /* no params */
-        IQuery<RoomMapper> query = mongoDataStore.createQuery(RoomMapper.class);
-        QueryHelper.executeToList(query, handler);
+        roomsFlights.execute(FIND_ROOMS, flightHandler -> backend.findRooms(asyncResult -> {
+            if (asyncResult.succeeded()) {
+                asyncResult.result().forEach(this::cacheRoom);
+            }
+            flightHandler.handle(asyncResult);
+        }), handler);
+    }
+
+    /* null entities (not found) are never cached */
+    private void cacheUser(UserMapper user) {
+        if (! Objects.isNull(user)) {
+            usersByUUID.put(user.getUuid(), user);
+            usersByEmail.put(user.getEmail(), user);
+        }
+    }
+
+    private void cacheRoom(RoomMapper room) {
+        if (! Objects.isNull(room)) {
+            roomsByUUID.put(room.getUuid(), room);
+            roomsByName.put(room.getName(), room);
+        }
     }
 
     private void recordMessage(JsonObject params, Handler<AsyncResult<MessageMapper>> handler) {
         /* fetch params */
-        UserMapper user = params.getJsonObject("user").mapTo(UserMapper.class);
+        JsonObject userObject = params.getJsonObject("user");
         String messageText = params.getString("messageText");
-        String timeStamp = params.getString("timeStamp");
-        RoomMapper room = params.getJsonObject("room").mapTo(RoomMapper.class);
+        long timeStamp = params.getLong("timeStamp");
+        JsonObject roomObject = params.getJsonObject("room");
+
+        UserMapper user = new UserMapper();
+        user.setUuid(userObject.getString("uuid"));
+        user.setEmail(userObject.getString("email"));
+
+        RoomMapper room = new RoomMapper();
+        room.setUuid(roomObject.getString("uuid"));
+        room.setName(roomObject.getString("name"));
 
         MessageMapper messageMapper = new MessageMapper();
-        messageMapper.setAuthor(user);
         messageMapper.setText(messageText);
         messageMapper.setTimeStamp(timeStamp);
+
+        /* the backend decides whether to keep the references, or the snapshot only */
+        messageMapper.setAuthor(user);
+        messageMapper.setAuthorUuid(user.getUuid());
+        messageMapper.setAuthorEmail(user.getEmail());
         messageMapper.setRoom(room);
+        messageMapper.setRoomUuid(room.getUuid());
+
+        if (configuration.isDatabaseGroupCommitEnabled()) {
+            enqueueMessage(new PendingMessage(messageMapper, handler));
+            return;
+        }
 
-        IWrite<MessageMapper> write = mongoDataStore.createWrite(MessageMapper.class);
-        write.add(messageMapper);
-        write.save(result -> {
+        backend.recordMessages(Collections.singletonList(messageMapper), result -> {
             if (result.failed()) {
                 handler.handle(Future.failedFuture(result.cause()));
             } else {
@@ -400,19 +687,462 @@ public class DataStoreVerticle extends AbstractVerticle {
         });
     }
 
-    private void fetchMessages(JsonObject params, Handler<AsyncResult<List<MessageMapper>>> handler) {
+    /**
+     * Adds a message to the current batch. The batch is written as soon as it is full, or when
+     * the group commit window opened by its first message expires, whichever comes first.
+     *
+     * @param pendingMessage
+     */
+    private void enqueueMessage(PendingMessage pendingMessage) {
+        pendingMessages.add(pendingMessage);
+
+        if (pendingMessages.size() >= configuration.getDatabaseGroupCommitMaxBatch()) {
+            flushMessages(null);
+        } else if (groupCommitTimerID == -1) {
+            groupCommitTimerID = vertx.setTimer(configuration.getDatabaseGroupCommitWindow(), timerID -> {
+                groupCommitTimerID = -1;
+                flushMessages(null);
+            });
+        }
+    }
+
+    /**
+     * Writes all pending messages at once. Each caller is replied to when the whole batch has
+     * been written (or has failed).
+     *
+     * @param handler - notified when the batch is durable, may be null
+     */
+    private void flushMessages(Handler<AsyncResult<Void>> handler) {
+        if (groupCommitTimerID != -1) {
+            vertx.cancelTimer(groupCommitTimerID);
+            groupCommitTimerID = -1;
+        }
+
+        if (pendingMessages.isEmpty()) {
+            if (! Objects.isNull(handler)) {
+                handler.handle(Future.succeededFuture());
+            }
+            return;
+        }
+
+        final List<PendingMessage> batch = pendingMessages;
+        pendingMessages = new ArrayList<>();
+
+        List<MessageMapper> messages = batch.stream()
+                                            .map(pending -> pending.messageMapper)
+                                            .collect(Collectors.toList());
+
+        logger.debug("Writing a batch of {} messages", batch.size());
+        backend.recordMessages(messages, result -> {
+            if (result.failed()) {
+                Throwable cause = result.cause();
+                logger.error("Could not write a batch of {} messages: {}", batch.size(), cause.toString());
+                batch.forEach(pending -> pending.handler.handle(Future.failedFuture(cause)));
+            } else {
+                batch.forEach(pending -> pending.handler.handle(Future.succeededFuture(pending.messageMapper)));
+            }
+
+            if (! Objects.isNull(handler)) {
+                handler.handle(result.failed() ?
+                                   Future.failedFuture(result.cause()) : Future.succeededFuture());
+            }
+        });
+    }
+
+    /* a message waiting for its batch to be written, along with its requester */
+    final private static class PendingMessage {
+        final MessageMapper messageMapper;
+        final Handler<AsyncResult<MessageMapper>> handler;
+
+        PendingMessage(MessageMapper messageMapper, Handler<AsyncResult<MessageMapper>> handler) {
+            this.messageMapper = messageMapper;
+            this.handler = handler;
+        }
+    }
+
+    /* ingest statistics published by a web server instance, along with their arrival time */
+    final private static class WebServerStats {
+        final JsonObject stats;
+        final long receivedAt = System.currentTimeMillis();
+
+        WebServerStats(JsonObject stats) {
+            this.stats = stats;
+        }
+    }
+
+    private void fetchMessages(JsonObject params, Handler<AsyncResult<MessagePage>> handler) {
         /* fetch params */
         String roomUUID = params.getString("roomUUID");
+        JsonObject before = params.getJsonObject("before");
+        JsonObject after = params.getJsonObject("after");
+        int limit = Math.max(1, Math.min(params.getInteger("limit", DEFAULT_FETCH_LIMIT), MAX_FETCH_LIMIT));
+
         findRoomByUUID(new JsonObject().put("uuid", roomUUID), asyncResult -> {
             if (asyncResult.failed()) {
                 handler.handle(Future.failedFuture(asyncResult.cause()));
+            } else if (Objects.isNull(asyncResult.result())) {
+                handler.handle(Future.failedFuture(MessageFormat.format("No such room: {0}", roomUUID)));
+            } else if (params.containsKey("since")) {
+                fetchMessagesSince(asyncResult.result(), params.getLong("since"), limit, handler);
+            } else if (params.getBoolean("forward", false)) {
+                RoomMapper room = asyncResult.result();
+                fetchMessagesAfter(room, Objects.isNull(after) ? null : MessageCursor.fromJson(after), limit, handler);
             } else {
+                MessageCursor cursor = Objects.isNull(before) ? null : MessageCursor.fromJson(before);
                 RoomMapper room = asyncResult.result();
-                IQuery<MessageMapper> query = mongoDataStore.createQuery(MessageMapper.class);
+                backend.fetchMessages(room.getUuid(), cursor, limit, pageAsyncResult -> {
+                    if (pageAsyncResult.failed() || pageAsyncResult.result().hasNext() ||
+                            pageAsyncResult.result().getMessages().size() >= limit) {
+                        handler.handle(pageAsyncResult);
+                    } else {
+                        /* the hot store is exhausted, carry on with the archive */
+                        fetchArchivedMessages(room, cursor, limit, pageAsyncResult.result(), handler);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Searches messages, in one room or in all of them. Archived messages are out of reach.
+     *
+     * @param params - query, roomUUID (optional), offset and limit
+     * @param handler - called back with the page of results, best match first
+     */
+    private void searchMessages(JsonObject params, Handler<AsyncResult<SearchPage>> handler) {
+        /* fetch params */
+        String query = params.getString("query", "");
+        String roomUUID = params.getString("roomUUID");
+        int offset = Math.max(0, params.getInteger("offset", 0));
+        int limit = Math.max(1, Math.min(params.getInteger("limit", DEFAULT_SEARCH_LIMIT), MAX_SEARCH_LIMIT));
+
+        if (offset + limit > MAX_SEARCH_WINDOW) {
+            handler.handle(Future.failedFuture(MessageFormat.format(
+                "Search results past the first {0} are out of reach", MAX_SEARCH_WINDOW)));
+            return;
+        }
+
+        Future<Void> roomFuture = Future.future();
+        if (Objects.isNull(roomUUID)) {
+            roomFuture.complete();
+        } else {
+            findRoomByUUID(new JsonObject().put("uuid", roomUUID), asyncResult -> {
+                if (asyncResult.failed()) {
+                    roomFuture.fail(asyncResult.cause());
+                } else if (Objects.isNull(asyncResult.result())) {
+                    roomFuture.fail(MessageFormat.format("No such room: {0}", roomUUID));
+                } else {
+                    roomFuture.complete();
+                }
+            });
+        }
+
+        roomFuture
+            .compose(v -> Future.<SearchPage>future(future ->
+                backend.searchMessages(roomUUID, query, offset, limit, future)))
+            .compose(page -> {
+                /* backends only know the rooms uuids */
+                JsonArray roomUUIDs = new JsonArray(page.getMessages().stream()
+                                                        .map(MessageMapper::getRoomUuid)
+                                                        .distinct()
+                                                        .collect(Collectors.toList()));
+
+                return Future.<List<RoomMapper>>future(future ->
+                    findRoomsByUUIDs(new JsonObject().put("uuids", roomUUIDs), future))
+                           .map(rooms -> {
+                               Map<String, RoomMapper> roomsByUUID = rooms.stream()
+                                   .collect(Collectors.toMap(RoomMapper::getUuid, room -> room));
+                               page.getMessages().forEach(message ->
+                                   message.setRoom(roomsByUUID.get(message.getRoomUuid())));
+                               return page;
+                           });
+            })
+            .setHandler(handler);
+    }
+
+    /**
+     * Completes a page of the hot store with older messages from the archive. Messages still
+     * in the hot store are never read from the archive, even if they have been archived.
+     *
+     * @param room
+     * @param before - the cursor of the original request
+     * @param limit - the size of the page
+     * @param hotPage - the hot store page, with no older messages
+     * @param handler
+     */
+    private void fetchArchivedMessages(RoomMapper room, MessageCursor before, int limit,
+                                       MessagePage hotPage, Handler<AsyncResult<MessagePage>> handler) {
+
+        List<MessageMapper> hotMessages = hotPage.getMessages();
+        MessageCursor archiveCursor = hotMessages.isEmpty() ? before : MessageCursor.of(hotMessages.get(0));
+        int archiveLimit = limit - hotMessages.size();
+
+        vertx.<List<MessageMapper>>executeBlocking(future -> {
+            try {
+                future.complete(archive.read(room.getUuid(), archiveCursor, archiveLimit));
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false, asyncResult -> {
+            if (asyncResult.failed()) {
+                handler.handle(Future.failedFuture(asyncResult.cause()));
+                return;
+            }
+
+            List<MessageMapper> archivedMessages = asyncResult.result();
+            MessageCursor next = null;
+            if (archivedMessages.size() > archiveLimit) {
+                /* the extra message only tells there is more */
+                archivedMessages = archivedMessages.subList(1, archivedMessages.size());
+                next = MessageCursor.of(archivedMessages.get(0));
+            }
+
+            List<MessageMapper> messages = new ArrayList<>(archivedMessages);
+            messages.forEach(message -> message.setRoom(room));
+            messages.addAll(hotMessages);
+
+            handler.handle(Future.succeededFuture(new MessagePage(messages, next)));
+        });
+    }
+
+    /**
+     * Reads a chunk of the history of a room forward, archived messages first. The next
+     * cursor of the page, if any, points to the newer chunk.
+     *
+     * @param room
+     * @param after - the last message of the previous chunk, or null for the oldest messages
+     * @param limit - the size of the chunk
+     * @param handler
+     */
+    private void fetchMessagesAfter(RoomMapper room, MessageCursor after, int limit,
+                                    Handler<AsyncResult<MessagePage>> handler) {
+
+        vertx.<List<MessageMapper>>executeBlocking(future -> {
+            try {
+                MessageCursor lastArchived = archive.getLastCursor(room.getUuid());
+                if (Objects.isNull(lastArchived) || (! Objects.isNull(after) && after.compareTo(lastArchived) >= 0)) {
+                    future.complete(new ArrayList<>()); /* past the archive */
+                } else {
+                    future.complete(archive.readAfter(room.getUuid(), after, limit));
+                }
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false, archiveAsyncResult -> {
+            if (archiveAsyncResult.failed()) {
+                handler.handle(Future.failedFuture(archiveAsyncResult.cause()));
+                return;
+            }
+
+            List<MessageMapper> archivedMessages = archiveAsyncResult.result();
+            archivedMessages.forEach(message -> message.setRoom(room));
+            if (archivedMessages.size() > limit) {
+                /* the extra message only tells there is more */
+                List<MessageMapper> messages = new ArrayList<>(archivedMessages.subList(0, limit));
+                handler.handle(Future.succeededFuture(
+                    new MessagePage(messages, MessageCursor.of(messages.get(limit - 1)))));
+                return;
+            }
+
+            /* carry on with the hot store, past the last archived message */
+            MessageCursor hotCursor = archivedMessages.isEmpty() ? after :
+                                          MessageCursor.of(archivedMessages.get(archivedMessages.size() - 1));
+            int hotLimit = limit - archivedMessages.size();
+
+            backend.fetchMessagesAfter(room.getUuid(), hotCursor, hotLimit + 1, hotAsyncResult -> {
+                if (hotAsyncResult.failed()) {
+                    handler.handle(Future.failedFuture(hotAsyncResult.cause()));
+                    return;
+                }
+
+                List<MessageMapper> hotMessages = hotAsyncResult.result();
+                List<MessageMapper> messages = new ArrayList<>(archivedMessages);
+                messages.addAll(hotMessages.subList(0, Math.min(hotLimit, hotMessages.size())));
+
+                MessageCursor next = hotMessages.size() > hotLimit ?
+                                         MessageCursor.of(messages.get(messages.size() - 1)) : null;
+                handler.handle(Future.succeededFuture(new MessagePage(messages, next)));
+            });
+        });
+    }
+
+    /**
+     * Reads the messages of a room recorded after a given sequence number, archived messages
+     * first, like {@link #fetchMessagesAfter}. The next cursor of the page, if any, only tells
+     * there is more: clients carry on from the last sequence number they got.
+     *
+     * @param room
+     * @param since - the last sequence number known, 0 for the oldest messages
+     * @param limit - the size of the page
+     * @param handler
+     */
+    private void fetchMessagesSince(RoomMapper room, long since, int limit,
+                                    Handler<AsyncResult<MessagePage>> handler) {
+
+        vertx.<List<MessageMapper>>executeBlocking(future -> {
+            try {
+                if (since >= archive.getLastSeq(room.getUuid())) {
+                    future.complete(new ArrayList<>()); /* past the archive */
+                } else {
+                    future.complete(archive.readSince(room.getUuid(), since, limit));
+                }
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, false, archiveAsyncResult -> {
+            if (archiveAsyncResult.failed()) {
+                handler.handle(Future.failedFuture(archiveAsyncResult.cause()));
+                return;
+            }
+
+            List<MessageMapper> archivedMessages = archiveAsyncResult.result();
+            archivedMessages.forEach(message -> message.setRoom(room));
+            if (archivedMessages.size() > limit) {
+                /* the extra message only tells there is more */
+                List<MessageMapper> messages = new ArrayList<>(archivedMessages.subList(0, limit));
+                handler.handle(Future.succeededFuture(
+                    new MessagePage(messages, MessageCursor.of(messages.get(limit - 1)))));
+                return;
+            }
+
+            /* carry on with the hot store, past the last archived message */
+            long hotSince = archivedMessages.isEmpty() ? since :
+                                archivedMessages.get(archivedMessages.size() - 1).getSeq();
+            int hotLimit = limit - archivedMessages.size();
+
+            backend.fetchMessagesSince(room.getUuid(), hotSince, hotLimit + 1, hotAsyncResult -> {
+                if (hotAsyncResult.failed()) {
+                    handler.handle(Future.failedFuture(hotAsyncResult.cause()));
+                    return;
+                }
+
+                List<MessageMapper> hotMessages = hotAsyncResult.result();
+                List<MessageMapper> messages = new ArrayList<>(archivedMessages);
+                messages.addAll(hotMessages.subList(0, Math.min(hotLimit, hotMessages.size())));
+
+                MessageCursor next = hotMessages.size() > hotLimit ?
+                                         MessageCursor.of(messages.get(messages.size() - 1)) : null;
+                handler.handle(Future.succeededFuture(new MessagePage(messages, next)));
+            });
+        });
+    }
+
+    private void setupArchiving(Handler<AsyncResult<Void>> handler) {
+        if (! configuration.isDatabaseArchivingEnabled()) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+
+        /* with several instances deployed, only one of them archives */
+        LocalMap<String, String> dataStoreMap = vertx.sharedData().getLocalMap(DATA_STORE_MAP);
+        if (! Objects.isNull(dataStoreMap.putIfAbsent(ARCHIVER_KEY, instanceID))) {
+            logger.debug("Archiving is handled by another instance");
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+
+        long interval = configuration.getDatabaseRetentionArchiveInterval() * 1000L;
+        archiveTimerID = vertx.setPeriodic(interval, tick -> archiveMessages());
+        logger.info("Archiving expired messages every {} seconds",
+            configuration.getDatabaseRetentionArchiveInterval());
+
+        handler.handle(Future.succeededFuture()); /* done */
+    }
+
+    /* moves expired messages of all rooms to the archive, one room at a time */
+    private void archiveMessages() {
+        if (archiving) {
+            logger.warn("Previous archiving run still in progress, skipping");
+            return;
+        }
+
+        archiving = true;
+        backend.findRooms(asyncResult -> {
+            if (asyncResult.failed()) {
+                archiving = false;
+                logger.error("Could not archive messages: {}", asyncResult.cause().toString());
+                return;
+            }
 
-                query.setSearchCondition(ISearchCondition.isEqual("room", room.getUuid()));
-                QueryHelper.executeToList(query, handler);
+            archiveRooms(asyncResult.result().iterator());
+        });
+    }
+
+    private void archiveRooms(Iterator<RoomMapper> rooms) {
+        if (! rooms.hasNext()) {
+            archiving = false;
+            return;
+        }
+
+        RoomMapper room = rooms.next();
+        int hotDays = configuration.getDatabaseRetentionHotDays(room.getName());
+        if (hotDays == 0) {
+            archiveRooms(rooms);
+            return;
+        }
+
+        long cutoff = System.currentTimeMillis() - hotDays * DAY;
+        archiveRoom(room, cutoff, 0, asyncResult -> {
+            if (asyncResult.failed()) {
+                logger.error("Could not archive messages of room {}: {}",
+                    room.getName(), asyncResult.cause().toString());
+            } else if (asyncResult.result() > 0) {
+                logger.info("Archived {} messages of room {}", asyncResult.result(), room.getName());
             }
+            archiveRooms(rooms);
         });
     }
+
+    /**
+     * Moves the messages of a room older than the cutoff to the archive, one batch at a time:
+     * each batch is made durable in the archive before it is dropped from the hot store.
+     *
+     * @param room
+     * @param cutoff - epoch millis
+     * @param archived - the number of messages archived so far
+     * @param handler - called back with the number of messages archived
+     */
+    private void archiveRoom(RoomMapper room, long cutoff, int archived, Handler<AsyncResult<Integer>> handler) {
+        String roomUUID = room.getUuid();
+
+        Future.<MessageCursor>future(future -> vertx.executeBlocking(blocking -> {
+            try {
+                blocking.complete(archive.getLastCursor(roomUUID));
+            } catch (Exception e) {
+                blocking.fail(e);
+            }
+        }, false, future))
+            .compose(after -> Future.<List<MessageMapper>>future(future ->
+                backend.fetchExpiredMessages(roomUUID, after, cutoff, ARCHIVE_BATCH, future)))
+            .setHandler(asyncResult -> {
+                if (asyncResult.failed()) {
+                    handler.handle(Future.failedFuture(asyncResult.cause()));
+                    return;
+                }
+
+                List<MessageMapper> messages = asyncResult.result();
+                if (messages.isEmpty()) {
+                    handler.handle(Future.succeededFuture(archived));
+                    return;
+                }
+
+                MessageCursor through = MessageCursor.of(messages.get(messages.size() - 1));
+                Future.<Void>future(future -> vertx.executeBlocking(blocking -> {
+                    try {
+                        archive.append(roomUUID, messages);
+                        blocking.complete();
+                    } catch (Exception e) {
+                        blocking.fail(e);
+                    }
+                }, false, future))
+                    .compose(v -> Future.<Void>future(future -> backend.expireMessages(roomUUID, through, future)))
+                    .setHandler(expireAsyncResult -> {
+                        if (expireAsyncResult.failed()) {
+                            handler.handle(Future.failedFuture(expireAsyncResult.cause()));
+                        } else {
+                            archiveRoom(room, cutoff, archived + messages.size(), handler);
+                        }
+                    });
+            });
+    }
 }
@@ -6,10 +6,11 @@ import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import org.blackcat.chatty.codecs.Codecs;
 import org.blackcat.chatty.conf.Configuration;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -20,36 +21,47 @@ public class MainVerticle extends AbstractVerticle {
     @Override
     public void start(Future<Void> startFuture) throws Exception {
 
-        List<AbstractVerticle> verticles = Arrays.asList(
-                new DataStoreVerticle(),
-                new PresenceVerticle(),
-                new WebServerVerticle());
-
-        AtomicInteger verticleCount = new AtomicInteger(verticles.size());
         JsonObject config = vertx.getOrCreateContext().config();
 
-        verticles
-                .stream()
-                .forEach(verticle -> {
-                    vertx.deployVerticle(verticle, new DeploymentOptions().setConfig(config), deployResponse -> {
-                        String simpleName = verticle.getClass().getSimpleName();
-                        if (deployResponse.failed()) {
-                            deployResponse.cause().printStackTrace();
-                            logger.error("Unable to deploy verticle {} (cause: {})",
-                                simpleName, deployResponse.cause());
-                        } else {
-                            logger.info("{} deployed successfully", verticle.getClass().getSimpleName());
-                            if (verticleCount.decrementAndGet() == 0) {
-                                logger.info("All services up and running.");
-                                startFuture.complete();
-                            }
-                        }
-                    });
-                });
-
         Configuration configuration = new Configuration(config);
         logger.info("Configuration: {}", configuration.toString());
 
+        /* objects sent between verticles are passed as they are */
+        Codecs.register(vertx.eventBus());
+
+        /* verticles are deployed by class name, so that each instance gets its own object */
+        Map<Class<? extends AbstractVerticle>, DeploymentOptions> verticles = new LinkedHashMap<>();
+        verticles.put(DataStoreVerticle.class, new DeploymentOptions()
+                                                   .setConfig(config)
+                                                   .setInstances(configuration.getDataStoreInstances())
+                                                   .setWorker(configuration.isDataStoreWorker()));
+        verticles.put(PresenceVerticle.class, new DeploymentOptions()
+                                                  .setConfig(config)
+                                                  .setInstances(configuration.getPresenceInstances()));
+        verticles.put(WebServerVerticle.class, new DeploymentOptions()
+                                                   .setConfig(config)
+                                                   .setInstances(configuration.getWebServerInstances()));
+
+        AtomicInteger verticleCount = new AtomicInteger(verticles.size());
+
+        verticles.forEach((verticleClass, deploymentOptions) -> {
+            String simpleName = verticleClass.getSimpleName();
+            vertx.deployVerticle(verticleClass.getName(), deploymentOptions, deployResponse -> {
+                if (deployResponse.failed()) {
+                    deployResponse.cause().printStackTrace();
+                    logger.error("Unable to deploy verticle {} (cause: {})",
+                        simpleName, deployResponse.cause());
+                } else {
+                    logger.info("{} deployed successfully ({} instance(s){})", simpleName,
+                        deploymentOptions.getInstances(), deploymentOptions.isWorker() ? ", worker" : "");
+                    if (verticleCount.decrementAndGet() == 0) {
+                        logger.info("All services up and running.");
+                        startFuture.complete();
+                    }
+                }
+            });
+        });
+
         int timeout = configuration.getStartTimeout();
         vertx.setTimer(TimeUnit.SECONDS.toMillis(timeout), event -> {
             if (verticleCount.get() != 0) {
@@ -6,10 +6,13 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
 import io.vertx.redis.RedisClient;
 import io.vertx.redis.RedisOptions;
 import org.blackcat.chatty.conf.Configuration;
 import org.blackcat.chatty.mappers.RoomMapper;
+import org.blackcat.chatty.queries.Queries;
+import org.blackcat.chatty.queries.RoomStats;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -28,9 +31,16 @@ public class PresenceVerticle extends AbstractVerticle {
     final private static int PRESENCE_BROADCAST_INTERVAL = 1000; /* ms */
     final private static int ROOMLIST_BROADCAST_INTERVAL = 1000; /* ms */
 
+    /* local map used to elect the instance in charge of periodic broadcasts */
+    final private static String PRESENCE_MAP = "webchat.presence";
+    final private static String BROADCASTER_KEY = "broadcaster";
+
     private Logger logger;
     private RedisClient redisClient;
 
+    /* identifies this instance, when several are deployed */
+    private final String instanceID = UUID.randomUUID().toString();
+
     @Override
     public void start(Future<Void> startFuture) {
         EventBus eventBus = vertx.eventBus();
@@ -68,6 +78,14 @@ public class PresenceVerticle extends AbstractVerticle {
             future.complete();
         }, res -> {
             if (res.succeeded()) {
+                /* with several instances deployed, only one of them broadcasts */
+                LocalMap<String, String> presenceMap = vertx.sharedData().getLocalMap(PRESENCE_MAP);
+                if (! Objects.isNull(presenceMap.putIfAbsent(BROADCASTER_KEY, instanceID))) {
+                    logger.debug("Periodic updates are handled by another instance");
+                    startFuture.complete();
+                    return;
+                }
+
                 initPeriodicUpdates(done -> {
                     startFuture.complete();
                 });
@@ -80,6 +98,13 @@ public class PresenceVerticle extends AbstractVerticle {
         });
     }
 
+    @Override
+    public void stop() {
+        /* release the role, so that a later deployment can take it */
+        LocalMap<String, String> presenceMap = vertx.sharedData().getLocalMap(PRESENCE_MAP);
+        presenceMap.removeIfPresent(BROADCASTER_KEY, instanceID);
+    }
+
     private void initPeriodicUpdates(Handler<Void> handler) {
         EventBus eventBus = vertx.eventBus();
 
@@ -150,15 +175,36 @@ public class PresenceVerticle extends AbstractVerticle {
 
         /* setting up room list broadcast */
         vertx.setPeriodic(ROOMLIST_BROADCAST_INTERVAL, tick -> {
-            findRooms(vertx, roomsAsyncResult -> {
+            Queries.findRooms(vertx, roomsAsyncResult -> {
                 if (roomsAsyncResult.failed()) {
                     logger.error(roomsAsyncResult.cause().toString());
                 } else {
                     final List<RoomMapper> rooms = roomsAsyncResult.result();
+                    final List<String> roomUUIDs = rooms.stream()
+                                                       .map(RoomMapper::getUuid)
+                                                       .limit(DataStoreVerticle.MAX_LOOKUP_SIZE)
+                                                       .collect(Collectors.toList());
+
+                    /* room activity comes with the list, rooms are still listed without it */
+                    Queries.findRoomStats(vertx, roomUUIDs, statsAsyncResult -> {
+                        Map<String, RoomStats> statsByRoom = new HashMap<>();
+                        if (statsAsyncResult.failed()) {
+                            logger.warn(statsAsyncResult.cause().toString());
+                        } else {
+                            statsAsyncResult.result().forEach(stats -> statsByRoom.put(stats.getRoomUUID(), stats));
+                        }
 
-                    eventBus
-                            .publish("webchat.rooms", new JsonObject().put("rooms", new JsonArray(rooms
-                            .stream().map(JsonObject::mapFrom).collect(Collectors.toList()))));
+                        eventBus
+                                .publish("webchat.rooms", new JsonObject().put("rooms", new JsonArray(rooms
+                                .stream().map(room -> {
+                                    JsonObject jsonObject = JsonObject.mapFrom(room);
+                                    RoomStats stats = statsByRoom.get(room.getUuid());
+                                    if (! Objects.isNull(stats)) {
+                                        jsonObject.put("stats", stats.toJson());
+                                    }
+                                    return jsonObject;
+                                }).collect(Collectors.toList()))));
+                    });
                 }
             });
         });
@@ -177,51 +223,4 @@ public class PresenceVerticle extends AbstractVerticle {
             handler.handle(null);
         });
     }
-
-    /**
-     * Find all defined rooms.
-     *
-     * @param handler
-     */
-    private void findRooms(Vertx vertx, Handler<AsyncResult<List<RoomMapper>>> handler) {
-        JsonObject query = new JsonObject()
-                .put("type", DataStoreVerticle.FIND_ROOMS)
-                .put("params", new JsonObject());
-
-        vertx.eventBus().send(DataStoreVerticle.ADDRESS, query, reply -> {
-            if (reply.failed()) {
-                handler.handle(Future.failedFuture(reply.cause()));
-            } else {
-                JsonObject obj = (JsonObject) reply.result().body();
-                Objects.requireNonNull(obj);
-
-                final JsonObject result = obj.getJsonObject("result");
-                if (Objects.isNull(result)) {
-                    final JsonObject failure = obj.getJsonObject("failure");
-                    if (! Objects.isNull(failure)) {
-                        final String cause = failure.getString("cause");
-                        handler.handle(Future.failedFuture(cause));
-                    } else {
-                        handler.handle(Future.failedFuture("Malformed reply message"));
-                    }
-                } else {
-                    try {
-                        final JsonArray jsonArray = result.getJsonArray("rooms");
-                        if (Objects.isNull(jsonArray)) {
-                            handler.handle(Future.failedFuture("Null rooms list"));
-                        } else {
-                            final List<JsonObject> list = jsonArray.getList();
-                            final List<RoomMapper> rooms = list.stream()
-                                    .map(x -> x.mapTo(RoomMapper.class))
-                                    .collect(Collectors.toList());
-
-                            handler.handle(Future.succeededFuture(rooms));
-                        }
-                    } catch (ClassCastException cce) {
-                        handler.handle(Future.failedFuture(cce));
-                    }
-                }
-            }
-        });
-    }
 }
@@ -39,6 +39,14 @@ public class WebServerVerticle extends AbstractVerticle {
                             .setPassword(keystorePassword));
             }
 
+            /* gzip where clients accept it: SockJS polling and streaming transports, history, ...
+               native websockets deflate their own frames */
+            if (configuration.isCompressionEnabled()) {
+                httpServerOptions
+                    .setCompressionSupported(true)
+                    .setCompressionLevel(configuration.getCompressionLevel());
+            }
+
             MainHandler mainHandler = MainHandler.create(vertx, configuration);
             int httpPort = configuration.getHttpPort();
             vertx.createHttpServer(httpServerOptions)
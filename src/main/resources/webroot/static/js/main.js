@@ -2,69 +2,66 @@
     'use strict';
     window.WebChat = window.WebChat || {};
     window.WebChat.Channel = (function() {
-        var eventBus;
+        var transport;
         var userID;
         var roomID;
         var usersMap;
 
+        /* history paging: cursor to the next (older) page, null when exhausted */
+        var historyCursor;
+        var historyLoading;
+
+        /* incremental sync: last sequence number shown, fanouts past a gap trigger a catch-up */
+        var lastSeq;
+        var catchingUp;
+        var catchUpPending;
+
+        /* fanouts received before the first history page is shown, null afterwards */
+        var liveBuffer;
+
+        /* lines to append, in order, each waiting for its author to be known */
+        var pendingLines;
+
         /**
          * Channel initialization
          */
         var init = function(params) {
-            eventBus = new EventBus("/eventbus/");
-            eventBus.onopen = function () {
-                eventBus.registerHandler("webchat.client", function (err, msg) {
+            userID = params.userID;
+            roomID = params.roomID;
 
-                    var messageRoomID = msg.body.roomID;
-                    if (messageRoomID != roomID)
-                        return; /* discard */
+            /* binary frames on the native endpoint where supported, the event bus bridge otherwise */
+            var handlers = {
+                onopen: function() {
+                    /* presence heartbeat (500 ms), handled by any one presence instance */
+                    setInterval(function() {
+                        transport.heartbeat();
+                    }, 500);
+                },
 
-                    var $textarea = $('#room');
-                    $textarea.append(msg.body.displayText);
-                    $textarea.scrollTop($textarea[0].scrollHeight);
-                });
+                /* message records: [seq, timeStamp, authorID, text] */
+                onmessage: function(msg) {
+                    if (liveBuffer !== null) {
+                        liveBuffer.push(msg); /* the first page may have it already */
+                        return;
+                    }
+                    showLive(msg);
+                },
 
-                eventBus.registerHandler("webchat.partakers." + roomID, function (err, msg) {
-                    $('#partakers').html('');
-                    _.each(msg.body.users, function(userID) {
-                        if (userID in usersMap) {
-                            appendUser(usersMap[userID]);
-                        } else {
-                            eventBus.send("webchat.data-store", {
-                                type: "find-user-by-uuid",
-                                params: {
-                                    uuid: userID
-                                }
-                            }, function(err, msg) {
-                                var email = msg.body.result.email;
-                                usersMap[userID] = email;
-                                appendUser(usersMap[userID]);
-                            });
-                        }
+                onpartakers: function(userIDs) {
+                    resolveUsers(userIDs, function() {
+                        showPartakers(userIDs);
                     });
-                });
+                },
 
-                eventBus.registerHandler("webchat.rooms", function (err, msg) {
+                onrooms: function(rooms) {
                     $('#rooms').html('');
-                    _.each(msg.body.rooms, function(room) {
+                    _.each(rooms, function(room) {
                         appendRoom(room);
                     });
-                });
-
-                /* presence heartbeat (500 ms) */
-                setInterval(function() {
-                    eventBus.publish("webchat.presence", {
-                        type: 'update-presence',
-                        params: {
-                            userID: userID,
-                            roomID: roomID
-                        }
-                    });
-                }, 500);
+                }
             };
-
-            userID = params.userID;
-            roomID = params.roomID;
+            transport = WebChat.Realtime.isSupported() ?
+                WebChat.Realtime.connect(roomID, handlers) : connectEventBus(handlers);
 
             usersMap = {};
 
@@ -73,11 +70,18 @@
                     var txt = $('#user').val();
                     if (txt.length > 0) {
 
-                        eventBus.publish("webchat.server", JSON.stringify({
-                            userID: userID,
-                            roomID: roomID,
-                            text: txt
-                        }));
+                        /* exactly one web server instance records the message, on behalf
+                           of the user and room the socket is bound to */
+                        transport.chat(txt, function (err) {
+                            if (err) {
+                                /* the room may have seen it already, but it was not recorded */
+                                var $textarea = $('#room');
+                                /* raw input, not sanitized: appended as text, never as markup */
+                                $textarea.append(document.createTextNode(
+                                    '[not saved: ' + err.message + '] ' + txt + '\n'));
+                                $textarea.scrollTop($textarea[0].scrollHeight);
+                            }
+                        });
 
                         /* clear input */
                         $('#user').val("");
@@ -85,26 +89,39 @@
                 }
             });
 
-            $.ajax({
-                type: 'GET',
-                headers: {
-                    Accept: "application/json; charset=utf-8"
-                },
-                url: '/protected/history/' + roomID
-            }).then(function (data) {
-                var $textarea = $('#room');
-                data.history.forEach(function(msg, index, array) {
-                    var msgTimestamp = msg[0];
-                    var msgAuthor = msg[1];
-                    var msgText = msg[2];
+            historyCursor = null;
+            historyLoading = false;
 
-                    var msgEntry = msgTimestamp + ' &lt;' + msgAuthor + '&gt; ' + msgText;
-                    $textarea.append(msgEntry);
+            lastSeq = 0;
+            catchingUp = false;
+            catchUpPending = false;
+
+            liveBuffer = [];
+            pendingLines = [];
+
+            /* newest page first, then older pages on scroll-up */
+            loadHistory(function(data) {
+                _.each(data.history, function(msg) {
+                    lastSeq = Math.max(lastSeq, msg[0]);
                 });
+                releaseLiveBuffer();
+
+                var $textarea = $('#room');
                 $textarea.scrollTop($textarea[0].scrollHeight);
-                console.log( '' + data.history.length + " history messages loaded");
 
                 document.getElementById("user").focus();
+            }, releaseLiveBuffer);
+
+            $('#room').on('scroll', function () {
+                if (this.scrollTop === 0 && historyCursor !== null) {
+                    var textarea = this;
+                    var prevScrollHeight = textarea.scrollHeight;
+
+                    loadHistory(function(data) {
+                        /* keep the current line in place while older lines are prepended */
+                        textarea.scrollTop = textarea.scrollHeight - prevScrollHeight;
+                    });
+                }
             });
 
             /* add collections */
@@ -117,6 +134,168 @@
                 });
         };
 
+        /**
+         * Appends a fanout, unless shown already. Past a gap, the missing messages are fetched
+         * in order instead.
+         */
+        function showLive(msg) {
+            var seq = msg[0];
+            if (seq > 0 && lastSeq > 0) {
+                if (seq <= lastSeq)
+                    return; /* shown already */
+
+                if (catchingUp || seq > lastSeq + 1) {
+                    /* missed some, fetch them in order */
+                    catchUp();
+                    return;
+                }
+            }
+
+            appendLine(msg);
+            lastSeq = Math.max(lastSeq, seq);
+        }
+
+        /* once the first page is shown (or could not be), buffered fanouts go through */
+        function releaseLiveBuffer() {
+            var buffered = liveBuffer;
+            liveBuffer = null;
+            _.each(buffered, showLive);
+        }
+
+        /* the text is sanitized html already */
+        function formatLine(msg) {
+            var msgTimestamp = new Date(msg[1]).toLocaleString();
+            var msgAuthor = usersMap[msg[2]] || msg[2];
+            var msgText = msg[3];
+
+            return msgTimestamp + ' &lt;' + msgAuthor + '&gt;: ' + msgText + '\n';
+        }
+
+        /**
+         * Appends a line to the room once its author is known, after the lines before it.
+         */
+        function appendLine(msg) {
+            var line = {
+                msg: msg,
+                ready: msg[2] in usersMap
+            };
+            pendingLines.push(line);
+
+            if (line.ready) {
+                flushLines();
+            } else {
+                resolveUsers([msg[2]], function() {
+                    line.ready = true;
+                    flushLines();
+                });
+            }
+        }
+
+        function flushLines() {
+            var $textarea = $('#room');
+            while (pendingLines.length > 0 && pendingLines[0].ready) {
+                $textarea.append(formatLine(pendingLines.shift().msg));
+            }
+            $textarea.scrollTop($textarea[0].scrollHeight);
+        }
+
+        /**
+         * Looks up the emails of the given users not known yet, all at once.
+         */
+        function resolveUsers(userIDs, callback) {
+            var unknownIDs = _.uniq(_.filter(userIDs, function(userID) {
+                return !(userID in usersMap);
+            }));
+
+            if (unknownIDs.length === 0) {
+                callback();
+                return;
+            }
+
+            transport.lookupUsers(unknownIDs, function(err, users) {
+                if (!err) {
+                    _.each(users, function(user) {
+                        usersMap[user.uuid] = user.email;
+                    });
+                }
+                callback();
+            });
+        }
+
+        /* history pages come with the emails of their authors */
+        function addUsers(users) {
+            _.each(users, function(email, userID) {
+                usersMap[userID] = email;
+            });
+        }
+
+        /**
+         * Appends the messages recorded after the last sequence number shown, page after page.
+         * Another catch-up requested meanwhile runs once this one is over.
+         */
+        function catchUp() {
+            if (catchingUp) {
+                catchUpPending = true;
+                return;
+            }
+
+            catchingUp = true;
+            catchUpPending = false;
+            getHistorySince(lastSeq, function (data) {
+                addUsers(data.users);
+                _.each(data.history, function(msg) {
+                    if (msg[0] > lastSeq) {
+                        appendLine(msg);
+                        lastSeq = msg[0];
+                    }
+                });
+
+                catchingUp = false;
+                if (data.next !== null || catchUpPending) {
+                    catchUp();
+                }
+            }, function (jqXHR, textStatus, errorThrown) {
+                catchingUp = false;
+                defaultErrorCallback(jqXHR, textStatus, errorThrown);
+            });
+        }
+
+        /**
+         * Loads one page of history (older than the current cursor) and prepends it to the room.
+         */
+        function loadHistory(successCallback, failureCallback) {
+            if (historyLoading)
+                return;
+
+            historyLoading = true;
+            getHistory(historyCursor, function (data) {
+                addUsers(data.users);
+
+                var $textarea = $('#room');
+                $textarea.prepend(_.map(data.history, formatLine).join(''));
+
+                historyCursor = data.next;
+                historyLoading = false;
+
+                successCallback(data);
+            }, function (jqXHR, textStatus, errorThrown) {
+                historyLoading = false;
+                defaultErrorCallback(jqXHR, textStatus, errorThrown);
+                if (failureCallback) {
+                    failureCallback();
+                }
+            });
+        }
+
+        function showPartakers(userIDs) {
+            $('#partakers').html('');
+            _.each(userIDs, function(userID) {
+                if (userID in usersMap) {
+                    appendUser(usersMap[userID]);
+                }
+            });
+        }
+
         function appendUser(email) {
             var list = document.getElementById('partakers');
 
@@ -139,14 +318,112 @@
             var text = document.createTextNode(room.name);
             anchor.appendChild(text);
             entry.appendChild(anchor);
+
+            /* activity: message count, last message time in the tooltip */
+            if (room.stats && room.stats.messages > 0) {
+                var badge = document.createElement('span');
+                badge.className = 'badge';
+                badge.appendChild(document.createTextNode(room.stats.messages));
+                entry.appendChild(badge);
+
+                if (room.stats.lastMessage) {
+                    entry.title = room.stats.authors + ' authors, last message ' +
+                        new Date(room.stats.lastMessage.timeStamp).toLocaleString();
+                }
+            }
             list.appendChild(entry);
         }
 
+        /**
+         * Legacy transport: the SockJS event bus bridge, JSON envelopes.
+         */
+        function connectEventBus(handlers) {
+            var eventBus = new EventBus("/eventbus/");
+            eventBus.onopen = function () {
+                eventBus.registerHandler("webchat.client." + roomID, function (err, msg) {
+                    handlers.onmessage(msg.body);
+                });
+
+                eventBus.registerHandler("webchat.partakers." + roomID, function (err, msg) {
+                    handlers.onpartakers(msg.body.users);
+                });
+
+                eventBus.registerHandler("webchat.rooms", function (err, msg) {
+                    handlers.onrooms(msg.body.rooms);
+                });
+
+                handlers.onopen();
+            };
+
+            return {
+                chat: function(text, callback) {
+                    /* point-to-point */
+                    eventBus.send("webchat.server", JSON.stringify({
+                        text: text
+                    }), function (err, msg) {
+                        callback(err, err ? null : msg.body.seq);
+                    });
+                },
+                heartbeat: function() {
+                    eventBus.send("webchat.presence", {
+                        type: 'update-presence',
+                        params: {
+                            userID: userID,
+                            roomID: roomID
+                        }
+                    });
+                },
+                lookupUsers: function(userIDs, callback) {
+                    eventBus.send("webchat.data-store", {
+                        type: "find-users-by-uuids",
+                        params: {
+                            uuids: userIDs
+                        }
+                    }, function(err, msg) {
+                        callback(err || !msg.body.result, msg && msg.body.result ? msg.body.result.users : null);
+                    });
+                }
+            };
+        }
+
         /*** ajax helpers ***/
         function defaultErrorCallback(jqXHR, textStatus, errorThrown) {
             console.warn(jqXHR.responseText);
         }
 
+        function getHistory(cursor, successCallback, errorCallback) {
+            var data = {};
+            if (cursor !== null) {
+                data.before = cursor;
+            }
+
+            $.ajax({
+                type: 'GET',
+                headers: {
+                    Accept: "application/json; charset=utf-8"
+                },
+                url: '/protected/history/' + roomID,
+                data: data,
+                success: successCallback,
+                error: errorCallback || defaultErrorCallback
+            });
+        }
+
+        function getHistorySince(seq, successCallback, errorCallback) {
+            $.ajax({
+                type: 'GET',
+                headers: {
+                    Accept: "application/json; charset=utf-8"
+                },
+                url: '/protected/history/' + roomID,
+                data: {
+                    since: seq
+                },
+                success: successCallback,
+                error: errorCallback || defaultErrorCallback
+            });
+        }
+
         function putRoom(roomName, successCallback, errorCallback) {
             $.ajax({
                 type: "PUT",
@@ -0,0 +1,255 @@
+(function() {
+    'use strict';
+    window.WebChat = window.WebChat || {};
+
+    /**
+     * Client of the native websocket endpoint. Frames hold length-prefixed records of varints
+     * and strings, as described in Frames.java. Browsers able to inflate ask for large frames
+     * to be deflated.
+     */
+    window.WebChat.Realtime = (function() {
+
+        /* client to server */
+        var CHAT = 0x01;
+        var HEARTBEAT = 0x02;
+        var LOOKUP_USERS = 0x03;
+
+        /* server to client */
+        var MESSAGE = 0x10;
+        var PARTAKERS = 0x11;
+        var ROOMS = 0x12;
+        var ACK = 0x13;
+        var ERROR = 0x14;
+        var USERS = 0x15;
+
+        /* first byte of deflated frames */
+        var DEFLATED = 0x00;
+
+        var isSupported = function() {
+            return !!(window.WebSocket && window.Uint8Array && window.TextEncoder && window.TextDecoder);
+        };
+
+        var canInflate = function() {
+            return !!(window.DecompressionStream && window.Response && window.Blob && window.Promise);
+        };
+
+        /* a promise of the frame, inflated if need be */
+        var inflate = function(buffer) {
+            var bytes = new Uint8Array(buffer);
+            if (bytes.length === 0 || bytes[0] !== DEFLATED)
+                return Promise.resolve(buffer);
+
+            var stream = new Blob([bytes.subarray(1)]).stream().pipeThrough(new DecompressionStream('deflate-raw'));
+            return new Response(stream).arrayBuffer();
+        };
+
+        function Writer(type) {
+            this.type = type;
+            this.bytes = [];
+        }
+
+        /* up to 2^53, timestamps included */
+        Writer.prototype.varint = function(value) {
+            while (value >= 0x80) {
+                this.bytes.push((value % 0x80) | 0x80);
+                value = Math.floor(value / 0x80);
+            }
+            this.bytes.push(value);
+            return this;
+        };
+
+        Writer.prototype.string = function(value) {
+            var bytes = new TextEncoder().encode(value);
+            this.varint(bytes.length);
+            for (var i = 0; i < bytes.length; ++ i) {
+                this.bytes.push(bytes[i]);
+            }
+            return this;
+        };
+
+        Writer.prototype.toFrame = function() {
+            var record = new Writer(0).varint(this.bytes.length + 1).bytes;
+            record.push(this.type);
+            return new Uint8Array(record.concat(this.bytes)).buffer;
+        };
+
+        function Reader(buffer) {
+            this.bytes = new Uint8Array(buffer);
+            this.position = 0;
+            this.end = 0;
+        }
+
+        /* the type of the next record, -1 at the end of the frame */
+        Reader.prototype.next = function() {
+            this.position = this.end;
+            if (this.position >= this.bytes.length)
+                return -1;
+
+            var length = this.varint();
+            this.end = this.position + length;
+            return this.bytes[this.position ++];
+        };
+
+        Reader.prototype.varint = function() {
+            var value = 0;
+            var scale = 1;
+            var b;
+            do {
+                b = this.bytes[this.position ++];
+                value += (b & 0x7f) * scale;
+                scale *= 0x80;
+            } while (b & 0x80);
+            return value;
+        };
+
+        Reader.prototype.string = function() {
+            var length = this.varint();
+            var value = new TextDecoder().decode(this.bytes.subarray(this.position, this.position + length));
+            this.position += length;
+            return value;
+        };
+
+        /**
+         * Opens the socket of a room. Handlers: onopen(), onmessage([seq, timeStamp, authorID, text]),
+         * onpartakers(userIDs), onrooms(rooms).
+         */
+        var connect = function(roomID, handlers) {
+            var scheme = window.location.protocol === 'https:' ? 'wss://' : 'ws://';
+            var deflate = canInflate();
+            var socket = new WebSocket(scheme + window.location.host + '/realtime?room=' + encodeURIComponent(roomID) +
+                                       (deflate ? '&deflate=1' : ''));
+            socket.binaryType = 'arraybuffer';
+
+            /* reply callbacks, by request ID */
+            var requestID = 0;
+            var callbacks = {};
+
+            function request(writer, callback) {
+                ++ requestID;
+                callbacks[requestID] = callback;
+                socket.send(writer.toFrame());
+            }
+
+            function reply(id, err, result) {
+                var callback = callbacks[id];
+                delete callbacks[id];
+                if (callback) {
+                    callback(err, result);
+                }
+            }
+
+            socket.onopen = function() {
+                handlers.onopen();
+            };
+
+            /* frames are inflated asynchronously, handled one after the other in order */
+            var pending = deflate ? Promise.resolve() : null;
+
+            socket.onmessage = function(event) {
+                if (!deflate) {
+                    handle(event.data);
+                    return;
+                }
+
+                var data = event.data;
+                pending = pending.then(function() {
+                    return inflate(data);
+                }).then(handle).catch(function(err) {
+                    console.log('Dropped realtime frame: ' + err);
+                });
+            };
+
+            function handle(buffer) {
+                var reader = new Reader(buffer);
+                var i, count, list, id;
+                for (var type = reader.next(); type !== -1; type = reader.next()) {
+                    switch (type) {
+                        case MESSAGE:
+                            handlers.onmessage([reader.varint(), reader.varint(), reader.string(), reader.string()]);
+                            break;
+
+                        case PARTAKERS:
+                            list = [];
+                            for (count = reader.varint(), i = 0; i < count; ++ i) {
+                                list.push(reader.string());
+                            }
+                            handlers.onpartakers(list);
+                            break;
+
+                        case ROOMS:
+                            list = [];
+                            for (count = reader.varint(), i = 0; i < count; ++ i) {
+                                var room = {
+                                    uuid: reader.string(),
+                                    name: reader.string(),
+                                    stats: {
+                                        messages: reader.varint(),
+                                        authors: reader.varint()
+                                    }
+                                };
+                                var lastTimeStamp = reader.varint();
+                                if (lastTimeStamp > 0) {
+                                    room.stats.lastMessage = {
+                                        timeStamp: lastTimeStamp
+                                    };
+                                }
+                                list.push(room);
+                            }
+                            handlers.onrooms(list);
+                            break;
+
+                        case ACK:
+                            id = reader.varint();
+                            reply(id, null, reader.varint());
+                            break;
+
+                        case ERROR:
+                            id = reader.varint();
+                            reply(id, {
+                                failureCode: reader.varint(),
+                                message: reader.string()
+                            });
+                            break;
+
+                        case USERS:
+                            id = reader.varint();
+                            list = [];
+                            for (count = reader.varint(), i = 0; i < count; ++ i) {
+                                list.push({
+                                    uuid: reader.string(),
+                                    email: reader.string()
+                                });
+                            }
+                            reply(id, null, list);
+                            break;
+
+                        default:
+                            /* unknown, skipped */
+                    }
+                }
+            }
+
+            return {
+                chat: function(text, callback) {
+                    request(new Writer(CHAT).varint(requestID + 1).string(text), callback);
+                },
+                heartbeat: function() {
+                    socket.send(new Writer(HEARTBEAT).toFrame());
+                },
+                lookupUsers: function(userIDs, callback) {
+                    var writer = new Writer(LOOKUP_USERS).varint(requestID + 1).varint(userIDs.length);
+                    _.each(userIDs, function(userID) {
+                        writer.string(userID);
+                    });
+                    request(writer, callback);
+                }
+            };
+        };
+
+        return {
+            'isSupported': isSupported,
+            'connect': connect
+        };
+    })();
+
+}());
@@ -0,0 +1,96 @@
+package org.blackcat.chatty.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EntityCacheTest {
+
+    @Test
+    public void hitsAndMisses() {
+        EntityCache<String, String> cache = new EntityCache<>(2);
+        assertNull(cache.get("a"));
+
+        cache.put("a", "A");
+        assertEquals("A", cache.get("a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        EntityCache<String, String> cache = new EntityCache<>(2);
+        cache.put("a", "A");
+        cache.put("b", "B");
+
+        /* a is now the most recently used */
+        cache.get("a");
+        cache.put("c", "C");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("b"));
+        assertEquals("A", cache.get("a"));
+        assertEquals("C", cache.get("c"));
+    }
+
+    @Test
+    public void replacingDoesNotEvict() {
+        EntityCache<String, String> cache = new EntityCache<>(2);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("a", "A'");
+
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.getEvictions());
+        assertEquals("A'", cache.get("a"));
+    }
+
+    @Test
+    public void nullsAreIgnored() {
+        EntityCache<String, String> cache = new EntityCache<>(2);
+        cache.put(null, "A");
+        cache.put("a", null);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void removal() {
+        EntityCache<String, String> cache = new EntityCache<>(2);
+        cache.put("a", "A");
+        cache.remove("a");
+        cache.remove("b");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void zeroCapacityDisablesCaching() {
+        EntityCache<String, String> cache = new EntityCache<>(0);
+        cache.put("a", "A");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCapacityIsRefused() {
+        new EntityCache<String, String>(-1);
+    }
+
+    @Test
+    public void stats() {
+        EntityCache<String, String> cache = new EntityCache<>(1);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.get("a");
+        cache.get("b");
+
+        assertEquals(1, (int) cache.stats().getInteger("capacity"));
+        assertEquals(1, (int) cache.stats().getInteger("size"));
+        assertEquals(1L, (long) cache.stats().getLong("hits"));
+        assertEquals(1L, (long) cache.stats().getLong("misses"));
+        assertEquals(1L, (long) cache.stats().getLong("evictions"));
+    }
+}
@@ -0,0 +1,112 @@
+package org.blackcat.chatty.cache;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightTest {
+
+    private final SingleFlight<String, String> flights = new SingleFlight<>();
+
+    /* calls issued, to be completed by the test */
+    private final List<Handler<AsyncResult<String>>> calls = new ArrayList<>();
+
+    @Test
+    public void identicalCallsAreCoalesced() {
+        List<String> results = new ArrayList<>();
+        flights.execute("a", calls::add, asyncResult -> results.add("1:" + asyncResult.result()));
+        flights.execute("a", calls::add, asyncResult -> results.add("2:" + asyncResult.result()));
+
+        assertEquals(1, calls.size());
+        assertEquals(1, flights.size());
+        assertTrue(results.isEmpty());
+
+        calls.get(0).handle(Future.succeededFuture("A"));
+        assertEquals(2, results.size());
+        assertTrue(results.contains("1:A") && results.contains("2:A"));
+        assertEquals(0, flights.size());
+        assertEquals(1, flights.getCalls());
+        assertEquals(1, flights.getCoalesced());
+    }
+
+    @Test
+    public void distinctKeysFlyApart() {
+        List<String> results = new ArrayList<>();
+        flights.execute("a", calls::add, asyncResult -> results.add(asyncResult.result()));
+        flights.execute("b", calls::add, asyncResult -> results.add(asyncResult.result()));
+        assertEquals(2, calls.size());
+
+        calls.get(1).handle(Future.succeededFuture("B"));
+        assertEquals(1, flights.size());
+        calls.get(0).handle(Future.succeededFuture("A"));
+
+        assertEquals(2, results.size());
+        assertEquals("B", results.get(0));
+        assertEquals(0, flights.getCoalesced());
+    }
+
+    @Test
+    public void failuresAreShared() {
+        List<Throwable> failures = new ArrayList<>();
+        flights.execute("a", calls::add, asyncResult -> failures.add(asyncResult.cause()));
+        flights.execute("a", calls::add, asyncResult -> failures.add(asyncResult.cause()));
+
+        calls.get(0).handle(Future.failedFuture("boom"));
+        assertEquals(2, failures.size());
+        assertEquals("boom", failures.get(0).getMessage());
+        assertEquals(0, flights.size());
+    }
+
+    @Test
+    public void resultsAreNotKept() {
+        flights.execute("a", calls::add, asyncResult -> {});
+        calls.get(0).handle(Future.succeededFuture("A"));
+
+        flights.execute("a", calls::add, asyncResult -> {});
+        assertEquals(2, calls.size());
+        assertEquals(2, flights.getCalls());
+    }
+
+    @Test
+    public void synchronousCalls() {
+        List<String> results = new ArrayList<>();
+        flights.execute("a", handler -> handler.handle(Future.succeededFuture("A")),
+            asyncResult -> results.add(asyncResult.result()));
+
+        assertEquals(1, results.size());
+        assertEquals(0, flights.size());
+    }
+
+    @Test
+    public void waitersMayCallAgain() {
+        List<String> results = new ArrayList<>();
+        flights.execute("a", calls::add, asyncResult ->
+            /* a retry from a completion handler starts a new call */
+            flights.execute("a", calls::add, retryResult -> results.add(retryResult.result())));
+
+        calls.get(0).handle(Future.failedFuture("boom"));
+        assertEquals(2, calls.size());
+        assertEquals(1, flights.size());
+
+        calls.get(1).handle(Future.succeededFuture("A"));
+        assertEquals(1, results.size());
+        assertEquals("A", results.get(0));
+    }
+
+    @Test
+    public void stats() {
+        flights.execute("a", calls::add, asyncResult -> {});
+        flights.execute("a", calls::add, asyncResult -> {});
+
+        assertEquals(1, (int) flights.stats().getInteger("inFlight"));
+        assertEquals(1L, (long) flights.stats().getLong("calls"));
+        assertEquals(1L, (long) flights.stats().getLong("coalesced"));
+    }
+}
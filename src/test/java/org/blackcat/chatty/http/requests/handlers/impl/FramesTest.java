@@ -0,0 +1,196 @@
+package org.blackcat.chatty.http.requests.handlers.impl;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class FramesTest {
+
+    @Test
+    public void varintsRoundTrip() {
+        long[] values = { 0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE };
+
+        Frames.Writer writer = new Frames.Writer(Frames.MESSAGE);
+        for (long value : values) {
+            writer.varint(value);
+        }
+
+        Frames.Reader reader = new Frames.Reader(writer.toFrame());
+        assertEquals(Frames.MESSAGE, reader.next());
+        for (long value : values) {
+            assertEquals(value, reader.varint());
+        }
+        assertEquals(-1, reader.next());
+    }
+
+    @Test
+    public void varintEncoding() {
+        /* length 3, type, 300 as LEB128 */
+        Buffer frame = new Frames.Writer(Frames.ACK).varint(300).toFrame();
+        assertEquals(Buffer.buffer(new byte[] { 3, Frames.ACK, (byte) 0xAC, 0x02 }), frame);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeVarintsAreRefused() {
+        new Frames.Writer(Frames.ACK).varint(-1);
+    }
+
+    @Test
+    public void severalRecordsPerFrame() {
+        Buffer frame = Buffer.buffer();
+        new Frames.Writer(Frames.CHAT).varint(7).string("h\u00e9llo").appendTo(frame);
+        new Frames.Writer(Frames.HEARTBEAT).appendTo(frame);
+        new Frames.Writer(Frames.LOOKUP_USERS).varint(8).varint(2).string("a").string("b").appendTo(frame);
+
+        Frames.Reader reader = new Frames.Reader(frame);
+        assertEquals(Frames.CHAT, reader.next());
+        assertEquals(7, reader.varint());
+        assertEquals("h\u00e9llo", reader.string());
+
+        assertEquals(Frames.HEARTBEAT, reader.next());
+
+        assertEquals(Frames.LOOKUP_USERS, reader.next());
+        assertEquals(8, reader.varint());
+        assertEquals(2, reader.varint());
+        assertEquals("a", reader.string());
+        assertEquals("b", reader.string());
+
+        assertEquals(-1, reader.next());
+    }
+
+    @Test
+    public void unreadFieldsAndUnknownTypesAreSkipped() {
+        Buffer frame = Buffer.buffer();
+        new Frames.Writer((byte) 0x7F).string("from a newer client").appendTo(frame);
+        new Frames.Writer(Frames.CHAT).varint(1).string("not read").appendTo(frame);
+        new Frames.Writer(Frames.HEARTBEAT).appendTo(frame);
+
+        Frames.Reader reader = new Frames.Reader(frame);
+        assertEquals(0x7F, reader.next());
+        assertEquals(Frames.CHAT, reader.next());
+        assertEquals(1, reader.varint());
+        assertEquals(Frames.HEARTBEAT, reader.next());
+        assertEquals(-1, reader.next());
+    }
+
+    @Test
+    public void emptyFrame() {
+        assertEquals(-1, new Frames.Reader(Buffer.buffer()).next());
+    }
+
+    @Test
+    public void zeroLengthRecordIsRejected() {
+        assertMalformed(bytes(0));
+    }
+
+    @Test
+    public void recordPastFrameEndIsRejected() {
+        assertMalformed(bytes(5, Frames.HEARTBEAT));
+    }
+
+    @Test
+    public void truncatedLengthIsRejected() {
+        assertMalformed(bytes(0x80));
+    }
+
+    @Test
+    public void overlongVarintIsRejected() {
+        byte[] bytes = new byte[12];
+        for (int i = 0; i < bytes.length; ++ i) {
+            bytes[i] = (byte) 0xFF;
+        }
+        assertMalformed(Buffer.buffer(bytes));
+    }
+
+    @Test
+    public void fieldsCannotReadPastTheirRecord() {
+        /* the varint of the first record runs on into the second one */
+        Buffer frame = bytes(2, Frames.CHAT, 0x81, 1, Frames.HEARTBEAT);
+
+        Frames.Reader reader = new Frames.Reader(frame);
+        assertEquals(Frames.CHAT, reader.next());
+        try {
+            reader.varint();
+            fail("Read past the end of the record");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void stringPastRecordEndIsRejected() {
+        Buffer frame = bytes(4, Frames.CHAT, 1, 10, 'a', 'b', 'c');
+
+        Frames.Reader reader = new Frames.Reader(frame);
+        assertEquals(Frames.CHAT, reader.next());
+        assertEquals(1, reader.varint());
+        try {
+            reader.string();
+            fail("Read past the end of the record");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void smallFramesAreNotDeflated() {
+        Buffer frame = new Frames.Writer(Frames.ACK).varint(1).varint(2).toFrame();
+        assertSame(frame, Frames.deflate(new Deflater(Deflater.DEFAULT_COMPRESSION, true), frame, 64));
+    }
+
+    @Test
+    public void largeFramesAreDeflated() throws DataFormatException {
+        Frames.Writer writer = new Frames.Writer(Frames.PARTAKERS).varint(100);
+        for (int i = 0; i < 100; ++ i) {
+            writer.string("00000000-0000-0000-0000-000000000000");
+        }
+        Buffer frame = writer.toFrame();
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        for (int i = 0; i < 2; ++ i) { /* the deflater is reused */
+            Buffer deflated = Frames.deflate(deflater, frame, 64);
+            assertEquals(Frames.DEFLATED, deflated.getByte(0));
+            assertFalse(deflated.length() >= frame.length());
+            assertEquals(frame, inflate(deflated));
+        }
+    }
+
+    private static void assertMalformed(Buffer frame) {
+        try {
+            new Frames.Reader(frame).next();
+            fail("Malformed frame accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static Buffer bytes(int... values) {
+        Buffer buffer = Buffer.buffer();
+        for (int value : values) {
+            buffer.appendByte((byte) value);
+        }
+        return buffer;
+    }
+
+    private static Buffer inflate(Buffer deflated) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(deflated.getBytes(1, deflated.length()));
+
+        Buffer frame = Buffer.buffer();
+        byte[] chunk = new byte[1024];
+        while (! inflater.finished()) {
+            int length = inflater.inflate(chunk);
+            if (length == 0 && inflater.needsInput()) {
+                break; /* raw deflate may need no more than it was given */
+            }
+            frame.appendBytes(chunk, 0, length);
+        }
+        inflater.end();
+        return frame;
+    }
+}
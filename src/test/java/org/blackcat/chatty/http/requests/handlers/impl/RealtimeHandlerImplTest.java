@@ -0,0 +1,27 @@
+package org.blackcat.chatty.http.requests.handlers.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RealtimeHandlerImplTest {
+
+    @Test
+    public void sameOrigin() {
+        assertTrue(RealtimeHandlerImpl.isSameOrigin("https://chat.example.org", "https://chat.example.org"));
+        assertTrue(RealtimeHandlerImpl.isSameOrigin("https://Chat.Example.org", "https://chat.example.org/"));
+        assertTrue(RealtimeHandlerImpl.isSameOrigin("https://chat.example.org:443", "https://chat.example.org"));
+        assertTrue(RealtimeHandlerImpl.isSameOrigin("http://localhost:8080", "http://localhost:8080"));
+    }
+
+    @Test
+    public void otherOrigins() {
+        assertFalse(RealtimeHandlerImpl.isSameOrigin(null, "https://chat.example.org"));
+        assertFalse(RealtimeHandlerImpl.isSameOrigin("null", "https://chat.example.org"));
+        assertFalse(RealtimeHandlerImpl.isSameOrigin("https://evil.example.org", "https://chat.example.org"));
+        assertFalse(RealtimeHandlerImpl.isSameOrigin("http://chat.example.org", "https://chat.example.org"));
+        assertFalse(RealtimeHandlerImpl.isSameOrigin("https://chat.example.org:8443", "https://chat.example.org"));
+        assertFalse(RealtimeHandlerImpl.isSameOrigin("https://chat.example.org.evil.org", "https://chat.example.org"));
+    }
+}
@@ -0,0 +1,134 @@
+package org.blackcat.chatty.search;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessageIndexTest {
+
+    private final MessageIndex index = new MessageIndex();
+
+    @Test
+    public void tokenizing() {
+        Map<String, Integer> terms = MessageIndex.tokenize("Hello, <b>hello</b> &amp; world! a 42");
+        assertEquals(Arrays.asList("hello", "world", "42"), Arrays.asList(terms.keySet().toArray()));
+        assertEquals(2, (int) terms.get("hello"));
+        assertEquals(0, MessageIndex.tokenize(null).size());
+    }
+
+    @Test
+    public void allTermsMustMatch() {
+        index.add("room", 0, "red apple");
+        index.add("room", 1, "green apple");
+        index.add("room", 2, "red car");
+
+        assertEquals(Arrays.asList(1L, 0L), offsets(index.search(null, "apple", 10)));
+        assertEquals(Arrays.asList(0L), offsets(index.search(null, "APPLE red", 10)));
+        assertEquals(0, index.search(null, "apple banana", 10).size());
+        assertEquals(0, index.search(null, "&amp; <b>", 10).size());
+    }
+
+    @Test
+    public void rarerTermsAndRepetitionsRankFirst() {
+        index.add("room", 0, "common rare");
+        index.add("room", 1, "common");
+        index.add("room", 2, "common");
+        index.add("room", 3, "common common");
+
+        /* rare weighs more than common, repeated terms more than single ones */
+        List<MessageIndex.Hit> hits = index.search(null, "common", 10);
+        assertEquals(Arrays.asList(3L, 2L, 1L, 0L), offsets(hits));
+        assertTrue(hits.get(0).getScore() > hits.get(1).getScore());
+
+        hits = index.search(null, "rare", 10);
+        assertEquals(Arrays.asList(0L), offsets(hits));
+
+        double rare = index.search(null, "rare", 1).get(0).getScore();
+        double common = index.search(null, "common", 10).get(1).getScore();
+        assertTrue(rare > common);
+    }
+
+    @Test
+    public void tiesRankNewestFirst() {
+        for (int i = 0; i < 5; ++ i) {
+            index.add("room", i, "same text");
+        }
+        assertEquals(Arrays.asList(4L, 3L, 2L, 1L, 0L), offsets(index.search(null, "same", 10)));
+    }
+
+    @Test
+    public void pagesAreSlicesOfTheRanking() {
+        for (int i = 0; i < 30; ++ i) {
+            index.add(i % 2 == 0 ? "even" : "odd", i, i % 3 == 0 ? "word word" : "word");
+        }
+
+        List<MessageIndex.Hit> all = index.search(null, "word", 100);
+        assertEquals(30, all.size());
+
+        /* a page is read from the k = offset + limit best hits, whatever k */
+        for (int offset = 0; offset < 30; offset += 7) {
+            int to = Math.min(offset + 7, 30);
+            List<MessageIndex.Hit> top = index.search(null, "word", offset + 7);
+            assertEquals(offsets(all.subList(offset, to)), offsets(top.subList(offset, to)));
+            assertEquals(rooms(all.subList(offset, to)), rooms(top.subList(offset, to)));
+        }
+    }
+
+    @Test
+    public void searchesCanBeLimitedToRooms() {
+        index.add("a", 0, "hello");
+        index.add("b", 0, "hello");
+        index.add("b", 1, "hello");
+
+        assertEquals(Arrays.asList("b", "b"), rooms(index.search(Collections.singleton("b"), "hello", 10)));
+        assertEquals(0, index.search(Collections.singleton("c"), "hello", 10).size());
+        assertEquals(3, index.search(null, "hello", 10).size());
+    }
+
+    @Test
+    public void replayedMessagesAreIgnored() {
+        index.add("room", 0, "hello");
+        index.add("room", 1, "hello");
+        index.add("room", 1, "hello");
+        index.add("room", 0, "hello");
+
+        assertEquals(Arrays.asList(1L, 0L), offsets(index.search(null, "hello", 10)));
+    }
+
+    @Test
+    public void expiredMessagesAreDropped() {
+        for (int i = 0; i < 10; ++ i) {
+            index.add("room", i, i < 5 ? "old hello" : "hello");
+        }
+
+        index.removeBefore("room", 5);
+        assertEquals(Arrays.asList(9L, 8L, 7L, 6L, 5L), offsets(index.search(null, "hello", 10)));
+        assertEquals(0, index.search(null, "old", 10).size());
+
+        /* unknown rooms are left alone */
+        index.removeBefore("other", 5);
+    }
+
+    @Test
+    public void emptyQueries() {
+        index.add("room", 0, "hello");
+        assertEquals(0, index.search(null, "", 10).size());
+        assertEquals(0, index.search(null, "a", 10).size());
+        assertEquals(0, index.search(null, "hello", 0).size());
+    }
+
+    private static List<Long> offsets(List<MessageIndex.Hit> hits) {
+        return hits.stream().map(MessageIndex.Hit::getOffset).collect(Collectors.toList());
+    }
+
+    private static List<String> rooms(List<MessageIndex.Hit> hits) {
+        return hits.stream().map(MessageIndex.Hit::getRoomUUID).collect(Collectors.toList());
+    }
+}
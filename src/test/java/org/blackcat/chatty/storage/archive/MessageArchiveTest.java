@@ -0,0 +1,96 @@
+package org.blackcat.chatty.storage.archive;
+
+import org.blackcat.chatty.mappers.MessageMapper;
+import org.blackcat.chatty.mappers.UserMapper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MessageArchiveTest {
+
+    final private static String ROOM = "room";
+    final private static long DAY = 24 * 3600 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MessageArchive archive;
+
+    @Before
+    public void setUp() {
+        archive = new MessageArchive(folder.getRoot());
+    }
+
+    @Test
+    public void emptyArchive() throws IOException {
+        assertNull(archive.getLastCursor(ROOM));
+        assertEquals(0, archive.getLastSeq(ROOM));
+        assertEquals(0, archive.read(ROOM, null, 10).size());
+    }
+
+    @Test
+    public void batchesSpanningDays() throws IOException {
+        archive.append(ROOM, Arrays.asList(message(1, DAY - 1), message(2, DAY), message(3, DAY + 1)));
+        archive.append(ROOM, Arrays.asList(message(4, 2 * DAY)));
+
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), seqs(archive.readAfter(ROOM, null, 10)));
+        assertEquals(4, archive.getLastSeq(ROOM));
+
+        /* one extra, older message tells that there is more */
+        assertEquals(Arrays.asList(2L, 3L, 4L), seqs(archive.read(ROOM, null, 2)));
+        assertEquals(Arrays.asList(3L, 4L), seqs(archive.readSince(ROOM, 2, 10)));
+    }
+
+    @Test
+    public void duplicateBatchesAreSkipped() throws IOException {
+        List<MessageMapper> batch = Arrays.asList(message(1, 10), message(2, 20));
+        archive.append(ROOM, batch);
+        archive.append(ROOM, batch);
+
+        assertEquals(Arrays.asList(1L, 2L), seqs(archive.readAfter(ROOM, null, 10)));
+    }
+
+    @Test
+    public void lastMessageFollowsOtherInstances() throws IOException {
+        MessageArchive other = new MessageArchive(folder.getRoot());
+        assertEquals(0, other.getLastSeq(ROOM));
+
+        archive.append(ROOM, Arrays.asList(message(1, 10), message(2, 20)));
+        assertEquals(2, other.getLastSeq(ROOM));
+
+        archive.append(ROOM, Arrays.asList(message(3, 30)));
+        assertEquals(3, other.getLastSeq(ROOM));
+        assertEquals(Arrays.asList(3L), seqs(other.readSince(ROOM, 2, 10)));
+    }
+
+    private static MessageMapper message(long seq, long timeStamp) {
+        UserMapper author = new UserMapper();
+        author.setUuid("author");
+        author.setEmail("author@example.com");
+
+        MessageMapper message = new MessageMapper();
+        message.setUuid(String.format("message-%04d", seq));
+        message.setSeq(seq);
+        message.setTimeStamp(timeStamp);
+        message.setText("text " + seq);
+        message.setAuthor(author);
+        message.setAuthorUuid(author.getUuid());
+        message.setAuthorEmail(author.getEmail());
+        message.setRoomUuid(ROOM);
+        return message;
+    }
+
+    private static List<Long> seqs(List<MessageMapper> messages) {
+        return new ArrayList<>(messages.stream().map(MessageMapper::getSeq).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,160 @@
+package org.blackcat.chatty.storage.impl;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.blackcat.chatty.conf.Configuration;
+import org.blackcat.chatty.mappers.MessageMapper;
+import org.blackcat.chatty.mappers.RoomMapper;
+import org.blackcat.chatty.mappers.UserMapper;
+import org.blackcat.chatty.queries.MessageCursor;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.blackcat.chatty.conf.Keys.DEFAULT_DATABASE_HOST;
+import static org.blackcat.chatty.conf.Keys.DEFAULT_DATABASE_PORT;
+
+/**
+ * Runs the backend against the MongoDB server on its default host and port, in a database of
+ * its own. Skipped when there is no server to talk to.
+ */
+@RunWith(VertxUnitRunner.class)
+public class MongoStorageBackendTest {
+
+    final private static int WRITERS = 20;
+
+    private Vertx vertx;
+
+    /* one database per test */
+    private String databaseName;
+
+    @BeforeClass
+    public static void requireMongo() {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(DEFAULT_DATABASE_HOST, DEFAULT_DATABASE_PORT), 1000);
+        } catch (IOException e) {
+            Assume.assumeNoException("No MongoDB server to run against", e);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+        databaseName = "chatty-test-" + UUID.randomUUID();
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        MongoClient mongoClient = MongoClient.createNonShared(vertx, new JsonObject()
+                                                                         .put("db_name", databaseName));
+        mongoClient.runCommand("dropDatabase", new JsonObject().put("dropDatabase", 1),
+            context.asyncAssertSuccess(v -> {
+                mongoClient.close();
+                vertx.close(context.asyncAssertSuccess());
+            }));
+    }
+
+    @Test
+    public void concurrentWritersGetDistinctSeqs(TestContext context) {
+        MongoStorageBackend first = new MongoStorageBackend(vertx, configuration());
+        MongoStorageBackend second = new MongoStorageBackend(vertx, configuration());
+
+        Future.<Void>future(first::init)
+            .compose(v -> Future.<Void>future(second::init))
+            .compose(v -> Future.<UserMapper>future(f -> first.findCreateUserByEmail("author@example.com", f)))
+            .compose(user -> Future.<RoomMapper>future(f -> first.findCreateRoomByName("room", f))
+                .compose(room -> {
+                    /* one message per write, from both backends at once */
+                    List<Future> writes = new ArrayList<>(WRITERS);
+                    for (int i = 0; i < WRITERS; ++ i) {
+                        MongoStorageBackend backend = i % 2 == 0 ? first : second;
+                        Future<Void> write = Future.future();
+                        backend.recordMessages(Collections.singletonList(message(user, room, "m" + i)), write);
+                        writes.add(write);
+                    }
+                    return CompositeFuture.all(writes).map(room);
+                }))
+            .compose(room -> Future.<List<MessageMapper>>future(f ->
+                first.fetchMessagesSince(room.getUuid(), 0, 2 * WRITERS, f)))
+            .setHandler(context.asyncAssertSuccess(messages -> {
+                context.assertEquals(WRITERS, messages.size());
+                context.assertEquals(LongStream.rangeClosed(1, WRITERS).boxed().collect(Collectors.toList()),
+                    messages.stream().map(MessageMapper::getSeq).collect(Collectors.toList()));
+
+                first.close(context.asyncAssertSuccess());
+                second.close(context.asyncAssertSuccess());
+            }));
+    }
+
+    @Test
+    public void seqsSurviveExpiry(TestContext context) {
+        MongoStorageBackend backend = new MongoStorageBackend(vertx, configuration());
+        List<MessageMapper> batch = new ArrayList<>();
+
+        Future.<Void>future(backend::init)
+            .compose(v -> Future.<UserMapper>future(f -> backend.findCreateUserByEmail("author@example.com", f)))
+            .compose(user -> Future.<RoomMapper>future(f -> backend.findCreateRoomByName("room", f))
+                .compose(room -> {
+                    for (int i = 0; i < 3; ++ i) {
+                        batch.add(message(user, room, "m" + i));
+                    }
+                    return Future.<Void>future(f -> backend.recordMessages(batch, f))
+                        .compose(v -> Future.<Void>future(f -> backend.expireMessages(room.getUuid(),
+                            MessageCursor.of(batch.get(batch.size() - 1)), f)))
+                        .compose(v -> Future.<Void>future(f -> backend.recordMessages(
+                            Collections.singletonList(message(user, room, "after")), f)))
+                        .compose(v -> Future.<List<MessageMapper>>future(f ->
+                            backend.fetchMessagesSince(room.getUuid(), 0, 10, f)));
+                }))
+            .setHandler(context.asyncAssertSuccess(messages -> {
+                /* numbering goes on after the expired messages */
+                context.assertEquals(1, messages.size());
+                context.assertEquals("after", messages.get(0).getText());
+                context.assertEquals(4L, messages.get(0).getSeq());
+
+                backend.close(context.asyncAssertSuccess());
+            }));
+    }
+
+    private Configuration configuration() {
+        return new Configuration(new JsonObject()
+                                     .put("oauth2", new JsonObject()
+                                         .put("provider", "keycloak")
+                                         .put("clientID", "chatty")
+                                         .put("clientSecret", UUID.randomUUID().toString()))
+                                     .put("redis", new JsonObject())
+                                     .put("database", new JsonObject()
+                                         .put("name", databaseName)
+                                         .put("queryPlanCheck", "off")));
+    }
+
+    private static MessageMapper message(UserMapper user, RoomMapper room, String text) {
+        MessageMapper message = new MessageMapper();
+        message.setTimeStamp(System.currentTimeMillis());
+        message.setText(text);
+        message.setAuthor(user);
+        message.setAuthorUuid(user.getUuid());
+        message.setAuthorEmail(user.getEmail());
+        message.setRoom(room);
+        message.setRoomUuid(room.getUuid());
+        return message;
+    }
+}
@@ -0,0 +1,289 @@
+package org.blackcat.chatty.storage.kafka;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import kafka.server.KafkaConfig;
+import kafka.server.KafkaServerStartable;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.blackcat.chatty.codecs.Codecs;
+import org.blackcat.chatty.conf.Configuration;
+import org.blackcat.chatty.mappers.MessageMapper;
+import org.blackcat.chatty.queries.MessageCursor;
+import org.blackcat.chatty.queries.RoomStats;
+import org.blackcat.chatty.storage.MessageIds;
+import org.blackcat.chatty.verticles.DataStoreVerticle;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the message log against a broker embedded in the test, along with its ZooKeeper.
+ */
+@RunWith(VertxUnitRunner.class)
+public class KafkaMessageLogTest {
+
+    final private static String ROOM = "room";
+    final private static String OTHER_ROOM = "other";
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static ServerCnxnFactory zooKeeper;
+    private static KafkaServerStartable broker;
+    private static String bootstrapServers;
+
+    private Vertx vertx;
+
+    /* one topic per test */
+    private String topic;
+
+    @BeforeClass
+    public static void startBroker() throws Exception {
+        File zooKeeperDirectory = folder.newFolder("zookeeper");
+        zooKeeper = NIOServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", 0), 16);
+        zooKeeper.startup(new ZooKeeperServer(zooKeeperDirectory, zooKeeperDirectory, 2000));
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        bootstrapServers = "127.0.0.1:" + port;
+
+        Properties properties = new Properties();
+        properties.put("broker.id", "0");
+        properties.put("zookeeper.connect", "127.0.0.1:" + zooKeeper.getLocalPort());
+        properties.put("listeners", "PLAINTEXT://" + bootstrapServers);
+        properties.put("log.dirs", folder.newFolder("kafka").getAbsolutePath());
+        properties.put("auto.create.topics.enable", "false");
+        properties.put("offsets.topic.replication.factor", "1");
+        properties.put("transaction.state.log.replication.factor", "1");
+        properties.put("transaction.state.log.min.isr", "1");
+        properties.put("group.initial.rebalance.delay.ms", "0");
+
+        broker = new KafkaServerStartable(new KafkaConfig(properties));
+        broker.startup();
+    }
+
+    @AfterClass
+    public static void stopBroker() {
+        if (broker != null) {
+            broker.shutdown();
+            broker.awaitShutdown();
+        }
+        if (zooKeeper != null) {
+            zooKeeper.shutdown();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+        Codecs.register(vertx.eventBus());
+        topic = "chatty.test." + UUID.randomUUID();
+    }
+
+    @After
+    public void tearDown(TestContext context) {
+        vertx.close(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void topicIsCreated(TestContext context) {
+        open().compose(this::close).setHandler(context.asyncAssertSuccess(v -> {
+            try (AdminClient adminClient = adminClient()) {
+                TopicDescription description = adminClient.describeTopics(Collections.singleton(topic))
+                                                   .all().get().get(topic);
+                context.assertEquals(2, description.partitions().size());
+            } catch (Exception e) {
+                context.fail(e);
+            }
+        }));
+    }
+
+    @Test
+    public void appendsAreNumberedPerRoom(TestContext context) {
+        List<MessageMapper> batch = Arrays.asList(message(ROOM, "a1"), message(ROOM, "a2"),
+            message(OTHER_ROOM, "b1"), message(ROOM, "a3"));
+
+        open().compose(log -> append(log, batch).compose(v -> close(log)))
+            .setHandler(context.asyncAssertSuccess(v -> {
+                context.assertEquals(Arrays.asList(1L, 2L, 1L, 3L), seqs(batch));
+
+                /* uuids tell the offsets */
+                long first = MessageIds.offsetOf(ROOM, batch.get(0).getUuid());
+                context.assertTrue(MessageIds.offsetOf(ROOM, batch.get(1).getUuid()) > first);
+            }));
+    }
+
+    @Test
+    public void replayRebuildsTheRoomIndex(TestContext context) {
+        List<MessageMapper> batch = Arrays.asList(message(ROOM, "hello world"), message(ROOM, "a2"),
+            message(OTHER_ROOM, "b1"));
+        MessageMapper next = message(ROOM, "a3");
+
+        open().compose(log -> append(log, batch).compose(v -> close(log)))
+            .compose(v -> open())
+            .compose(log -> {
+                List<RoomStats> stats = log.readRoomStats(Arrays.asList(ROOM, OTHER_ROOM, "empty"));
+                context.assertEquals(2, stats.size());
+                context.assertEquals(2L, stats.get(0).getMessages());
+                context.assertEquals(1L, stats.get(0).getAuthors());
+                context.assertEquals(1L, stats.get(1).getMessages());
+
+                /* numbering goes on after the replayed messages */
+                return append(log, Collections.singletonList(next))
+                           .compose(v -> Future.<List<MessageMapper>>future(handler ->
+                               log.readSince(ROOM, 1, 10, handler)))
+                           .compose(messages -> {
+                               context.assertEquals(Arrays.asList(2L, 3L), seqs(messages));
+                               context.assertEquals(Arrays.asList("a2", "a3"), texts(messages));
+                               return Future.<org.blackcat.chatty.queries.SearchPage>future(handler ->
+                                   log.search(ROOM, "hello", 0, 10, handler));
+                           })
+                           .compose(page -> {
+                               context.assertEquals(Arrays.asList("hello world"), texts(page.getMessages()));
+                               return close(log);
+                           });
+            })
+            .setHandler(context.asyncAssertSuccess(v -> context.assertEquals(3L, next.getSeq())));
+    }
+
+    @Test
+    public void historyIsPagedByOffset(TestContext context) {
+        List<MessageMapper> batch = new ArrayList<>();
+        for (int i = 0; i < 5; ++ i) {
+            batch.add(message(ROOM, "m" + i));
+        }
+        /* interleaved, so that the offsets of the room are not contiguous */
+        batch.add(2, message(OTHER_ROOM, "other"));
+
+        open().compose(log -> append(log, batch)
+            .compose(v -> read(log, null, 2))
+            .compose(page -> {
+                context.assertEquals(Arrays.asList("m3", "m4"), texts(page.getMessages()));
+                context.assertTrue(page.hasOlder());
+                return read(log, MessageCursor.of(page.getMessages().get(0)), 2);
+            })
+            .compose(page -> {
+                context.assertEquals(Arrays.asList("m1", "m2"), texts(page.getMessages()));
+                context.assertTrue(page.hasOlder());
+                return read(log, MessageCursor.of(page.getMessages().get(0)), 2);
+            })
+            .compose(page -> {
+                context.assertEquals(Arrays.asList("m0"), texts(page.getMessages()));
+                context.assertFalse(page.hasOlder());
+                return Future.<List<MessageMapper>>future(handler ->
+                    log.readAfter(ROOM, MessageCursor.of(page.getMessages().get(0)), 2, handler));
+            })
+            .compose(messages -> {
+                context.assertEquals(Arrays.asList("m1", "m2"), texts(messages));
+                context.assertEquals(Arrays.asList(2L, 3L), seqs(messages));
+                return close(log);
+            }))
+            .setHandler(context.asyncAssertSuccess());
+    }
+
+    @Test
+    public void tailIsFannedOut(TestContext context) {
+        List<MessageMapper> fannedOut = Collections.synchronizedList(new ArrayList<>());
+        Async async = context.async();
+
+        /* replayed records are history, only the records past the end of the topic at open
+           time are fanned out */
+        open().compose(log -> append(log, Collections.singletonList(message(ROOM, "before"))).compose(v -> close(log)))
+            .compose(v -> {
+                MessageConsumer<MessageMapper> consumer =
+                    vertx.eventBus().consumer(DataStoreVerticle.RECORDED_MESSAGES_ADDRESS, msg -> {
+                        fannedOut.add(msg.body());
+                        if (fannedOut.size() == 2) {
+                            context.assertEquals(Arrays.asList("after 1", "after 2"), texts(fannedOut));
+                            context.assertEquals(Arrays.asList(2L, 3L), seqs(fannedOut));
+                            async.complete();
+                        }
+                    });
+                return Future.<Void>future(consumer::completionHandler);
+            })
+            .compose(v -> open())
+            .compose(log -> append(log, Arrays.asList(message(ROOM, "after 1"), message(ROOM, "after 2")))
+                                .compose(v -> close(log)))
+            .setHandler(context.asyncAssertSuccess());
+    }
+
+    private Configuration configuration() {
+        return new Configuration(new JsonObject()
+                                     .put("oauth2", new JsonObject()
+                                         .put("provider", "keycloak")
+                                         .put("clientID", "chatty")
+                                         .put("clientSecret", UUID.randomUUID().toString()))
+                                     .put("redis", new JsonObject())
+                                     .put("kafka", new JsonObject()
+                                         .put("bootstrapServers", bootstrapServers)
+                                         .put("topic", topic)
+                                         .put("partitions", 2)));
+    }
+
+    private AdminClient adminClient() {
+        Properties properties = new Properties();
+        properties.put("bootstrap.servers", bootstrapServers);
+        return AdminClient.create(properties);
+    }
+
+    private Future<KafkaMessageLog> open() {
+        return Future.future(handler -> KafkaMessageLog.open(vertx, configuration(), handler));
+    }
+
+    private Future<Void> close(KafkaMessageLog log) {
+        return Future.future(log::close);
+    }
+
+    private Future<Void> append(KafkaMessageLog log, List<MessageMapper> messages) {
+        return Future.future(handler -> log.append(messages, handler));
+    }
+
+    private Future<KafkaMessageLog.HistoryRange> read(KafkaMessageLog log, MessageCursor before, int limit) {
+        return Future.future(handler -> log.read(ROOM, before, limit, handler));
+    }
+
+    private static MessageMapper message(String roomUUID, String text) {
+        MessageMapper message = new MessageMapper();
+        message.setTimeStamp(System.currentTimeMillis());
+        message.setText(text);
+        message.setAuthorUuid("author");
+        message.setAuthorEmail("author@example.com");
+        message.setRoomUuid(roomUUID);
+        return message;
+    }
+
+    private static List<Long> seqs(List<MessageMapper> messages) {
+        return messages.stream().map(MessageMapper::getSeq).collect(Collectors.toList());
+    }
+
+    private static List<String> texts(List<MessageMapper> messages) {
+        return messages.stream().map(MessageMapper::getText).collect(Collectors.toList());
+    }
+}
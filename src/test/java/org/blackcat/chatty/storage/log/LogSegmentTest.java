@@ -0,0 +1,238 @@
+package org.blackcat.chatty.storage.log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogSegmentTest {
+
+    /* small enough for an index entry every few records */
+    final private static int INDEX_INTERVAL = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogSegment segment;
+
+    @Before
+    public void setUp() throws IOException {
+        segment = LogSegment.open(folder.getRoot(), 100, INDEX_INTERVAL);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        segment.close();
+    }
+
+    @Test
+    public void emptySegment() throws IOException {
+        assertTrue(segment.isEmpty());
+        assertEquals(100, segment.getNextOffset());
+        assertEquals(-1, segment.getFirstTimeStamp());
+        assertEquals(-1, segment.getLastTimeStamp());
+        assertEquals(100, segment.offsetOf(0));
+        assertEquals(0, read(segment, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void recordsAreNumberedFromTheBaseOffset() throws IOException {
+        assertEquals(100, segment.append(10, payload(0)));
+        assertEquals(101, segment.append(10, payload(1)));
+        assertEquals(102, segment.append(20, payload(2)));
+
+        assertEquals(10, segment.getFirstTimeStamp());
+        assertEquals(20, segment.getLastTimeStamp());
+        assertEquals(list("100@10:0", "101@10:1", "102@20:2"), read(segment, 0, Long.MAX_VALUE));
+        assertEquals(list("101@10:1"), read(segment, 101, 102));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void olderRecordsAreRefused() throws IOException {
+        segment.append(20, payload(0));
+        segment.append(10, payload(1));
+    }
+
+    @Test
+    public void sparseIndexLookups() throws IOException {
+        /* timestamps 0, 0, 10, 10, 20, 20, ... */
+        for (int i = 0; i < 200; ++ i) {
+            segment.append(10 * (i / 2), payload(i));
+        }
+
+        for (int i = 0; i < 200; ++ i) {
+            assertEquals(list((100 + i) + "@" + 10 * (i / 2) + ":" + i), read(segment, 100 + i, 101 + i));
+        }
+        assertEquals(50, read(segment, 150, 200).size());
+
+        /* the first record at or after the time, then past the end */
+        for (int t = 0; t < 1000; t += 5) {
+            long expected = 100 + 2 * ((t + 9) / 10);
+            assertEquals("at " + t, expected, segment.offsetOf(t));
+        }
+        assertEquals(300, segment.offsetOf(991));
+    }
+
+    @Test
+    public void recordsAndIndexSurviveReopening() throws IOException {
+        for (int i = 0; i < 50; ++ i) {
+            segment.append(i, payload(i));
+        }
+        segment.flush();
+        segment.close();
+
+        segment = LogSegment.open(folder.getRoot(), 100, INDEX_INTERVAL);
+        assertEquals(150, segment.getNextOffset());
+        assertEquals(49, segment.getLastTimeStamp());
+        assertEquals(list("125@25:25"), read(segment, 125, 126));
+        assertEquals(125, segment.offsetOf(25));
+        assertEquals(150, segment.append(50, payload(50)));
+    }
+
+    @Test
+    public void tornTailIsCutOnOpen() throws IOException {
+        for (int i = 0; i < 20; ++ i) {
+            segment.append(i, payload(i));
+        }
+        long size = segment.getSize();
+        segment.close();
+
+        /* the last record was being written when the process died */
+        File file = segmentFile();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size - 3);
+        }
+
+        segment = LogSegment.open(folder.getRoot(), 100, INDEX_INTERVAL);
+        assertEquals(119, segment.getNextOffset());
+        assertEquals(18, segment.getLastTimeStamp());
+        assertEquals(file.length(), segment.getSize());
+
+        /* appending goes on right after the last whole record */
+        assertEquals(119, segment.append(19, payload(19)));
+        assertEquals(20, read(segment, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void trailingGarbageIsCutOnOpen() throws IOException {
+        segment.append(1, payload(1));
+        long size = segment.getSize();
+        segment.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(segmentFile(), "rw")) {
+            raf.seek(size);
+            raf.write(new byte[] { 0, 0, 0, 5, 1, 2 });
+        }
+
+        segment = LogSegment.open(folder.getRoot(), 100, INDEX_INTERVAL);
+        assertEquals(101, segment.getNextOffset());
+        assertEquals(size, segment.getSize());
+    }
+
+    @Test
+    public void checksumMismatchInTheTailCutsTheLogThere() throws IOException {
+        List<Long> positions = appendTwenty();
+        corrupt(positions.get(18) + 16);
+
+        segment = LogSegment.open(folder.getRoot(), 100, INDEX_INTERVAL);
+        assertEquals(118, segment.getNextOffset());
+        assertEquals(17, segment.getLastTimeStamp());
+        assertEquals((long) positions.get(18), segment.getSize());
+        assertEquals(list("117@17:17"), read(segment, 117, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void damagedRecordUnderAnIndexEntryIsDropped() throws IOException {
+        /* records 0-9 take 17 bytes, then 18: entries at records 0, 4, 8, 12 and 16 */
+        List<Long> positions = appendTwenty();
+        corrupt(positions.get(16) + 8);
+
+        /* the entry is dropped, and the tail recovered from the previous one */
+        segment = LogSegment.open(folder.getRoot(), 100, INDEX_INTERVAL);
+        assertEquals(116, segment.getNextOffset());
+        assertEquals(15, segment.getLastTimeStamp());
+        assertEquals(116, segment.offsetOf(16));
+        assertEquals(list("115@15:15"), read(segment, 115, Long.MAX_VALUE));
+
+        assertEquals(116, segment.append(16, payload(16)));
+        assertEquals(116, segment.offsetOf(16));
+    }
+
+    @Test
+    public void truncateDropsRecordsAndIndexEntries() throws IOException {
+        for (int i = 0; i < 100; ++ i) {
+            segment.append(i, payload(i));
+        }
+
+        segment.truncate(140);
+        assertEquals(140, segment.getNextOffset());
+        assertEquals(39, segment.getLastTimeStamp());
+        assertEquals(140, segment.offsetOf(40));
+        assertEquals(list("139@39:39"), read(segment, 139, Long.MAX_VALUE));
+
+        /* offsets are handed out again */
+        assertEquals(140, segment.append(40, payload(1000)));
+        assertEquals(list("140@40:1000"), read(segment, 140, Long.MAX_VALUE));
+
+        segment.truncate(100);
+        assertTrue(segment.isEmpty());
+        assertEquals(0, segment.getSize());
+        assertEquals(-1, segment.getLastTimeStamp());
+    }
+
+    /* appends records 0 to 19, timestamped 0 to 19, then closes the segment */
+    private List<Long> appendTwenty() throws IOException {
+        List<Long> positions = new ArrayList<>();
+        for (int i = 0; i < 20; ++ i) {
+            positions.add(segment.getSize());
+            segment.append(i, payload(i));
+        }
+        segment.close();
+        return positions;
+    }
+
+    /* flips the bits of a byte */
+    private void corrupt(long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(segmentFile(), "rw")) {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xFF);
+        }
+    }
+
+    private File segmentFile() {
+        return new File(folder.getRoot(), LogSegment.fileName(100, LogSegment.SEGMENT_SUFFIX));
+    }
+
+    private static byte[] payload(int i) {
+        return String.valueOf(i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /* offset@timeStamp:payload */
+    static List<String> read(LogSegment segment, long fromOffset, long toOffset) throws IOException {
+        List<String> records = new ArrayList<>();
+        segment.read(fromOffset, toOffset, (offset, timeStamp, payload) ->
+            records.add(offset + "@" + timeStamp + ":" + new String(payload, StandardCharsets.UTF_8)));
+        return records;
+    }
+
+    static List<String> list(String... records) {
+        List<String> list = new ArrayList<>();
+        for (String record : records) {
+            list.add(record);
+        }
+        return list;
+    }
+}
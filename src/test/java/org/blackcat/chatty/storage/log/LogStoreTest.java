@@ -0,0 +1,174 @@
+package org.blackcat.chatty.storage.log;
+
+import org.blackcat.chatty.mappers.MessageMapper;
+import org.blackcat.chatty.mappers.RoomMapper;
+import org.blackcat.chatty.mappers.UserMapper;
+import org.blackcat.chatty.queries.MessagePage;
+import org.blackcat.chatty.queries.RoomStats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogStoreTest {
+
+    final private static long SEGMENT_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogStore store;
+    private UserMapper author;
+    private RoomMapper room;
+    private RoomMapper other;
+
+    @Before
+    public void setUp() throws IOException {
+        store = LogStore.open(folder.getRoot(), SEGMENT_SIZE);
+        author = store.findCreateUserByEmail("author@example.com");
+        room = store.findCreateRoomByName("room");
+        other = store.findCreateRoomByName("other");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Test
+    public void storesAreSharedByRoot() throws IOException {
+        LogStore shared = LogStore.open(folder.getRoot(), SEGMENT_SIZE);
+        try {
+            assertSame(store, shared);
+        } finally {
+            shared.close();
+        }
+        assertSame(room, store.findRoomByUUID(room.getUuid()));
+    }
+
+    @Test
+    public void messagesAreNumberedPerRoom() throws IOException {
+        List<MessageMapper> batch = Arrays.asList(message(room, 10, "a"), message(other, 10, "b"),
+            message(room, 20, "c"));
+        store.appendMessages(batch);
+
+        assertEquals(Arrays.asList(1L, 1L, 2L), batch.stream().map(MessageMapper::getSeq).collect(Collectors.toList()));
+        assertEquals(Arrays.asList("a", "c"), texts(store.readMessages(room.getUuid(), null, 10).getMessages()));
+        assertEquals(Arrays.asList("c"), texts(store.readMessagesSince(room.getUuid(), 1, 10)));
+    }
+
+    @Test
+    public void timeStampsAreClamped() throws IOException {
+        store.appendMessages(Arrays.asList(message(room, 20, "a")));
+
+        MessageMapper late = message(room, 10, "b");
+        store.appendMessages(Arrays.asList(late));
+        assertEquals(20, late.getTimeStamp());
+    }
+
+    @Test
+    public void historyPages() throws IOException {
+        List<MessageMapper> batch = new ArrayList<>();
+        for (int i = 0; i < 25; ++ i) {
+            batch.add(message(room, i, "line " + i));
+        }
+        store.appendMessages(batch);
+
+        MessagePage page = store.readMessages(room.getUuid(), null, 10);
+        assertEquals(16, page.getMessages().get(0).getSeq());
+        assertTrue(page.hasNext());
+
+        page = store.readMessages(room.getUuid(), page.getNext(), 10);
+        assertEquals(6, page.getMessages().get(0).getSeq());
+
+        page = store.readMessages(room.getUuid(), page.getNext(), 10);
+        assertEquals(5, page.getMessages().size());
+        assertFalse(page.hasNext());
+    }
+
+    @Test
+    public void partialBatchIsRolledBack() throws IOException {
+        store.appendMessages(Arrays.asList(message(room, 10, "kept")));
+
+        /* fails past the messages of two rooms, one of which rolls a new segment */
+        List<MessageMapper> batch = new ArrayList<>();
+        for (int i = 0; i < 20; ++ i) {
+            batch.add(message(room, 20, "a line long enough to fill segments " + i));
+        }
+        batch.add(message(other, 20, "gone"));
+        MessageMapper orphan = message(room, 20, "no room");
+        orphan.setRoomUuid("no-such-room");
+        batch.add(orphan);
+
+        try {
+            store.appendMessages(batch);
+            fail("Batch recorded");
+        } catch (IOException expected) {
+        }
+
+        assertEquals(Arrays.asList("kept"), texts(store.readMessages(room.getUuid(), null, 100).getMessages()));
+        assertEquals(0, store.readMessages(other.getUuid(), null, 100).getMessages().size());
+        assertEquals(0, store.searchMessages(null, "line", 0, 10).getMessages().size());
+
+        List<RoomStats> stats = store.readRoomStats(Arrays.asList(room.getUuid(), other.getUuid()));
+        assertEquals(1, stats.size());
+        assertEquals(1, stats.get(0).getMessages());
+
+        /* sequence numbers go on where they stood */
+        MessageMapper next = message(room, 30, "next");
+        store.appendMessages(Collections.singletonList(next));
+        assertEquals(2, next.getSeq());
+        assertEquals(Arrays.asList("kept", "next"), texts(store.readMessagesSince(room.getUuid(), 0, 100)));
+    }
+
+    @Test
+    public void messagesAndIndexSurviveReopening() throws IOException {
+        store.appendMessages(Arrays.asList(message(room, 10, "hello world"), message(room, 20, "goodbye")));
+        store.close();
+
+        store = LogStore.open(folder.getRoot(), SEGMENT_SIZE);
+        room = store.findRoomByUUID(room.getUuid());
+        assertEquals("room", room.getName());
+        assertEquals(Arrays.asList("hello world"), texts(store.searchMessages(room.getUuid(), "hello", 0, 10).getMessages()));
+
+        RoomStats stats = store.readRoomStats(Collections.singletonList(room.getUuid())).get(0);
+        assertEquals(2, stats.getMessages());
+        assertEquals(1, stats.getAuthors());
+        assertEquals(20, stats.getLastMessage().getTimeStamp());
+    }
+
+    @Test
+    public void unknownRoom() throws IOException {
+        assertEquals(0, store.readMessages("no-such-room", null, 10).getMessages().size());
+        assertNull(store.findRoomByUUID("no-such-room"));
+    }
+
+    private MessageMapper message(RoomMapper room, long timeStamp, String text) {
+        MessageMapper message = new MessageMapper();
+        message.setTimeStamp(timeStamp);
+        message.setText(text);
+        message.setAuthorUuid(author.getUuid());
+        message.setAuthorEmail(author.getEmail());
+        message.setRoomUuid(room.getUuid());
+        return message;
+    }
+
+    private static List<String> texts(List<MessageMapper> messages) {
+        return messages.stream().map(MessageMapper::getText).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,131 @@
+package org.blackcat.chatty.storage.log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RoomLogTest {
+
+    /* a few records per segment */
+    final private static long SEGMENT_SIZE = 64;
+    final private static int INDEX_INTERVAL = 32;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private RoomLog roomLog;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new File(folder.getRoot(), "room");
+        roomLog = RoomLog.open(directory, SEGMENT_SIZE, INDEX_INTERVAL);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        roomLog.close();
+    }
+
+    @Test
+    public void segmentsAreRolled() throws IOException {
+        appendRecords(0, 20);
+
+        assertEquals(0, roomLog.getFirstOffset());
+        assertEquals(20, roomLog.getNextOffset());
+        assertEquals(19, roomLog.getLastTimeStamp());
+        assertEquals(true, segmentFiles() > 1);
+
+        assertEquals(20, read(0, Long.MAX_VALUE).size());
+        assertEquals(list("7", "8", "9", "10", "11", "12"), read(7, 13));
+        assertEquals(13, roomLog.offsetOf(13));
+        assertEquals(20, roomLog.offsetOf(20));
+    }
+
+    @Test
+    public void segmentsAreFoundOnReopening() throws IOException {
+        appendRecords(0, 20);
+        roomLog.flush();
+        roomLog.close();
+
+        roomLog = RoomLog.open(directory, SEGMENT_SIZE, INDEX_INTERVAL);
+        assertEquals(20, roomLog.getNextOffset());
+        assertEquals(19, roomLog.getLastTimeStamp());
+        assertEquals(20, read(0, Long.MAX_VALUE).size());
+        assertEquals(20, roomLog.append(20, payload(20)));
+    }
+
+    @Test
+    public void truncateAcrossSegments() throws IOException {
+        appendRecords(0, 20);
+        int segments = segmentFiles();
+
+        /* rolling back a batch that spilled over into new segments */
+        roomLog.truncate(5);
+        assertEquals(5, roomLog.getNextOffset());
+        assertEquals(4, roomLog.getLastTimeStamp());
+        assertEquals(true, segmentFiles() < segments);
+        assertEquals(list("0", "1", "2", "3", "4"), read(0, Long.MAX_VALUE));
+
+        appendRecords(5, 10);
+        assertEquals(10, read(0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void sealedSegmentsAreDeleted() throws IOException {
+        appendRecords(0, 20);
+        int segments = segmentFiles();
+
+        /* the first segment holds more than one record */
+        assertEquals(0, roomLog.deleteThrough(0));
+
+        int deleted = roomLog.deleteThrough(9);
+        assertEquals(true, deleted > 0);
+        assertEquals(segments - deleted, segmentFiles());
+        assertEquals(true, roomLog.getFirstOffset() <= 10);
+        assertEquals(20, roomLog.getNextOffset());
+
+        /* never the active segment */
+        roomLog.deleteThrough(Long.MAX_VALUE - 1);
+        assertEquals(1, segmentFiles());
+        assertEquals(20, roomLog.getNextOffset());
+        assertEquals(20, roomLog.append(20, payload(20)));
+    }
+
+    private void appendRecords(int from, int to) throws IOException {
+        for (int i = from; i < to; ++ i) {
+            assertEquals(i, roomLog.append(i, payload(i)));
+        }
+    }
+
+    private int segmentFiles() {
+        return directory.list((dir, name) -> name.endsWith(LogSegment.SEGMENT_SUFFIX)).length;
+    }
+
+    private List<String> read(long fromOffset, long toOffset) throws IOException {
+        List<String> records = new ArrayList<>();
+        roomLog.read(fromOffset, toOffset, (offset, timeStamp, payload) -> {
+            assertEquals(offset, timeStamp);
+            records.add(new String(payload, StandardCharsets.UTF_8));
+        });
+        return records;
+    }
+
+    private static byte[] payload(int i) {
+        return String.valueOf(i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> list(String... records) {
+        return LogSegmentTest.list(records);
+    }
+}